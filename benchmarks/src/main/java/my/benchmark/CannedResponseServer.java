@@ -0,0 +1,160 @@
+package my.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 本地回放固定响应的 HTTP 桩服务，让基准测试离线运行、结果可复现。
+ * 响应内容在 resources/my/benchmark/responses 下，取自 RestClientTest 对应操作的真实返回。
+ * 请求带 Accept: application/smile 或 application/cbor 时返回预先转换好的二进制格式。
+ */
+public class CannedResponseServer implements Closeable {
+
+    static {
+        // 默认未开启 TCP_NODELAY，响应头与响应体分两次写出时会碰上延迟确认，每个请求多出约 40ms。
+        // 这是 JVM 全局设置，JDK 只在第一次创建 HttpServer 时读取，所以在类初始化时设置一次；已显式设置时不覆盖
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, Map<XContentType, byte[]>> responses = new HashMap<>();
+
+    public CannedResponseServer(int threads) {
+        for (String name : new String[] {"info", "index", "get", "mget", "bulk", "search", "update_by_query", "analyze"}) {
+            byte[] json = load(name);
+            Map<XContentType, byte[]> formats = new EnumMap<>(XContentType.class);
+            formats.put(XContentType.JSON, json);
+            formats.put(XContentType.SMILE, convert(json, XContentType.SMILE));
+            formats.put(XContentType.CBOR, convert(json, XContentType.CBOR));
+            responses.put(name, formats);
+        }
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public HttpHost host() {
+        return new HttpHost(server.getAddress().getHostString(), server.getAddress().getPort(), "http");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) != -1) {
+                // 丢弃请求体
+            }
+        }
+        String name = route(exchange.getRequestMethod(), exchange.getRequestURI().getPath());
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        XContentType type = accept == null ? null : XContentType.fromMediaType(accept);
+        if (type != XContentType.SMILE && type != XContentType.CBOR) {
+            type = XContentType.JSON;
+        }
+        byte[] body = name == null ? null : responses.get(name).get(type);
+        exchange.getResponseHeaders().add("X-elastic-product", "Elasticsearch");
+        if (body == null) {
+            exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+            body = ("{\"error\":{\"type\":\"stub_exception\",\"reason\":\"no canned response for ["
+                    + exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath() + "]\"},\"status\":404}")
+                    .getBytes("UTF-8");
+            exchange.sendResponseHeaders(404, body.length);
+        } else {
+            exchange.getResponseHeaders().add("Content-Type",
+                    type == XContentType.JSON ? "application/json; charset=UTF-8" : type.mediaType());
+            exchange.sendResponseHeaders("index".equals(name) ? 201 : 200, body.length);
+        }
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    static String route(String method, String path) {
+        if ("/".equals(path)) {
+            return "info";
+        }
+        if (path.endsWith("/_mget")) {
+            return "mget";
+        }
+        if (path.endsWith("/_bulk")) {
+            return "bulk";
+        }
+        if (path.endsWith("/_search")) {
+            return "search";
+        }
+        if (path.endsWith("/_update_by_query")) {
+            return "update_by_query";
+        }
+        if (path.endsWith("/_analyze")) {
+            return "analyze";
+        }
+        if (path.contains("/_doc/")) {
+            return "GET".equals(method) ? "get" : "index";
+        }
+        return null;
+    }
+
+    private static byte[] load(String name) {
+        try (InputStream in = CannedResponseServer.class.getResourceAsStream("responses/" + name + ".json")) {
+            if (in == null) {
+                throw new IllegalStateException("missing canned response [" + name + "]");
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static byte[] convert(byte[] json, XContentType type) {
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, json);
+             XContentBuilder builder = XContentBuilder.builder(type.xContent())) {
+            parser.nextToken();
+            builder.copyCurrentStructure(parser);
+            return BytesReference.toBytes(BytesReference.bytes(builder));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
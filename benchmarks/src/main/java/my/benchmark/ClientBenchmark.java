@@ -0,0 +1,177 @@
+package my.benchmark;
+
+import my.client.ClientFactory;
+import my.client.ManagedClient;
+import my.client.WireFormat;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.AnalyzeRequest;
+import org.elasticsearch.client.indices.AnalyzeResponse;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.TermQueryBuilder;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.UpdateByQueryRequest;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RestClientTest 中各操作的客户端开销基准（请求构造、序列化、HTTP、响应解析），对端为 {@link CannedResponseServer}。
+ * 吞吐量与延迟分位数分别由 Throughput、SampleTime 两种模式给出，分配速率由 GC profiler 给出，见 {@link BenchmarkMain}。
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ClientBenchmark {
+
+    private static final String INDEX = "java-api-demo-idx";
+
+    /**
+     * default：RestClient.builder 默认配置；tuned：ClientFactory 调优后的连接池与选节点策略；
+     * smile：在 tuned 的基础上请求与响应使用 SMILE（见 {@link WireFormat}）。
+     */
+    @Param({"default", "tuned", "smile"})
+    public String client;
+
+    private CannedResponseServer server;
+    private ManagedClient managed;
+    private RestHighLevelClient highLevelClient;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        server = new CannedResponseServer(16);
+        if ("tuned".equals(client)) {
+            managed = ClientFactory.builder(server.host()).setMaxConnPerRoute(64).build();
+            highLevelClient = managed.client();
+        } else if ("smile".equals(client)) {
+            managed = ClientFactory.builder(server.host()).setMaxConnPerRoute(64)
+                    .setWireFormat(WireFormat.builder(XContentType.SMILE).build())
+                    .build();
+            highLevelClient = managed.client();
+        } else {
+            highLevelClient = new RestHighLevelClient(RestClient.builder(server.host()));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (managed != null) {
+            managed.close();
+        } else {
+            highLevelClient.close();
+        }
+        server.close();
+    }
+
+    @Benchmark
+    public IndexResponse index() throws IOException {
+        Map<String, Object> jsonMap = new HashMap<>();
+        jsonMap.put("author", "大黄");
+        jsonMap.put("title", "大黄的幸福生活");
+        jsonMap.put("content", "山重水复疑无路，柳暗花明又一村。");
+        return highLevelClient.index(new IndexRequest(INDEX).id("2").source(jsonMap), RequestOptions.DEFAULT);
+    }
+
+    @Benchmark
+    public GetResponse get() throws IOException {
+        return highLevelClient.get(new GetRequest(INDEX, "1"), RequestOptions.DEFAULT);
+    }
+
+    @Benchmark
+    public MultiGetResponse mget() throws IOException {
+        MultiGetRequest request = new MultiGetRequest()
+                .add(new MultiGetRequest.Item(INDEX, "1"))
+                .add(new MultiGetRequest.Item(INDEX, "3"));
+        return highLevelClient.mget(request, RequestOptions.DEFAULT);
+    }
+
+    @Benchmark
+    public BulkResponse bulk() throws IOException {
+        BulkRequest request = new BulkRequest()
+                .add(new IndexRequest(INDEX).id("3")
+                        .source(XContentType.JSON, "author", "王五", "salary", 56000.0, "title", "中华人民共和国台湾事务办公室", "content", "中华人民共和国台湾事务办公室"))
+                .add(new IndexRequest(INDEX).id("4")
+                        .source(XContentType.JSON, "author", " 赵六", "salary", 23000.0, "title", "中华人民共和国人民大会堂", "content", "中华人民共和国人民大会堂"))
+                .add(new IndexRequest(INDEX).id("5")
+                        .source(XContentType.JSON, "author", "王五", "salary", 56000.0, "title", "中国人民解放军", "content", "中国人民解放军"))
+                .add(new IndexRequest(INDEX).id("6")
+                        .source(XContentType.JSON, "author", "小明", "salary", 31000.0, "title", "国务院台湾事务办公室", "content", "国务院台湾事务办公室"))
+                .add(new IndexRequest(INDEX).id("7")
+                        .source(XContentType.JSON, "author", "李四", "salary", 38000.0, "title", "中字头股票", "content", "中字头股票"))
+                .add(new DeleteRequest(INDEX, "1"))
+                .add(new UpdateRequest(INDEX, "2")
+                        .doc(XContentType.JSON, "author", "大黄", "salary", 66000.0, "title", "中概股"));
+        return highLevelClient.bulk(request, RequestOptions.DEFAULT);
+    }
+
+    @Benchmark
+    public SearchResponse searchWithAggregation() throws IOException {
+        TermsAggregationBuilder aggregation = AggregationBuilders.terms("byAuthor").field("author");
+        aggregation.subAggregation(AggregationBuilders.count("countDoc").field("_none_"));
+        aggregation.subAggregation(AggregationBuilders.avg("average_salary").field("salary"));
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(QueryBuilders.matchQuery("content", "中国国台办"))
+                .aggregation(aggregation);
+        return highLevelClient.search(new SearchRequest(INDEX).source(source), RequestOptions.DEFAULT);
+    }
+
+    @Benchmark
+    public BulkByScrollResponse updateByQuery() throws IOException {
+        Map<String, Object> params = new HashMap<>();
+        params.put("author", "李四");
+        params.put("title", "李四的感慨");
+        params.put("content", "hello world！");
+        String code = "ctx._source.author = params.author; ctx._source.title = params.title; ctx._source.content = params.content;";
+        UpdateByQueryRequest request = new UpdateByQueryRequest(INDEX)
+                .setQuery(new TermQueryBuilder("author", "lisi"))
+                .setScript(new Script(ScriptType.INLINE, "painless", code, params));
+        return highLevelClient.updateByQuery(request, RequestOptions.DEFAULT);
+    }
+
+    @Benchmark
+    public AnalyzeResponse analyze() throws IOException {
+        AnalyzeRequest request = AnalyzeRequest.withGlobalAnalyzer("ik_smart",
+                "中华人民共和国人民大会堂",
+                "飞流直下三千尺，疑是银河落九天");
+        return highLevelClient.indices().analyze(request, RequestOptions.DEFAULT);
+    }
+}
@@ -0,0 +1,132 @@
+package my.benchmark;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON / SMILE / CBOR 的编解码开销，不经过网络：解析大量命中的搜索响应、构造 bulk 请求体。
+ * 各格式的字节数在 Setup 时打印，配合 {@link ClientBenchmark} 的 smile 客户端看端到端效果。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WireFormatBenchmark {
+
+    @Param({"JSON", "SMILE", "CBOR"})
+    public String format;
+
+    /**
+     * 搜索响应的命中数与 bulk 请求的文档数。
+     */
+    @Param({"1000"})
+    public int docs;
+
+    private XContentType type;
+    private byte[] searchResponse;
+
+    @Setup
+    public void setUp() throws IOException {
+        type = XContentType.valueOf(format);
+        searchResponse = searchResponse();
+        System.out.printf("%n%s: search response %d hits = %dB, bulk %d docs = %dB%n",
+                type, docs, searchResponse.length, docs, bulkBody().length);
+    }
+
+    @Benchmark
+    public SearchResponse parseSearchResponse() throws IOException {
+        try (XContentParser parser = type.xContent().createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, searchResponse)) {
+            return SearchResponse.fromXContent(parser);
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeBulkBody() throws IOException {
+        return bulkBody();
+    }
+
+    // 与 RestHighLevelClient 构造 bulk 请求体的方式相同：每行一个对象，以格式的分隔符结尾。
+    // CBOR 没有分隔符，_bulk 不支持，与 WireFormat 一样保持 JSON
+    private byte[] bulkBody() throws IOException {
+        XContentType bulkType = type == XContentType.CBOR ? XContentType.JSON : type;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte separator = bulkType.xContent().streamSeparator();
+        for (int i = 0; i < docs; i++) {
+            try (XContentBuilder action = XContentBuilder.builder(bulkType.xContent())) {
+                action.startObject().startObject("index")
+                        .field("_index", "java-api-demo-idx").field("_id", String.valueOf(i))
+                        .endObject().endObject();
+                BytesReference.bytes(action).writeTo(out);
+            }
+            out.write(separator);
+            try (XContentBuilder source = XContentBuilder.builder(bulkType.xContent())) {
+                document(source, i);
+                BytesReference.bytes(source).writeTo(out);
+            }
+            out.write(separator);
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] searchResponse() throws IOException {
+        try (XContentBuilder builder = XContentBuilder.builder(type.xContent())) {
+            builder.startObject()
+                    .field("took", 12)
+                    .field("timed_out", false)
+                    .startObject("_shards").field("total", 1).field("successful", 1)
+                    .field("skipped", 0).field("failed", 0).endObject()
+                    .startObject("hits")
+                    .startObject("total").field("value", docs).field("relation", "eq").endObject()
+                    .field("max_score", 1.0)
+                    .startArray("hits");
+            for (int i = 0; i < docs; i++) {
+                builder.startObject()
+                        .field("_index", "java-api-demo-idx")
+                        .field("_type", "_doc")
+                        .field("_id", String.valueOf(i))
+                        .field("_score", 1.0)
+                        .field("_source");
+                document(builder, i);
+                builder.endObject();
+            }
+            builder.endArray().endObject().endObject();
+            return BytesReference.toBytes(BytesReference.bytes(builder));
+        }
+    }
+
+    // RestClientTest 示例文档的字段（author、title、content、salary）加上几个数字字段
+    private static void document(XContentBuilder builder, int i) throws IOException {
+        builder.startObject()
+                .field("author", "王五")
+                .field("title", "Elasticsearch 客户端示例 " + i)
+                .field("content", "使用 RestHighLevelClient 写入和查询文档")
+                .field("salary", 56000.0 + i * 0.5)
+                .field("age", 20 + i % 40)
+                .field("bonus", i * 12.75)
+                .field("timestamp", 1_600_000_000_000L + i * 1000L)
+                .endObject();
+    }
+}
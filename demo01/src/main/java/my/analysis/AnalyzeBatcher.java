@@ -0,0 +1,404 @@
+package my.analysis;
+
+import my.async.AsyncClient;
+import my.cache.Cache;
+import my.client.WireFormat;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.AnalyzeRequest;
+import org.elasticsearch.client.indices.AnalyzeResponse;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.core.TimeValue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 带缓存的批量分词。按 (索引, 分析器/归一化器定义, 文本) 缓存结果；未命中的文本在一个很短的时间窗口内
+ * 按定义分组攒批，一次 _analyze 发送多段文本，再按偏移量把词元拆回各段文本。
+ * <p>
+ * _analyze 处理多段文本时偏移量是累加的（每段之间隔 1），据此拆分；
+ * 位置在每段内从第一个词元重新编号，被停用词等过滤掉的前导位置不会保留。
+ * 归一化器每段文本只产生一个词元，按顺序拆分。拆分校验失败或批量请求被拒（4xx）时退化为逐条发送。
+ * 不支持 explain。
+ */
+public class AnalyzeBatcher implements Closeable {
+
+    // Lucene Analyzer#getOffsetGap 的默认值
+    private static final int OFFSET_GAP = 1;
+
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final Cache<String, AnalyzedText> cache;
+    private final long windowNanos;
+    private final int maxBatchTexts;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService callbackExecutor;
+    private final ConcurrentMap<String, CompletableFuture<AnalyzedText>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchedTexts = new AtomicLong();
+
+    private final Map<String, Batch> pending = new HashMap<>();
+    private boolean closed = false;
+
+    public AnalyzeBatcher(RestHighLevelClient client, Cache<String, AnalyzedText> cache, TimeValue window, int maxBatchTexts) {
+        this(client, RequestOptions.DEFAULT, cache, window, maxBatchTexts);
+    }
+
+    public AnalyzeBatcher(RestHighLevelClient client, RequestOptions options, Cache<String, AnalyzedText> cache,
+                          TimeValue window, int maxBatchTexts) {
+        if (maxBatchTexts < 1) {
+            throw new IllegalArgumentException("maxBatchTexts must be >= 1");
+        }
+        this.client = client;
+        this.options = options;
+        this.cache = cache;
+        this.windowNanos = window.nanos();
+        this.maxBatchTexts = maxBatchTexts;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "analyze-batcher-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.callbackExecutor = AsyncClient.newCallbackExecutor();
+    }
+
+    /**
+     * 分析 request 中的每段文本，结果顺序与 {@link AnalyzeRequest#text()} 一致。
+     */
+    public CompletableFuture<List<AnalyzedText>> analyze(AnalyzeRequest request) {
+        if (request.explain()) {
+            throw new IllegalArgumentException("explain is not supported, use client.indices().analyze instead");
+        }
+        Definition definition;
+        try {
+            definition = Definition.of(request);
+        } catch (IOException e) {
+            CompletableFuture<List<AnalyzedText>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        List<CompletableFuture<AnalyzedText>> results = new ArrayList<>(request.text().length);
+        List<Pending> toSend = null;
+        for (String text : request.text()) {
+            String key = definition.key + '\0' + text;
+            AnalyzedText cached = cache.get(key);
+            if (cached != null) {
+                hits.increment();
+                results.add(CompletableFuture.completedFuture(cached));
+                continue;
+            }
+            misses.increment();
+            CompletableFuture<AnalyzedText> future = new CompletableFuture<>();
+            CompletableFuture<AnalyzedText> existing = inFlight.putIfAbsent(key, future);
+            if (existing != null) {
+                // 同样的文本已经在途，共用一次请求
+                results.add(existing);
+                continue;
+            }
+            results.add(future);
+            List<Pending> full = enqueue(definition, new Pending(key, text, future));
+            if (full != null) {
+                if (toSend != null) {
+                    send(definition, toSend);
+                }
+                toSend = full;
+            }
+        }
+        if (toSend != null) {
+            send(definition, toSend);
+        }
+        return AsyncClient.allOf(results);
+    }
+
+    private List<Pending> enqueue(Definition definition, Pending item) {
+        synchronized (this) {
+            if (closed) {
+                inFlight.remove(item.key, item.future);
+                throw new IllegalStateException("analyze batcher already closed");
+            }
+            Batch batch = pending.computeIfAbsent(definition.key, k -> new Batch(definition));
+            batch.items.add(item);
+            if (batch.items.size() >= maxBatchTexts) {
+                return take(definition.key).items;
+            }
+            if (batch.windowTask == null) {
+                batch.windowTask = timer.schedule(() -> flushWindow(definition.key), windowNanos, TimeUnit.NANOSECONDS);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 缓存命中次数（按文本计）。
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public double hitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * 已发送的 _analyze 请求数。
+     */
+    public long batches() {
+        return batches.get();
+    }
+
+    /**
+     * 发送的文本总数，与 {@link #batches()} 的比值即平均批大小。
+     */
+    public long batchedTexts() {
+        return batchedTexts.get();
+    }
+
+    private void flushWindow(String definitionKey) {
+        Batch batch;
+        synchronized (this) {
+            batch = take(definitionKey);
+        }
+        if (batch != null && !batch.items.isEmpty()) {
+            send(batch.definition, batch.items);
+        }
+    }
+
+    // 调用方需持有锁
+    private Batch take(String definitionKey) {
+        Batch batch = pending.remove(definitionKey);
+        if (batch != null && batch.windowTask != null) {
+            batch.windowTask.cancel(false);
+            batch.windowTask = null;
+        }
+        return batch;
+    }
+
+    private void send(Definition definition, List<Pending> items) {
+        List<String> texts = new ArrayList<>(items.size());
+        for (Pending item : items) {
+            texts.add(item.text);
+        }
+        Request request = new Request("POST", definition.index == null ? "/_analyze" : "/" + definition.index + "/_analyze");
+        try {
+            request.setJsonEntity(definition.body(texts));
+        } catch (IOException e) {
+            fail(items, e);
+            return;
+        }
+        request.setOptions(options);
+        batches.incrementAndGet();
+        batchedTexts.addAndGet(items.size());
+        client.getLowLevelClient().performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                callbackExecutor.execute(() -> {
+                    List<AnalyzedText> results;
+                    try {
+                        results = split(texts, parse(response).getTokens(), definition.normalizer);
+                    } catch (Exception e) {
+                        fail(items, e);
+                        return;
+                    }
+                    if (results == null) {
+                        sendEach(definition, items);
+                        return;
+                    }
+                    for (int i = 0; i < items.size(); i++) {
+                        Pending item = items.get(i);
+                        cache.put(item.key, results.get(i));
+                        inFlight.remove(item.key, item.future);
+                        item.future.complete(results.get(i));
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                callbackExecutor.execute(() -> {
+                    // 一段文本出错（如超过 index.analyze.max_token_count）不应连累同批的其他文本
+                    if (items.size() > 1 && e instanceof ResponseException
+                            && ((ResponseException) e).getResponse().getStatusLine().getStatusCode() < 500) {
+                        sendEach(definition, items);
+                    } else {
+                        fail(items, e);
+                    }
+                });
+            }
+        });
+    }
+
+    private void sendEach(Definition definition, List<Pending> items) {
+        for (Pending item : items) {
+            List<Pending> single = new ArrayList<>(1);
+            single.add(item);
+            send(definition, single);
+        }
+    }
+
+    private void fail(List<Pending> items, Exception e) {
+        for (Pending item : items) {
+            inFlight.remove(item.key, item.future);
+            item.future.completeExceptionally(e);
+        }
+    }
+
+    private static AnalyzeResponse parse(Response response) throws IOException {
+        try (XContentParser parser = WireFormat.xContent(response.getEntity()).createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, response.getEntity().getContent())) {
+            return AnalyzeResponse.fromXContent(parser);
+        }
+    }
+
+    /**
+     * 把多段文本一起分析得到的词元拆回各段，校验失败时返回 null。
+     */
+    static List<AnalyzedText> split(List<String> texts, List<AnalyzeResponse.AnalyzeToken> tokens, boolean normalizer) {
+        int n = texts.size();
+        List<AnalyzedText> results = new ArrayList<>(n);
+        if (n == 1) {
+            results.add(AnalyzedText.of(tokens, 0, tokens.size(), 0, 0));
+            return results;
+        }
+        if (normalizer) {
+            if (tokens.size() != n) {
+                return null;
+            }
+            for (int i = 0; i < n; i++) {
+                results.add(AnalyzedText.of(tokens, i, i + 1, 0, 0));
+            }
+            return results;
+        }
+        int t = 0;
+        int base = 0;
+        for (int i = 0; i < n; i++) {
+            int end = base + texts.get(i).length();
+            int from = t;
+            while (t < tokens.size() && tokens.get(t).getStartOffset() <= end) {
+                AnalyzeResponse.AnalyzeToken token = tokens.get(t);
+                if (token.getStartOffset() < base || token.getEndOffset() > end) {
+                    return null;
+                }
+                t++;
+            }
+            int positionBase = i == 0 || from == t ? 0 : tokens.get(from).getPosition();
+            results.add(AnalyzedText.of(tokens, from, t, base, positionBase));
+            base = end + OFFSET_GAP;
+        }
+        return t == tokens.size() ? results : null;
+    }
+
+    /**
+     * 发送尚未发出的请求后关闭。
+     */
+    @Override
+    public void close() {
+        List<Batch> rest;
+        synchronized (this) {
+            closed = true;
+            rest = new ArrayList<>(pending.size());
+            for (String key : new ArrayList<>(pending.keySet())) {
+                rest.add(take(key));
+            }
+        }
+        for (Batch batch : rest) {
+            send(batch.definition, batch.items);
+        }
+        timer.shutdown();
+    }
+
+    /**
+     * 去掉文本后的请求体，相同定义的请求才能合并，也用作缓存 key 的前缀。
+     */
+    static final class Definition {
+        final String index;
+        final Map<String, Object> body;
+        final String key;
+        final boolean normalizer;
+
+        private Definition(String index, Map<String, Object> body, String key, boolean normalizer) {
+            this.index = index;
+            this.body = body;
+            this.key = key;
+            this.normalizer = normalizer;
+        }
+
+        static Definition of(AnalyzeRequest request) throws IOException {
+            XContentBuilder builder = XContentFactory.jsonBuilder();
+            request.toXContent(builder, ToXContent.EMPTY_PARAMS);
+            Map<String, Object> body = XContentHelper.convertToMap(BytesReference.bytes(builder), true, XContentType.JSON).v2();
+            body.remove("text");
+            // 与服务端一致：指定了 normalizer，或只有过滤器没有分词器/分析器/字段时按归一化器处理
+            boolean normalizer = body.containsKey("normalizer")
+                    || (!body.containsKey("analyzer") && !body.containsKey("tokenizer") && !body.containsKey("field")
+                    && (body.containsKey("filter") || body.containsKey("char_filter")));
+            String index = request.index();
+            String key = (index == null ? "" : index) + '\0' + Strings.toString(XContentFactory.jsonBuilder().map(body));
+            return new Definition(index, body, key, normalizer);
+        }
+
+        String body(List<String> texts) throws IOException {
+            Map<String, Object> withTexts = new LinkedHashMap<>(body);
+            withTexts.put("text", texts);
+            return Strings.toString(XContentFactory.jsonBuilder().map(withTexts));
+        }
+    }
+
+    private static class Batch {
+        final Definition definition;
+        final List<Pending> items = new ArrayList<>();
+        ScheduledFuture<?> windowTask;
+
+        Batch(Definition definition) {
+            this.definition = definition;
+        }
+    }
+
+    private static class Pending {
+        final String key;
+        final String text;
+        final CompletableFuture<AnalyzedText> future;
+
+        Pending(String key, String text, CompletableFuture<AnalyzedText> future) {
+            this.key = key;
+            this.text = text;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package my.analysis;
+
+import org.elasticsearch.client.indices.AnalyzeResponse;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 一段文本的分词结果，用几个基本类型数组保存，不为每个词元创建对象，便于大量缓存。
+ * 词元的 term 拼接在一个字符串里，type 按下标引用去重后的类型表。
+ */
+public final class AnalyzedText {
+
+    // 每个词元占 STRIDE 个 int：term 结束位置、起始偏移、结束偏移、位置、位置长度
+    private static final int STRIDE = 5;
+
+    private final String terms;
+    private final int[] data;
+    private final short[] typeIds;
+    private final String[] types;
+
+    private AnalyzedText(String terms, int[] data, short[] typeIds, String[] types) {
+        this.terms = terms;
+        this.data = data;
+        this.typeIds = typeIds;
+        this.types = types;
+    }
+
+    /**
+     * 取 tokens 中 [from, to) 的词元，偏移量减去 offsetBase，位置减去 positionBase。
+     */
+    static AnalyzedText of(List<AnalyzeResponse.AnalyzeToken> tokens, int from, int to, int offsetBase, int positionBase) {
+        int size = to - from;
+        StringBuilder sb = new StringBuilder();
+        int[] data = new int[size * STRIDE];
+        short[] typeIds = new short[size];
+        List<String> types = new ArrayList<>(2);
+        for (int i = 0; i < size; i++) {
+            AnalyzeResponse.AnalyzeToken token = tokens.get(from + i);
+            sb.append(token.getTerm());
+            int d = i * STRIDE;
+            data[d] = sb.length();
+            data[d + 1] = token.getStartOffset() - offsetBase;
+            data[d + 2] = token.getEndOffset() - offsetBase;
+            data[d + 3] = token.getPosition() - positionBase;
+            data[d + 4] = token.getPositionLength();
+            int typeId = types.indexOf(token.getType());
+            if (typeId < 0) {
+                typeId = types.size();
+                types.add(token.getType());
+            }
+            typeIds[i] = (short) typeId;
+        }
+        return new AnalyzedText(sb.toString(), data, typeIds, types.toArray(new String[0]));
+    }
+
+    public int size() {
+        return typeIds.length;
+    }
+
+    public String term(int i) {
+        int start = i == 0 ? 0 : data[(i - 1) * STRIDE];
+        return terms.substring(start, data[i * STRIDE]);
+    }
+
+    public int startOffset(int i) {
+        return data[i * STRIDE + 1];
+    }
+
+    public int endOffset(int i) {
+        return data[i * STRIDE + 2];
+    }
+
+    public int position(int i) {
+        return data[i * STRIDE + 3];
+    }
+
+    public int positionLength(int i) {
+        return data[i * STRIDE + 4];
+    }
+
+    public String type(int i) {
+        return types[typeIds[i]];
+    }
+
+    /**
+     * 所有 term 的只读视图，按需截取，不预先创建字符串。
+     */
+    public List<String> terms() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return term(index);
+            }
+
+            @Override
+            public int size() {
+                return AnalyzedText.this.size();
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        AnalyzedText that = (AnalyzedText) o;
+        if (!terms.equals(that.terms) || !Arrays.equals(data, that.data)) {
+            return false;
+        }
+        for (int i = 0; i < size(); i++) {
+            if (!type(i).equals(that.type(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * terms.hashCode() + Arrays.hashCode(data);
+    }
+
+    @Override
+    public String toString() {
+        return terms().toString();
+    }
+}
@@ -0,0 +1,296 @@
+package my.async;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.CreateIndexResponse;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.index.reindex.UpdateByQueryRequest;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 基于 CompletableFuture 的异步客户端，替代 “*Async + ActionListener + Thread.sleep” 的写法。
+ * <ul>
+ *     <li>按节点数限制在途请求数，超出的请求排队而不是阻塞调用线程</li>
+ *     <li>支持超时（deadline），超时或 future.cancel() 时会取消底层 HTTP 请求</li>
+ *     <li>回调在单独的执行器上完成，JDK 支持时使用虚拟线程，不占用 HTTP IO 线程</li>
+ *     <li>关闭时尚未结束的 future（排队中或在途）以 {@link IllegalStateException} 结束</li>
+ * </ul>
+ */
+public class AsyncClient implements Closeable {
+
+    /**
+     * 对应 RestHighLevelClient 中各个 xxxAsync 方法的签名，例如 {@code client::getAsync}。
+     */
+    @FunctionalInterface
+    public interface AsyncCall<Request, Response> {
+        Cancellable call(Request request, RequestOptions options, ActionListener<Response> listener);
+    }
+
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final int permitsPerNode;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    // 尚未结束的 future，关闭时统一失败
+    private final Set<CompletableFuture<?>> outstanding = ConcurrentHashMap.newKeySet();
+    private final ExecutorService callbackExecutor;
+    private final ScheduledExecutorService timer;
+    private volatile boolean closed;
+
+    public AsyncClient(RestHighLevelClient client, int permitsPerNode) {
+        this(client, RequestOptions.DEFAULT, permitsPerNode);
+    }
+
+    /**
+     * @param permitsPerNode 每个节点的在途请求数；总上限为它乘以 RestClient 当前的节点数，
+     *                       sniffer 增减节点后从下一次提交或完成请求时起按新的节点数计算
+     */
+    public AsyncClient(RestHighLevelClient client, RequestOptions options, int permitsPerNode) {
+        if (permitsPerNode < 1) {
+            throw new IllegalArgumentException("permitsPerNode must be >= 1");
+        }
+        this.client = client;
+        this.options = options;
+        this.permitsPerNode = permitsPerNode;
+        this.callbackExecutor = newCallbackExecutor();
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "async-client-timer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 执行回调的线程池，避免在 HttpAsyncClient 的 I/O 线程上解析响应或运行调用方的回调。
+     * 虚拟线程（JDK 21+）不可用时退化为普通的缓存线程池。
+     */
+    public static ExecutorService newCallbackExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger counter = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "async-client-callback-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    public CompletableFuture<GetResponse> get(GetRequest request) {
+        return execute(request, client::getAsync, null);
+    }
+
+    public CompletableFuture<MultiGetResponse> mget(MultiGetRequest request) {
+        return execute(request, client::mgetAsync, null);
+    }
+
+    public CompletableFuture<Boolean> exists(GetRequest request) {
+        return execute(request, client::existsAsync, null);
+    }
+
+    public CompletableFuture<IndexResponse> index(IndexRequest request) {
+        return execute(request, client::indexAsync, null);
+    }
+
+    public CompletableFuture<UpdateResponse> update(UpdateRequest request) {
+        return execute(request, client::updateAsync, null);
+    }
+
+    public CompletableFuture<DeleteResponse> delete(DeleteRequest request) {
+        return execute(request, client::deleteAsync, null);
+    }
+
+    public CompletableFuture<BulkResponse> bulk(BulkRequest request) {
+        return execute(request, client::bulkAsync, null);
+    }
+
+    public CompletableFuture<SearchResponse> search(SearchRequest request) {
+        return execute(request, client::searchAsync, null);
+    }
+
+    public CompletableFuture<BulkByScrollResponse> updateByQuery(UpdateByQueryRequest request) {
+        return execute(request, client::updateByQueryAsync, null);
+    }
+
+    public CompletableFuture<BulkByScrollResponse> deleteByQuery(DeleteByQueryRequest request) {
+        return execute(request, client::deleteByQueryAsync, null);
+    }
+
+    public CompletableFuture<CreateIndexResponse> createIndex(CreateIndexRequest request) {
+        return execute(request, client.indices()::createAsync, null);
+    }
+
+    /**
+     * 执行任意异步调用。
+     *
+     * @param deadline 超时时间，null 表示不限制；超时后 future 以 {@link TimeoutException} 结束
+     */
+    public <Request, Response> CompletableFuture<Response> execute(Request request, AsyncCall<Request, Response> call,
+                                                                   TimeValue deadline) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        outstanding.add(future);
+        future.whenComplete((r, e) -> outstanding.remove(future));
+        // 先登记再检查，与 close() 并发时两边至少有一边能看到这个 future
+        if (closed) {
+            future.completeExceptionally(new IllegalStateException("async client already closed"));
+            return future;
+        }
+        AtomicReference<Cancellable> cancellable = new AtomicReference<>();
+        if (deadline != null) {
+            ScheduledFuture<?> timeout = timer.schedule(
+                    () -> future.completeExceptionally(new TimeoutException("request timed out after [" + deadline + "]")),
+                    deadline.millis(), TimeUnit.MILLISECONDS);
+            future.whenComplete((r, e) -> timeout.cancel(false));
+        }
+        // future 提前结束（超时、取消）时取消底层请求
+        future.whenComplete((r, e) -> {
+            Cancellable c = cancellable.get();
+            if (e != null && c != null) {
+                c.cancel();
+            }
+        });
+        Runnable task = () -> {
+            if (future.isDone()) {
+                release();
+                return;
+            }
+            try {
+                cancellable.set(call.call(request, options, new ActionListener<Response>() {
+                    @Override
+                    public void onResponse(Response response) {
+                        release();
+                        complete(() -> future.complete(response));
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        release();
+                        complete(() -> future.completeExceptionally(e));
+                    }
+                }));
+                if (future.isDone()) {
+                    cancellable.get().cancel();
+                }
+            } catch (RuntimeException e) {
+                release();
+                future.completeExceptionally(e);
+            }
+        };
+        pending.add(task);
+        drain();
+        return future;
+    }
+
+    /**
+     * 把一组 future 合并为一个结果列表，顺序与入参一致。
+     */
+    public static <T> CompletableFuture<List<T>> allOf(List<CompletableFuture<T>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .thenApply(v -> {
+                    List<T> results = new ArrayList<>(futures.size());
+                    for (CompletableFuture<T> f : futures) {
+                        results.add(f.join());
+                    }
+                    return results;
+                });
+    }
+
+    public int inFlightRequests() {
+        return inFlight.get();
+    }
+
+    public int pendingRequests() {
+        return pending.size();
+    }
+
+    /**
+     * 当前的在途请求上限。
+     */
+    public int maxInFlight() {
+        return permitsPerNode * Math.max(1, client.getLowLevelClient().getNodes().size());
+    }
+
+    // 关闭后执行器会拒绝任务，此时直接在当前线程结束 future
+    private void complete(Runnable completion) {
+        try {
+            callbackExecutor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            completion.run();
+        }
+    }
+
+    private void release() {
+        inFlight.decrementAndGet();
+        drain();
+    }
+
+    // 有空闲许可时从队列取任务执行
+    private void drain() {
+        int maxInFlight = maxInFlight();
+        while (!pending.isEmpty()) {
+            int current = inFlight.get();
+            if (current >= maxInFlight) {
+                return;
+            }
+            if (!inFlight.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            Runnable task = pending.poll();
+            if (task == null) {
+                inFlight.decrementAndGet();
+                continue;
+            }
+            task.run();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        pending.clear();
+        IllegalStateException failure = new IllegalStateException("async client closed");
+        // 在途请求的 future 结束时会取消底层 HTTP 请求
+        for (CompletableFuture<?> future : outstanding) {
+            future.completeExceptionally(failure);
+        }
+        timer.shutdownNow();
+        callbackExecutor.shutdown();
+    }
+}
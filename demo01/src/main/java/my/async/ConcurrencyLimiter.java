@@ -0,0 +1,341 @@
+package my.async;
+
+import org.elasticsearch.core.TimeValue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 一类操作的自适应并发上限。上限由 {@link VegasLimit} 根据响应时间自动调整：
+ * 延迟接近空载延迟时加大，排队导致延迟上升时减小，被拒绝（429）或超时时按比例缩小。
+ * <p>
+ * 达到上限的请求进入 FIFO 队列；队列已满时立即拒绝，排队超过 maxWait 时拒绝，
+ * 两种情况都以 {@link RejectedExecutionException} 结束，请求没有发出，可以安全地重试。
+ * 由 {@link LimitedClient} 创建和使用。
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * 一次请求的结果。
+     */
+    enum Outcome {
+        /** 正常返回，计入延迟样本 */
+        SUCCESS,
+        /** 被拒绝或超时，缩小上限 */
+        DROPPED,
+        /** 与负载无关的失败（如 404、400），不计入样本 */
+        IGNORED
+    }
+
+    private final String name;
+    private final VegasLimit limit;
+    private final int maxQueue;
+    private final long maxWaitNanos;
+    private final ScheduledExecutorService timer;
+    // 以下字段由 this 保护
+    private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+    private int inFlight;
+    private long rejected;
+    private long dropped;
+    private boolean closed;
+
+    private ConcurrencyLimiter(String name, Builder builder, ScheduledExecutorService timer) {
+        this.name = name;
+        this.limit = new VegasLimit(builder.initialLimit, builder.minLimit, builder.maxLimit, builder.backoffRatio);
+        this.maxQueue = builder.maxQueue;
+        this.maxWaitNanos = builder.maxWait.nanos();
+        this.timer = timer;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private int initialLimit = 20;
+        private int minLimit = 1;
+        private int maxLimit = 200;
+        private double backoffRatio = 0.9;
+        private int maxQueue = 1000;
+        private TimeValue maxWait = TimeValue.timeValueSeconds(1);
+
+        private Builder() {
+        }
+
+        public Builder setInitialLimit(int initialLimit) {
+            if (initialLimit < 1) {
+                throw new IllegalArgumentException("initialLimit must be >= 1");
+            }
+            this.initialLimit = initialLimit;
+            return this;
+        }
+
+        public Builder setMinLimit(int minLimit) {
+            if (minLimit < 1) {
+                throw new IllegalArgumentException("minLimit must be >= 1");
+            }
+            this.minLimit = minLimit;
+            return this;
+        }
+
+        public Builder setMaxLimit(int maxLimit) {
+            if (maxLimit < 1) {
+                throw new IllegalArgumentException("maxLimit must be >= 1");
+            }
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        /**
+         * 被拒绝或超时时上限乘以该比例，默认 0.9。
+         */
+        public Builder setBackoffRatio(double backoffRatio) {
+            if (backoffRatio <= 0 || backoffRatio >= 1) {
+                throw new IllegalArgumentException("backoffRatio must be in (0, 1)");
+            }
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        /**
+         * 排队请求数上限，0 表示不排队，达到并发上限时直接拒绝。
+         */
+        public Builder setMaxQueue(int maxQueue) {
+            if (maxQueue < 0) {
+                throw new IllegalArgumentException("maxQueue must be >= 0");
+            }
+            this.maxQueue = maxQueue;
+            return this;
+        }
+
+        /**
+         * 请求最多排队多久，默认 1s。
+         */
+        public Builder setMaxWait(TimeValue maxWait) {
+            this.maxWait = maxWait;
+            return this;
+        }
+
+        ConcurrencyLimiter build(String name, ScheduledExecutorService timer) {
+            if (minLimit > maxLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+                throw new IllegalArgumentException("limits must satisfy minLimit <= initialLimit <= maxLimit");
+            }
+            return new ConcurrencyLimiter(name, this, timer);
+        }
+    }
+
+    /**
+     * 有空闲许可时在当前线程运行 start，否则排队；被拒绝时调用 reject。
+     * start 运行后必须调用一次 {@link #release}。
+     */
+    void submit(Runnable start, Consumer<RejectedExecutionException> reject) {
+        RejectedExecutionException rejection;
+        synchronized (this) {
+            if (closed) {
+                rejection = new RejectedExecutionException("[" + name + "] limiter is closed");
+            } else if (queue.isEmpty() && inFlight < limit.limit()) {
+                inFlight++;
+                rejection = null;
+            } else if (queue.size() >= maxQueue) {
+                rejected++;
+                rejection = new RejectedExecutionException("[" + name + "] rejected: in-flight [" + inFlight
+                        + "] reached limit [" + limit.limit() + "] and queue is full [" + maxQueue + "]");
+            } else {
+                Pending pending = new Pending(start, reject);
+                pending.timeout = timer.schedule(() -> expire(pending), maxWaitNanos, TimeUnit.NANOSECONDS);
+                queue.add(pending);
+                return;
+            }
+        }
+        if (rejection == null) {
+            start.run();
+        } else {
+            reject.accept(rejection);
+        }
+    }
+
+    /**
+     * 请求结束，归还许可并用本次的响应时间调整上限，然后启动排队中的请求。
+     */
+    void release(long rttNanos, Outcome outcome) {
+        List<Runnable> ready = new ArrayList<>();
+        synchronized (this) {
+            int current = inFlight;
+            inFlight--;
+            if (outcome == Outcome.DROPPED) {
+                dropped++;
+            }
+            if (outcome != Outcome.IGNORED) {
+                limit.onSample(rttNanos, current, outcome == Outcome.DROPPED);
+            }
+            while (!queue.isEmpty() && inFlight < limit.limit()) {
+                Pending pending = queue.poll();
+                pending.timeout.cancel(false);
+                inFlight++;
+                ready.add(pending.start);
+            }
+        }
+        for (Runnable start : ready) {
+            start.run();
+        }
+    }
+
+    private void expire(Pending pending) {
+        synchronized (this) {
+            if (!queue.remove(pending)) {
+                return;
+            }
+            rejected++;
+        }
+        pending.reject.accept(new RejectedExecutionException("[" + name + "] rejected: queued longer than ["
+                + TimeValue.timeValueNanos(maxWaitNanos) + "], limit [" + limit() + "]"));
+    }
+
+    /**
+     * 拒绝所有排队中的请求，之后的请求也直接拒绝。
+     */
+    void close() {
+        List<Pending> pending;
+        synchronized (this) {
+            closed = true;
+            pending = new ArrayList<>(queue);
+            queue.clear();
+        }
+        for (Pending p : pending) {
+            p.timeout.cancel(false);
+            p.reject.accept(new RejectedExecutionException("[" + name + "] limiter is closed"));
+        }
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * 当前并发上限。
+     */
+    public synchronized int limit() {
+        return limit.limit();
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    public synchronized int queued() {
+        return queue.size();
+    }
+
+    /**
+     * 因队列已满或排队超时被拒绝的请求数（没有发出）。
+     */
+    public synchronized long rejected() {
+        return rejected;
+    }
+
+    /**
+     * 被服务端拒绝（429）或超时的请求数。
+     */
+    public synchronized long dropped() {
+        return dropped;
+    }
+
+    /**
+     * 当前估计的空载响应时间（毫秒）。
+     */
+    public synchronized double noLoadRttMillis() {
+        return limit.noLoadRttNanos / 1_000_000d;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return name + "[limit=" + limit.limit() + ", inFlight=" + inFlight + ", queued=" + queue.size()
+                + ", rejected=" + rejected + ", dropped=" + dropped + "]";
+    }
+
+    private static final class Pending {
+        final Runnable start;
+        final Consumer<RejectedExecutionException> reject;
+        ScheduledFuture<?> timeout;
+
+        Pending(Runnable start, Consumer<RejectedExecutionException> reject) {
+            this.start = start;
+            this.reject = reject;
+        }
+    }
+
+    /**
+     * TCP Vegas 式的上限估计：queue = limit × (1 - 空载延迟 / 当前延迟) 估计排队中的请求数，
+     * 少于 alpha 时加大上限，多于 beta 时减小；发生拒绝时乘以 backoffRatio（AIMD 的乘性减）。
+     * 空载延迟取观测到的最小值，每隔若干个样本重新探测一次，以适应集群规模或数据量的变化。
+     * 非线程安全，由 {@link ConcurrencyLimiter} 加锁调用。
+     */
+    static final class VegasLimit {
+        private static final int PROBE_MULTIPLIER = 30;
+
+        private final int minLimit;
+        private final int maxLimit;
+        private final double backoffRatio;
+        private double limit;
+        long noLoadRttNanos;
+        private long probeCountdown;
+
+        VegasLimit(int initialLimit, int minLimit, int maxLimit, double backoffRatio) {
+            this.limit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.backoffRatio = backoffRatio;
+            this.probeCountdown = nextProbeCountdown();
+        }
+
+        int limit() {
+            return (int) limit;
+        }
+
+        void onSample(long rttNanos, int inFlight, boolean dropped) {
+            if (dropped) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                return;
+            }
+            if (rttNanos <= 0) {
+                return;
+            }
+            if (--probeCountdown <= 0) {
+                probeCountdown = nextProbeCountdown();
+                noLoadRttNanos = rttNanos;
+                return;
+            }
+            if (noLoadRttNanos == 0 || rttNanos < noLoadRttNanos) {
+                noLoadRttNanos = rttNanos;
+                return;
+            }
+            // 并发远没用满时延迟说明不了上限是否合适
+            if (inFlight * 2 < limit) {
+                return;
+            }
+            double step = Math.max(1, Math.log10(limit));
+            double queueSize = Math.ceil(limit * (1 - (double) noLoadRttNanos / rttNanos));
+            double next = limit;
+            if (queueSize <= step) {
+                next = limit + 2 * step;
+            } else if (queueSize < 3 * step) {
+                next = limit + step;
+            } else if (queueSize > 6 * step) {
+                next = limit - step;
+            }
+            limit = Math.max(minLimit, Math.min(maxLimit, next));
+        }
+
+        // 随机化探测间隔，避免多个客户端同时探测
+        private long nextProbeCountdown() {
+            return (long) (PROBE_MULTIPLIER * limit * (0.5 + ThreadLocalRandom.current().nextDouble() * 0.5)) + 1;
+        }
+    }
+}
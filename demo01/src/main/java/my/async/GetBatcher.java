@@ -0,0 +1,231 @@
+package my.async;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.core.TimeValue;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 把多个线程并发发起的单文档 get 合并成一个 mget。
+ * 在一个很短的时间窗口内（或攒够 maxBatchSize 条）收集请求，一次发送，再按位置把 MultiGetItemResponse 分发给各自的 future。
+ * 带 preference、realtime=false 或 refresh=true 的请求语义无法合并，直接单独发送。
+ */
+public class GetBatcher implements Closeable {
+
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService callbackExecutor;
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchedGets = new AtomicLong();
+
+    private List<Pending> current = new ArrayList<>();
+    private ScheduledFuture<?> windowTask;
+    private volatile boolean closed = false;
+
+    public GetBatcher(RestHighLevelClient client, TimeValue window, int maxBatchSize) {
+        this(client, RequestOptions.DEFAULT, window, maxBatchSize);
+    }
+
+    public GetBatcher(RestHighLevelClient client, RequestOptions options, TimeValue window, int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be >= 1");
+        }
+        this.client = client;
+        this.options = options;
+        this.windowNanos = window.nanos();
+        this.maxBatchSize = maxBatchSize;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "get-batcher-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.callbackExecutor = AsyncClient.newCallbackExecutor();
+    }
+
+    public CompletableFuture<GetResponse> get(GetRequest request) {
+        CompletableFuture<GetResponse> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new IllegalStateException("get batcher already closed"));
+            return future;
+        }
+        if (!batchable(request)) {
+            client.getAsync(request, options, listener(future));
+            return future;
+        }
+        List<Pending> toSend = null;
+        synchronized (this) {
+            if (closed) {
+                future.completeExceptionally(new IllegalStateException("get batcher already closed"));
+                return future;
+            }
+            current.add(new Pending(request, future));
+            if (current.size() >= maxBatchSize) {
+                toSend = takeCurrent();
+            } else if (windowTask == null) {
+                windowTask = timer.schedule(this::flushWindow, windowNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (toSend != null) {
+            send(toSend);
+        }
+        return future;
+    }
+
+    /**
+     * 已发送的 mget 数量。
+     */
+    public long batches() {
+        return batches.get();
+    }
+
+    /**
+     * 通过 mget 合并发送的 get 数量，与 {@link #batches()} 的比值即平均批大小。
+     */
+    public long batchedGets() {
+        return batchedGets.get();
+    }
+
+    private void flushWindow() {
+        List<Pending> toSend;
+        synchronized (this) {
+            toSend = takeCurrent();
+        }
+        if (!toSend.isEmpty()) {
+            send(toSend);
+        }
+    }
+
+    // 调用方需持有锁
+    private List<Pending> takeCurrent() {
+        List<Pending> taken = current;
+        current = new ArrayList<>();
+        if (windowTask != null) {
+            windowTask.cancel(false);
+            windowTask = null;
+        }
+        return taken;
+    }
+
+    private void send(List<Pending> batch) {
+        if (batch.size() == 1) {
+            Pending single = batch.get(0);
+            client.getAsync(single.request, options, listener(single.future));
+            return;
+        }
+        MultiGetRequest request = new MultiGetRequest();
+        for (Pending pending : batch) {
+            GetRequest get = pending.request;
+            MultiGetRequest.Item item = new MultiGetRequest.Item(get.index(), get.id())
+                    .routing(get.routing())
+                    .fetchSourceContext(get.fetchSourceContext())
+                    .version(get.version())
+                    .versionType(get.versionType());
+            if (get.storedFields() != null) {
+                item.storedFields(get.storedFields());
+            }
+            request.add(item);
+        }
+        batches.incrementAndGet();
+        batchedGets.addAndGet(batch.size());
+        client.mgetAsync(request, options, new ActionListener<MultiGetResponse>() {
+            @Override
+            public void onResponse(MultiGetResponse response) {
+                complete(() -> {
+                    MultiGetItemResponse[] items = response.getResponses();
+                    for (int i = 0; i < batch.size(); i++) {
+                        MultiGetItemResponse item = items[i];
+                        if (item.isFailed()) {
+                            batch.get(i).future.completeExceptionally(item.getFailure().getFailure());
+                        } else {
+                            batch.get(i).future.complete(item.getResponse());
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                complete(() -> {
+                    for (Pending pending : batch) {
+                        pending.future.completeExceptionally(e);
+                    }
+                });
+            }
+        });
+    }
+
+    private ActionListener<GetResponse> listener(CompletableFuture<GetResponse> future) {
+        return new ActionListener<GetResponse>() {
+            @Override
+            public void onResponse(GetResponse response) {
+                complete(() -> future.complete(response));
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                complete(() -> future.completeExceptionally(e));
+            }
+        };
+    }
+
+    // 关闭后执行器会拒绝任务，此时直接在当前线程结束 future
+    private void complete(Runnable completion) {
+        try {
+            callbackExecutor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            completion.run();
+        }
+    }
+
+    private static boolean batchable(GetRequest request) {
+        return request.preference() == null && request.realtime() && !request.refresh();
+    }
+
+    /**
+     * 发送尚未发出的请求后关闭。之后的 get 返回以 {@link IllegalStateException} 结束的 future；
+     * 已发出请求的 future 照常结束，回调执行器关闭后改在 IO 线程上结束。
+     */
+    @Override
+    public void close() {
+        List<Pending> rest;
+        synchronized (this) {
+            closed = true;
+            rest = takeCurrent();
+        }
+        if (!rest.isEmpty()) {
+            send(rest);
+        }
+        timer.shutdown();
+        callbackExecutor.shutdown();
+    }
+
+    private static class Pending {
+        final GetRequest request;
+        final CompletableFuture<GetResponse> future;
+
+        Pending(GetRequest request, CompletableFuture<GetResponse> future) {
+            this.request = request;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package my.async;
+
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 按操作类别（写、搜索、读）分别限制在途请求数的异步客户端，上限由 {@link ConcurrencyLimiter} 根据延迟自动调整。
+ * 流量突增时多出的请求在客户端排队或被拒绝（future 以 {@link RejectedExecutionException} 结束），
+ * 而不是一股脑发给集群，触发 write / search 线程池的 es_rejected_execution_exception。
+ * 关闭时排队的请求被拒绝，在途请求被取消，future 以 {@link IllegalStateException} 结束。
+ * <pre>
+ * try (LimitedClient limited = LimitedClient.builder(client)
+ *         .setLimiter(LimitedClient.Operation.WRITE, ConcurrencyLimiter.builder().setInitialLimit(8).setMaxLimit(64))
+ *         .build()) {
+ *     limited.index(request).whenComplete(...);
+ *     System.out.println(limited.limiters());
+ * }
+ * </pre>
+ */
+public class LimitedClient implements Closeable {
+
+    public enum Operation {
+        /** index、update、delete、bulk */
+        WRITE,
+        /** search */
+        SEARCH,
+        /** get、mget */
+        GET
+    }
+
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final Map<Operation, ConcurrencyLimiter> limiters = new EnumMap<>(Operation.class);
+    private final ExecutorService callbackExecutor = AsyncClient.newCallbackExecutor();
+    private final ScheduledExecutorService timer;
+    // 已发出但尚未结束的 future，关闭时统一失败
+    private final Set<CompletableFuture<?>> inFlight = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    private LimitedClient(Builder builder) {
+        this.client = builder.client;
+        this.options = builder.options;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "limited-client-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        for (Operation operation : Operation.values()) {
+            limiters.put(operation, builder.limiters.get(operation).build(operation.name().toLowerCase(), timer));
+        }
+    }
+
+    public static Builder builder(RestHighLevelClient client) {
+        return new Builder(client);
+    }
+
+    public static class Builder {
+        private final RestHighLevelClient client;
+        private RequestOptions options = RequestOptions.DEFAULT;
+        private final Map<Operation, ConcurrencyLimiter.Builder> limiters = new EnumMap<>(Operation.class);
+
+        private Builder(RestHighLevelClient client) {
+            this.client = client;
+            for (Operation operation : Operation.values()) {
+                limiters.put(operation, ConcurrencyLimiter.builder());
+            }
+            // bulk 请求重，起点和上限都小一些
+            limiters.get(Operation.WRITE).setInitialLimit(4).setMaxLimit(32);
+        }
+
+        public Builder setRequestOptions(RequestOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        public Builder setLimiter(Operation operation, ConcurrencyLimiter.Builder limiter) {
+            limiters.put(operation, limiter);
+            return this;
+        }
+
+        public LimitedClient build() {
+            return new LimitedClient(this);
+        }
+    }
+
+    public CompletableFuture<IndexResponse> index(IndexRequest request) {
+        return execute(Operation.WRITE, request, client::indexAsync);
+    }
+
+    public CompletableFuture<UpdateResponse> update(UpdateRequest request) {
+        return execute(Operation.WRITE, request, client::updateAsync);
+    }
+
+    public CompletableFuture<DeleteResponse> delete(DeleteRequest request) {
+        return execute(Operation.WRITE, request, client::deleteAsync);
+    }
+
+    public CompletableFuture<BulkResponse> bulk(BulkRequest request) {
+        return execute(Operation.WRITE, request, client::bulkAsync);
+    }
+
+    public CompletableFuture<SearchResponse> search(SearchRequest request) {
+        return execute(Operation.SEARCH, request, client::searchAsync);
+    }
+
+    public CompletableFuture<GetResponse> get(GetRequest request) {
+        return execute(Operation.GET, request, client::getAsync);
+    }
+
+    public CompletableFuture<MultiGetResponse> mget(MultiGetRequest request) {
+        return execute(Operation.GET, request, client::mgetAsync);
+    }
+
+    /**
+     * 在 operation 的并发上限内执行任意异步调用。future 被取消时取消底层请求。
+     */
+    public <Request, Response> CompletableFuture<Response> execute(Operation operation, Request request,
+                                                                   AsyncClient.AsyncCall<Request, Response> call) {
+        ConcurrencyLimiter limiter = limiters.get(operation);
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        AtomicReference<Cancellable> cancellable = new AtomicReference<>();
+        future.whenComplete((r, e) -> {
+            inFlight.remove(future);
+            Cancellable c = cancellable.get();
+            if (e != null && c != null) {
+                c.cancel();
+            }
+        });
+        limiter.submit(() -> {
+            inFlight.add(future);
+            // 先登记再检查，与 close() 并发时两边至少有一边能看到这个 future
+            if (closed) {
+                future.completeExceptionally(new IllegalStateException("limited client already closed"));
+            }
+            // 排队期间被取消或已关闭
+            if (future.isDone()) {
+                inFlight.remove(future);
+                limiter.release(0, ConcurrencyLimiter.Outcome.IGNORED);
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                cancellable.set(call.call(request, options, new ActionListener<Response>() {
+                    @Override
+                    public void onResponse(Response response) {
+                        limiter.release(System.nanoTime() - start, responseOutcome(response));
+                        complete(() -> future.complete(response));
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        limiter.release(System.nanoTime() - start, failureOutcome(e));
+                        complete(() -> future.completeExceptionally(e));
+                    }
+                }));
+                if (future.isDone()) {
+                    cancellable.get().cancel();
+                }
+            } catch (RuntimeException e) {
+                limiter.release(0, ConcurrencyLimiter.Outcome.IGNORED);
+                future.completeExceptionally(e);
+            }
+        }, e -> complete(() -> future.completeExceptionally(e)));
+        return future;
+    }
+
+    // bulk 整体成功但有条目被 429 拒绝，同样说明写入线程池已满
+    static ConcurrencyLimiter.Outcome responseOutcome(Object response) {
+        if (response instanceof BulkResponse && ((BulkResponse) response).hasFailures()) {
+            for (BulkItemResponse item : ((BulkResponse) response).getItems()) {
+                if (item.isFailed() && item.status() == RestStatus.TOO_MANY_REQUESTS) {
+                    return ConcurrencyLimiter.Outcome.DROPPED;
+                }
+            }
+        }
+        return ConcurrencyLimiter.Outcome.SUCCESS;
+    }
+
+    // 429 和各种超时（连接、读取、等待连接池）都是过载的信号，其余失败与负载无关
+    static ConcurrencyLimiter.Outcome failureOutcome(Exception e) {
+        if (e instanceof ElasticsearchStatusException
+                && ((ElasticsearchStatusException) e).status() == RestStatus.TOO_MANY_REQUESTS) {
+            return ConcurrencyLimiter.Outcome.DROPPED;
+        }
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof InterruptedIOException) {
+                return ConcurrencyLimiter.Outcome.DROPPED;
+            }
+        }
+        return ConcurrencyLimiter.Outcome.IGNORED;
+    }
+
+    public ConcurrencyLimiter limiter(Operation operation) {
+        return limiters.get(operation);
+    }
+
+    /**
+     * 各类操作当前的上限、在途数、排队数与拒绝数，用于上报指标。
+     */
+    public Map<Operation, ConcurrencyLimiter> limiters() {
+        return Collections.unmodifiableMap(limiters);
+    }
+
+    // 关闭后执行器会拒绝任务，此时直接在当前线程结束 future
+    private void complete(Runnable completion) {
+        try {
+            callbackExecutor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            completion.run();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (ConcurrencyLimiter limiter : limiters.values()) {
+            limiter.close();
+        }
+        IllegalStateException failure = new IllegalStateException("limited client closed");
+        for (CompletableFuture<?> future : inFlight) {
+            future.completeExceptionally(failure);
+        }
+        timer.shutdownNow();
+        callbackExecutor.shutdown();
+    }
+}
@@ -0,0 +1,673 @@
+package my.async;
+
+import my.client.WireFormat;
+import my.metadata.ShardRouting;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.core.TimeValue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 共享的 read-your-writes 屏障，用来代替每个写请求各自带 {@code refresh=wait_for}。
+ * 写请求以 {@code RefreshPolicy.NONE} 发送、立即返回；屏障记下响应中每个分片的 {@code _seq_no}，
+ * 由一个后台任务统一确认可见性后再完成调用方的 future，不再让几百个连接各自挂起直到下一次 refresh。
+ * <p>
+ * 确认方式：定时用一个 {@code _stats/refresh?level=shards} 请求查看有等待者的分片，某个分片的所有副本的
+ * local_checkpoint 都不小于 seq_no 之后，每个副本的 refresh 次数再增加两次，写入就对搜索可见：
+ * 第一次增加可能来自那之前就已开始、读不到这次写入的 refresh。
+ * 等待超过 {@link Builder#setForceRefreshAfter(TimeValue)}（例如分片处于 search idle 不再定时 refresh）时，
+ * 对这些索引发一次共享的 {@code _refresh}，它返回之前已确认的写入全部可见。
+ * <pre>
+ * RefreshBarrier barrier = RefreshBarrier.builder(client).build();
+ * barrier.index(indexRequest).thenAccept(response -&gt; ...);   // 回调时已能搜到
+ * barrier.afterVisible(bulkIngesterResponse);                  // 也可以等待其他途径得到的写响应
+ * </pre>
+ */
+public class RefreshBarrier implements Closeable {
+
+    private static final String STATS_FILTER = "indices.*.shards.*.routing.state,indices.*.shards.*.routing.node,"
+            + "indices.*.shards.*.routing.primary,indices.*.shards.*.refresh.total,"
+            + "indices.*.shards.*.refresh.external_total,indices.*.shards.*.seq_no.local_checkpoint";
+
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final long forceRefreshAfterNanos;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService callbackExecutor;
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private final Map<String, IndexState> indices = new HashMap<>();
+    private final Set<String> refreshing = new TreeSet<>();
+    private boolean resolving = false;
+    private boolean polling = false;
+    private boolean closed = false;
+
+    private RefreshBarrier(Builder builder) {
+        this.client = builder.client;
+        this.options = builder.options;
+        this.forceRefreshAfterNanos = builder.forceRefreshAfter == null ? Long.MAX_VALUE : builder.forceRefreshAfter.nanos();
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "refresh-barrier-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.callbackExecutor = AsyncClient.newCallbackExecutor();
+        long millis = builder.pollInterval.millis();
+        timer.scheduleWithFixedDelay(this::tick, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    public static Builder builder(RestHighLevelClient client) {
+        return new Builder(client);
+    }
+
+    public CompletableFuture<IndexResponse> index(IndexRequest request) {
+        CompletableFuture<IndexResponse> future = new CompletableFuture<>();
+        request.setRefreshPolicy(WriteRequest.RefreshPolicy.NONE);
+        client.indexAsync(request, options, listener(future));
+        return future.thenCompose(response -> afterVisible(response, request.routing()));
+    }
+
+    public CompletableFuture<UpdateResponse> update(UpdateRequest request) {
+        CompletableFuture<UpdateResponse> future = new CompletableFuture<>();
+        request.setRefreshPolicy(WriteRequest.RefreshPolicy.NONE);
+        client.updateAsync(request, options, listener(future));
+        return future.thenCompose(response -> afterVisible(response, request.routing()));
+    }
+
+    public CompletableFuture<DeleteResponse> delete(DeleteRequest request) {
+        CompletableFuture<DeleteResponse> future = new CompletableFuture<>();
+        request.setRefreshPolicy(WriteRequest.RefreshPolicy.NONE);
+        client.deleteAsync(request, options, listener(future));
+        return future.thenCompose(response -> afterVisible(response, request.routing()));
+    }
+
+    public CompletableFuture<BulkResponse> bulk(BulkRequest request) {
+        CompletableFuture<BulkResponse> future = new CompletableFuture<>();
+        request.setRefreshPolicy(WriteRequest.RefreshPolicy.NONE);
+        client.bulkAsync(request, options, listener(future));
+        return future.thenCompose(response -> afterVisible(response, request.requests()));
+    }
+
+    /**
+     * 返回的 future 在该写入对搜索可见后以原响应结束。写入使用了自定义 routing 时用 {@link #afterVisible(DocWriteResponse, String)}。
+     */
+    public <R extends DocWriteResponse> CompletableFuture<R> afterVisible(R response) {
+        return afterVisible(response, null);
+    }
+
+    public <R extends DocWriteResponse> CompletableFuture<R> afterVisible(R response, String routing) {
+        return await(response, routing).thenApply(v -> response);
+    }
+
+    /**
+     * 等待 bulk 中所有成功条目可见，失败的条目不等待。条目按 _id 路由；使用了自定义 routing 时用 {@link #bulk(BulkRequest)}。
+     */
+    public CompletableFuture<BulkResponse> afterVisible(BulkResponse response) {
+        return afterVisible(response, null);
+    }
+
+    private CompletableFuture<BulkResponse> afterVisible(BulkResponse response, List<DocWriteRequest<?>> requests) {
+        List<CompletableFuture<Void>> visible = new ArrayList<>();
+        BulkItemResponse[] items = response.getItems();
+        for (int i = 0; i < items.length; i++) {
+            if (!items[i].isFailed()) {
+                visible.add(await(items[i].getResponse(), requests == null ? null : requests.get(i).routing()));
+            }
+        }
+        return CompletableFuture.allOf(visible.toArray(new CompletableFuture<?>[0])).thenApply(v -> response);
+    }
+
+    private CompletableFuture<Void> await(DocWriteResponse response, String routing) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (response.getSeqNo() < 0) {
+            future.complete(null);
+            return future;
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("refresh barrier already closed");
+            }
+            // REST 响应里没有分片号，分片由 _id / routing 算出（需要先取到该索引的路由参数）
+            indices.computeIfAbsent(response.getIndex(), k -> new IndexState())
+                    .add(new Waiter(response.getId(), routing, response.getSeqNo(), System.nanoTime(), future));
+        }
+        return future;
+    }
+
+    /**
+     * 发出的 _stats 请求数。
+     */
+    public long polls() {
+        return polls.get();
+    }
+
+    /**
+     * 发出的共享 _refresh 请求数。
+     */
+    public long refreshes() {
+        return refreshes.get();
+    }
+
+    public long failures() {
+        return failures.get();
+    }
+
+    /**
+     * 还在等待可见的写入数。
+     */
+    public synchronized int waiting() {
+        int count = 0;
+        for (IndexState state : indices.values()) {
+            count += state.waiting();
+        }
+        return count;
+    }
+
+    private void tick() {
+        List<String> toResolve = new ArrayList<>();
+        List<String> toPoll = new ArrayList<>();
+        List<String> toRefresh = new ArrayList<>();
+        long now = System.nanoTime();
+        synchronized (this) {
+            for (Map.Entry<String, IndexState> entry : indices.entrySet()) {
+                String index = entry.getKey();
+                IndexState state = entry.getValue();
+                // 总是主动 refresh 时用不到分片号
+                if (forceRefreshAfterNanos > 0 && state.routing == null && !state.unresolved.isEmpty()) {
+                    toResolve.add(index);
+                }
+                if (refreshing.contains(index) || state.waiting() == 0) {
+                    continue;
+                }
+                if (now - state.oldestAckNanos() >= forceRefreshAfterNanos) {
+                    toRefresh.add(index);
+                } else if (!state.shards.isEmpty()) {
+                    toPoll.add(index);
+                }
+            }
+            refreshing.addAll(toRefresh);
+            if (resolving) {
+                toResolve.clear();
+            } else if (!toResolve.isEmpty()) {
+                resolving = true;
+            }
+            if (polling) {
+                toPoll.clear();
+            } else if (!toPoll.isEmpty()) {
+                polling = true;
+            }
+        }
+        if (!toResolve.isEmpty()) {
+            resolve(toResolve);
+        }
+        if (!toRefresh.isEmpty()) {
+            refresh(toRefresh, now);
+        }
+        if (!toPoll.isEmpty()) {
+            poll(toPoll);
+        }
+    }
+
+    private void resolve(List<String> names) {
+        Request request = ShardRouting.request(names);
+        request.setOptions(options);
+        client.getLowLevelClient().performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                callbackExecutor.execute(() -> {
+                    try {
+                        Map<String, ShardRouting> routings = ShardRouting.parse(response);
+                        synchronized (RefreshBarrier.this) {
+                            for (Map.Entry<String, ShardRouting> routing : routings.entrySet()) {
+                                IndexState state = indices.get(routing.getKey());
+                                if (state != null) {
+                                    state.resolve(routing.getValue());
+                                }
+                            }
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        synchronized (RefreshBarrier.this) {
+                            resolving = false;
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                failures.incrementAndGet();
+                synchronized (RefreshBarrier.this) {
+                    resolving = false;
+                }
+            }
+        });
+    }
+
+    private void poll(List<String> names) {
+        Request request = new Request("GET", "/" + String.join(",", names) + "/_stats/refresh");
+        request.addParameter("level", "shards");
+        request.addParameter("filter_path", STATS_FILTER);
+        request.setOptions(options);
+        polls.incrementAndGet();
+        client.getLowLevelClient().performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                callbackExecutor.execute(() -> {
+                    List<Waiter> done = new ArrayList<>();
+                    try {
+                        Map<String, Map<Integer, Map<String, long[]>>> stats = parseStats(response);
+                        synchronized (RefreshBarrier.this) {
+                            for (Map.Entry<String, Map<Integer, Map<String, long[]>>> index : stats.entrySet()) {
+                                IndexState state = indices.get(index.getKey());
+                                if (state != null) {
+                                    state.onStats(index.getValue(), done);
+                                }
+                            }
+                            removeIdle();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        synchronized (RefreshBarrier.this) {
+                            polling = false;
+                        }
+                    }
+                    complete(done);
+                });
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                failures.incrementAndGet();
+                synchronized (RefreshBarrier.this) {
+                    polling = false;
+                }
+            }
+        });
+    }
+
+    // 在 sentNanos 之前已确认的写入，在 _refresh 成功返回后全部可见
+    private void refresh(List<String> names, long sentNanos) {
+        Request request = new Request("POST", "/" + String.join(",", names) + "/_refresh");
+        request.addParameter("filter_path", "_shards.failed");
+        request.setOptions(options);
+        refreshes.incrementAndGet();
+        client.getLowLevelClient().performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                callbackExecutor.execute(() -> {
+                    List<Waiter> done = new ArrayList<>();
+                    try {
+                        if (shardFailures(response) > 0) {
+                            failures.incrementAndGet();
+                            return;
+                        }
+                        synchronized (RefreshBarrier.this) {
+                            for (String index : names) {
+                                IndexState state = indices.get(index);
+                                if (state != null) {
+                                    state.onRefreshed(sentNanos, done);
+                                }
+                            }
+                            removeIdle();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        synchronized (RefreshBarrier.this) {
+                            refreshing.removeAll(names);
+                        }
+                        complete(done);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                failures.incrementAndGet();
+                synchronized (RefreshBarrier.this) {
+                    refreshing.removeAll(names);
+                }
+            }
+        });
+    }
+
+    // 调用方需持有锁；保留已解析的路由参数，避免同一个索引反复读取
+    private void removeIdle() {
+        for (IndexState state : indices.values()) {
+            state.shards.values().removeIf(shard -> shard.waiters.isEmpty());
+        }
+    }
+
+    private void complete(List<Waiter> done) {
+        for (Waiter waiter : done) {
+            waiter.future.complete(null);
+        }
+    }
+
+    private static long shardFailures(Response response) throws IOException {
+        Map<String, Object> body;
+        try (InputStream in = response.getEntity().getContent()) {
+            body = XContentHelper.convertToMap(WireFormat.xContent(response.getEntity()), in, false);
+        }
+        Object shards = body.get("_shards");
+        return shards instanceof Map ? toLong(((Map<?, ?>) shards).get("failed")) : 0;
+    }
+
+    /**
+     * 解析 _stats?level=shards，返回 index -> shard -> 副本（节点 + 主/副）-> [local_checkpoint, refresh 次数]。
+     * 只统计 STARTED / RELOCATING 的副本，即会处理搜索请求的副本。
+     */
+    static Map<String, Map<Integer, Map<String, long[]>>> parseStats(Response response) throws IOException {
+        try (InputStream in = response.getEntity().getContent()) {
+            return parseStats(XContentHelper.convertToMap(WireFormat.xContent(response.getEntity()), in, false));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Map<Integer, Map<String, long[]>>> parseStats(Map<String, Object> body) {
+        Map<String, Map<Integer, Map<String, long[]>>> result = new HashMap<>();
+        Object indices = body.get("indices");
+        if (!(indices instanceof Map)) {
+            return result;
+        }
+        for (Map.Entry<String, Object> index : ((Map<String, Object>) indices).entrySet()) {
+            Object shards = ((Map<String, Object>) index.getValue()).get("shards");
+            if (!(shards instanceof Map)) {
+                continue;
+            }
+            Map<Integer, Map<String, long[]>> byShard = new HashMap<>();
+            for (Map.Entry<String, Object> shard : ((Map<String, Object>) shards).entrySet()) {
+                Map<String, long[]> copies = new HashMap<>();
+                for (Object copy : (List<Object>) shard.getValue()) {
+                    Map<String, Object> c = (Map<String, Object>) copy;
+                    Map<String, Object> routing = (Map<String, Object>) c.getOrDefault("routing", Collections.emptyMap());
+                    Object state = routing.get("state");
+                    if (!"STARTED".equals(state) && !"RELOCATING".equals(state)) {
+                        continue;
+                    }
+                    Map<String, Object> refresh = (Map<String, Object>) c.getOrDefault("refresh", Collections.emptyMap());
+                    Map<String, Object> seqNo = (Map<String, Object>) c.getOrDefault("seq_no", Collections.emptyMap());
+                    // external_total（7.7+）只统计对搜索可见的 refresh
+                    long refreshes = refresh.containsKey("external_total")
+                            ? toLong(refresh.get("external_total")) : toLong(refresh.get("total"));
+                    copies.put(routing.get("node") + (Boolean.TRUE.equals(routing.get("primary")) ? "[p]" : "[r]"),
+                            new long[] {toLong(seqNo.get("local_checkpoint")), refreshes});
+                }
+                byShard.put(Integer.parseInt(shard.getKey()), copies);
+            }
+            result.put(index.getKey(), byShard);
+        }
+        return result;
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : -1;
+    }
+
+    private <T> ActionListener<T> listener(CompletableFuture<T> future) {
+        return new ActionListener<T>() {
+            @Override
+            public void onResponse(T response) {
+                callbackExecutor.execute(() -> future.complete(response));
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                callbackExecutor.execute(() -> future.completeExceptionally(e));
+            }
+        };
+    }
+
+    /**
+     * 停止确认，尚未可见的等待者以失败结束。
+     */
+    @Override
+    public void close() {
+        List<Waiter> rest = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (IndexState state : indices.values()) {
+                state.drainTo(rest);
+            }
+            indices.clear();
+        }
+        timer.shutdownNow();
+        IllegalStateException e = new IllegalStateException("refresh barrier closed before the write became visible");
+        for (Waiter waiter : rest) {
+            waiter.future.completeExceptionally(e);
+        }
+    }
+
+    static final class Waiter {
+        final String id;
+        final String routing;
+        final long seqNo;
+        final long ackNanos;
+        final CompletableFuture<Void> future;
+
+        Waiter(String id, String routing, long seqNo, long ackNanos, CompletableFuture<Void> future) {
+            this.id = id;
+            this.routing = routing;
+            this.seqNo = seqNo;
+            this.ackNanos = ackNanos;
+            this.future = future;
+        }
+    }
+
+    /**
+     * 一个索引上的等待者。取到路由参数之前按到达顺序暂存，之后按分片归类。
+     */
+    static final class IndexState {
+        final List<Waiter> unresolved = new ArrayList<>();
+        final Map<Integer, ShardState> shards = new HashMap<>();
+        ShardRouting routing;
+
+        void add(Waiter waiter) {
+            if (routing == null) {
+                unresolved.add(waiter);
+            } else {
+                shards.computeIfAbsent(routing.shardId(waiter.id, waiter.routing), k -> new ShardState()).waiters.add(waiter);
+            }
+        }
+
+        void resolve(ShardRouting routing) {
+            this.routing = routing;
+            for (Waiter waiter : unresolved) {
+                add(waiter);
+            }
+            unresolved.clear();
+        }
+
+        void onStats(Map<Integer, Map<String, long[]>> stats, List<Waiter> done) {
+            for (Map.Entry<Integer, Map<String, long[]>> shard : stats.entrySet()) {
+                ShardState state = shards.get(shard.getKey());
+                if (state != null) {
+                    done.addAll(state.onStats(shard.getValue()));
+                }
+            }
+        }
+
+        void onRefreshed(long sentNanos, List<Waiter> done) {
+            done.addAll(ShardState.before(unresolved, sentNanos));
+            for (ShardState state : shards.values()) {
+                done.addAll(ShardState.before(state.waiters, sentNanos));
+            }
+        }
+
+        int waiting() {
+            int count = unresolved.size();
+            for (ShardState state : shards.values()) {
+                count += state.waiters.size();
+            }
+            return count;
+        }
+
+        long oldestAckNanos() {
+            long oldest = Long.MAX_VALUE;
+            for (Waiter waiter : unresolved) {
+                oldest = Math.min(oldest, waiter.ackNanos);
+            }
+            for (ShardState state : shards.values()) {
+                for (Waiter waiter : state.waiters) {
+                    oldest = Math.min(oldest, waiter.ackNanos);
+                }
+            }
+            return oldest;
+        }
+
+        void drainTo(List<Waiter> rest) {
+            rest.addAll(unresolved);
+            for (ShardState state : shards.values()) {
+                rest.addAll(state.waiters);
+            }
+        }
+    }
+
+    /**
+     * 一个分片上的等待者和检查点。某次 stats 中所有副本的 local_checkpoint 最小值记为 armedSeqNo，同时记下各副本的 refresh 次数；
+     * 之后的 stats 中每个副本的 refresh 次数都至少增加了 2，seq_no 不大于 armedSeqNo 的写入就都可见了。
+     * 只增加 1 不够：记录时可能正有一次 refresh 在进行，它打开的 reader 看不到这些写入，结束时却会让次数加一。
+     */
+    static final class ShardState {
+        final List<Waiter> waiters = new ArrayList<>();
+        long armedSeqNo = -1;
+        Map<String, long[]> armed;
+
+        List<Waiter> onStats(Map<String, long[]> copies) {
+            List<Waiter> done = new ArrayList<>();
+            if (armed != null) {
+                if (!copies.keySet().equals(armed.keySet())) {
+                    // 副本发生了变化（重新分配、恢复），从这次 stats 重新开始
+                    armed = null;
+                } else if (allRefreshedSince(copies)) {
+                    Iterator<Waiter> it = waiters.iterator();
+                    while (it.hasNext()) {
+                        Waiter waiter = it.next();
+                        if (waiter.seqNo <= armedSeqNo) {
+                            done.add(waiter);
+                            it.remove();
+                        }
+                    }
+                    armed = null;
+                }
+            }
+            if (armed == null && !waiters.isEmpty() && !copies.isEmpty()) {
+                long checkpoint = Long.MAX_VALUE;
+                for (long[] copy : copies.values()) {
+                    checkpoint = Math.min(checkpoint, copy[0]);
+                }
+                long lowest = Long.MAX_VALUE;
+                for (Waiter waiter : waiters) {
+                    lowest = Math.min(lowest, waiter.seqNo);
+                }
+                // 还没有任何等待的写入被所有副本处理，等下一次
+                if (checkpoint >= lowest) {
+                    armedSeqNo = checkpoint;
+                    armed = copies;
+                }
+            }
+            return done;
+        }
+
+        private boolean allRefreshedSince(Map<String, long[]> copies) {
+            for (Map.Entry<String, long[]> copy : copies.entrySet()) {
+                if (copy.getValue()[1] < armed.get(copy.getKey())[1] + 2) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // 取出并返回 sentNanos 之前确认的写入
+        static List<Waiter> before(List<Waiter> waiters, long sentNanos) {
+            List<Waiter> done = new ArrayList<>();
+            Iterator<Waiter> it = waiters.iterator();
+            while (it.hasNext()) {
+                Waiter waiter = it.next();
+                if (waiter.ackNanos < sentNanos) {
+                    done.add(waiter);
+                    it.remove();
+                }
+            }
+            return done;
+        }
+    }
+
+    public static class Builder {
+        private final RestHighLevelClient client;
+        private RequestOptions options = RequestOptions.DEFAULT;
+        private TimeValue pollInterval = TimeValue.timeValueMillis(200);
+        private TimeValue forceRefreshAfter = TimeValue.timeValueSeconds(2);
+
+        private Builder(RestHighLevelClient client) {
+            this.client = client;
+        }
+
+        public Builder setRequestOptions(RequestOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        /**
+         * 检查可见性的周期，只在有等待者时才发请求。
+         */
+        public Builder setPollInterval(TimeValue pollInterval) {
+            if (pollInterval.millis() < 1) {
+                throw new IllegalArgumentException("pollInterval must be >= 1ms");
+            }
+            this.pollInterval = pollInterval;
+            return this;
+        }
+
+        /**
+         * 等待超过该时间仍不可见时主动发一次共享的 _refresh；0 表示总是主动 refresh（不看 stats），null 表示从不主动 refresh。
+         */
+        public Builder setForceRefreshAfter(TimeValue forceRefreshAfter) {
+            this.forceRefreshAfter = forceRefreshAfter;
+            return this;
+        }
+
+        public RefreshBarrier build() {
+            return new RefreshBarrier(this);
+        }
+    }
+}
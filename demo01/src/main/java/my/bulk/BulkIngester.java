@@ -0,0 +1,435 @@
+package my.bulk;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 自适应批量写入器。
+ * 按文档数和字节数攒批，限制同时在途的 bulk 数量；只重试被 429 拒绝的条目；
+ * 根据每批的耗时自动放大/缩小批次（AIMD）。默认不强制 refresh。
+ */
+public class BulkIngester implements Closeable {
+
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final BulkProcessor.Listener listener;
+    private final BackoffPolicy backoffPolicy;
+    private final WriteRequest.RefreshPolicy refreshPolicy;
+    private final TimeValue timeout;
+    private final long maxBytes;
+    private final int minActions;
+    private final int maxActions;
+    private final long targetLatencyMillis;
+    private final int concurrentRequests;
+    private final Semaphore inFlight;
+    private final ScheduledExecutorService scheduler;
+    private final ScheduledFuture<?> flushTask;
+    private final AtomicLong executionIdGen = new AtomicLong();
+
+    private volatile int batchActions;
+    private BulkRequest current;
+    private volatile boolean closed = false;
+
+    private BulkIngester(Builder builder) {
+        this.client = builder.client;
+        this.options = builder.options;
+        this.listener = builder.listener;
+        this.backoffPolicy = builder.backoffPolicy;
+        this.refreshPolicy = builder.refreshPolicy;
+        this.timeout = builder.timeout;
+        this.maxBytes = builder.maxBytes;
+        this.minActions = builder.minActions;
+        this.maxActions = builder.maxActions;
+        this.batchActions = builder.initialActions;
+        this.targetLatencyMillis = builder.targetLatency.millis();
+        this.concurrentRequests = builder.concurrentRequests;
+        this.inFlight = new Semaphore(builder.concurrentRequests);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bulk-ingester-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        this.current = newBulkRequest();
+        if (builder.flushInterval != null) {
+            long millis = builder.flushInterval.millis();
+            this.flushTask = scheduler.scheduleWithFixedDelay(this::flushQuietly, millis, millis, TimeUnit.MILLISECONDS);
+        } else {
+            this.flushTask = null;
+        }
+    }
+
+    public static Builder builder(RestHighLevelClient client, BulkProcessor.Listener listener) {
+        return new Builder(client, listener);
+    }
+
+    /**
+     * 添加一条写操作。批次满了会立即发送；在途请求达到上限时阻塞调用方（背压）。
+     */
+    public void add(DocWriteRequest<?> request) throws InterruptedException {
+        BulkRequest toSend = null;
+        synchronized (this) {
+            ensureOpen();
+            current.add(request);
+            if (current.numberOfActions() >= batchActions || current.estimatedSizeInBytes() >= maxBytes) {
+                toSend = current;
+                current = newBulkRequest();
+            }
+        }
+        if (toSend != null) {
+            execute(toSend);
+        }
+    }
+
+    /**
+     * 立即发送当前未满的批次。
+     */
+    public void flush() throws InterruptedException {
+        BulkRequest toSend;
+        synchronized (this) {
+            if (current.numberOfActions() == 0) {
+                return;
+            }
+            toSend = current;
+            current = newBulkRequest();
+        }
+        execute(toSend);
+    }
+
+    /**
+     * 当前的批次大小（条数），会随观测到的耗时变化。
+     */
+    public int currentBatchActions() {
+        return batchActions;
+    }
+
+    public int inFlightRequests() {
+        return concurrentRequests - inFlight.availablePermits();
+    }
+
+    /**
+     * 发送剩余数据并等待所有在途请求完成，整个过程不超过 timeout。
+     * 超时前拿不到发送剩余数据的许可时，剩余数据不再发送，以 {@link TimeoutException} 交给 listener 的 afterBulk。
+     *
+     * @return 是否在超时前全部完成
+     */
+    public boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        BulkRequest rest = shutdown();
+        if (rest == null) {
+            return true;
+        }
+        try {
+            if (rest.numberOfActions() > 0) {
+                if (!inFlight.tryAcquire(timeout, unit)) {
+                    long executionId = executionIdGen.incrementAndGet();
+                    listener.beforeBulk(executionId, rest);
+                    listener.afterBulk(executionId, rest, new TimeoutException("[" + rest.numberOfActions()
+                            + "] actions not sent: no bulk slot became free within [" + unit.toMillis(timeout) + "ms]"));
+                    return false;
+                }
+                executeAcquired(rest);
+            }
+            long remaining = Math.max(0, deadline - System.nanoTime());
+            boolean drained = inFlight.tryAcquire(concurrentRequests, remaining, TimeUnit.NANOSECONDS);
+            if (drained) {
+                inFlight.release(concurrentRequests);
+            }
+            return drained;
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * 发送剩余数据，不等待在途请求完成；在途请求达到上限时阻塞到有空位为止。
+     */
+    @Override
+    public void close() {
+        BulkRequest rest = shutdown();
+        if (rest == null) {
+            return;
+        }
+        try {
+            if (rest.numberOfActions() > 0) {
+                execute(rest);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    // 标记关闭并取出未发送的批次，已经关闭时返回 null
+    private BulkRequest shutdown() {
+        synchronized (this) {
+            if (closed) {
+                return null;
+            }
+            closed = true;
+        }
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
+        synchronized (this) {
+            BulkRequest rest = current;
+            current = newBulkRequest();
+            return rest;
+        }
+    }
+
+    // 定时刷新运行在调度线程上，不能阻塞（429 重试也依赖该线程），拿不到许可就等下一轮
+    private void flushQuietly() {
+        BulkRequest toSend;
+        synchronized (this) {
+            if (current.numberOfActions() == 0 || !inFlight.tryAcquire()) {
+                return;
+            }
+            toSend = current;
+            current = newBulkRequest();
+        }
+        executeAcquired(toSend);
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("bulk ingester already closed");
+        }
+    }
+
+    private BulkRequest newBulkRequest() {
+        BulkRequest request = new BulkRequest().setRefreshPolicy(refreshPolicy);
+        if (timeout != null) {
+            request.timeout(timeout);
+        }
+        return request;
+    }
+
+    private void execute(BulkRequest request) throws InterruptedException {
+        inFlight.acquire();
+        executeAcquired(request);
+    }
+
+    private void executeAcquired(BulkRequest request) {
+        long executionId = executionIdGen.incrementAndGet();
+        listener.beforeBulk(executionId, request);
+        new Execution(executionId, request).start();
+    }
+
+    // 根据一批的耗时和是否被拒绝调整批次大小：快则加性增长，慢或被拒绝则减半
+    private void adapt(long latencyMillis, boolean rejected) {
+        int size = batchActions;
+        if (rejected || latencyMillis > targetLatencyMillis) {
+            size = Math.max(minActions, size / 2);
+        } else if (latencyMillis < targetLatencyMillis * 8 / 10) {
+            size = Math.min(maxActions, size + Math.max(1, size / 10));
+        }
+        batchActions = size;
+    }
+
+    /**
+     * 一个 bulk 的完整执行过程（含针对 429 条目的重试）。
+     */
+    private class Execution {
+        private final long executionId;
+        private final BulkRequest original;
+        private final BulkItemResponse[] results;
+        private final Iterator<TimeValue> backoff = backoffPolicy.iterator();
+        private final long startNanos = System.nanoTime();
+        private boolean rejectedOnce = false;
+
+        Execution(long executionId, BulkRequest original) {
+            this.executionId = executionId;
+            this.original = original;
+            this.results = new BulkItemResponse[original.numberOfActions()];
+        }
+
+        void start() {
+            int[] slots = new int[results.length];
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = i;
+            }
+            send(original, slots);
+        }
+
+        // slots[i] 表示本次请求中第 i 条在原始请求中的位置
+        private void send(BulkRequest request, int[] slots) {
+            long attemptStart = System.nanoTime();
+            try {
+                client.bulkAsync(request, options, new ActionListener<BulkResponse>() {
+                    @Override
+                    public void onResponse(BulkResponse response) {
+                        adapt(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - attemptStart), false);
+                        onAttempt(response, slots);
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        finish(e);
+                    }
+                });
+            } catch (RuntimeException e) {
+                finish(e);
+            }
+        }
+
+        private void onAttempt(BulkResponse response, int[] slots) {
+            List<Integer> retrySlots = new ArrayList<>();
+            BulkItemResponse[] items = response.getItems();
+            for (int i = 0; i < items.length; i++) {
+                BulkItemResponse item = items[i];
+                int slot = slots[i];
+                if (item.isFailed()) {
+                    results[slot] = BulkItemResponse.failure(slot, item.getOpType(), item.getFailure());
+                    if (item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+                        retrySlots.add(slot);
+                    }
+                } else {
+                    results[slot] = BulkItemResponse.success(slot, item.getOpType(), item.getResponse());
+                }
+            }
+            if (retrySlots.isEmpty() || !backoff.hasNext()) {
+                finish(null);
+                return;
+            }
+            if (!rejectedOnce) {
+                rejectedOnce = true;
+                adapt(Long.MAX_VALUE, true);
+            }
+            BulkRequest retry = newBulkRequest();
+            int[] retryIndex = new int[retrySlots.size()];
+            for (int i = 0; i < retryIndex.length; i++) {
+                retryIndex[i] = retrySlots.get(i);
+                retry.add(original.requests().get(retryIndex[i]));
+            }
+            TimeValue delay = backoff.next();
+            try {
+                scheduler.schedule(() -> send(retry, retryIndex), delay.millis(), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // 已关闭，不再重试，保留 429 失败结果
+                finish(null);
+            }
+        }
+
+        private void finish(Exception failure) {
+            try {
+                if (failure != null) {
+                    listener.afterBulk(executionId, original, failure);
+                } else {
+                    long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                    listener.afterBulk(executionId, original, new BulkResponse(results, took));
+                }
+            } finally {
+                inFlight.release();
+            }
+        }
+    }
+
+    public static class Builder {
+        private final RestHighLevelClient client;
+        private final BulkProcessor.Listener listener;
+        private RequestOptions options = RequestOptions.DEFAULT;
+        private BackoffPolicy backoffPolicy = BackoffPolicy.exponentialBackoff(TimeValue.timeValueMillis(100), 8);
+        private WriteRequest.RefreshPolicy refreshPolicy = WriteRequest.RefreshPolicy.NONE;
+        private TimeValue timeout = TimeValue.timeValueMinutes(2);
+        private TimeValue flushInterval = TimeValue.timeValueSeconds(1);
+        private TimeValue targetLatency = TimeValue.timeValueMillis(500);
+        private long maxBytes = 5 * 1024 * 1024;
+        private int initialActions = 1000;
+        private int minActions = 100;
+        private int maxActions = 10000;
+        private int concurrentRequests = 4;
+
+        private Builder(RestHighLevelClient client, BulkProcessor.Listener listener) {
+            this.client = client;
+            this.listener = listener;
+        }
+
+        public Builder setRequestOptions(RequestOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        public Builder setBackoffPolicy(BackoffPolicy backoffPolicy) {
+            this.backoffPolicy = backoffPolicy;
+            return this;
+        }
+
+        public Builder setRefreshPolicy(WriteRequest.RefreshPolicy refreshPolicy) {
+            this.refreshPolicy = refreshPolicy;
+            return this;
+        }
+
+        public Builder setTimeout(TimeValue timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * 定时发送未满批次的间隔，null 表示不定时发送。
+         */
+        public Builder setFlushInterval(TimeValue flushInterval) {
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        /**
+         * 期望的单批耗时，批次大小围绕它调整。
+         */
+        public Builder setTargetLatency(TimeValue targetLatency) {
+            this.targetLatency = targetLatency;
+            return this;
+        }
+
+        public Builder setMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Builder setBatchActions(int initial, int min, int max) {
+            if (min <= 0 || min > initial || initial > max) {
+                throw new IllegalArgumentException("expected 0 < min <= initial <= max but got ["
+                        + min + ", " + initial + ", " + max + "]");
+            }
+            this.initialActions = initial;
+            this.minActions = min;
+            this.maxActions = max;
+            return this;
+        }
+
+        public Builder setConcurrentRequests(int concurrentRequests) {
+            if (concurrentRequests < 1) {
+                throw new IllegalArgumentException("concurrentRequests must be >= 1");
+            }
+            this.concurrentRequests = concurrentRequests;
+            return this;
+        }
+
+        public BulkIngester build() {
+            return new BulkIngester(this);
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package my.bulk;
+
+import org.apache.http.client.config.RequestConfig;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthRequest;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.elasticsearch.action.admin.indices.forcemerge.ForceMergeRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.client.indices.GetMappingsRequest;
+import org.elasticsearch.client.indices.GetMappingsResponse;
+import org.elasticsearch.client.indices.PutMappingRequest;
+import org.elasticsearch.cluster.metadata.MappingMetadata;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.core.TimeValue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 初次导入、回填时的批量写入会话。打开时把索引临时调成适合大批量写入的设置：
+ * number_of_replicas: 0（每个文档只写一次，副本在结束时整体复制分段）、refresh_interval: -1（不生成大量小分段），
+ * 写入不等待刷新（{@link BulkIngester} 的 refresh policy 固定为 NONE）。
+ * 关闭时依次等待在途写入、refresh、强制合并、恢复原设置并等待索引变绿；先合并再加副本，副本直接复制合并后的分段。
+ * <p>
+ * 调整设置之前先把原设置写进索引 mapping 的 _meta（bulk_load_session），加载进程崩溃后它留在索引上：
+ * 下次对同一索引打开会话时沿用其中的原设置，也可以调用 {@link #recover} 直接恢复。进程正常退出（包括 SIGTERM）时由 shutdown hook 恢复设置。
+ * 导入期间的数据在关闭前不可搜索，也只有一份，节点故障会丢失导入中的数据，需要从头重新导入。
+ * <pre>
+ * try (BulkLoadSession session = BulkLoadSession.builder(client, "java-api-demo-idx",
+ *             BulkIngester.builder(client, listener).setConcurrentRequests(8))
+ *         .setCreateIndexRequest(createIndexRequest)
+ *         .open()) {
+ *     session.add(new IndexRequest("java-api-demo-idx").id(id).source(...));
+ * }
+ * </pre>
+ */
+public class BulkLoadSession implements Closeable {
+
+    static final String META_KEY = "bulk_load_session";
+    static final String REPLICAS = "index.number_of_replicas";
+    static final String REFRESH_INTERVAL = "index.refresh_interval";
+
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final RequestOptions longOptions;
+    private final String index;
+    private final Settings loadSettings;
+    private final int maxNumSegments;
+    private final TimeValue closeTimeout;
+    private final BulkIngester ingester;
+    private final Thread shutdownHook;
+    // 导入前的设置，null 表示原来未显式设置（使用默认值）
+    private Map<String, String> original;
+    private boolean recovered;
+    private boolean closed;
+
+    private BulkLoadSession(Builder builder) {
+        this.client = builder.client;
+        this.options = builder.options;
+        this.longOptions = builder.options.toBuilder()
+                .setRequestConfig(longRequestConfig(builder.options.getRequestConfig(), builder.closeTimeout))
+                .build();
+        this.index = builder.index;
+        this.loadSettings = builder.loadSettings.build();
+        this.maxNumSegments = builder.maxNumSegments;
+        this.closeTimeout = builder.closeTimeout;
+        this.ingester = builder.ingester
+                .setRequestOptions(builder.options)
+                .setRefreshPolicy(WriteRequest.RefreshPolicy.NONE)
+                .build();
+        this.shutdownHook = builder.shutdownHook ? new Thread(this::restoreQuietly, "bulk-load-session-restore") : null;
+    }
+
+    /**
+     * 强制合并和等待变绿可能远超默认的 30s 读超时，只放宽读超时。
+     * 按请求的配置会整体替换客户端的配置，未设置的字段变成不限，所以要在原配置上修改；
+     * 请求选项里没有配置时连接超时取 RestClientBuilder 的默认值。
+     */
+    static RequestConfig longRequestConfig(RequestConfig base, TimeValue closeTimeout) {
+        RequestConfig.Builder config = base != null
+                ? RequestConfig.copy(base)
+                : RequestConfig.custom().setConnectTimeout(RestClientBuilder.DEFAULT_CONNECT_TIMEOUT_MILLIS);
+        return config.setSocketTimeout((int) Math.min(Integer.MAX_VALUE, closeTimeout.millis() + 60_000)).build();
+    }
+
+    /**
+     * @param ingester 写入使用的 BulkIngester 配置，refresh policy 会被改为 NONE
+     */
+    public static Builder builder(RestHighLevelClient client, String index, BulkIngester.Builder ingester) {
+        return new Builder(client, index, ingester);
+    }
+
+    public static class Builder {
+        private final RestHighLevelClient client;
+        private final String index;
+        private final BulkIngester.Builder ingester;
+        private final Settings.Builder loadSettings = Settings.builder()
+                .put(REPLICAS, 0)
+                .put(REFRESH_INTERVAL, "-1");
+        private RequestOptions options = RequestOptions.DEFAULT;
+        private CreateIndexRequest createIndexRequest;
+        private int maxNumSegments = 1;
+        private TimeValue closeTimeout = TimeValue.timeValueMinutes(30);
+        private boolean shutdownHook = true;
+
+        private Builder(RestHighLevelClient client, String index, BulkIngester.Builder ingester) {
+            this.client = client;
+            this.index = index;
+            this.ingester = ingester;
+        }
+
+        public Builder setRequestOptions(RequestOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        /**
+         * 索引不存在时用它创建，设置与 mapping 以它为准（导入结束后恢复成其中的副本数和刷新间隔）。
+         */
+        public Builder setCreateIndexRequest(CreateIndexRequest createIndexRequest) {
+            this.createIndexRequest = createIndexRequest;
+            return this;
+        }
+
+        /**
+         * 导入期间额外调整的动态设置，例如 "index.translog.durability": "async"，结束时同样恢复。
+         */
+        public Builder setLoadSetting(String key, String value) {
+            loadSettings.put(key, value);
+            return this;
+        }
+
+        /**
+         * 结束时强制合并到的分段数，默认 1；0 表示不合并（导入后还会持续写入的索引）。
+         */
+        public Builder setMaxNumSegments(int maxNumSegments) {
+            if (maxNumSegments < 0) {
+                throw new IllegalArgumentException("maxNumSegments must be >= 0");
+            }
+            this.maxNumSegments = maxNumSegments;
+            return this;
+        }
+
+        /**
+         * 关闭时等待在途写入、强制合并与索引变绿各自的超时，默认 30 分钟。
+         */
+        public Builder setCloseTimeout(TimeValue closeTimeout) {
+            this.closeTimeout = closeTimeout;
+            return this;
+        }
+
+        /**
+         * 是否注册 shutdown hook 在进程退出时恢复设置，默认 true。
+         */
+        public Builder setShutdownHook(boolean shutdownHook) {
+            this.shutdownHook = shutdownHook;
+            return this;
+        }
+
+        /**
+         * 必要时创建索引，记下原设置并切换到导入设置。
+         */
+        public BulkLoadSession open() throws IOException {
+            BulkLoadSession session = new BulkLoadSession(this);
+            try {
+                session.start(createIndexRequest);
+            } catch (IOException | RuntimeException e) {
+                session.ingester.close();
+                throw e;
+            }
+            return session;
+        }
+    }
+
+    private void start(CreateIndexRequest createIndexRequest) throws IOException {
+        if (!client.indices().exists(new GetIndexRequest(index), options)) {
+            if (createIndexRequest == null) {
+                throw new IllegalArgumentException("index [" + index + "] does not exist and no create index request was given");
+            }
+            // 先按目标设置创建，记下原设置后再切换，任何一步崩溃都能恢复
+            client.indices().create(createIndexRequest, options);
+        }
+        Map<String, Object> meta = readMeta();
+        Map<String, String> marker = marker(meta);
+        // 上一次导入没有正常结束时，标记中的键当前是导入设置，原设置以标记为准
+        recovered = marker != null;
+        original = recovered ? marker : new LinkedHashMap<>();
+        if (!original.keySet().containsAll(loadSettings.keySet())) {
+            // 标记之外的键没有被上一次导入改过，当前值就是原设置，先补进标记再应用导入设置
+            GetSettingsResponse settings = client.indices().getSettings(new GetSettingsRequest().indices(index), options);
+            for (String key : loadSettings.keySet()) {
+                if (!original.containsKey(key)) {
+                    original.put(key, settings.getSetting(index, key));
+                }
+            }
+            Map<String, Object> withMarker = new LinkedHashMap<>(meta);
+            withMarker.put(META_KEY, original);
+            writeMeta(withMarker);
+        }
+        client.indices().putSettings(new UpdateSettingsRequest(index).settings(loadSettings), options);
+        if (shutdownHook != null) {
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+    }
+
+    /**
+     * 如果索引上留有未结束的导入标记，恢复其中记录的原设置并清除标记。
+     *
+     * @return 是否做了恢复
+     */
+    public static boolean recover(RestHighLevelClient client, String index, RequestOptions options) throws IOException {
+        Map<String, Object> meta = readMeta(client, index, options);
+        Map<String, String> marker = marker(meta);
+        if (marker == null) {
+            return false;
+        }
+        restore(client, index, options, marker, meta);
+        return true;
+    }
+
+    /**
+     * 添加一条写操作，见 {@link BulkIngester#add}。
+     */
+    public void add(DocWriteRequest<?> request) throws InterruptedException {
+        ingester.add(request);
+    }
+
+    public void flush() throws InterruptedException {
+        ingester.flush();
+    }
+
+    /**
+     * 导入前的设置，null 值表示原来使用默认值。
+     */
+    public Map<String, String> originalSettings() {
+        return Collections.unmodifiableMap(original);
+    }
+
+    /**
+     * 是否接手了上一次崩溃的导入（原设置取自索引上的标记）。
+     */
+    public boolean recovered() {
+        return recovered;
+    }
+
+    /**
+     * 等待在途写入，refresh、强制合并，恢复原设置并等待索引变绿。
+     * 在途写入超时时跳过 refresh 与合并；refresh 或合并失败时同样先恢复设置再抛出。
+     *
+     * @throws IllegalStateException 在途写入或变绿超时；此时设置已经恢复
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            boolean drained;
+            try {
+                drained = ingester.awaitClose(closeTimeout.millis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                drained = false;
+            }
+            // 写入仍在途时合并没有意义，还可能一直等到超时，直接恢复设置
+            if (drained) {
+                try {
+                    client.indices().refresh(new RefreshRequest(index), options);
+                    if (maxNumSegments > 0) {
+                        client.indices().forcemerge(new ForceMergeRequest(index).maxNumSegments(maxNumSegments), longOptions);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // 否则索引会一直没有副本、不 refresh，而 shutdown hook 马上就要移除
+                    try {
+                        restore(client, index, options, original, readMeta());
+                    } catch (IOException | RuntimeException suppressed) {
+                        e.addSuppressed(suppressed);
+                    }
+                    throw e;
+                }
+            }
+            restore(client, index, options, original, readMeta());
+            if (!drained) {
+                throw new IllegalStateException("bulk writes to [" + index + "] did not finish within [" + closeTimeout + "]");
+            }
+            ClusterHealthResponse health = client.cluster().health(new ClusterHealthRequest(index)
+                    .waitForGreenStatus()
+                    .timeout(closeTimeout), longOptions);
+            if (health.isTimedOut()) {
+                throw new IllegalStateException("index [" + index + "] is still [" + health.getStatus()
+                        + "] after [" + closeTimeout + "]");
+            }
+        } finally {
+            removeShutdownHook();
+        }
+    }
+
+    /**
+     * 放弃导入：关闭写入器、移除 shutdown hook，不合并也不恢复设置，标记留在索引上。用于随后删除该索引的场景。
+     */
+    public synchronized void discard() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        ingester.close();
+        removeShutdownHook();
+    }
+
+    private void removeShutdownHook() {
+        if (shutdownHook == null) {
+            return;
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // 正在退出，hook 已经在运行
+        }
+    }
+
+    // 进程退出时只恢复设置，不等待写入与合并
+    private void restoreQuietly() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        try {
+            restore(client, index, options, original, readMeta());
+        } catch (Exception e) {
+            // 标记仍在索引上，下次打开会话或调用 recover 时恢复
+        }
+    }
+
+    // 先恢复设置再清除标记，中途失败时标记仍在
+    private static void restore(RestHighLevelClient client, String index, RequestOptions options,
+                                Map<String, String> original, Map<String, Object> meta) throws IOException {
+        Settings.Builder settings = Settings.builder();
+        for (Map.Entry<String, String> entry : original.entrySet()) {
+            if (entry.getValue() == null) {
+                settings.putNull(entry.getKey());
+            } else {
+                settings.put(entry.getKey(), entry.getValue());
+            }
+        }
+        client.indices().putSettings(new UpdateSettingsRequest(index).settings(settings), options);
+        Map<String, Object> withoutMarker = new LinkedHashMap<>(meta);
+        withoutMarker.remove(META_KEY);
+        client.indices().putMapping(new PutMappingRequest(index)
+                .source(Collections.singletonMap("_meta", withoutMarker)), options);
+    }
+
+    private Map<String, Object> readMeta() throws IOException {
+        return readMeta(client, index, options);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> readMeta(RestHighLevelClient client, String index, RequestOptions options)
+            throws IOException {
+        GetMappingsResponse response = client.indices().getMapping(new GetMappingsRequest().indices(index), options);
+        MappingMetadata mapping = response.mappings().get(index);
+        Object meta = mapping == null ? null : mapping.getSourceAsMap().get("_meta");
+        return meta instanceof Map ? (Map<String, Object>) meta : Collections.emptyMap();
+    }
+
+    // _meta 整体替换，需要带上已有的内容
+    private void writeMeta(Map<String, Object> meta) throws IOException {
+        client.indices().putMapping(new PutMappingRequest(index).source(Collections.singletonMap("_meta", meta)), options);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> marker(Map<String, Object> meta) {
+        Object marker = meta.get(META_KEY);
+        if (!(marker instanceof Map)) {
+            return null;
+        }
+        Map<String, String> original = new HashMap<>();
+        for (Map.Entry<String, Object> entry : ((Map<String, Object>) marker).entrySet()) {
+            original.put(entry.getKey(), entry.getValue() == null ? null : entry.getValue().toString());
+        }
+        return original;
+    }
+}
@@ -0,0 +1,569 @@
+package my.bulk;
+
+import my.async.AsyncClient;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.lucene.uid.Versions;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.index.seqno.SequenceNumbers;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 热点文档的局部更新合并器（write-behind）。
+ * 同一 index/id/routing 在一个时间窗口内的多次 {@code doc(...)} 局部更新，按提交顺序深度合并（与 ES 合并 partial doc 的规则一致）
+ * 成一次更新，窗口结束时通过 bulk 发送，减少版本冲突（409）和重复索引。
+ * <p>
+ * 同一个文档同时最多只有一次更新在途，后到的更新在它完成后才发送，保证单个文档上的顺序。
+ * 带脚本、带 if_seq_no/version 条件的更新，以及语义上不能合并的 upsert 组合，不参与合并，但仍按顺序排队。
+ * 被合并的各个调用方拿到的是同一个（合并后更新的）UpdateResponse。
+ * <p>
+ * 批次的 refresh 策略取批内请求中最强的一个（IMMEDIATE &gt; WAIT_UNTIL &gt; NONE），设在 bulk 上，
+ * 因此单独带 WAIT_UNTIL 的请求会让整批等待刷新。
+ * {@link #flush()} 返回的 future 在调用时已提交的更新全部完成后结束；{@link #close()} 会等待所有更新落盘后才返回（有超时）。
+ * 请求提交后不要再修改。
+ */
+public class UpdateCoalescer implements Closeable {
+
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final TimeValue timeout;
+    private final int maxBatchSize;
+    private final int concurrentRequests;
+    private final int retryOnConflict;
+    private final int maxRetries;
+    private final TimeValue closeTimeout;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService callbackExecutor;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    // 每个文档一个队列，队首是下一次要发送的（可能已合并的）更新；有序以便按到达顺序发送
+    private final Map<String, Deque<Pending>> queues = new LinkedHashMap<>();
+    // 正在发送中的文档
+    private final Map<String, Pending> inFlight = new HashMap<>();
+    // 在途 bulk 的 HTTP 请求，关闭超时时取消
+    private final Map<List<Pending>, Cancellable> requests = new IdentityHashMap<>();
+    private int inFlightBulks = 0;
+    private boolean closed = false;
+    private boolean aborted = false;
+
+    private UpdateCoalescer(Builder builder) {
+        this.client = builder.client;
+        this.options = builder.options;
+        this.timeout = builder.timeout;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.concurrentRequests = builder.concurrentRequests;
+        this.retryOnConflict = builder.retryOnConflict;
+        this.maxRetries = builder.maxRetries;
+        this.closeTimeout = builder.closeTimeout;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "update-coalescer-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.callbackExecutor = AsyncClient.newCallbackExecutor();
+        long millis = builder.window.millis();
+        timer.scheduleWithFixedDelay(this::sendReady, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    public static Builder builder(RestHighLevelClient client) {
+        return new Builder(client);
+    }
+
+    /**
+     * 提交一次更新，返回的 future 在合并后的更新完成时结束。
+     */
+    public CompletableFuture<UpdateResponse> update(UpdateRequest request) {
+        if (request.index() == null || request.id() == null) {
+            throw new IllegalArgumentException("update request needs both index and id");
+        }
+        CompletableFuture<UpdateResponse> future = new CompletableFuture<>();
+        String key = request.index() + '\0' + request.id() + '\0' + request.routing();
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("update coalescer already closed");
+            }
+            Deque<Pending> queue = queues.computeIfAbsent(key, k -> new ArrayDeque<>());
+            Pending last = queue.peekLast();
+            if (last != null && last.canMerge(request)) {
+                last.merge(request, future);
+            } else {
+                queue.addLast(new Pending(key, request, future));
+            }
+        }
+        submitted.incrementAndGet();
+        return future;
+    }
+
+    /**
+     * 立即发送可以发送的更新（不等窗口结束）。返回的 future 在调用时已提交的更新全部完成后结束，单个更新失败不影响它。
+     */
+    public CompletableFuture<Void> flush() {
+        List<CompletableFuture<UpdateResponse>> outstanding = new ArrayList<>();
+        synchronized (this) {
+            for (Deque<Pending> queue : queues.values()) {
+                for (Pending pending : queue) {
+                    outstanding.addAll(pending.callers);
+                }
+            }
+            for (Pending pending : inFlight.values()) {
+                outstanding.addAll(pending.callers);
+            }
+        }
+        sendReady();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[outstanding.size()];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = outstanding.get(i).handle((response, e) -> null);
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * 提交的更新数量。
+     */
+    public long submitted() {
+        return submitted.get();
+    }
+
+    /**
+     * 实际发送的更新数量，submitted / sent 即平均合并倍数。
+     */
+    public long sent() {
+        return sent.get();
+    }
+
+    public long batches() {
+        return batches.get();
+    }
+
+    /**
+     * 尚未完成的文档更新数（排队中 + 在途）。
+     */
+    public synchronized int pending() {
+        int count = inFlight.size();
+        for (Deque<Pending> queue : queues.values()) {
+            count += queue.size();
+        }
+        return count;
+    }
+
+    // 把所有不在途的文档的队首更新取出来发送
+    private void sendReady() {
+        while (true) {
+            List<Pending> batch = new ArrayList<>();
+            synchronized (this) {
+                if (inFlightBulks >= concurrentRequests) {
+                    return;
+                }
+                Iterator<Map.Entry<String, Deque<Pending>>> it = queues.entrySet().iterator();
+                while (it.hasNext() && batch.size() < maxBatchSize) {
+                    Map.Entry<String, Deque<Pending>> entry = it.next();
+                    if (inFlight.containsKey(entry.getKey())) {
+                        continue;
+                    }
+                    Pending pending = entry.getValue().pollFirst();
+                    if (entry.getValue().isEmpty()) {
+                        it.remove();
+                    }
+                    inFlight.put(pending.key, pending);
+                    batch.add(pending);
+                }
+                if (batch.isEmpty()) {
+                    return;
+                }
+                inFlightBulks++;
+            }
+            send(batch);
+        }
+    }
+
+    private void send(List<Pending> batch) {
+        BulkRequest request = new BulkRequest();
+        if (timeout != null) {
+            request.timeout(timeout);
+        }
+        // bulk 中的条目不能带 refresh 策略（BulkRequest.validate 会拒绝），统一设在 bulk 上
+        WriteRequest.RefreshPolicy refreshPolicy = WriteRequest.RefreshPolicy.NONE;
+        for (Pending pending : batch) {
+            refreshPolicy = stronger(refreshPolicy, pending.refreshPolicy);
+            request.add(pending.toRequest(retryOnConflict));
+        }
+        request.setRefreshPolicy(refreshPolicy);
+        batches.incrementAndGet();
+        sent.addAndGet(batch.size());
+        Cancellable cancellable;
+        try {
+            cancellable = client.bulkAsync(request, options, new ActionListener<BulkResponse>() {
+                @Override
+                public void onResponse(BulkResponse response) {
+                    complete(() -> onBulk(batch, response.getItems(), null));
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    complete(() -> onBulk(batch, null, e));
+                }
+            });
+        } catch (RuntimeException e) {
+            onBulk(batch, null, e);
+            return;
+        }
+        boolean cancel = false;
+        synchronized (this) {
+            // 响应可能已经先到了，此时 onBulk 已把这批移出 inFlight
+            Pending head = batch.get(0);
+            if (inFlight.get(head.key) == head) {
+                if (aborted) {
+                    cancel = true;
+                } else {
+                    requests.put(batch, cancellable);
+                }
+            }
+        }
+        if (cancel) {
+            cancellable.cancel();
+        }
+    }
+
+    // 关闭后执行器会拒绝任务，此时直接在当前线程处理
+    private void complete(Runnable completion) {
+        try {
+            callbackExecutor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            completion.run();
+        }
+    }
+
+    private void onBulk(List<Pending> batch, BulkItemResponse[] items, Exception failure) {
+        boolean[] requeued = new boolean[batch.size()];
+        synchronized (this) {
+            inFlightBulks--;
+            requests.remove(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                Pending pending = batch.get(i);
+                inFlight.remove(pending.key);
+                BulkItemResponse item = items == null ? null : items[i];
+                if (item != null && item.isFailed() && item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS
+                        && pending.attempts < maxRetries && !aborted) {
+                    // 被拒绝的更新放回队首，下一个窗口重发，仍然排在同一文档后续更新之前
+                    pending.attempts++;
+                    queues.computeIfAbsent(pending.key, k -> new ArrayDeque<>()).addFirst(pending);
+                    requeued[i] = true;
+                }
+            }
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Pending pending = batch.get(i);
+            if (requeued[i]) {
+                continue;
+            }
+            if (failure != null) {
+                pending.fail(failure);
+            } else if (items[i].isFailed()) {
+                pending.fail(items[i].getFailure().getCause());
+            } else {
+                pending.complete(items[i].getResponse());
+            }
+        }
+    }
+
+    // IMMEDIATE 返回时也已可见，满足 WAIT_UNTIL 的要求，因此最强
+    static WriteRequest.RefreshPolicy stronger(WriteRequest.RefreshPolicy a, WriteRequest.RefreshPolicy b) {
+        return rank(b) > rank(a) ? b : a;
+    }
+
+    private static int rank(WriteRequest.RefreshPolicy policy) {
+        switch (policy) {
+            case IMMEDIATE:
+                return 2;
+            case WAIT_UNTIL:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 发送剩余的更新并等待全部完成。
+     *
+     * @return 是否在超时前全部完成；超时后仍在排队或在途的更新以 {@link IllegalStateException} 结束，
+     *         在途的 bulk 被取消（服务端可能已经执行了其中的更新）
+     */
+    public boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
+        synchronized (this) {
+            closed = true;
+        }
+        boolean drained;
+        try {
+            flush().get(timeout, unit);
+            drained = true;
+        } catch (TimeoutException e) {
+            drained = false;
+        } catch (ExecutionException e) {
+            // flush 的 future 不会异常结束
+            drained = false;
+        }
+        if (!drained) {
+            List<Pending> rest = new ArrayList<>();
+            List<Pending> running;
+            List<Cancellable> cancellables;
+            synchronized (this) {
+                aborted = true;
+                for (Deque<Pending> queue : queues.values()) {
+                    rest.addAll(queue);
+                }
+                queues.clear();
+                running = new ArrayList<>(inFlight.values());
+                cancellables = new ArrayList<>(requests.values());
+                requests.clear();
+            }
+            IllegalStateException e = new IllegalStateException("update coalescer closed before the update was sent");
+            for (Pending pending : rest) {
+                pending.fail(e);
+            }
+            IllegalStateException timedOut = new IllegalStateException("update coalescer closed before the update completed");
+            for (Pending pending : running) {
+                pending.fail(timedOut);
+            }
+            for (Cancellable cancellable : cancellables) {
+                cancellable.cancel();
+            }
+        }
+        timer.shutdown();
+        callbackExecutor.shutdown();
+        return drained;
+    }
+
+    @Override
+    public void close() {
+        try {
+            awaitClose(closeTimeout.millis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 一个文档上排队的更新，可能由多次提交合并而成。
+     */
+    static class Pending {
+        final String key;
+        final UpdateRequest first;
+        final List<CompletableFuture<UpdateResponse>> callers = new ArrayList<>(1);
+        // 发生合并后才转换为 Map
+        Map<String, Object> doc;
+        Map<String, Object> upsert;
+        WriteRequest.RefreshPolicy refreshPolicy;
+        int attempts = 0;
+
+        Pending(String key, UpdateRequest first, CompletableFuture<UpdateResponse> future) {
+            this.key = key;
+            this.first = first;
+            this.refreshPolicy = first.getRefreshPolicy();
+            callers.add(future);
+        }
+
+        /**
+         * 合并后的结果必须与依次执行两次更新一致：文档存在时是 doc 的深度合并；文档不存在时，
+         * 只有在前一次会创建文档（upsert / doc_as_upsert）或后一次不会创建文档的情况下才等价。
+         */
+        boolean canMerge(UpdateRequest later) {
+            if (!partial(first) || !partial(later)) {
+                return false;
+            }
+            boolean laterCreates = later.upsertRequest() != null || later.docAsUpsert();
+            boolean firstCreates = first.upsertRequest() != null || first.docAsUpsert();
+            return !laterCreates || firstCreates;
+        }
+
+        private static boolean partial(UpdateRequest request) {
+            return request.doc() != null && request.script() == null
+                    && request.ifSeqNo() == SequenceNumbers.UNASSIGNED_SEQ_NO && request.version() == Versions.MATCH_ANY;
+        }
+
+        void merge(UpdateRequest later, CompletableFuture<UpdateResponse> future) {
+            if (doc == null) {
+                doc = first.doc().sourceAsMap();
+                if (first.upsertRequest() != null) {
+                    upsert = first.upsertRequest().sourceAsMap();
+                }
+            }
+            XContentHelper.update(doc, later.doc().sourceAsMap(), false);
+            if (upsert != null) {
+                // 文档不存在时先由 upsert 创建，再应用后续的 doc
+                XContentHelper.update(upsert, later.doc().sourceAsMap(), false);
+            }
+            refreshPolicy = stronger(refreshPolicy, later.getRefreshPolicy());
+            callers.add(future);
+        }
+
+        /**
+         * 发送用的 bulk 条目：总是新对象，不修改调用方的请求；refresh 策略为 NONE，由 bulk 统一设置。
+         */
+        UpdateRequest toRequest(int minRetryOnConflict) {
+            UpdateRequest request;
+            if (doc != null) {
+                request = new UpdateRequest(first.index(), first.id())
+                        .routing(first.routing())
+                        .doc(doc)
+                        .docAsUpsert(first.docAsUpsert())
+                        .detectNoop(first.detectNoop())
+                        .retryOnConflict(first.retryOnConflict())
+                        .waitForActiveShards(first.waitForActiveShards());
+                if (first.fetchSource() != null) {
+                    request.fetchSource(first.fetchSource());
+                }
+                if (upsert != null) {
+                    request.upsert(upsert);
+                }
+            } else {
+                request = copy(first);
+            }
+            request.setRefreshPolicy(WriteRequest.RefreshPolicy.NONE);
+            if (request.retryOnConflict() < minRetryOnConflict) {
+                request.retryOnConflict(minRetryOnConflict);
+            }
+            return request;
+        }
+
+        // 未合并的请求可能带脚本、条件等任意字段，序列化一次得到完整副本
+        private static UpdateRequest copy(UpdateRequest request) {
+            try (BytesStreamOutput out = new BytesStreamOutput()) {
+                request.writeTo(out);
+                try (StreamInput in = out.bytes().streamInput()) {
+                    return new UpdateRequest(in);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void complete(DocWriteResponse response) {
+            for (CompletableFuture<UpdateResponse> caller : callers) {
+                caller.complete((UpdateResponse) response);
+            }
+        }
+
+        void fail(Exception e) {
+            for (CompletableFuture<UpdateResponse> caller : callers) {
+                caller.completeExceptionally(e);
+            }
+        }
+    }
+
+    public static class Builder {
+        private final RestHighLevelClient client;
+        private RequestOptions options = RequestOptions.DEFAULT;
+        private TimeValue window = TimeValue.timeValueMillis(200);
+        private TimeValue timeout = TimeValue.timeValueMinutes(2);
+        private TimeValue closeTimeout = TimeValue.timeValueSeconds(30);
+        private int maxBatchSize = 1000;
+        private int concurrentRequests = 2;
+        private int retryOnConflict = 3;
+        private int maxRetries = 3;
+
+        private Builder(RestHighLevelClient client) {
+            this.client = client;
+        }
+
+        public Builder setRequestOptions(RequestOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        /**
+         * 合并窗口，也是发送的周期。同一文档在一个窗口内的更新合并为一次。
+         */
+        public Builder setWindow(TimeValue window) {
+            if (window.millis() < 1) {
+                throw new IllegalArgumentException("window must be >= 1ms");
+            }
+            this.window = window;
+            return this;
+        }
+
+        public Builder setTimeout(TimeValue timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * {@link #close()} 等待剩余更新完成的最长时间。
+         */
+        public Builder setCloseTimeout(TimeValue closeTimeout) {
+            this.closeTimeout = closeTimeout;
+            return this;
+        }
+
+        public Builder setMaxBatchSize(int maxBatchSize) {
+            if (maxBatchSize < 1) {
+                throw new IllegalArgumentException("maxBatchSize must be >= 1");
+            }
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        public Builder setConcurrentRequests(int concurrentRequests) {
+            if (concurrentRequests < 1) {
+                throw new IllegalArgumentException("concurrentRequests must be >= 1");
+            }
+            this.concurrentRequests = concurrentRequests;
+            return this;
+        }
+
+        /**
+         * 发送的每个更新至少带上的 retry_on_conflict，与其他写入方冲突时由服务端重试。
+         */
+        public Builder setRetryOnConflict(int retryOnConflict) {
+            this.retryOnConflict = retryOnConflict;
+            return this;
+        }
+
+        /**
+         * 被 429 拒绝的更新最多重发几次（在之后的窗口中）。
+         */
+        public Builder setMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        public UpdateCoalescer build() {
+            return new UpdateCoalescer(this);
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package my.cache;
+
+import my.search.SearchExporter;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.core.CountRequest;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个索引的 exists 前置过滤：客户端维护一个 _id 的计数布隆过滤器，过滤器判定不存在的 id 直接返回 false，
+ * 只有“可能存在”的才发给集群。适合大部分 id 都不存在的查重场景。
+ * <ul>
+ *     <li>过滤器由 PIT 切片扫描全部 _id 建立（不取 _source），之后由通过本类的 index / update / delete（或调用 {@link #onWrite}）维护：
+ *     结果为 created 时加入、deleted 时删除；结果不确定（请求异常、条目失败）时按存在处理</li>
+ *     <li>只删除通过本类加入过的 id：扫描建立或其他途径写入的 id 可能本来就是误判，扣减会让其他 id 变成假阴性。
+ *     这些文档被删除后到下次重建前仍判为可能存在；为此要在堆上保存上次重建以来加入的 id</li>
+ *     <li>只有通过本类记录的写入才会进入过滤器，其他途径写入的文档在下次重建前会被误判为不存在，
+ *     其他写入方需要调用 {@link #onWrite}，或者设置较短的重建间隔</li>
+ *     <li>文档数超过容量时在后台按两倍文档数重建；重建期间继续使用旧过滤器</li>
+ * </ul>
+ * 索引名必须是具体索引名，不能是别名。
+ * <pre>
+ * BloomExistsClient exists = BloomExistsClient.builder(client, "java-api-demo-idx")
+ *     .setFalsePositiveProbability(0.01)
+ *     .setSlices(3)
+ *     .build();
+ * boolean found = exists.exists(new GetRequest("java-api-demo-idx", "9"), RequestOptions.DEFAULT);
+ * </pre>
+ */
+public class BloomExistsClient implements Closeable {
+
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final String index;
+    private final long expectedDocuments;
+    private final double fpp;
+    private final int slices;
+    private final int pageSize;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean reseedPending = new AtomicBoolean();
+    private final Object writeLock = new Object();
+    private final AtomicLong localMisses = new AtomicLong();
+    private final AtomicLong remoteChecks = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+    private final AtomicLong reseeds = new AtomicLong();
+    private final AtomicLong reseedFailures = new AtomicLong();
+
+    private volatile CountingBloomFilter filter;
+    // 重建中的过滤器，期间的新增同时写入两边
+    private CountingBloomFilter building;
+    // 通过本类加入 filter / building 的 id，只有它们可以安全地删除；与上面的字段一样由 writeLock 保护
+    private Set<String> recorded = new HashSet<>();
+    private Set<String> buildingRecorded;
+    private volatile Exception lastFailure;
+
+    private BloomExistsClient(Builder builder) {
+        this.client = builder.client;
+        this.options = builder.options;
+        this.index = builder.index;
+        this.expectedDocuments = builder.expectedDocuments;
+        this.fpp = builder.fpp;
+        this.slices = builder.slices;
+        this.pageSize = builder.pageSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bloom-exists-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        if (builder.reseedInterval != null) {
+            long interval = builder.reseedInterval.millis();
+            scheduler.scheduleWithFixedDelay(this::backgroundReseed, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static Builder builder(RestHighLevelClient client, String index) {
+        return new Builder(client, index);
+    }
+
+    public static class Builder {
+        private final RestHighLevelClient client;
+        private final String index;
+        private RequestOptions options = RequestOptions.DEFAULT;
+        private long expectedDocuments = 10_000;
+        private double fpp = 0.01;
+        private int slices = 1;
+        private int pageSize = 5000;
+        private TimeValue reseedInterval;
+
+        private Builder(RestHighLevelClient client, String index) {
+            this.client = client;
+            this.index = index;
+        }
+
+        /**
+         * 扫描与重建使用的请求选项，exists 与写入使用调用时传入的选项。
+         */
+        public Builder setRequestOptions(RequestOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        /**
+         * 过滤器容量的下限，默认 10000；实际容量取它与当前文档数两倍中的较大者。
+         */
+        public Builder setExpectedDocuments(long expectedDocuments) {
+            if (expectedDocuments < 1) {
+                throw new IllegalArgumentException("expectedDocuments must be >= 1");
+            }
+            this.expectedDocuments = expectedDocuments;
+            return this;
+        }
+
+        /**
+         * 容量内的误判率，默认 0.01。每个文档约占 -ln(p) / ln(2)^2 个 4 位计数器，0.01 时约 4.8 字节。
+         */
+        public Builder setFalsePositiveProbability(double fpp) {
+            if (!(fpp > 0 && fpp < 1)) {
+                throw new IllegalArgumentException("fpp must be in (0, 1) but was [" + fpp + "]");
+            }
+            this.fpp = fpp;
+            return this;
+        }
+
+        /**
+         * 扫描 _id 的并行切片数，一般取主分片数，默认 1。
+         */
+        public Builder setSlices(int slices) {
+            if (slices < 1) {
+                throw new IllegalArgumentException("slices must be >= 1");
+            }
+            this.slices = slices;
+            return this;
+        }
+
+        /**
+         * 扫描的每页文档数，默认 5000（只取 _id）。
+         */
+        public Builder setPageSize(int pageSize) {
+            if (pageSize < 1) {
+                throw new IllegalArgumentException("pageSize must be >= 1");
+            }
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        /**
+         * 定期重建过滤器的间隔，默认 null（只在超过容量或调用 {@link BloomExistsClient#reseed()} 时重建）。
+         * 有不经过本类的写入方时用它兜底。
+         */
+        public Builder setReseedInterval(TimeValue reseedInterval) {
+            this.reseedInterval = reseedInterval;
+            return this;
+        }
+
+        /**
+         * 创建并同步扫描一次全部 _id。
+         */
+        public BloomExistsClient build() throws IOException {
+            BloomExistsClient existsClient = new BloomExistsClient(this);
+            try {
+                existsClient.reseed();
+            } catch (IOException | RuntimeException e) {
+                existsClient.close();
+                throw e;
+            }
+            return existsClient;
+        }
+    }
+
+    /**
+     * 重新扫描全部 _id，建立新的过滤器后替换当前过滤器。
+     */
+    public synchronized void reseed() throws IOException {
+        long count = client.count(new CountRequest(index), options).getCount();
+        CountingBloomFilter next = CountingBloomFilter.create(Math.max(expectedDocuments, count * 2), fpp);
+        synchronized (writeLock) {
+            building = next;
+            buildingRecorded = new HashSet<>();
+        }
+        try {
+            // 此后记录的新增都会进入 next；此前已确认的写入要 refresh 后才能被 PIT 看到
+            client.indices().refresh(new RefreshRequest(index), options);
+            SearchExporter.builder(client, index)
+                    .setRequestOptions(options)
+                    .setSource(new SearchSourceBuilder().fetchSource(false))
+                    .setPageSize(pageSize)
+                    .setSlices(slices)
+                    .build()
+                    .export((slice, hits) -> {
+                        for (SearchHit hit : hits) {
+                            next.add(hit.getId());
+                        }
+                    });
+            synchronized (writeLock) {
+                filter = next;
+                recorded = buildingRecorded;
+            }
+            reseeds.incrementAndGet();
+        } finally {
+            synchronized (writeLock) {
+                building = null;
+                buildingRecorded = null;
+            }
+        }
+    }
+
+    private void backgroundReseed() {
+        reseedPending.set(false);
+        try {
+            reseed();
+        } catch (Exception e) {
+            // 重建失败时继续使用旧过滤器
+            reseedFailures.incrementAndGet();
+            lastFailure = e;
+        }
+    }
+
+    private void requestReseed() {
+        if (reseedPending.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::backgroundReseed);
+            } catch (RejectedExecutionException e) {
+                // 已关闭
+            }
+        }
+    }
+
+    /**
+     * 过滤器判定不存在时直接返回 false，否则请求集群。其他索引的请求直接转发。
+     */
+    public boolean exists(GetRequest request, RequestOptions options) throws IOException {
+        if (!index.equals(request.index())) {
+            return client.exists(request, options);
+        }
+        if (!mightExist(request.id())) {
+            localMisses.incrementAndGet();
+            return false;
+        }
+        remoteChecks.incrementAndGet();
+        boolean exists = client.exists(request, options);
+        if (!exists) {
+            falsePositives.incrementAndGet();
+        }
+        return exists;
+    }
+
+    /**
+     * 该 id 是否可能存在。返回 false 时一定不存在（前提见类说明），可用于批量查重前先筛掉大部分 id。
+     */
+    public boolean mightExist(String id) {
+        return filter.mightContain(id);
+    }
+
+    public IndexResponse index(IndexRequest request, RequestOptions options) throws IOException {
+        IndexResponse response;
+        try {
+            response = client.index(request, options);
+        } catch (IOException | RuntimeException e) {
+            // 请求可能已经生效
+            onUncertainWrite(request.index(), request.id());
+            throw e;
+        }
+        onWrite(response);
+        return response;
+    }
+
+    public UpdateResponse update(UpdateRequest request, RequestOptions options) throws IOException {
+        UpdateResponse response;
+        try {
+            response = client.update(request, options);
+        } catch (IOException | RuntimeException e) {
+            onUncertainWrite(request.index(), request.id());
+            throw e;
+        }
+        onWrite(response);
+        return response;
+    }
+
+    public DeleteResponse delete(DeleteRequest request, RequestOptions options) throws IOException {
+        DeleteResponse response = client.delete(request, options);
+        onWrite(response);
+        return response;
+    }
+
+    /**
+     * 其他途径写入后调用：created 时加入过滤器，deleted 时删除。
+     */
+    public void onWrite(DocWriteResponse response) {
+        if (!index.equals(response.getIndex())) {
+            return;
+        }
+        if (response.getResult() == DocWriteResponse.Result.CREATED) {
+            add(response.getId());
+        } else if (response.getResult() == DocWriteResponse.Result.DELETED) {
+            String id = response.getId();
+            synchronized (writeLock) {
+                if (recorded.remove(id)) {
+                    filter.remove(id);
+                }
+                if (building != null && buildingRecorded.remove(id)) {
+                    building.remove(id);
+                }
+            }
+        }
+    }
+
+    public void onWrite(BulkResponse response) {
+        for (BulkItemResponse item : response) {
+            if (!item.isFailed()) {
+                onWrite(item.getResponse());
+            } else if (item.getOpType() != DocWriteRequest.OpType.DELETE) {
+                // 失败的条目也可能部分生效，保守起见按存在处理
+                onUncertainWrite(item.getIndex(), item.getId());
+            }
+        }
+    }
+
+    private void onUncertainWrite(String requestIndex, String id) {
+        if (index.equals(requestIndex) && id != null) {
+            add(id);
+        }
+    }
+
+    private void add(String id) {
+        CountingBloomFilter current;
+        synchronized (writeLock) {
+            current = filter;
+            current.add(id);
+            recorded.add(id);
+            if (building != null) {
+                building.add(id);
+                buildingRecorded.add(id);
+            }
+        }
+        if (current.size() > current.capacity()) {
+            requestReseed();
+        }
+    }
+
+    /**
+     * 由过滤器直接判定为不存在的次数。
+     */
+    public long localMisses() {
+        return localMisses.get();
+    }
+
+    /**
+     * 发给集群的 exists 次数。
+     */
+    public long remoteChecks() {
+        return remoteChecks.get();
+    }
+
+    /**
+     * 发给集群但文档不存在的次数（误判，或文档已被其他途径删除）。
+     */
+    public long falsePositives() {
+        return falsePositives.get();
+    }
+
+    public long reseeds() {
+        return reseeds.get();
+    }
+
+    public long reseedFailures() {
+        return reseedFailures.get();
+    }
+
+    /**
+     * 最近一次后台重建的异常，没有则为 null。
+     */
+    public Exception lastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * 过滤器中的文档数。
+     */
+    public long size() {
+        return filter.size();
+    }
+
+    /**
+     * 过滤器占用的堆外内存字节数。
+     */
+    public long memoryBytes() {
+        return filter.memoryBytes();
+    }
+
+    /**
+     * 按当前文档数估算的误判率。
+     */
+    public double expectedFpp() {
+        return filter.expectedFpp();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "BloomExistsClient[" + index + ", " + filter + "]";
+    }
+}
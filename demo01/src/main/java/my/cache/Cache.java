@@ -0,0 +1,25 @@
+package my.cache;
+
+/**
+ * 客户端缓存的最小接口，便于替换为其他实现（例如 Caffeine）。实现必须线程安全。
+ */
+public interface Cache<K, V> {
+
+    /**
+     * 命中时返回缓存值，否则返回 null。
+     */
+    V get(K key);
+
+    void put(K key, V value);
+
+    void invalidate(K key);
+
+    void invalidateAll();
+
+    long size();
+
+    /**
+     * 因容量不足被淘汰（或未被准入）的条目数。
+     */
+    long evictions();
+}
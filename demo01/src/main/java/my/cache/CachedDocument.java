@@ -0,0 +1,25 @@
+package my.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 一个文档在缓存中的所有形态：不同 FetchSourceContext 的 get 结果、getSource 结果、exists 结果。
+ * 文档被写入时整体失效。
+ */
+public final class CachedDocument {
+
+    private final ConcurrentMap<String, Object> variants = new ConcurrentHashMap<>();
+
+    Object get(String variant) {
+        return variants.get(variant);
+    }
+
+    void put(String variant, Object value) {
+        variants.put(variant, value);
+    }
+
+    public int variantCount() {
+        return variants.size();
+    }
+}
@@ -0,0 +1,290 @@
+package my.cache;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.core.GetSourceRequest;
+import org.elasticsearch.client.core.GetSourceResponse;
+import org.elasticsearch.common.lucene.uid.Versions;
+import org.elasticsearch.index.seqno.SequenceNumbers;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * get / getSource / mget / exists 的客户端读穿缓存。
+ * <ul>
+ *     <li>缓存按 index + id + routing 组织，同一文档下再按 FetchSourceContext 的 includes/excludes 区分</li>
+ *     <li>通过本类发起的 index / update / delete（或调用 {@link #onWrite}）会让对应文档失效</li>
+ *     <li>写入时记录 _primary_term/_seq_no 水位，比水位旧的读结果不会被写入缓存，避免与并发写竞争</li>
+ *     <li>指定了 version、storedFields、realtime=false 或 refresh=true 的请求不走缓存</li>
+ * </ul>
+ */
+public class CachingGetClient {
+
+    private static final String EXISTS = "exists";
+    private static final String SOURCE = "source:";
+    private static final String GET = "get:";
+
+    private final RestHighLevelClient client;
+    private final Cache<String, CachedDocument> documents;
+    private final Cache<String, long[]> writeWatermarks;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CachingGetClient(RestHighLevelClient client, int maxDocuments) {
+        this(client, new TinyLfuCache<>(maxDocuments), new TinyLfuCache<>(maxDocuments));
+    }
+
+    public CachingGetClient(RestHighLevelClient client, Cache<String, CachedDocument> documents,
+                            Cache<String, long[]> writeWatermarks) {
+        this.client = client;
+        this.documents = documents;
+        this.writeWatermarks = writeWatermarks;
+    }
+
+    public GetResponse get(GetRequest request, RequestOptions options) throws IOException {
+        if (!cacheable(request)) {
+            return client.get(request, options);
+        }
+        String docKey = docKey(request.index(), request.id(), request.routing());
+        String variant = GET + variantOf(request.fetchSourceContext());
+        GetResponse cached = (GetResponse) lookup(docKey, variant);
+        if (cached != null) {
+            return cached;
+        }
+        long[] watermark = writeWatermarks.get(docKey);
+        GetResponse response = client.get(request, options);
+        store(docKey, variant, response, watermark, response.getPrimaryTerm(), response.getSeqNo());
+        return response;
+    }
+
+    public GetSourceResponse getSource(GetSourceRequest request, RequestOptions options) throws IOException {
+        if (!request.realtime() || request.refresh()) {
+            return client.getSource(request, options);
+        }
+        String docKey = docKey(request.index(), request.id(), request.routing());
+        String variant = SOURCE + variantOf(request.fetchSourceContext());
+        GetSourceResponse cached = (GetSourceResponse) lookup(docKey, variant);
+        if (cached != null) {
+            return cached;
+        }
+        long[] watermark = writeWatermarks.get(docKey);
+        GetSourceResponse response = client.getSource(request, options);
+        store(docKey, variant, response, watermark, SequenceNumbers.UNASSIGNED_PRIMARY_TERM, SequenceNumbers.UNASSIGNED_SEQ_NO);
+        return response;
+    }
+
+    public boolean exists(GetRequest request, RequestOptions options) throws IOException {
+        if (request.version() != Versions.MATCH_ANY || !request.realtime() || request.refresh()) {
+            return client.exists(request, options);
+        }
+        String docKey = docKey(request.index(), request.id(), request.routing());
+        Boolean cached = (Boolean) lookup(docKey, EXISTS);
+        if (cached != null) {
+            return cached;
+        }
+        long[] watermark = writeWatermarks.get(docKey);
+        boolean exists = client.exists(request, options);
+        store(docKey, EXISTS, exists, watermark, SequenceNumbers.UNASSIGNED_PRIMARY_TERM, SequenceNumbers.UNASSIGNED_SEQ_NO);
+        return exists;
+    }
+
+    /**
+     * 命中的条目直接从缓存返回，未命中的合并为一个 mget 发送，结果顺序与请求一致。
+     */
+    public MultiGetResponse mget(MultiGetRequest request, RequestOptions options) throws IOException {
+        if (!request.realtime() || request.refresh()) {
+            return client.mget(request, options);
+        }
+        List<MultiGetRequest.Item> items = request.getItems();
+        MultiGetItemResponse[] results = new MultiGetItemResponse[items.size()];
+        MultiGetRequest missRequest = new MultiGetRequest()
+                .preference(request.preference())
+                .realtime(request.realtime())
+                .refresh(request.refresh());
+        List<Integer> missSlots = new ArrayList<>();
+        List<long[]> missWatermarks = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            MultiGetRequest.Item item = items.get(i);
+            if (cacheable(item)) {
+                String docKey = docKey(item.index(), item.id(), item.routing());
+                GetResponse cached = (GetResponse) lookup(docKey, GET + variantOf(item.fetchSourceContext()));
+                if (cached != null) {
+                    results[i] = new MultiGetItemResponse(cached, null);
+                    continue;
+                }
+                missWatermarks.add(writeWatermarks.get(docKey));
+            } else {
+                missWatermarks.add(null);
+            }
+            missSlots.add(i);
+            missRequest.add(item);
+        }
+        if (missSlots.isEmpty()) {
+            return new MultiGetResponse(results);
+        }
+        MultiGetItemResponse[] fetched = client.mget(missRequest, options).getResponses();
+        for (int i = 0; i < fetched.length; i++) {
+            int slot = missSlots.get(i);
+            results[slot] = fetched[i];
+            MultiGetRequest.Item item = items.get(slot);
+            if (!fetched[i].isFailed() && cacheable(item)) {
+                GetResponse response = fetched[i].getResponse();
+                store(docKey(item.index(), item.id(), item.routing()), GET + variantOf(item.fetchSourceContext()),
+                        response, missWatermarks.get(i), response.getPrimaryTerm(), response.getSeqNo());
+            }
+        }
+        return new MultiGetResponse(results);
+    }
+
+    public IndexResponse index(IndexRequest request, RequestOptions options) throws IOException {
+        IndexResponse response = client.index(request, options);
+        invalidate(request.index(), request.id(), request.routing(), response);
+        return response;
+    }
+
+    public UpdateResponse update(UpdateRequest request, RequestOptions options) throws IOException {
+        UpdateResponse response = client.update(request, options);
+        invalidate(request.index(), request.id(), request.routing(), response);
+        return response;
+    }
+
+    public DeleteResponse delete(DeleteRequest request, RequestOptions options) throws IOException {
+        DeleteResponse response = client.delete(request, options);
+        invalidate(request.index(), request.id(), request.routing(), response);
+        return response;
+    }
+
+    /**
+     * 其他途径（如 bulk）写入后调用，使对应文档失效。
+     */
+    public void onWrite(String routing, DocWriteResponse response) {
+        invalidate(response.getIndex(), response.getId(), routing, response);
+    }
+
+    /**
+     * bulk 写入后调用，routing 与别名取自 request 中对应的条目。
+     */
+    public void onWrite(BulkRequest request, BulkResponse response) {
+        for (BulkItemResponse item : response) {
+            DocWriteRequest<?> itemRequest = request.requests().get(item.getItemId());
+            if (item.isFailed()) {
+                // 失败的条目也可能部分生效，保守起见直接失效
+                documents.invalidate(docKey(item.getIndex(), item.getId(), itemRequest.routing()));
+                documents.invalidate(docKey(itemRequest.index(), item.getId(), itemRequest.routing()));
+            } else {
+                invalidate(itemRequest.index(), item.getId(), itemRequest.routing(), item.getResponse());
+            }
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public double hitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public long evictions() {
+        return documents.evictions();
+    }
+
+    public long size() {
+        return documents.size();
+    }
+
+    private void invalidate(String requestIndex, String id, String routing, DocWriteResponse response) {
+        String docKey = docKey(response.getIndex(), id, routing);
+        writeWatermarks.put(docKey, new long[] {response.getPrimaryTerm(), response.getSeqNo()});
+        documents.invalidate(docKey);
+        if (requestIndex != null && !requestIndex.equals(response.getIndex())) {
+            // 通过别名写入时，请求中的索引名与响应中的不同
+            String aliasKey = docKey(requestIndex, id, routing);
+            writeWatermarks.put(aliasKey, new long[] {response.getPrimaryTerm(), response.getSeqNo()});
+            documents.invalidate(aliasKey);
+        }
+    }
+
+    private Object lookup(String docKey, String variant) {
+        CachedDocument document = documents.get(docKey);
+        Object value = document == null ? null : document.get(variant);
+        if (value != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return value;
+    }
+
+    // 读请求发出后如果有写入（水位变化）或读到的版本比水位旧，则不缓存。
+    // 写入先更新水位再失效文档，所以放入缓存后再检查一次水位：检查之后的写入一定会失效刚放入的值
+    private void store(String docKey, String variant, Object value, long[] watermarkBefore, long primaryTerm, long seqNo) {
+        long[] watermark = writeWatermarks.get(docKey);
+        if (watermark != watermarkBefore) {
+            return;
+        }
+        if (watermark != null && seqNo != SequenceNumbers.UNASSIGNED_SEQ_NO
+                && (primaryTerm < watermark[0] || (primaryTerm == watermark[0] && seqNo < watermark[1]))) {
+            return;
+        }
+        CachedDocument document = documents.get(docKey);
+        if (document == null) {
+            document = new CachedDocument();
+            documents.put(docKey, document);
+        }
+        document.put(variant, value);
+        if (writeWatermarks.get(docKey) != watermarkBefore) {
+            documents.invalidate(docKey);
+        }
+    }
+
+    private static boolean cacheable(GetRequest request) {
+        return request.version() == Versions.MATCH_ANY && request.storedFields() == null
+                && request.realtime() && !request.refresh();
+    }
+
+    private static boolean cacheable(MultiGetRequest.Item item) {
+        return item.version() == Versions.MATCH_ANY && item.storedFields() == null;
+    }
+
+    private static String docKey(String index, String id, String routing) {
+        return index + '\u0000' + id + '\u0000' + (routing == null ? "" : routing);
+    }
+
+    private static String variantOf(FetchSourceContext context) {
+        if (context == null) {
+            return "default";
+        }
+        if (!context.fetchSource()) {
+            return "none";
+        }
+        return Arrays.toString(context.includes()) + Arrays.toString(context.excludes());
+    }
+}
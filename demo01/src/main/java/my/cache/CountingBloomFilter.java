@@ -0,0 +1,155 @@
+package my.cache;
+
+import org.elasticsearch.common.hash.MurmurHash3;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 计数布隆过滤器：每个位置是一个 4 位计数器（两个一字节），放在堆外，不占 GC 堆也不被 GC 扫描。
+ * 计数器加到 15 后不再变化（既不加也不减），代价只是该位置永远为“可能存在”。
+ * {@link #remove} 只能用于确实 {@link #add} 过的元素，否则会产生假阴性。
+ * 读无锁，写串行；写入最后更新一个 volatile 计数，读之前先读它，保证读线程看到已完成写入的计数器。
+ */
+final class CountingBloomFilter {
+
+    private static final int MAX_COUNT = 15;
+    // 计数器个数上限：堆外缓冲区最多 Integer.MAX_VALUE 字节
+    private static final long MAX_COUNTERS = 2L * Integer.MAX_VALUE;
+
+    private final ByteBuffer counters;
+    private final long numCounters;
+    private final int numHashes;
+    private final long capacity;
+    private final AtomicLong size = new AtomicLong();
+    // 已完成的写入次数，只在持有锁时递增
+    private volatile long writes;
+
+    private CountingBloomFilter(long numCounters, int numHashes, long capacity) {
+        this.counters = ByteBuffer.allocateDirect((int) ((numCounters + 1) / 2));
+        this.numCounters = numCounters;
+        this.numHashes = numHashes;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param capacity 预期元素个数，超过后误判率高于 fpp
+     * @param fpp      容量内的误判率
+     */
+    static CountingBloomFilter create(long capacity, double fpp) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        if (!(fpp > 0 && fpp < 1)) {
+            throw new IllegalArgumentException("fpp must be in (0, 1) but was [" + fpp + "]");
+        }
+        long numCounters = (long) Math.ceil(-capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        if (numCounters > MAX_COUNTERS) {
+            throw new IllegalArgumentException("[" + capacity + "] elements at fpp [" + fpp + "] need "
+                    + numCounters + " counters, more than " + MAX_COUNTERS);
+        }
+        int numHashes = Math.max(1, (int) Math.round((double) numCounters / capacity * Math.log(2)));
+        return new CountingBloomFilter(Math.max(numCounters, 2), numHashes, capacity);
+    }
+
+    boolean mightContain(String id) {
+        // 堆外缓冲区的读写没有内存屏障，靠这次 volatile 读与写入末尾的 volatile 写配对
+        if (writes == 0) {
+            return false;
+        }
+        MurmurHash3.Hash128 hash = hash(id);
+        for (int i = 0; i < numHashes; i++) {
+            if (get(position(hash, i)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    synchronized void add(String id) {
+        MurmurHash3.Hash128 hash = hash(id);
+        for (int i = 0; i < numHashes; i++) {
+            long position = position(hash, i);
+            int count = get(position);
+            if (count < MAX_COUNT) {
+                set(position, count + 1);
+            }
+        }
+        size.incrementAndGet();
+        writes++;
+    }
+
+    /**
+     * 过滤器中没有该元素时什么也不做；误判为存在时仍会扣减，所以调用方要保证元素确实添加过。
+     */
+    synchronized void remove(String id) {
+        if (!mightContain(id)) {
+            return;
+        }
+        MurmurHash3.Hash128 hash = hash(id);
+        for (int i = 0; i < numHashes; i++) {
+            long position = position(hash, i);
+            int count = get(position);
+            if (count < MAX_COUNT) {
+                set(position, count - 1);
+            }
+        }
+        size.decrementAndGet();
+        writes++;
+    }
+
+    /**
+     * 当前元素个数（添加减去删除）。
+     */
+    long size() {
+        return size.get();
+    }
+
+    long capacity() {
+        return capacity;
+    }
+
+    /**
+     * 按当前元素个数估算的误判率。
+     */
+    double expectedFpp() {
+        return Math.pow(1 - Math.exp(-numHashes * (double) Math.max(0, size.get()) / numCounters), numHashes);
+    }
+
+    long memoryBytes() {
+        return counters.capacity();
+    }
+
+    int numHashes() {
+        return numHashes;
+    }
+
+    // 双重哈希：h1 + i * h2
+    private long position(MurmurHash3.Hash128 hash, int i) {
+        return ((hash.h1 + i * hash.h2) & Long.MAX_VALUE) % numCounters;
+    }
+
+    private int get(long position) {
+        int b = counters.get((int) (position >>> 1));
+        return (position & 1) == 0 ? b & 0x0F : (b >>> 4) & 0x0F;
+    }
+
+    private void set(long position, int count) {
+        int index = (int) (position >>> 1);
+        int b = counters.get(index);
+        b = (position & 1) == 0 ? (b & 0xF0) | count : (b & 0x0F) | (count << 4);
+        counters.put(index, (byte) b);
+    }
+
+    private static MurmurHash3.Hash128 hash(String id) {
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        return MurmurHash3.hash128(bytes, 0, bytes.length, 0, new MurmurHash3.Hash128());
+    }
+
+    @Override
+    public String toString() {
+        return "CountingBloomFilter[size=" + size.get() + "/" + capacity + ", counters=" + numCounters
+                + ", hashes=" + numHashes + ", fpp=" + String.format("%.4f", expectedFpp()) + "]";
+    }
+}
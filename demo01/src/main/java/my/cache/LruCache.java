@@ -0,0 +1,59 @@
+package my.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 简单的有界 LRU 缓存，所有操作共用一把锁。访问分布稳定、没有大范围扫描时够用，否则用 {@link TinyLfuCache}。
+ */
+public class LruCache<K, V> implements Cache<K, V> {
+
+    private final LinkedHashMap<K, V> map;
+    private long evictions = 0;
+
+    public LruCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be >= 1");
+        }
+        this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > maximumSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public synchronized V get(K key) {
+        return map.get(key);
+    }
+
+    @Override
+    public synchronized void put(K key, V value) {
+        map.put(key, value);
+    }
+
+    @Override
+    public synchronized void invalidate(K key) {
+        map.remove(key);
+    }
+
+    @Override
+    public synchronized void invalidateAll() {
+        map.clear();
+    }
+
+    @Override
+    public synchronized long size() {
+        return map.size();
+    }
+
+    @Override
+    public synchronized long evictions() {
+        return evictions;
+    }
+}
@@ -0,0 +1,164 @@
+package my.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * W-TinyLFU 风格的有界缓存：新条目先进入约占 1% 的 LRU 窗口，被挤出窗口时与主区的 LRU 淘汰对象比较访问频率，
+ * 频率高者留下。频率由 Count-Min Sketch 估算，并周期性减半以便老化。
+ * 这样一次性的扫描不会把热点数据冲掉。为了简单，所有操作共用一把锁。
+ */
+public class TinyLfuCache<K, V> implements Cache<K, V> {
+
+    private final int maxWindow;
+    private final int maxMain;
+    private final LinkedHashMap<K, V> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, V> main = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    private long evictions = 0;
+
+    public TinyLfuCache(int maximumSize) {
+        if (maximumSize < 2) {
+            throw new IllegalArgumentException("maximumSize must be >= 2");
+        }
+        this.maxWindow = Math.max(1, maximumSize / 100);
+        this.maxMain = maximumSize - maxWindow;
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    @Override
+    public synchronized V get(K key) {
+        sketch.increment(key);
+        V value = window.get(key);
+        return value != null ? value : main.get(key);
+    }
+
+    @Override
+    public synchronized void put(K key, V value) {
+        sketch.increment(key);
+        if (window.containsKey(key)) {
+            window.put(key, value);
+            return;
+        }
+        if (main.containsKey(key)) {
+            main.put(key, value);
+            return;
+        }
+        window.put(key, value);
+        if (window.size() > maxWindow) {
+            Iterator<Map.Entry<K, V>> it = window.entrySet().iterator();
+            Map.Entry<K, V> candidate = it.next();
+            it.remove();
+            admit(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    // 窗口淘汰出来的候选者与主区的淘汰对象比频率
+    private void admit(K key, V value) {
+        if (main.size() < maxMain) {
+            main.put(key, value);
+            return;
+        }
+        Iterator<Map.Entry<K, V>> it = main.entrySet().iterator();
+        K victim = it.next().getKey();
+        evictions++;
+        if (sketch.frequency(key) > sketch.frequency(victim)) {
+            it.remove();
+            main.put(key, value);
+        }
+    }
+
+    @Override
+    public synchronized void invalidate(K key) {
+        if (window.remove(key) == null) {
+            main.remove(key);
+        }
+    }
+
+    @Override
+    public synchronized void invalidateAll() {
+        window.clear();
+        main.clear();
+    }
+
+    @Override
+    public synchronized long size() {
+        return window.size() + main.size();
+    }
+
+    @Override
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Count-Min Sketch：每个 long 存 16 个 4 bit 计数器（上限 15），每个 key 取 4 个计数器的最小值；
+     * 累计增加 10 倍容量次后全部减半。
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int counterMask;
+        private final int sampleSize;
+        private int additions = 0;
+
+        FrequencySketch(int maximumSize) {
+            int length = Integer.highestOneBit(Math.max(8, maximumSize) - 1) << 1;
+            this.table = new long[length];
+            this.counterMask = length * 16 - 1;
+            this.sampleSize = 10 * maximumSize;
+        }
+
+        void increment(Object key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int index = indexOf(hash, i);
+                int slot = index >>> 4;
+                int shift = (index & 15) << 2;
+                if (((table[slot] >>> shift) & 0xfL) < 15) {
+                    table[slot] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int min = Integer.MAX_VALUE;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table[index >>> 4] >>> ((index & 15) << 2)) & 0xfL);
+                min = Math.min(min, count);
+            }
+            return min;
+        }
+
+        private int indexOf(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h += h >>> 32;
+            return (int) h & counterMask;
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            additions /= 2;
+        }
+
+        private static int spread(int h) {
+            h ^= h >>> 17;
+            h *= 0xed5ad4bb;
+            h ^= h >>> 11;
+            h *= 0xac4c1b51;
+            return h ^ (h >>> 15);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package my.client;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.sniff.SniffOnFailureListener;
+import org.elasticsearch.client.sniff.Sniffer;
+import org.elasticsearch.core.TimeValue;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 统一创建 RestHighLevelClient：连接池按节点（route）调优、按延迟选节点、定时嗅探集群节点。
+ * <pre>
+ * ManagedClient managed = ClientFactory.builder(
+ *         new HttpHost("192.168.0.51", 9200, "http"),
+ *         new HttpHost("192.168.0.52", 9200, "http"),
+ *         new HttpHost("192.168.0.53", 9200, "http"))
+ *     .setMaxConnPerRoute(50)
+ *     .setStrategy(LatencyAwareNodeSelector.Strategy.EWMA)
+ *     .setSniffInterval(TimeValue.timeValueMinutes(1))
+ *     .build();
+ * </pre>
+ */
+public final class ClientFactory {
+
+
+    private ClientFactory() {
+    }
+
+    public static Builder builder(HttpHost... hosts) {
+        return new Builder(hosts);
+    }
+
+    public static class Builder {
+        private final List<HttpHost> hosts;
+        private final Map<HttpHost, Integer> maxConnPerHost = new LinkedHashMap<>();
+        private int maxConnTotal = 200;
+        private int maxConnPerRoute = 50;
+        private int ioThreads = Runtime.getRuntime().availableProcessors();
+        private TimeValue connectTimeout = TimeValue.timeValueMillis(RestClientBuilder.DEFAULT_CONNECT_TIMEOUT_MILLIS);
+        private TimeValue socketTimeout = TimeValue.timeValueMillis(RestClientBuilder.DEFAULT_SOCKET_TIMEOUT_MILLIS);
+        private TimeValue connectionRequestTimeout = TimeValue.timeValueSeconds(1);
+        private LatencyAwareNodeSelector.Strategy strategy = LatencyAwareNodeSelector.Strategy.EWMA;
+        private TimeValue failurePenalty = TimeValue.timeValueSeconds(5);
+        private TimeValue sniffInterval = null;
+        private TimeValue sniffAfterFailureDelay = TimeValue.timeValueMinutes(1);
+        private ClientMetrics metrics = null;
+        private GzipCompression compression = null;
+        private WireFormat wireFormat = null;
+
+        private Builder(HttpHost... hosts) {
+            if (hosts == null || hosts.length == 0) {
+                throw new IllegalArgumentException("hosts must not be empty");
+            }
+            this.hosts = Arrays.asList(hosts);
+        }
+
+        public Builder setMaxConnTotal(int maxConnTotal) {
+            this.maxConnTotal = maxConnTotal;
+            return this;
+        }
+
+        /**
+         * 每个节点的默认最大连接数（RestClient 默认只有 10）。
+         */
+        public Builder setMaxConnPerRoute(int maxConnPerRoute) {
+            this.maxConnPerRoute = maxConnPerRoute;
+            return this;
+        }
+
+        /**
+         * 单独设置某个节点的最大连接数。
+         */
+        public Builder setMaxConnPerRoute(HttpHost host, int maxConn) {
+            this.maxConnPerHost.put(host, maxConn);
+            return this;
+        }
+
+        public Builder setIoThreads(int ioThreads) {
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        public Builder setConnectTimeout(TimeValue connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        public Builder setSocketTimeout(TimeValue socketTimeout) {
+            this.socketTimeout = socketTimeout;
+            return this;
+        }
+
+        /**
+         * 从连接池获取连接的最长等待时间。
+         */
+        public Builder setConnectionRequestTimeout(TimeValue connectionRequestTimeout) {
+            this.connectionRequestTimeout = connectionRequestTimeout;
+            return this;
+        }
+
+        public Builder setStrategy(LatencyAwareNodeSelector.Strategy strategy) {
+            this.strategy = strategy;
+            return this;
+        }
+
+        /**
+         * 请求失败时计入该节点 EWMA 的惩罚耗时。
+         */
+        public Builder setFailurePenalty(TimeValue failurePenalty) {
+            this.failurePenalty = failurePenalty;
+            return this;
+        }
+
+        /**
+         * 定时嗅探集群节点的间隔，null 表示不嗅探。
+         */
+        public Builder setSniffInterval(TimeValue sniffInterval) {
+            this.sniffInterval = sniffInterval;
+            return this;
+        }
+
+        public Builder setSniffAfterFailureDelay(TimeValue sniffAfterFailureDelay) {
+            this.sniffAfterFailureDelay = sniffAfterFailureDelay;
+            return this;
+        }
+
+        /**
+         * 采集请求指标，见 {@link ClientMetrics}。在 HTTP 客户端上采集，不依赖请求使用的 RequestOptions。
+         */
+        public Builder setMetrics(ClientMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * 请求体超过阈值时 gzip 压缩，并接收压缩的响应，见 {@link GzipCompression}。
+         */
+        public Builder setCompression(GzipCompression compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        /**
+         * 请求与响应使用 SMILE / CBOR，见 {@link WireFormat}。
+         */
+        public Builder setWireFormat(WireFormat wireFormat) {
+            this.wireFormat = wireFormat;
+            return this;
+        }
+
+        public ManagedClient build() {
+            LatencyAwareNodeSelector selector = new LatencyAwareNodeSelector(strategy, failurePenalty.millis());
+            PoolingNHttpClientConnectionManager connectionManager = createConnectionManager();
+            SniffOnFailureListener failureListener = new SniffOnFailureListener() {
+                private volatile boolean snifferSet = false;
+
+                @Override
+                public void setSniffer(Sniffer sniffer) {
+                    super.setSniffer(sniffer);
+                    snifferSet = true;
+                }
+
+                @Override
+                public void onFailure(Node node) {
+                    selector.onFailure(node.getHost());
+                    if (metrics != null) {
+                        metrics.onNodeFailure(node.getHost());
+                    }
+                    if (snifferSet) {
+                        super.onFailure(node);
+                    }
+                }
+            };
+            RestClientBuilder restClientBuilder = RestClient.builder(hosts.toArray(new HttpHost[0]))
+                    .setNodeSelector(selector)
+                    .setFailureListener(failureListener)
+                    .setRequestConfigCallback(config -> config
+                            .setConnectTimeout((int) connectTimeout.millis())
+                            .setSocketTimeout((int) socketTimeout.millis())
+                            .setConnectionRequestTimeout((int) connectionRequestTimeout.millis()))
+                    .setHttpClientConfigCallback(httpClientBuilder -> configureHttpClient(httpClientBuilder, connectionManager, selector));
+            RestHighLevelClient client = new RestHighLevelClient(restClientBuilder);
+            Sniffer sniffer = null;
+            if (sniffInterval != null) {
+                sniffer = Sniffer.builder(client.getLowLevelClient())
+                        .setSniffIntervalMillis((int) sniffInterval.millis())
+                        .setSniffAfterFailureDelayMillis((int) sniffAfterFailureDelay.millis())
+                        .build();
+                failureListener.setSniffer(sniffer);
+            }
+            return new ManagedClient(client, sniffer, connectionManager, selector, metrics, RequestOptions.DEFAULT);
+        }
+
+        private HttpAsyncClientBuilder configureHttpClient(HttpAsyncClientBuilder httpClientBuilder,
+                                                           PoolingNHttpClientConnectionManager connectionManager,
+                                                           LatencyAwareNodeSelector selector) {
+            httpClientBuilder.setConnectionManager(connectionManager);
+            HttpAsyncClientBuilder builder = compression == null
+                    ? httpClientBuilder : CompressingHttpAsyncClient.wrap(httpClientBuilder, compression);
+            // 先转码再压缩，转码必须在压缩之外
+            builder = wireFormat == null ? builder : TranscodingHttpAsyncClient.wrap(builder, wireFormat);
+            builder = metrics == null ? builder : InstrumentedHttpAsyncClient.wrap(builder, metrics);
+            // 只包装回调、不改请求，放在最外层
+            return TrackingHttpAsyncClient.wrap(httpClientBuilder, builder, selector);
+        }
+
+        private PoolingNHttpClientConnectionManager createConnectionManager() {
+            IOReactorConfig reactorConfig = IOReactorConfig.custom()
+                    .setIoThreadCount(ioThreads)
+                    .setConnectTimeout((int) connectTimeout.millis())
+                    .setSoTimeout((int) socketTimeout.millis())
+                    .setTcpNoDelay(true)
+                    .setSoKeepAlive(true)
+                    .build();
+            PoolingNHttpClientConnectionManager connectionManager;
+            try {
+                DefaultConnectingIOReactor ioReactor = new DefaultConnectingIOReactor(reactorConfig);
+                connectionManager = metrics == null
+                        ? new PoolingNHttpClientConnectionManager(ioReactor)
+                        : new InstrumentedConnectionManager(ioReactor, metrics);
+            } catch (IOReactorException e) {
+                throw new UncheckedIOException(e);
+            }
+            connectionManager.setMaxTotal(maxConnTotal);
+            connectionManager.setDefaultMaxPerRoute(maxConnPerRoute);
+            for (Map.Entry<HttpHost, Integer> entry : maxConnPerHost.entrySet()) {
+                connectionManager.setMaxPerRoute(routeOf(entry.getKey()), entry.getValue());
+            }
+            return connectionManager;
+        }
+    }
+
+    // 与 HttpAsyncClient 默认路由规划一致：无代理，https 为安全路由
+    static HttpRoute routeOf(HttpHost host) {
+        return new HttpRoute(host, null, "https".equalsIgnoreCase(host.getSchemeName()));
+    }
+
+    static List<HttpHost> hostsOf(List<Node> nodes) {
+        List<HttpHost> hosts = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            hosts.add(node.getHost());
+        }
+        return hosts;
+    }
+}
@@ -0,0 +1,218 @@
+package my.client;
+
+import org.HdrHistogram.AbstractHistogram;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.apache.http.HttpHost;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 客户端请求指标：按 endpoint（如 "POST _search"）记录延迟分布、took、请求/响应字节数、错误数，
+ * 按节点记录请求数、错误数、故障转移次数，另外记录从连接池获取连接的等待时间。
+ * 通过 {@link #snapshot(boolean)} 拉取；开启 JFR 后每个请求还会产生一个 {@code my.EsClientRequest} 事件。
+ * <p>
+ * 用法：{@link ClientFactory.Builder#setMetrics(ClientMetrics)}，之后经由该客户端的所有请求都会被统计，与使用哪个 RequestOptions 无关。
+ */
+public class ClientMetrics {
+
+    private static final long MAX_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final ConcurrentMap<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+    private final ConcurrentMap<HttpHost, NodeMetrics> nodes = new ConcurrentHashMap<>();
+    private final ConcurrentHistogram poolWaitMicros = new ConcurrentHistogram(MAX_TRACKABLE_MICROS, 2);
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder ioFailures = new LongAdder();
+    private final boolean jfrEnabled;
+
+    public ClientMetrics() {
+        this(false);
+    }
+
+    /**
+     * @param jfr 是否产生 JFR 事件（需要运行在带 JFR 的 JDK 上）
+     */
+    public ClientMetrics(boolean jfr) {
+        this.jfrEnabled = jfr && JfrEvents.available();
+    }
+
+    boolean jfrEnabled() {
+        return jfrEnabled;
+    }
+
+    void onAttempt() {
+        attempts.increment();
+    }
+
+    void onIoFailure() {
+        ioFailures.increment();
+    }
+
+    void onResponse(String endpoint, HttpHost node, int status, long wallNanos, long tookMillis,
+                    long requestBytes, long responseBytes) {
+        EndpointMetrics e = endpoints.computeIfAbsent(endpoint, k -> new EndpointMetrics());
+        e.latencyMicros.recordValue(Math.min(MAX_TRACKABLE_MICROS, TimeUnit.NANOSECONDS.toMicros(wallNanos)));
+        if (tookMillis >= 0) {
+            e.tookMillis.add(tookMillis);
+            e.tookCount.increment();
+            // 客户端开销 = 墙钟时间 - 服务端 took（包含网络、序列化、排队）
+            e.overheadMicros.add(Math.max(0, TimeUnit.NANOSECONDS.toMicros(wallNanos) - tookMillis * 1000));
+        }
+        if (requestBytes > 0) {
+            e.requestBytes.add(requestBytes);
+        }
+        if (responseBytes > 0) {
+            e.responseBytes.add(responseBytes);
+        }
+        if (status >= 400) {
+            e.errors.increment();
+        }
+        if (node != null) {
+            NodeMetrics n = node(node);
+            n.requests.increment();
+            if (status >= 500 || status == 429) {
+                n.errors.increment();
+            }
+        }
+    }
+
+    void onNodeFailure(HttpHost node) {
+        node(node).failovers.increment();
+    }
+
+    void onPoolWait(long nanos) {
+        poolWaitMicros.recordValue(Math.min(MAX_TRACKABLE_MICROS, TimeUnit.NANOSECONDS.toMicros(nanos)));
+    }
+
+    private NodeMetrics node(HttpHost host) {
+        return nodes.computeIfAbsent(host, h -> new NodeMetrics());
+    }
+
+    /**
+     * 拉取当前指标。
+     *
+     * @param reset 拉取后是否清零（用于按周期上报）
+     */
+    public Snapshot snapshot(boolean reset) {
+        Map<String, EndpointSnapshot> endpointSnapshots = new TreeMap<>();
+        for (Map.Entry<String, EndpointMetrics> entry : endpoints.entrySet()) {
+            endpointSnapshots.put(entry.getKey(), entry.getValue().snapshot(reset));
+        }
+        Map<String, long[]> nodeSnapshots = new TreeMap<>();
+        for (Map.Entry<HttpHost, NodeMetrics> entry : nodes.entrySet()) {
+            NodeMetrics n = entry.getValue();
+            nodeSnapshots.put(entry.getKey().toHostString(), reset
+                    ? new long[] {n.requests.sumThenReset(), n.errors.sumThenReset(), n.failovers.sumThenReset()}
+                    : new long[] {n.requests.sum(), n.errors.sum(), n.failovers.sum()});
+        }
+        AbstractHistogram poolWait = poolWaitMicros.copy();
+        if (reset) {
+            poolWaitMicros.reset();
+        }
+        return new Snapshot(endpointSnapshots, nodeSnapshots,
+                reset ? attempts.sumThenReset() : attempts.sum(),
+                reset ? ioFailures.sumThenReset() : ioFailures.sum(),
+                poolWait.getValueAtPercentile(50), poolWait.getValueAtPercentile(99), poolWait.getMaxValue());
+    }
+
+    private static class EndpointMetrics {
+        final ConcurrentHistogram latencyMicros = new ConcurrentHistogram(MAX_TRACKABLE_MICROS, 2);
+        final LongAdder tookMillis = new LongAdder();
+        final LongAdder tookCount = new LongAdder();
+        final LongAdder overheadMicros = new LongAdder();
+        final LongAdder requestBytes = new LongAdder();
+        final LongAdder responseBytes = new LongAdder();
+        final LongAdder errors = new LongAdder();
+
+        EndpointSnapshot snapshot(boolean reset) {
+            AbstractHistogram h = latencyMicros.copy();
+            if (reset) {
+                latencyMicros.reset();
+            }
+            long tookCountValue = reset ? tookCount.sumThenReset() : tookCount.sum();
+            long tookValue = reset ? tookMillis.sumThenReset() : tookMillis.sum();
+            long overheadValue = reset ? overheadMicros.sumThenReset() : overheadMicros.sum();
+            return new EndpointSnapshot(h.getTotalCount(),
+                    reset ? errors.sumThenReset() : errors.sum(),
+                    h.getValueAtPercentile(50), h.getValueAtPercentile(95), h.getValueAtPercentile(99), h.getMaxValue(),
+                    tookCountValue == 0 ? -1 : (double) tookValue / tookCountValue,
+                    tookCountValue == 0 ? -1 : (double) overheadValue / tookCountValue / 1000,
+                    reset ? requestBytes.sumThenReset() : requestBytes.sum(),
+                    reset ? responseBytes.sumThenReset() : responseBytes.sum());
+        }
+    }
+
+    private static class NodeMetrics {
+        final LongAdder requests = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder failovers = new LongAdder();
+    }
+
+    /**
+     * 单个 endpoint 的指标，延迟单位为微秒。
+     */
+    public static final class EndpointSnapshot {
+        public final long count;
+        public final long errors;
+        public final long p50Micros;
+        public final long p95Micros;
+        public final long p99Micros;
+        public final long maxMicros;
+        /** 服务端 took 的平均值（毫秒），响应中没有 took 时为 -1 */
+        public final double meanTookMillis;
+        /** 墙钟时间减去 took 的平均值（毫秒），即客户端与网络的开销 */
+        public final double meanOverheadMillis;
+        public final long requestBytes;
+        public final long responseBytes;
+
+        EndpointSnapshot(long count, long errors, long p50Micros, long p95Micros, long p99Micros, long maxMicros,
+                         double meanTookMillis, double meanOverheadMillis, long requestBytes, long responseBytes) {
+            this.count = count;
+            this.errors = errors;
+            this.p50Micros = p50Micros;
+            this.p95Micros = p95Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+            this.meanTookMillis = meanTookMillis;
+            this.meanOverheadMillis = meanOverheadMillis;
+            this.requestBytes = requestBytes;
+            this.responseBytes = responseBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + ", errors=" + errors + ", p50=" + p50Micros + "us, p95=" + p95Micros
+                    + "us, p99=" + p99Micros + "us, max=" + maxMicros + "us, took=" + meanTookMillis
+                    + "ms, overhead=" + meanOverheadMillis + "ms, sent=" + requestBytes + "B, received=" + responseBytes + "B";
+        }
+    }
+
+    public static final class Snapshot {
+        public final Map<String, EndpointSnapshot> endpoints;
+        /** host -> [请求数, 错误数(5xx/429), 故障转移次数] */
+        public final Map<String, long[]> nodes;
+        /** 发出的 HTTP 请求数（包括重试） */
+        public final long attempts;
+        /** 连接失败、超时等没有拿到响应的次数 */
+        public final long ioFailures;
+        public final long poolWaitP50Micros;
+        public final long poolWaitP99Micros;
+        public final long poolWaitMaxMicros;
+
+        Snapshot(Map<String, EndpointSnapshot> endpoints, Map<String, long[]> nodes, long attempts, long ioFailures,
+                 long poolWaitP50Micros, long poolWaitP99Micros, long poolWaitMaxMicros) {
+            this.endpoints = Collections.unmodifiableMap(endpoints);
+            this.nodes = Collections.unmodifiableMap(nodes);
+            this.attempts = attempts;
+            this.ioFailures = ioFailures;
+            this.poolWaitP50Micros = poolWaitP50Micros;
+            this.poolWaitP99Micros = poolWaitP99Micros;
+            this.poolWaitMaxMicros = poolWaitMaxMicros;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package my.client;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 在 RestClient 与 HttpAsyncClient 之间做 gzip：请求生产者在构造时就取走了请求体，
+ * 拦截器无法替换实际发送的内容，因此包装 {@code execute}，换掉原请求的请求体并重建生产者，在响应接收完后一次性解压。
+ */
+class CompressingHttpAsyncClient extends CloseableHttpAsyncClient {
+
+    private final CloseableHttpAsyncClient delegate;
+    private final GzipCompression compression;
+
+    CompressingHttpAsyncClient(CloseableHttpAsyncClient delegate, GzipCompression compression) {
+        this.delegate = delegate;
+        this.compression = compression;
+    }
+
+    /**
+     * 用于 {@code RestClientBuilder.setHttpClientConfigCallback}：RestClient 只会调用返回值的 build()。
+     */
+    static HttpAsyncClientBuilder wrap(HttpAsyncClientBuilder builder, GzipCompression compression) {
+        if (compression.acceptCompressedResponses()) {
+            builder.addInterceptorLast((HttpRequestInterceptor) (request, context) -> {
+                if (!request.containsHeader(HttpHeaders.ACCEPT_ENCODING)) {
+                    request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+                }
+            });
+        }
+        return new HttpAsyncClientBuilder() {
+            @Override
+            public CloseableHttpAsyncClient build() {
+                return new CompressingHttpAsyncClient(builder.build(), compression);
+            }
+        };
+    }
+
+    @Override
+    public boolean isRunning() {
+        return delegate.isRunning();
+    }
+
+    @Override
+    public void start() {
+        delegate.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public <T> Future<T> execute(HttpAsyncRequestProducer requestProducer, HttpAsyncResponseConsumer<T> responseConsumer,
+                                 HttpContext context, FutureCallback<T> callback) {
+        HttpRequest request;
+        try {
+            request = requestProducer.generateRequest();
+        } catch (IOException | HttpException e) {
+            return delegate.execute(requestProducer, responseConsumer, context, callback);
+        }
+        String endpoint = InstrumentedHttpAsyncClient.endpoint(request);
+        return delegate.execute(compress(requestProducer, request, endpoint),
+                new DecompressingConsumer<>(responseConsumer, endpoint), context, callback);
+    }
+
+    private HttpAsyncRequestProducer compress(HttpAsyncRequestProducer producer, HttpRequest request, String endpoint) {
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return producer;
+        }
+        HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+        if (entity == null || entity.getContentEncoding() != null) {
+            return producer;
+        }
+        long length = entity.getContentLength();
+        if (length >= 0 && length < compression.minRequestBytes()) {
+            compression.onRequestSkipped(endpoint);
+            return producer;
+        }
+        // 直接替换原请求的请求体：RestClient 的 Cancellable 中止的是这个请求对象，按请求设置的 RequestConfig 也在它上面。
+        // 重试到其他节点时请求体已带 Content-Encoding，不会重复压缩
+        ((HttpEntityEnclosingRequest) request).setEntity(new GzipEntity(entity, compression, endpoint));
+        // 长度由 HttpAsyncClient 按新的请求体重新生成（chunked）
+        request.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+        request.removeHeaders(HttpHeaders.TRANSFER_ENCODING);
+        try {
+            producer.close();
+        } catch (IOException e) {
+            // 原生产者尚未开始发送，关闭失败不影响新请求
+        }
+        // 生产者在创建时就取走了请求体，换了请求体要重新创建
+        return HttpAsyncMethods.create(producer.getTarget(), request);
+    }
+
+    /**
+     * 长度未知（chunked），每次 getContent 都重新从原始请求体流式压缩，因此 RestClient 重试到其他节点时可重复发送。
+     */
+    private static class GzipEntity extends AbstractHttpEntity {
+        private final HttpEntity source;
+        private final GzipCompression compression;
+        private final String endpoint;
+
+        GzipEntity(HttpEntity source, GzipCompression compression, String endpoint) {
+            this.source = source;
+            this.compression = compression;
+            this.endpoint = endpoint;
+            setContentType(source.getContentType());
+            setContentEncoding("gzip");
+            setChunked(true);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return source.isRepeatable();
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new GzipCompressingInputStream(source.getContent(), compression.level(),
+                    (raw, wire, nanos) -> compression.onRequestCompressed(endpoint, raw, wire, nanos));
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            try (InputStream in = getContent()) {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+            }
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+
+    /**
+     * 响应接收完后在 I/O 线程解压一次，替换为普通实体；RestClient 看不到 Content-Encoding 就不会再包一层解压。
+     */
+    private class DecompressingConsumer<T> implements HttpAsyncResponseConsumer<T> {
+        private final HttpAsyncResponseConsumer<T> delegate;
+        private final String endpoint;
+
+        DecompressingConsumer(HttpAsyncResponseConsumer<T> delegate, String endpoint) {
+            this.delegate = delegate;
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public void responseReceived(HttpResponse response) throws IOException, HttpException {
+            delegate.responseReceived(response);
+        }
+
+        @Override
+        public void consumeContent(ContentDecoder decoder, IOControl ioControl) throws IOException {
+            delegate.consumeContent(decoder, ioControl);
+        }
+
+        @Override
+        public void responseCompleted(HttpContext context) {
+            delegate.responseCompleted(context);
+            Object result = delegate.getResult();
+            if (result instanceof HttpResponse) {
+                try {
+                    decompress((HttpResponse) result);
+                } catch (IOException e) {
+                    // 保留原实体，由 RestClient 按 Content-Encoding 自行解压并报告错误
+                }
+            }
+        }
+
+        private void decompress(HttpResponse response) throws IOException {
+            HttpEntity entity = response.getEntity();
+            if (entity == null || entity.getContentEncoding() == null
+                    || !"gzip".equalsIgnoreCase(entity.getContentEncoding().getValue())) {
+                return;
+            }
+            long wireBytes = entity.getContentLength();
+            long start = System.nanoTime();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(wireBytes > 0 ? (int) Math.min(wireBytes * 4, 1 << 26) : 8192);
+            try (InputStream in = new GZIPInputStream(entity.getContent(), 8192)) {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            ContentType contentType = ContentType.get(entity);
+            response.setEntity(new ByteArrayEntity(out.toByteArray(), contentType));
+            response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+            compression.onResponseDecompressed(endpoint, wireBytes, out.size(), nanos);
+        }
+
+        @Override
+        public void failed(Exception ex) {
+            delegate.failed(ex);
+        }
+
+        @Override
+        public Exception getException() {
+            return delegate.getException();
+        }
+
+        @Override
+        public T getResult() {
+            return delegate.getResult();
+        }
+
+        @Override
+        public boolean isDone() {
+            return delegate.isDone();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean cancel() {
+            return delegate.cancel();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package my.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 读取时压缩：从原始流读一块、压缩一块，输出 gzip 格式（RFC 1952）。
+ * HttpAsyncClient 通过 {@code getContent()} 拉取请求体，因此用输入流而不是 GZIPOutputStream，避免整体缓冲。
+ */
+class GzipCompressingInputStream extends InputStream {
+
+    interface Listener {
+        void onFinished(long rawBytes, long compressedBytes, long nanos);
+    }
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final InputStream source;
+    private final Deflater deflater;
+    private final Listener listener;
+    private final CRC32 crc = new CRC32();
+    private final byte[] input = new byte[8192];
+    private final byte[] trailer = new byte[8];
+    private int headerPos = 0;
+    private int trailerPos = -1;
+    private boolean sourceDone = false;
+    private long rawBytes = 0;
+    private long compressedBytes = 0;
+    private long nanos = 0;
+    private boolean closed = false;
+
+    GzipCompressingInputStream(InputStream source, int level, Listener listener) {
+        this.source = source;
+        this.deflater = new Deflater(level, true);
+        this.listener = listener;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (headerPos < HEADER.length) {
+            int n = Math.min(len, HEADER.length - headerPos);
+            System.arraycopy(HEADER, headerPos, b, off, n);
+            headerPos += n;
+            compressedBytes += n;
+            return n;
+        }
+        if (trailerPos < 0) {
+            while (!deflater.finished()) {
+                if (deflater.needsInput() && !sourceDone) {
+                    int n = source.read(input, 0, input.length);
+                    if (n < 0) {
+                        sourceDone = true;
+                        deflater.finish();
+                    } else if (n > 0) {
+                        crc.update(input, 0, n);
+                        rawBytes += n;
+                        deflater.setInput(input, 0, n);
+                    }
+                }
+                long start = System.nanoTime();
+                int n = deflater.deflate(b, off, len);
+                nanos += System.nanoTime() - start;
+                if (n > 0) {
+                    compressedBytes += n;
+                    return n;
+                }
+            }
+            writeTrailer();
+        }
+        if (trailerPos >= trailer.length) {
+            return -1;
+        }
+        int n = Math.min(len, trailer.length - trailerPos);
+        System.arraycopy(trailer, trailerPos, b, off, n);
+        trailerPos += n;
+        compressedBytes += n;
+        if (trailerPos == trailer.length && listener != null) {
+            listener.onFinished(rawBytes, compressedBytes, nanos);
+        }
+        return n;
+    }
+
+    private void writeTrailer() {
+        writeInt(trailer, 0, (int) crc.getValue());
+        writeInt(trailer, 4, (int) rawBytes);
+        trailerPos = 0;
+    }
+
+    private static void writeInt(byte[] b, int off, int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >> 8);
+        b[off + 2] = (byte) (value >> 16);
+        b[off + 3] = (byte) (value >> 24);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            deflater.end();
+            source.close();
+        }
+    }
+}
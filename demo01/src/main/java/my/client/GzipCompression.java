@@ -0,0 +1,208 @@
+package my.client;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+/**
+ * gzip 传输：请求体超过阈值时边发送边压缩（不会把整个 bulk 再缓冲一份），
+ * 并通过 Accept-Encoding 让服务端压缩响应（服务端需开启 http.compression，7.x 默认开启）。
+ * 按 endpoint 统计压缩前后字节数与压缩/解压耗时，见 {@link #snapshot(boolean)}。
+ * <pre>
+ * ManagedClient managed = ClientFactory.builder(hosts)
+ *     .setCompression(GzipCompression.builder().setMinRequestBytes(1024).build())
+ *     .build();
+ * </pre>
+ */
+public class GzipCompression {
+
+    private final long minRequestBytes;
+    private final int level;
+    private final boolean acceptCompressedResponses;
+    private final ConcurrentMap<String, EndpointStats> endpoints = new ConcurrentHashMap<>();
+
+    private GzipCompression(Builder builder) {
+        this.minRequestBytes = builder.minRequestBytes;
+        this.level = builder.level;
+        this.acceptCompressedResponses = builder.acceptCompressedResponses;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private long minRequestBytes = 1024;
+        private int level = Deflater.BEST_SPEED;
+        private boolean acceptCompressedResponses = true;
+
+        private Builder() {
+        }
+
+        /**
+         * 请求体不小于该字节数才压缩，长度未知的请求体总是压缩。小请求压缩收益抵不上 CPU 开销。
+         */
+        public Builder setMinRequestBytes(long minRequestBytes) {
+            if (minRequestBytes < 0) {
+                throw new IllegalArgumentException("minRequestBytes must be >= 0");
+            }
+            this.minRequestBytes = minRequestBytes;
+            return this;
+        }
+
+        /**
+         * 压缩级别 1-9，默认 1：带宽是瓶颈时级别 1 已能拿到大部分压缩率，CPU 开销最低。
+         */
+        public Builder setLevel(int level) {
+            if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+                throw new IllegalArgumentException("level must be between 1 and 9");
+            }
+            this.level = level;
+            return this;
+        }
+
+        public Builder setAcceptCompressedResponses(boolean acceptCompressedResponses) {
+            this.acceptCompressedResponses = acceptCompressedResponses;
+            return this;
+        }
+
+        public GzipCompression build() {
+            return new GzipCompression(this);
+        }
+    }
+
+    long minRequestBytes() {
+        return minRequestBytes;
+    }
+
+    int level() {
+        return level;
+    }
+
+    boolean acceptCompressedResponses() {
+        return acceptCompressedResponses;
+    }
+
+    private EndpointStats stats(String endpoint) {
+        return endpoints.computeIfAbsent(endpoint, k -> new EndpointStats());
+    }
+
+    void onRequestSkipped(String endpoint) {
+        stats(endpoint).requestsSkipped.increment();
+    }
+
+    void onRequestCompressed(String endpoint, long rawBytes, long wireBytes, long nanos) {
+        EndpointStats s = stats(endpoint);
+        s.requestsCompressed.increment();
+        s.requestRawBytes.add(rawBytes);
+        s.requestWireBytes.add(wireBytes);
+        s.deflateNanos.add(nanos);
+    }
+
+    void onResponseDecompressed(String endpoint, long wireBytes, long rawBytes, long nanos) {
+        EndpointStats s = stats(endpoint);
+        s.responsesCompressed.increment();
+        s.responseWireBytes.add(wireBytes);
+        s.responseRawBytes.add(rawBytes);
+        s.inflateNanos.add(nanos);
+    }
+
+    /**
+     * 按 endpoint 拉取压缩统计。
+     *
+     * @param reset 拉取后是否清零
+     */
+    public Map<String, Stats> snapshot(boolean reset) {
+        Map<String, Stats> result = new TreeMap<>();
+        for (Map.Entry<String, EndpointStats> entry : endpoints.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().snapshot(reset));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static class EndpointStats {
+        final LongAdder requestsCompressed = new LongAdder();
+        final LongAdder requestsSkipped = new LongAdder();
+        final LongAdder requestRawBytes = new LongAdder();
+        final LongAdder requestWireBytes = new LongAdder();
+        final LongAdder deflateNanos = new LongAdder();
+        final LongAdder responsesCompressed = new LongAdder();
+        final LongAdder responseWireBytes = new LongAdder();
+        final LongAdder responseRawBytes = new LongAdder();
+        final LongAdder inflateNanos = new LongAdder();
+
+        Stats snapshot(boolean reset) {
+            return new Stats(
+                    get(requestsCompressed, reset), get(requestsSkipped, reset),
+                    get(requestRawBytes, reset), get(requestWireBytes, reset), get(deflateNanos, reset),
+                    get(responsesCompressed, reset),
+                    get(responseWireBytes, reset), get(responseRawBytes, reset), get(inflateNanos, reset));
+        }
+
+        private static long get(LongAdder adder, boolean reset) {
+            return reset ? adder.sumThenReset() : adder.sum();
+        }
+    }
+
+    /**
+     * 单个 endpoint 的压缩统计，耗时为压缩/解压本身的时间（纳秒）。
+     */
+    public static final class Stats {
+        public final long requestsCompressed;
+        public final long requestsSkipped;
+        public final long requestRawBytes;
+        public final long requestWireBytes;
+        public final long deflateNanos;
+        public final long responsesCompressed;
+        public final long responseWireBytes;
+        public final long responseRawBytes;
+        public final long inflateNanos;
+
+        Stats(long requestsCompressed, long requestsSkipped, long requestRawBytes, long requestWireBytes,
+              long deflateNanos, long responsesCompressed, long responseWireBytes, long responseRawBytes,
+              long inflateNanos) {
+            this.requestsCompressed = requestsCompressed;
+            this.requestsSkipped = requestsSkipped;
+            this.requestRawBytes = requestRawBytes;
+            this.requestWireBytes = requestWireBytes;
+            this.deflateNanos = deflateNanos;
+            this.responsesCompressed = responsesCompressed;
+            this.responseWireBytes = responseWireBytes;
+            this.responseRawBytes = responseRawBytes;
+            this.inflateNanos = inflateNanos;
+        }
+
+        /**
+         * 请求压缩比（原始字节 / 发送字节），没有压缩过的请求时为 1。
+         */
+        public double requestRatio() {
+            return requestWireBytes == 0 ? 1 : (double) requestRawBytes / requestWireBytes;
+        }
+
+        public double responseRatio() {
+            return responseWireBytes == 0 ? 1 : (double) responseRawBytes / responseWireBytes;
+        }
+
+        /**
+         * 每压缩 1MB 原始数据花费的毫秒数。
+         */
+        public double deflateMillisPerMb() {
+            return requestRawBytes == 0 ? 0 : deflateNanos / 1e6 / (requestRawBytes / 1048576.0);
+        }
+
+        public double inflateMillisPerMb() {
+            return responseRawBytes == 0 ? 0 : inflateNanos / 1e6 / (responseRawBytes / 1048576.0);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requests=%d(skipped %d), %dB -> %dB (%.1fx, %.2fms/MB), responses=%d, %dB -> %dB (%.1fx, %.2fms/MB)",
+                    requestsCompressed, requestsSkipped, requestRawBytes, requestWireBytes, requestRatio(), deflateMillisPerMb(),
+                    responsesCompressed, responseWireBytes, responseRawBytes, responseRatio(), inflateMillisPerMb());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package my.client;
+
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 记录从连接池租用连接的等待时间（包括新建连接的时间），连接池打满时这部分会显著上升。
+ */
+class InstrumentedConnectionManager extends PoolingNHttpClientConnectionManager {
+
+    private final ClientMetrics metrics;
+
+    InstrumentedConnectionManager(ConnectingIOReactor ioReactor, ClientMetrics metrics) {
+        super(ioReactor);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Future<NHttpClientConnection> requestConnection(HttpRoute route, Object state, long connectTimeout,
+                                                           long leaseTimeout, TimeUnit tunit,
+                                                           FutureCallback<NHttpClientConnection> callback) {
+        long start = System.nanoTime();
+        return super.requestConnection(route, state, connectTimeout, leaseTimeout, tunit,
+                new FutureCallback<NHttpClientConnection>() {
+                    @Override
+                    public void completed(NHttpClientConnection result) {
+                        metrics.onPoolWait(System.nanoTime() - start);
+                        if (callback != null) {
+                            callback.completed(result);
+                        }
+                    }
+
+                    @Override
+                    public void failed(Exception ex) {
+                        metrics.onPoolWait(System.nanoTime() - start);
+                        if (callback != null) {
+                            callback.failed(ex);
+                        }
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        if (callback != null) {
+                            callback.cancelled();
+                        }
+                    }
+                });
+    }
+}
@@ -0,0 +1,308 @@
+package my.client;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 包装 {@code execute}，给每次请求的响应消费者套上一层，在响应完整接收后上报指标。
+ * RestClient 每次尝试（包括重试）都会调用一次 execute，因此计时从这里开始，包含连接池等待与网络时间；
+ * 在 HTTP 客户端这一层采集，不论调用方传入哪个 RequestOptions 都会被统计。
+ */
+class InstrumentedHttpAsyncClient extends CloseableHttpAsyncClient {
+
+    // 解析 took 时保留的响应开头字节数；开启 gzip 时是压缩后的字节，要多留一些
+    private static final int HEAD_BYTES = 256;
+    private static final Pattern API_WORD = Pattern.compile("[a-z][a-z_]*");
+
+    private final CloseableHttpAsyncClient delegate;
+    private final ClientMetrics metrics;
+
+    InstrumentedHttpAsyncClient(CloseableHttpAsyncClient delegate, ClientMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 用于 {@code RestClientBuilder.setHttpClientConfigCallback}：RestClient 只会调用返回值的 build()。
+     */
+    static HttpAsyncClientBuilder wrap(HttpAsyncClientBuilder builder, ClientMetrics metrics) {
+        return new HttpAsyncClientBuilder() {
+            @Override
+            public CloseableHttpAsyncClient build() {
+                return new InstrumentedHttpAsyncClient(builder.build(), metrics);
+            }
+        };
+    }
+
+    @Override
+    public boolean isRunning() {
+        return delegate.isRunning();
+    }
+
+    @Override
+    public void start() {
+        delegate.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public <T> Future<T> execute(HttpAsyncRequestProducer requestProducer, HttpAsyncResponseConsumer<T> responseConsumer,
+                                 HttpContext context, FutureCallback<T> callback) {
+        metrics.onAttempt();
+        return delegate.execute(requestProducer, new Consumer<>(responseConsumer), context, callback);
+    }
+
+    /**
+     * 把请求路径归一化为 endpoint，例如 "/java-api-demo-idx/_doc/1?refresh=wait_for" -> "PUT _doc"。
+     * 索引名、id 等变量段被去掉；以下划线开头的路径后紧跟的小写单词是接口名的一部分，予以保留，
+     * 例如 "/_cluster/health/idx" -> "GET _cluster/health"、"/_cat/indices" -> "GET _cat/indices"。
+     */
+    static String endpoint(HttpRequest request) {
+        String uri = request.getRequestLine().getUri();
+        int query = uri.indexOf('?');
+        String path = query >= 0 ? uri.substring(0, query) : uri;
+        StringBuilder sb = new StringBuilder(request.getRequestLine().getMethod()).append(' ');
+        int length = sb.length();
+        String[] segments = path.startsWith("/") ? path.substring(1).split("/") : path.split("/");
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            boolean api = segment.startsWith("_")
+                    || (i == 1 && segments[0].startsWith("_") && API_WORD.matcher(segment).matches());
+            if (api) {
+                if (sb.length() > length) {
+                    sb.append('/');
+                }
+                sb.append(segment);
+            }
+        }
+        if (sb.length() == length) {
+            sb.append('/');
+        }
+        return sb.toString();
+    }
+
+    // 只看响应开头，search/bulk/by_query 的响应都以 took 开头
+    static long parseTook(HttpEntity entity) {
+        if (entity == null || !entity.isRepeatable()) {
+            return -1;
+        }
+        byte[] head = new byte[HEAD_BYTES];
+        int n = 0;
+        try (InputStream in = entity.getContent()) {
+            int r;
+            while (n < head.length && (r = in.read(head, n, head.length - n)) > 0) {
+                n += r;
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+        return parseTook(head, n, entity.getContentType(), entity.getContentEncoding());
+    }
+
+    /**
+     * 从响应体开头的字节解析 took。开启 gzip 时 took 在压缩流开头，只解压这几百字节。
+     */
+    static long parseTook(byte[] wire, int wireLength, Header contentType, Header contentEncoding) {
+        byte[] head = wire;
+        int n = wireLength;
+        if (contentEncoding != null && "gzip".equalsIgnoreCase(contentEncoding.getValue())) {
+            head = new byte[64];
+            n = 0;
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(wire, 0, wireLength))) {
+                int r;
+                while (n < head.length && (r = in.read(head, n, head.length - n)) > 0) {
+                    n += r;
+                }
+            } catch (IOException e) {
+                // 只有开头，解压到末尾时报截断，已解出的部分仍可用
+            }
+        }
+        XContentType type = contentType == null ? null : XContentType.fromMediaType(contentType.getValue());
+        if (type == XContentType.SMILE || type == XContentType.CBOR) {
+            return parseBinaryTook(type, head, n);
+        }
+        String s = new String(head, 0, n, StandardCharsets.ISO_8859_1);
+        int i = s.indexOf("\"took\"");
+        if (i < 0) {
+            return -1;
+        }
+        long took = 0;
+        boolean digits = false;
+        for (int j = i + 6; j < n; j++) {
+            char c = s.charAt(j);
+            if (c >= '0' && c <= '9') {
+                took = took * 10 + (c - '0');
+                digits = true;
+            } else if (digits || (c != ' ' && c != ':')) {
+                break;
+            }
+        }
+        return digits ? took : -1;
+    }
+
+    // 二进制格式（见 WireFormat）没有固定的字节模式，用解析器读开头的第一个字段
+    private static long parseBinaryTook(XContentType type, byte[] head, int length) {
+        try (XContentParser parser = type.xContent().createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, head, 0, length)) {
+            if (parser.nextToken() == XContentParser.Token.START_OBJECT
+                    && parser.nextToken() == XContentParser.Token.FIELD_NAME && "took".equals(parser.currentName())
+                    && parser.nextToken() == XContentParser.Token.VALUE_NUMBER) {
+                return parser.longValue();
+            }
+        } catch (IOException | RuntimeException e) {
+            // 开头被截断在 took 之前
+        }
+        return -1;
+    }
+
+    private class Consumer<T> implements HttpAsyncResponseConsumer<T> {
+        private final HttpAsyncResponseConsumer<T> delegate;
+        private final long startNanos = System.nanoTime();
+        private final Object jfrEvent;
+        // 边接收边留下响应体开头用于解析 took，并统计收到的字节数，不必再复制整个响应体
+        private final CapturingDecoder capturing = new CapturingDecoder();
+        private final byte[] head = new byte[HEAD_BYTES];
+        private int headLength = 0;
+        private long bodyBytes = 0;
+        private HttpResponse response;
+
+        Consumer(HttpAsyncResponseConsumer<T> delegate) {
+            this.delegate = delegate;
+            this.jfrEvent = metrics.jfrEnabled() ? JfrEvents.begin() : null;
+        }
+
+        @Override
+        public void responseReceived(HttpResponse response) throws IOException, HttpException {
+            this.response = response;
+            delegate.responseReceived(response);
+        }
+
+        @Override
+        public void consumeContent(ContentDecoder decoder, IOControl ioControl) throws IOException {
+            capturing.decoder = decoder;
+            delegate.consumeContent(capturing, ioControl);
+        }
+
+        @Override
+        public void responseCompleted(HttpContext context) {
+            delegate.responseCompleted(context);
+            try {
+                record(context);
+            } catch (RuntimeException e) {
+                // 指标采集不能影响请求本身
+            }
+        }
+
+        private void record(HttpContext context) {
+            long wallNanos = System.nanoTime() - startNanos;
+            HttpClientContext clientContext = HttpClientContext.adapt(context);
+            HttpRequest request = clientContext.getRequest();
+            HttpHost node = clientContext.getTargetHost();
+            // 消费者结束时给响应设上缓冲好的响应体，结果不是 HttpResponse 时用收到的响应头
+            T result = delegate.getResult();
+            HttpResponse response = result instanceof HttpResponse ? (HttpResponse) result : this.response;
+            if (request == null || response == null) {
+                return;
+            }
+            String endpoint = endpoint(request);
+            long requestBytes = -1;
+            if (request instanceof HttpEntityEnclosingRequest && ((HttpEntityEnclosingRequest) request).getEntity() != null) {
+                requestBytes = ((HttpEntityEnclosingRequest) request).getEntity().getContentLength();
+            }
+            HttpEntity entity = response.getEntity();
+            long responseBytes = bodyBytes;
+            long took = entity == null ? -1 : parseTook(head, headLength, entity.getContentType(), entity.getContentEncoding());
+            int status = response.getStatusLine().getStatusCode();
+            metrics.onResponse(endpoint, node, status, wallNanos, took, requestBytes, responseBytes);
+            if (jfrEvent != null) {
+                JfrEvents.commit(jfrEvent, endpoint, node == null ? null : node.toHostString(), status,
+                        took, requestBytes, responseBytes);
+            }
+        }
+
+        // 只在 I/O 线程上按顺序使用
+        private final class CapturingDecoder implements ContentDecoder {
+            ContentDecoder decoder;
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                int start = dst.position();
+                int n = decoder.read(dst);
+                if (n > 0) {
+                    bodyBytes += n;
+                    for (int i = 0; i < n && headLength < head.length; i++) {
+                        head[headLength++] = dst.get(start + i);
+                    }
+                }
+                return n;
+            }
+
+            @Override
+            public boolean isCompleted() {
+                return decoder.isCompleted();
+            }
+        }
+
+        @Override
+        public void failed(Exception ex) {
+            metrics.onIoFailure();
+            delegate.failed(ex);
+        }
+
+        @Override
+        public Exception getException() {
+            return delegate.getException();
+        }
+
+        @Override
+        public T getResult() {
+            return delegate.getResult();
+        }
+
+        @Override
+        public boolean isDone() {
+            return delegate.isDone();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean cancel() {
+            return delegate.cancel();
+        }
+    }
+}
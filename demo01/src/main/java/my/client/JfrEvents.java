@@ -0,0 +1,67 @@
+package my.client;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR 事件。只有在 {@link #available()} 为 true 且开启时才会加载 {@link ClientRequestEvent}，
+ * 运行在不带 JFR 的 JDK 上不受影响。
+ */
+final class JfrEvents {
+
+    private JfrEvents() {
+    }
+
+    static boolean available() {
+        try {
+            Class.forName("jdk.jfr.Event", false, JfrEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    static Object begin() {
+        ClientRequestEvent event = new ClientRequestEvent();
+        event.begin();
+        return event;
+    }
+
+    static void commit(Object handle, String endpoint, String node, int status, long took,
+                       long requestBytes, long responseBytes) {
+        ClientRequestEvent event = (ClientRequestEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            event.endpoint = endpoint;
+            event.node = node;
+            event.status = status;
+            event.took = took;
+            event.requestBytes = requestBytes;
+            event.responseBytes = responseBytes;
+            event.commit();
+        }
+    }
+
+    @Name("my.EsClientRequest")
+    @Label("Elasticsearch Client Request")
+    @Category("Elasticsearch")
+    static class ClientRequestEvent extends Event {
+        @Label("Endpoint")
+        String endpoint;
+        @Label("Node")
+        String node;
+        @Label("Status")
+        int status;
+        @Label("Took (ms)")
+        long took;
+        @Label("Request Bytes")
+        @DataAmount
+        long requestBytes;
+        @Label("Response Bytes")
+        @DataAmount
+        long responseBytes;
+    }
+}
@@ -0,0 +1,253 @@
+package my.client;
+
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.NodeSelector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按节点实时负载挑选节点。
+ * 每个节点记录在途请求数和响应时间的指数加权平均（EWMA），select 时按得分从低到高排列节点，
+ * 得分最低的节点先发，其余节点留作 RestClient 连接失败或 502/503/504 时换节点重试的后备；
+ * 得分相同的节点轮流排在最前。统计数据由 {@link TrackingHttpAsyncClient} 上报。
+ * <p>
+ * 当前线程设置了 {@link Pin} 时把被排除的节点排到最后并记下排在最前的节点，供 {@link RequestHedger} 把对冲请求发往另一个节点；
+ * Pin 指定了节点且该节点可用时只保留它，供 {@link ShardAwareBulkClient} 把子 bulk 发往主分片所在节点，换节点由它自己处理。
+ * <p>
+ * RestClient 在 select 之后会把列表轮转 {@code lastNodeIndex.getAndIncrement()} 位（从 0 开始，每次从存活节点中选择时加一），
+ * 这里用同样的计数预先反向轮转，轮转后的顺序才是排好的顺序。因此一个选择器只能给一个 RestClient 使用；
+ * 并发选择时两边的计数可能错开一位，此时排在最前的是次优节点，换节点重试不受影响。
+ */
+public class LatencyAwareNodeSelector implements NodeSelector {
+
+    public enum Strategy {
+        /** RestClient 默认的轮询，只记录统计不参与选择 */
+        ROUND_ROBIN,
+        /** 在途请求数最少 */
+        LEAST_OUTSTANDING,
+        /** EWMA 响应时间 ×（在途请求数 + 1） */
+        EWMA
+    }
+
+    private static final double ALPHA = 0.3;
+
+    private final Strategy strategy;
+    private final long failurePenaltyNanos;
+    private final ConcurrentMap<HttpHost, NodeStats> stats = new ConcurrentHashMap<>();
+    private final ThreadLocal<Pin> pinned = new ThreadLocal<>();
+    // 与 RestClient 的 lastNodeIndex 同步递增
+    private final AtomicInteger rotation = new AtomicInteger();
+    private final AtomicInteger ties = new AtomicInteger();
+
+    public LatencyAwareNodeSelector(Strategy strategy, long failurePenaltyMillis) {
+        this.strategy = strategy;
+        this.failurePenaltyNanos = TimeUnit.MILLISECONDS.toNanos(failurePenaltyMillis);
+    }
+
+    @Override
+    public void select(Iterable<Node> nodes) {
+        Pin pin = pinned.get();
+        if (!(nodes instanceof List)) {
+            // 存活节点都不可用时 RestClient 只复活一个节点，不轮转也不会换节点重试
+            if (pin != null) {
+                retainOne(nodes, pin);
+            }
+            return;
+        }
+        List<Node> list = (List<Node>) nodes;
+        int distance = rotation.getAndIncrement();
+        if (pin != null && pin.preferred != null) {
+            for (Node node : list) {
+                if (node.getHost().equals(pin.preferred)) {
+                    retainOnly(list, node);
+                    pin.selected = node.getHost();
+                    return;
+                }
+            }
+        }
+        if (pin == null && strategy == Strategy.ROUND_ROBIN) {
+            return;
+        }
+        List<Node> ordered = order(list, pin);
+        if (pin != null) {
+            pin.selected = ordered.get(0).getHost();
+        }
+        list.clear();
+        list.addAll(ordered);
+        Collections.rotate(list, -distance);
+    }
+
+    // 按（是否被排除, 得分）稳定排序，每个节点只取一次得分：在途数随时在变。
+    // 排序前先轮转，让得分相同的节点轮流排在最前；只有一个候选节点时（例如对冲请求）不推进计数，以免打乱主请求的轮询
+    private List<Node> order(List<Node> nodes, Pin pin) {
+        Map<Node, Double> scores = new IdentityHashMap<>();
+        double unknown = unknownEwma();
+        int candidates = 0;
+        for (Node node : nodes) {
+            double score = strategy == Strategy.ROUND_ROBIN ? 0 : score(node.getHost(), unknown);
+            if (pin != null && pin.excluded.contains(node.getHost())) {
+                score = Double.POSITIVE_INFINITY;
+            } else {
+                candidates++;
+            }
+            scores.put(node, score);
+        }
+        List<Node> ordered = new ArrayList<>(nodes);
+        if (candidates > 1) {
+            Collections.rotate(ordered, ties.getAndIncrement());
+        }
+        ordered.sort(Comparator.comparingDouble(scores::get));
+        return ordered;
+    }
+
+    // 复活节点时只能发往一个节点：Pin 指定的节点，否则第一个未被排除的节点
+    private static void retainOne(Iterable<Node> nodes, Pin pin) {
+        Node chosen = null;
+        for (Node node : nodes) {
+            if (node.getHost().equals(pin.preferred)) {
+                chosen = node;
+                break;
+            }
+            if (chosen == null || pin.excluded.contains(chosen.getHost()) && !pin.excluded.contains(node.getHost())) {
+                chosen = node;
+            }
+        }
+        if (chosen != null) {
+            retainOnly(nodes, chosen);
+            pin.selected = chosen.getHost();
+        }
+    }
+
+    private static void retainOnly(Iterable<Node> nodes, Node chosen) {
+        for (Iterator<Node> it = nodes.iterator(); it.hasNext(); ) {
+            if (it.next() != chosen) {
+                it.remove();
+            }
+        }
+    }
+
+    private double score(HttpHost host, double unknownEwma) {
+        NodeStats s = stats(host);
+        if (strategy == Strategy.LEAST_OUTSTANDING) {
+            return s.outstanding.get();
+        }
+        return (s.sampled ? s.ewmaNanos : unknownEwma) * (s.outstanding.get() + 1);
+    }
+
+    // 新加入或刚被 sniff 到的节点还没有响应时间，按已知节点的平均值计算；都没有时只比较在途数
+    private double unknownEwma() {
+        double sum = 0;
+        int count = 0;
+        for (NodeStats s : stats.values()) {
+            if (s.sampled) {
+                sum += s.ewmaNanos;
+                count++;
+            }
+        }
+        return count == 0 ? 1 : sum / count;
+    }
+
+    void onRequest(HttpHost host) {
+        stats(host).outstanding.incrementAndGet();
+    }
+
+    void onResponse(HttpHost host, long tookNanos) {
+        NodeStats s = stats(host);
+        s.decrementOutstanding();
+        s.update(tookNanos);
+    }
+
+    // RestClient 判定节点失败（连接失败、502/503/504）时惩罚该节点；在途数由 onResponse / onNoResponse 减回
+    void onFailure(HttpHost host) {
+        NodeStats s = stats(host);
+        s.update(Math.max(failurePenaltyNanos, (long) s.ewmaNanos));
+    }
+
+    // 请求没有收到响应就失败了，只把在途数减回来
+    void onNoResponse(HttpHost host) {
+        stats(host).decrementOutstanding();
+    }
+
+    // 请求被主动取消时拿不到响应；已等待的时长是该节点延迟的下界，按一次采样计入
+    void onCancelled(HttpHost host, long elapsedNanos) {
+        NodeStats s = stats(host);
+        s.decrementOutstanding();
+        s.update(Math.max(elapsedNanos, (long) s.ewmaNanos));
+    }
+
+    /**
+     * 之后当前线程发出的请求只发往一个节点，直到 {@link #unpin()}。
+     * RestClient 在调用线程上同步选择节点，因此在发请求前后调用即可。
+     */
+    void pin(Pin pin) {
+        pinned.set(pin);
+    }
+
+    void unpin() {
+        pinned.remove();
+    }
+
+    private NodeStats stats(HttpHost host) {
+        return stats.computeIfAbsent(host, h -> new NodeStats());
+    }
+
+    /**
+     * 各节点当前的统计快照：host -> [在途请求数, EWMA 毫秒]。
+     */
+    public Map<HttpHost, double[]> snapshot() {
+        Map<HttpHost, double[]> result = new HashMap<>();
+        for (Map.Entry<HttpHost, NodeStats> entry : stats.entrySet()) {
+            NodeStats s = entry.getValue();
+            result.put(entry.getKey(), new double[] {s.outstanding.get(), s.ewmaNanos / 1_000_000d});
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyAware[" + strategy + "]";
+    }
+
+    static final class Pin {
+        final Set<HttpHost> excluded;
+        final HttpHost preferred;
+        volatile HttpHost selected;
+
+        Pin(Set<HttpHost> excluded) {
+            this(excluded, null);
+        }
+
+        Pin(Set<HttpHost> excluded, HttpHost preferred) {
+            this.excluded = excluded;
+            this.preferred = preferred;
+        }
+    }
+
+    private static class NodeStats {
+        final AtomicInteger outstanding = new AtomicInteger();
+        volatile double ewmaNanos = 0;
+        volatile boolean sampled;
+
+        synchronized void update(long sampleNanos) {
+            ewmaNanos = sampled ? ewmaNanos + ALPHA * (sampleNanos - ewmaNanos) : sampleNanos;
+            sampled = true;
+        }
+
+        void decrementOutstanding() {
+            outstanding.updateAndGet(v -> v > 0 ? v - 1 : 0);
+        }
+    }
+}
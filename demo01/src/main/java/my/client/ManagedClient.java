@@ -0,0 +1,95 @@
+package my.client;
+
+import org.apache.http.HttpHost;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.sniff.Sniffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 由 {@link ClientFactory} 创建的客户端及其附属组件（嗅探器、连接池、节点统计）。
+ */
+public class ManagedClient implements Closeable {
+
+    private final RestHighLevelClient client;
+    private final Sniffer sniffer;
+    private final PoolingNHttpClientConnectionManager connectionManager;
+    private final LatencyAwareNodeSelector selector;
+    private final ClientMetrics metrics;
+    private final RequestOptions requestOptions;
+
+    ManagedClient(RestHighLevelClient client, Sniffer sniffer,
+                  PoolingNHttpClientConnectionManager connectionManager, LatencyAwareNodeSelector selector,
+                  ClientMetrics metrics, RequestOptions requestOptions) {
+        this.client = client;
+        this.sniffer = sniffer;
+        this.connectionManager = connectionManager;
+        this.selector = selector;
+        this.metrics = metrics;
+        this.requestOptions = requestOptions;
+    }
+
+    public RestHighLevelClient client() {
+        return client;
+    }
+
+    public RestClient lowLevelClient() {
+        return client.getLowLevelClient();
+    }
+
+    /**
+     * 每个节点连接池的使用情况（leased / pending / available / max）。
+     */
+    public Map<HttpHost, PoolStats> poolStats() {
+        Map<HttpHost, PoolStats> result = new LinkedHashMap<>();
+        for (HttpHost host : ClientFactory.hostsOf(lowLevelClient().getNodes())) {
+            result.put(host, connectionManager.getStats(ClientFactory.routeOf(host)));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    public PoolStats totalPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * 每个节点的 [在途请求数, EWMA 毫秒]。
+     */
+    public Map<HttpHost, double[]> nodeStats() {
+        return selector.snapshot();
+    }
+
+    LatencyAwareNodeSelector selector() {
+        return selector;
+    }
+
+    /**
+     * 各组件默认使用的 RequestOptions。指标在 HTTP 客户端上采集，不需要特殊的 RequestOptions。
+     */
+    public RequestOptions requestOptions() {
+        return requestOptions;
+    }
+
+    /**
+     * 未开启指标时为 null。
+     */
+    public ClientMetrics metrics() {
+        return metrics;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (sniffer != null) {
+            sniffer.close();
+        }
+        client.close();
+    }
+}
@@ -0,0 +1,495 @@
+package my.client;
+
+import my.async.AsyncClient;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.http.HttpHost;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.core.TimeValue;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 对只读请求（search、get、mget）做对冲：请求发出后超过该 endpoint 近期延迟的 p95 仍未返回时，
+ * 向另一个节点再发一次，先返回的结果生效，另一个请求被取消。第一个请求失败（5xx、429、IO 异常）时立即补发。
+ * 补发受预算限制：每个请求积累 budgetRatio 个令牌，补发一次消耗一个，默认额外负载不超过 5%。
+ * <p>
+ * 节点由 {@link LatencyAwareNodeSelector} 在调用线程上固定；客户端的第一个请求要先等待版本校验，
+ * 选择发生在其他线程，这一次只能靠轮询换到其他节点。被取消的请求按已等待的时长计入节点的 EWMA。
+ * 关闭时尚未结束的请求被取消，future 以 {@link IllegalStateException} 结束。
+ * <pre>
+ * try (RequestHedger hedger = RequestHedger.builder(managedClient).build()) {
+ *     SearchResponse response = hedger.search(searchRequest).get();
+ * }
+ * </pre>
+ */
+public class RequestHedger implements Closeable {
+
+    private static final long MAX_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final RestHighLevelClient client;
+    private final LatencyAwareNodeSelector selector;
+    private final RequestOptions options;
+    private final double percentile;
+    private final int minSamples;
+    private final long minDelayMicros;
+    private final long initialDelayMicros;
+    private final Budget budget;
+    private final ConcurrentMap<String, Delay> delays = new ConcurrentHashMap<>();
+    // 尚未结束的请求，关闭时统一失败
+    private final Set<Hedged<?, ?>> outstanding = ConcurrentHashMap.newKeySet();
+    private final ExecutorService callbackExecutor = AsyncClient.newCallbackExecutor();
+    private final ScheduledExecutorService timer;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong budgetExhausted = new AtomicLong();
+    private volatile boolean closed;
+
+    private RequestHedger(Builder builder) {
+        this.client = builder.client.client();
+        this.selector = builder.client.selector();
+        this.options = builder.options != null ? builder.options : builder.client.requestOptions();
+        this.percentile = builder.percentile;
+        this.minSamples = builder.minSamples;
+        this.minDelayMicros = TimeUnit.MILLISECONDS.toMicros(builder.minDelay.millis());
+        this.initialDelayMicros = TimeUnit.MILLISECONDS.toMicros(builder.initialDelay.millis());
+        this.budget = new Budget(builder.budgetRatio, builder.budgetBurst);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "request-hedger-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(this::refresh, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public static Builder builder(ManagedClient client) {
+        return new Builder(client);
+    }
+
+    public static class Builder {
+        private final ManagedClient client;
+        private RequestOptions options;
+        private double percentile = 95;
+        private int minSamples = 100;
+        private TimeValue minDelay = TimeValue.timeValueMillis(5);
+        private TimeValue initialDelay = TimeValue.timeValueMillis(100);
+        private double budgetRatio = 0.05;
+        private int budgetBurst = 10;
+
+        private Builder(ManagedClient client) {
+            this.client = client;
+        }
+
+        /**
+         * 默认使用 {@link ManagedClient#requestOptions()}。
+         */
+        public Builder setRequestOptions(RequestOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        /**
+         * 延迟分位数，超过它仍未返回的请求才补发，默认 95。
+         */
+        public Builder setPercentile(double percentile) {
+            if (percentile <= 0 || percentile >= 100) {
+                throw new IllegalArgumentException("percentile must be in (0, 100)");
+            }
+            this.percentile = percentile;
+            return this;
+        }
+
+        /**
+         * 至少积累多少个样本才更新分位数，默认 100。
+         */
+        public Builder setMinSamples(int minSamples) {
+            if (minSamples < 1) {
+                throw new IllegalArgumentException("minSamples must be >= 1");
+            }
+            this.minSamples = minSamples;
+            return this;
+        }
+
+        /**
+         * 补发延迟的下限，避免分位数很小时几乎每个请求都被补发，默认 5ms。
+         */
+        public Builder setMinDelay(TimeValue minDelay) {
+            this.minDelay = minDelay;
+            return this;
+        }
+
+        /**
+         * 样本不足时使用的补发延迟，默认 100ms。
+         */
+        public Builder setInitialDelay(TimeValue initialDelay) {
+            this.initialDelay = initialDelay;
+            return this;
+        }
+
+        /**
+         * 补发请求占总请求的比例上限，默认 0.05。
+         */
+        public Builder setBudgetRatio(double budgetRatio) {
+            if (budgetRatio < 0 || budgetRatio > 1) {
+                throw new IllegalArgumentException("budgetRatio must be in [0, 1]");
+            }
+            this.budgetRatio = budgetRatio;
+            return this;
+        }
+
+        /**
+         * 预算最多积累多少次补发，默认 10。
+         */
+        public Builder setBudgetBurst(int budgetBurst) {
+            if (budgetBurst < 1) {
+                throw new IllegalArgumentException("budgetBurst must be >= 1");
+            }
+            this.budgetBurst = budgetBurst;
+            return this;
+        }
+
+        public RequestHedger build() {
+            return new RequestHedger(this);
+        }
+    }
+
+    public CompletableFuture<SearchResponse> search(SearchRequest request) {
+        return execute("search", request, client::searchAsync);
+    }
+
+    public CompletableFuture<GetResponse> get(GetRequest request) {
+        return execute("get", request, client::getAsync);
+    }
+
+    public CompletableFuture<MultiGetResponse> mget(MultiGetRequest request) {
+        return execute("mget", request, client::mgetAsync);
+    }
+
+    /**
+     * 以对冲方式执行任意只读调用，延迟按 endpoint 分别统计。
+     * 调用方取消返回的 future 时，在途的请求都会被取消。
+     */
+    public <Request, Response> CompletableFuture<Response> execute(String endpoint, Request request,
+                                                                   AsyncClient.AsyncCall<Request, Response> call) {
+        requests.incrementAndGet();
+        budget.deposit();
+        Hedged<Request, Response> hedged = new Hedged<>(delays.computeIfAbsent(endpoint, k -> new Delay(initialDelayMicros)),
+                request, call);
+        outstanding.add(hedged);
+        hedged.future.whenComplete((r, e) -> outstanding.remove(hedged));
+        // 先登记再检查，与 close() 并发时两边至少有一边能看到这个请求
+        if (closed) {
+            hedged.future.completeExceptionally(new IllegalStateException("request hedger already closed"));
+            return hedged.future;
+        }
+        hedged.start();
+        return hedged.future;
+    }
+
+    /**
+     * endpoint 当前的补发延迟。
+     */
+    public TimeValue delay(String endpoint) {
+        Delay delay = delays.get(endpoint);
+        return new TimeValue(delay == null ? initialDelayMicros : delay.micros(), TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * 请求数（不含补发）。
+     */
+    public long requests() {
+        return requests.get();
+    }
+
+    /**
+     * 补发次数。
+     */
+    public long hedges() {
+        return hedges.get();
+    }
+
+    /**
+     * 补发的请求先返回的次数。
+     */
+    public long hedgeWins() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * 需要补发但预算不足的次数。
+     */
+    public long budgetExhausted() {
+        return budgetExhausted.get();
+    }
+
+    private void refresh() {
+        for (Delay delay : delays.values()) {
+            delay.refresh(percentile, minSamples, minDelayMicros);
+        }
+    }
+
+    // 4xx（除 429）是请求本身的问题，换节点也一样
+    static boolean retryable(Exception e) {
+        if (e instanceof ElasticsearchStatusException) {
+            int status = ((ElasticsearchStatusException) e).status().getStatus();
+            return status >= 500 || status == 429;
+        }
+        return true;
+    }
+
+    // 关闭后执行器会拒绝任务，此时直接在当前线程结束 future
+    private void complete(Runnable completion) {
+        try {
+            callbackExecutor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            completion.run();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        IllegalStateException failure = new IllegalStateException("request hedger closed");
+        for (Hedged<?, ?> hedged : outstanding) {
+            hedged.abort(failure);
+        }
+        timer.shutdownNow();
+        callbackExecutor.shutdown();
+    }
+
+    private final class Hedged<Request, Response> {
+        final Delay delay;
+        final Request request;
+        final AsyncClient.AsyncCall<Request, Response> call;
+        final CompletableFuture<Response> future = new CompletableFuture<>();
+        // 以下字段由 this 保护
+        Attempt primary;
+        Attempt hedge;
+        ScheduledFuture<?> scheduled;
+        Exception failure;
+        boolean finished;
+
+        Hedged(Delay delay, Request request, AsyncClient.AsyncCall<Request, Response> call) {
+            this.delay = delay;
+            this.request = request;
+            this.call = call;
+        }
+
+        synchronized void start() {
+            primary = new Attempt(Collections.emptySet());
+            send(primary);
+            if (!finished && client.getLowLevelClient().getNodes().size() > 1) {
+                try {
+                    scheduled = timer.schedule(this::onDelay, delay.micros(), TimeUnit.MICROSECONDS);
+                } catch (RejectedExecutionException e) {
+                    // 并发关闭，close() 会结束这个请求
+                }
+            }
+            future.whenComplete((r, e) -> {
+                if (future.isCancelled()) {
+                    cancelAll();
+                }
+            });
+        }
+
+        private void send(Attempt attempt) {
+            selector.pin(attempt.pin);
+            try {
+                attempt.cancellable = call.call(request, options, new ActionListener<Response>() {
+                    @Override
+                    public void onResponse(Response response) {
+                        onSuccess(attempt, response);
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        Hedged.this.onFailure(attempt, e);
+                    }
+                });
+            } catch (RuntimeException e) {
+                onFailure(attempt, e);
+            } finally {
+                selector.unpin();
+            }
+        }
+
+        synchronized void onDelay() {
+            if (finished || hedge != null) {
+                return;
+            }
+            sendHedge();
+        }
+
+        // 调用方需持有 this
+        private boolean sendHedge() {
+            if (!budget.tryAcquire()) {
+                budgetExhausted.incrementAndGet();
+                return false;
+            }
+            hedges.incrementAndGet();
+            HttpHost host = primary.pin.selected;
+            hedge = new Attempt(host == null ? Collections.emptySet() : Collections.singleton(host));
+            send(hedge);
+            return true;
+        }
+
+        synchronized void onSuccess(Attempt attempt, Response response) {
+            if (finished) {
+                return;
+            }
+            attempt.done = true;
+            delay.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - attempt.startNanos));
+            if (attempt == hedge) {
+                hedgeWins.incrementAndGet();
+            }
+            finish();
+            complete(() -> future.complete(response));
+        }
+
+        synchronized void onFailure(Attempt attempt, Exception e) {
+            if (finished) {
+                return;
+            }
+            attempt.done = true;
+            if (failure != null) {
+                e.addSuppressed(failure);
+            }
+            failure = e;
+            Attempt other = attempt == primary ? hedge : primary;
+            if (other != null && !other.done) {
+                return;
+            }
+            if (hedge == null && retryable(e) && client.getLowLevelClient().getNodes().size() > 1 && sendHedge()) {
+                return;
+            }
+            finish();
+            Exception cause = failure;
+            complete(() -> future.completeExceptionally(cause));
+        }
+
+        // 调用方需持有 this
+        private void finish() {
+            finished = true;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            cancel(primary);
+            cancel(hedge);
+        }
+
+        synchronized void cancelAll() {
+            if (!finished) {
+                finish();
+            }
+        }
+
+        synchronized void abort(Exception e) {
+            if (!finished) {
+                finish();
+                future.completeExceptionally(e);
+            }
+        }
+
+        private void cancel(Attempt attempt) {
+            if (attempt == null || attempt.done) {
+                return;
+            }
+            attempt.done = true;
+            Cancellable cancellable = attempt.cancellable;
+            // 被中止的请求由 TrackingHttpAsyncClient 计入节点统计
+            if (cancellable != null) {
+                cancellable.cancel();
+            }
+        }
+    }
+
+    private static final class Attempt {
+        final LatencyAwareNodeSelector.Pin pin;
+        final long startNanos = System.nanoTime();
+        volatile Cancellable cancellable;
+        boolean done;
+
+        Attempt(Set<HttpHost> excluded) {
+            this.pin = new LatencyAwareNodeSelector.Pin(excluded);
+        }
+    }
+
+    /**
+     * 一个 endpoint 的补发延迟：样本攒够 minSamples 个后取分位数，然后重新累积。
+     */
+    static final class Delay {
+        private final Recorder recorder = new Recorder(MAX_TRACKABLE_MICROS, 2);
+        private final Histogram accumulated = new Histogram(MAX_TRACKABLE_MICROS, 2);
+        private volatile long micros;
+
+        Delay(long initialMicros) {
+            this.micros = initialMicros;
+        }
+
+        void record(long micros) {
+            recorder.recordValue(Math.min(MAX_TRACKABLE_MICROS, micros));
+        }
+
+        synchronized void refresh(double percentile, int minSamples, long minMicros) {
+            accumulated.add(recorder.getIntervalHistogram());
+            if (accumulated.getTotalCount() >= minSamples) {
+                micros = Math.max(minMicros, accumulated.getValueAtPercentile(percentile));
+                accumulated.reset();
+            }
+        }
+
+        long micros() {
+            return micros;
+        }
+    }
+
+    /**
+     * 令牌桶：每个请求存入 ratio 个令牌，补发一次取出一个，最多存 burst 个，初始是满的。
+     */
+    static final class Budget {
+        private final double ratio;
+        private final double burst;
+        private double tokens;
+
+        Budget(double ratio, int burst) {
+            this.ratio = ratio;
+            this.burst = burst;
+            this.tokens = burst;
+        }
+
+        synchronized void deposit() {
+            tokens = Math.min(burst, tokens + ratio);
+        }
+
+        synchronized boolean tryAcquire() {
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+    }
+}
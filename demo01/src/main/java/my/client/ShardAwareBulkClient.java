@@ -0,0 +1,453 @@
+package my.client;
+
+import my.async.AsyncClient;
+import my.metadata.ShardRouting;
+import my.metadata.ShardTable;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.core.TimeValue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按主分片所在节点拆分 bulk。在客户端按 _id / routing 算出每个条目的分片（{@link ShardRouting}），
+ * 再按 {@link ShardTable} 找到主分片所在节点，每个节点一个子 bulk，直接发给该节点。
+ * 这样省掉协调节点的一次转发，协调节点也不必把整个 bulk 留在内存里，协调开销均匀地分到各个节点。
+ * 子 bulk 并行发送，结果按原顺序合并，与普通 bulk 的响应一致。
+ * <p>
+ * 以下条目无法确定节点，合成一个子 bulk 按正常方式选节点：自动生成 _id、别名或未登记的索引、主分片未分配、
+ * 节点的发布地址不在客户端的节点列表中（经过代理或 NAT 访问集群时）。
+ * 分片表在后台定期刷新，子 bulk 整体失败时也会提前刷新；表过期时服务端照常转发，只是多一跳。
+ * 发往主分片节点的子 bulk 连接失败时不指定节点重发一次（与 RestClient 自身的故障转移相同）；
+ * 仍然失败时其中的条目以失败条目返回，不影响其它子 bulk，全部失败时 future 以第一个异常结束。
+ * 关闭时在途的子 bulk 被取消，future 以 {@link IllegalStateException} 结束。
+ * <pre>
+ * try (ShardAwareBulkClient bulkClient = ShardAwareBulkClient.builder(managedClient, "java-api-demo-idx").build()) {
+ *     BulkResponse response = bulkClient.bulk(bulkRequest).get();
+ * }
+ * </pre>
+ */
+public class ShardAwareBulkClient implements Closeable {
+
+    private final RestHighLevelClient client;
+    private final LatencyAwareNodeSelector selector;
+    private final RequestOptions options;
+    private final List<String> indices;
+    private final ExecutorService callbackExecutor = AsyncClient.newCallbackExecutor();
+    private final ScheduledExecutorService scheduler;
+    // 尚未结束的 bulk，关闭时统一失败
+    private final Set<Split> outstanding = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+    private final AtomicLong routedItems = new AtomicLong();
+    private final AtomicLong unroutedItems = new AtomicLong();
+    private final AtomicLong subBulks = new AtomicLong();
+    private final AtomicLong failovers = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong refreshFailures = new AtomicLong();
+
+    private volatile ShardTable table;
+    private volatile Exception lastFailure;
+
+    private ShardAwareBulkClient(Builder builder) {
+        this.client = builder.client.client();
+        this.selector = builder.client.selector();
+        this.options = builder.options != null ? builder.options : builder.client.requestOptions();
+        this.indices = Arrays.asList(builder.indices);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "shard-aware-bulk-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        if (builder.refreshInterval != null) {
+            long interval = builder.refreshInterval.millis();
+            scheduler.scheduleWithFixedDelay(this::backgroundRefresh, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static Builder builder(ManagedClient client, String... indices) {
+        return new Builder(client, indices);
+    }
+
+    public static class Builder {
+        private final ManagedClient client;
+        private final String[] indices;
+        private RequestOptions options;
+        private TimeValue refreshInterval = TimeValue.timeValueSeconds(30);
+
+        private Builder(ManagedClient client, String... indices) {
+            if (indices == null || indices.length == 0) {
+                throw new IllegalArgumentException("indices must not be empty");
+            }
+            this.client = client;
+            this.indices = indices;
+        }
+
+        /**
+         * 默认使用 {@link ManagedClient#requestOptions()}。
+         */
+        public Builder setRequestOptions(RequestOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        /**
+         * 重新拉取分片表的间隔，默认 30s，null 表示只在调用 {@link ShardAwareBulkClient#refresh()} 或子 bulk 失败时刷新。
+         */
+        public Builder setRefreshInterval(TimeValue refreshInterval) {
+            this.refreshInterval = refreshInterval;
+            return this;
+        }
+
+        /**
+         * 创建并同步加载一次分片表。
+         */
+        public ShardAwareBulkClient build() throws IOException {
+            ShardAwareBulkClient bulkClient = new ShardAwareBulkClient(this);
+            try {
+                bulkClient.refresh();
+            } catch (IOException | RuntimeException e) {
+                bulkClient.close();
+                throw e;
+            }
+            return bulkClient;
+        }
+    }
+
+    /**
+     * 重新拉取分片表和节点地址。
+     */
+    public synchronized void refresh() throws IOException {
+        RestClient lowLevelClient = client.getLowLevelClient();
+        Request state = ShardTable.stateRequest(indices);
+        state.setOptions(options);
+        Request nodes = ShardTable.nodesRequest();
+        nodes.setOptions(options);
+        table = ShardTable.parse(lowLevelClient.performRequest(state), lowLevelClient.performRequest(nodes));
+        refreshes.incrementAndGet();
+    }
+
+    private void backgroundRefresh() {
+        refreshPending.set(false);
+        try {
+            refresh();
+        } catch (Exception e) {
+            // 刷新失败时继续使用旧表
+            refreshFailures.incrementAndGet();
+            lastFailure = e;
+        }
+    }
+
+    // 多个子 bulk 同时失败时只刷新一次；关闭时被取消的子 bulk 不触发刷新
+    private void requestRefresh() {
+        if (!closed && refreshPending.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::backgroundRefresh);
+            } catch (RejectedExecutionException e) {
+                // 已关闭
+            }
+        }
+    }
+
+    /**
+     * 按主分片所在节点拆分后并行发送，返回合并后的响应。
+     */
+    public CompletableFuture<BulkResponse> bulk(BulkRequest request) {
+        List<DocWriteRequest<?>> requests = request.requests();
+        ShardTable current = table;
+        List<HttpHost> hosts = new ArrayList<>();
+        for (Node node : client.getLowLevelClient().getNodes()) {
+            hosts.add(node.getHost());
+        }
+        // 发布地址 -> 客户端节点，同一批中只匹配一次
+        Map<HttpHost, HttpHost> resolved = new HashMap<>();
+        // 目标节点 -> 条目在原请求中的位置，null 表示不指定节点
+        Map<HttpHost, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            HttpHost primary = primary(current, requests.get(i));
+            HttpHost target = primary == null ? null : resolved.computeIfAbsent(primary, p -> clientHost(p, hosts));
+            groups.computeIfAbsent(target, k -> new ArrayList<>()).add(i);
+            if (target == null) {
+                unroutedItems.incrementAndGet();
+            } else {
+                routedItems.incrementAndGet();
+            }
+        }
+        if (groups.isEmpty()) {
+            // 空 bulk 照常发送，由 RestHighLevelClient 报告校验错误
+            groups.put(null, Collections.emptyList());
+        }
+        Split split = new Split(request, groups.size());
+        outstanding.add(split);
+        split.future.whenComplete((r, e) -> outstanding.remove(split));
+        // 先登记再检查，与 close() 并发时两边至少有一边能看到这个 bulk
+        if (closed) {
+            split.future.completeExceptionally(new IllegalStateException("shard aware bulk client already closed"));
+            return split.future;
+        }
+        for (Map.Entry<HttpHost, List<Integer>> group : groups.entrySet()) {
+            int[] slots = new int[group.getValue().size()];
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = group.getValue().get(i);
+            }
+            split.send(group.getKey(), slots);
+        }
+        return split.future;
+    }
+
+    private static HttpHost primary(ShardTable table, DocWriteRequest<?> request) {
+        ShardRouting routing = request.id() == null ? null : table.routing(request.index());
+        return routing == null ? null : table.primary(request.index(), routing.shardId(request.id(), request.routing()));
+    }
+
+    // 端口相同，且客户端配置的主机名与发布地址的主机名或 IP 相同
+    static HttpHost clientHost(HttpHost published, List<HttpHost> hosts) {
+        for (HttpHost host : hosts) {
+            if (host.getPort() == published.getPort()
+                    && (host.getHostName().equalsIgnoreCase(published.getHostName())
+                    || published.getAddress() != null && host.getHostName().equals(published.getAddress().getHostAddress()))) {
+                return host;
+            }
+        }
+        return null;
+    }
+
+    private static BulkRequest subRequest(BulkRequest original, int[] slots) {
+        BulkRequest sub = new BulkRequest()
+                .setRefreshPolicy(original.getRefreshPolicy())
+                .waitForActiveShards(original.waitForActiveShards())
+                .timeout(original.timeout())
+                .pipeline(original.pipeline())
+                .routing(original.routing())
+                .requireAlias(original.requireAlias());
+        for (int slot : slots) {
+            sub.add(original.requests().get(slot));
+        }
+        return sub;
+    }
+
+    /**
+     * 确定了主分片节点、直接发往该节点的条目数。
+     */
+    public long routedItems() {
+        return routedItems.get();
+    }
+
+    /**
+     * 无法确定节点、按正常方式选节点的条目数。
+     */
+    public long unroutedItems() {
+        return unroutedItems.get();
+    }
+
+    public long subBulks() {
+        return subBulks.get();
+    }
+
+    /**
+     * 主分片节点连接失败、不指定节点重发的子 bulk 数。
+     */
+    public long failovers() {
+        return failovers.get();
+    }
+
+    public long refreshes() {
+        return refreshes.get();
+    }
+
+    public long refreshFailures() {
+        return refreshFailures.get();
+    }
+
+    /**
+     * 最近一次后台刷新的异常，没有则为 null。
+     */
+    public Exception lastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * 当前的分片表。
+     */
+    public ShardTable table() {
+        return table;
+    }
+
+    // 关闭后执行器会拒绝任务，此时直接在当前线程结束 future
+    private void complete(Runnable completion) {
+        try {
+            callbackExecutor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            completion.run();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        IllegalStateException failure = new IllegalStateException("shard aware bulk client closed");
+        for (Split split : outstanding) {
+            split.abort(failure);
+        }
+        scheduler.shutdownNow();
+        callbackExecutor.shutdown();
+    }
+
+    /**
+     * 一个 bulk 拆出的所有子 bulk，全部结束后合并结果。
+     */
+    private final class Split {
+        final BulkRequest original;
+        final int groups;
+        final CompletableFuture<BulkResponse> future = new CompletableFuture<>();
+        // 以下字段由 this 保护
+        final BulkItemResponse[] results;
+        int remaining;
+        long tookMillis;
+        long ingestTookMillis = BulkResponse.NO_INGEST_TOOK;
+        final List<Exception> failures = new ArrayList<>();
+        final List<Cancellable> cancellables = new ArrayList<>();
+
+        Split(BulkRequest original, int groups) {
+            this.original = original;
+            this.groups = groups;
+            this.results = new BulkItemResponse[original.numberOfActions()];
+            this.remaining = groups;
+        }
+
+        void send(HttpHost target, int[] slots) {
+            subBulks.incrementAndGet();
+            BulkRequest sub = subRequest(original, slots);
+            if (target != null) {
+                selector.pin(new LatencyAwareNodeSelector.Pin(Collections.emptySet(), target));
+            }
+            try {
+                Cancellable cancellable = client.bulkAsync(sub, options, new ActionListener<BulkResponse>() {
+                    @Override
+                    public void onResponse(BulkResponse response) {
+                        onSubResponse(slots, response);
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        onSubFailure(target, slots, e);
+                    }
+                });
+                synchronized (this) {
+                    cancellables.add(cancellable);
+                }
+                if (future.isDone()) {
+                    cancellable.cancel();
+                }
+            } catch (RuntimeException e) {
+                onSubFailure(null, slots, e);
+            } finally {
+                if (target != null) {
+                    selector.unpin();
+                }
+            }
+        }
+
+        void onSubResponse(int[] slots, BulkResponse response) {
+            synchronized (this) {
+                BulkItemResponse[] items = response.getItems();
+                for (int i = 0; i < items.length; i++) {
+                    BulkItemResponse item = items[i];
+                    int slot = slots[i];
+                    results[slot] = item.isFailed()
+                            ? BulkItemResponse.failure(slot, item.getOpType(), item.getFailure())
+                            : BulkItemResponse.success(slot, item.getOpType(), item.getResponse());
+                }
+                tookMillis = Math.max(tookMillis, response.getTook().millis());
+                if (response.getIngestTookInMillis() != BulkResponse.NO_INGEST_TOOK) {
+                    ingestTookMillis = Math.max(ingestTookMillis, response.getIngestTookInMillis());
+                }
+            }
+            onSubDone();
+        }
+
+        void onSubFailure(HttpHost target, int[] slots, Exception e) {
+            requestRefresh();
+            // 连接失败说明请求没有被处理（RestClient 也会在这种情况下换节点重试），只剩一个节点时同样换节点
+            if (!closed && target != null && e instanceof IOException && !(e instanceof ResponseException)) {
+                failovers.incrementAndGet();
+                send(null, slots);
+                return;
+            }
+            synchronized (this) {
+                for (int slot : slots) {
+                    DocWriteRequest<?> request = original.requests().get(slot);
+                    results[slot] = BulkItemResponse.failure(slot, request.opType(),
+                            new BulkItemResponse.Failure(request.index(), "_doc", request.id(), e));
+                }
+                failures.add(e);
+            }
+            onSubDone();
+        }
+
+        void abort(Exception e) {
+            List<Cancellable> sent;
+            synchronized (this) {
+                sent = new ArrayList<>(cancellables);
+            }
+            future.completeExceptionally(e);
+            for (Cancellable cancellable : sent) {
+                cancellable.cancel();
+            }
+        }
+
+        private void onSubDone() {
+            BulkResponse response;
+            Exception failure = null;
+            synchronized (this) {
+                if (--remaining > 0) {
+                    return;
+                }
+                response = new BulkResponse(results, tookMillis, ingestTookMillis);
+                if (!failures.isEmpty() && failures.size() == groups) {
+                    failure = failures.get(0);
+                    for (int i = 1; i < failures.size(); i++) {
+                        failure.addSuppressed(failures.get(i));
+                    }
+                }
+            }
+            Exception f = failure;
+            complete(() -> {
+                if (f != null) {
+                    future.completeExceptionally(f);
+                } else {
+                    future.complete(response);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package my.client;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 向 {@link LatencyAwareNodeSelector} 上报在途请求数与响应时间。
+ * 请求真正发出时计入在途；收到响应、失败、被 {@code Cancellable} 中止三者中先到的一个把它减回来，每次请求只减一次。
+ * 包装 {@code execute} 是因为中止与连接失败都不经过响应拦截器，只有回调能看到。
+ */
+class TrackingHttpAsyncClient extends CloseableHttpAsyncClient {
+
+    private static final String EXCHANGE = TrackingHttpAsyncClient.class.getName() + ".exchange";
+
+    private final CloseableHttpAsyncClient delegate;
+    private final LatencyAwareNodeSelector selector;
+
+    TrackingHttpAsyncClient(CloseableHttpAsyncClient delegate, LatencyAwareNodeSelector selector) {
+        this.delegate = delegate;
+        this.selector = selector;
+    }
+
+    /**
+     * 用于 {@code RestClientBuilder.setHttpClientConfigCallback}：RestClient 只会调用返回值的 build()。
+     * 拦截器必须注册在真正构建底层客户端的 httpClientBuilder 上，builder 可以是其他包装返回的构建器。
+     */
+    static HttpAsyncClientBuilder wrap(HttpAsyncClientBuilder httpClientBuilder, HttpAsyncClientBuilder builder,
+                                       LatencyAwareNodeSelector selector) {
+        httpClientBuilder.addInterceptorFirst((HttpRequestInterceptor) (request, context) -> {
+            HttpHost target = HttpClientContext.adapt(context).getTargetHost();
+            // 认证质询等同一次请求内的重发不重复计入
+            if (target != null && context.getAttribute(EXCHANGE) == null) {
+                context.setAttribute(EXCHANGE, new Exchange(target));
+                selector.onRequest(target);
+            }
+        }).addInterceptorLast((HttpResponseInterceptor) (response, context) -> {
+            Exchange exchange = (Exchange) context.getAttribute(EXCHANGE);
+            if (exchange != null && exchange.complete()) {
+                selector.onResponse(exchange.host, System.nanoTime() - exchange.startNanos);
+            }
+        });
+        return new HttpAsyncClientBuilder() {
+            @Override
+            public CloseableHttpAsyncClient build() {
+                return new TrackingHttpAsyncClient(builder.build(), selector);
+            }
+        };
+    }
+
+    @Override
+    public boolean isRunning() {
+        return delegate.isRunning();
+    }
+
+    @Override
+    public void start() {
+        delegate.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public <T> Future<T> execute(HttpAsyncRequestProducer requestProducer, HttpAsyncResponseConsumer<T> responseConsumer,
+                                 HttpContext context, FutureCallback<T> callback) {
+        // 没有传入上下文时 HttpAsyncClient 会自己创建一个，回调里就看不到拦截器记下的请求
+        HttpContext exchangeContext = context != null ? context : HttpClientContext.create();
+        return delegate.execute(requestProducer, responseConsumer, exchangeContext, new FutureCallback<T>() {
+            @Override
+            public void completed(T result) {
+                Exchange exchange = exchange(exchangeContext);
+                if (exchange != null && exchange.complete()) {
+                    selector.onResponse(exchange.host, System.nanoTime() - exchange.startNanos);
+                }
+                if (callback != null) {
+                    callback.completed(result);
+                }
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                Exchange exchange = exchange(exchangeContext);
+                if (exchange != null && exchange.complete()) {
+                    selector.onNoResponse(exchange.host);
+                }
+                if (callback != null) {
+                    callback.failed(ex);
+                }
+            }
+
+            @Override
+            public void cancelled() {
+                Exchange exchange = exchange(exchangeContext);
+                if (exchange != null && exchange.complete()) {
+                    selector.onCancelled(exchange.host, System.nanoTime() - exchange.startNanos);
+                }
+                if (callback != null) {
+                    callback.cancelled();
+                }
+            }
+        });
+    }
+
+    private static Exchange exchange(HttpContext context) {
+        return (Exchange) context.getAttribute(EXCHANGE);
+    }
+
+    private static final class Exchange {
+        final HttpHost host;
+        final long startNanos = System.nanoTime();
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        Exchange(HttpHost host) {
+            this.host = host;
+        }
+
+        // 只有第一次调用返回 true
+        boolean complete() {
+            return completed.compareAndSet(false, true);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package my.client;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Future;
+
+/**
+ * 按 {@link WireFormat} 给请求加上 Accept 头，并把 JSON 请求体转成 SMILE / CBOR。
+ * 与 {@link CompressingHttpAsyncClient} 一样包装 {@code execute}，换掉原请求的请求体并重建生产者；同时开启 gzip 时必须包在压缩之外，先转码再压缩。
+ */
+class TranscodingHttpAsyncClient extends CloseableHttpAsyncClient {
+
+    private final CloseableHttpAsyncClient delegate;
+    private final WireFormat wireFormat;
+
+    TranscodingHttpAsyncClient(CloseableHttpAsyncClient delegate, WireFormat wireFormat) {
+        this.delegate = delegate;
+        this.wireFormat = wireFormat;
+    }
+
+    /**
+     * 用于 {@code RestClientBuilder.setHttpClientConfigCallback}：RestClient 只会调用返回值的 build()。
+     */
+    static HttpAsyncClientBuilder wrap(HttpAsyncClientBuilder builder, WireFormat wireFormat) {
+        return new HttpAsyncClientBuilder() {
+            @Override
+            public CloseableHttpAsyncClient build() {
+                return new TranscodingHttpAsyncClient(builder.build(), wireFormat);
+            }
+        };
+    }
+
+    @Override
+    public boolean isRunning() {
+        return delegate.isRunning();
+    }
+
+    @Override
+    public void start() {
+        delegate.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public <T> Future<T> execute(HttpAsyncRequestProducer requestProducer, HttpAsyncResponseConsumer<T> responseConsumer,
+                                 HttpContext context, FutureCallback<T> callback) {
+        HttpRequest request;
+        try {
+            request = requestProducer.generateRequest();
+        } catch (IOException | HttpException e) {
+            return delegate.execute(requestProducer, responseConsumer, context, callback);
+        }
+        String endpoint = InstrumentedHttpAsyncClient.endpoint(request);
+        if (!wireFormat.binary(endpoint)) {
+            return delegate.execute(requestProducer, responseConsumer, context, callback);
+        }
+        // RestClient 的请求生产者每次返回同一个请求对象，直接加头即可
+        if (!request.containsHeader(HttpHeaders.ACCEPT)) {
+            request.addHeader(HttpHeaders.ACCEPT, wireFormat.type().mediaTypeWithoutParameters());
+        }
+        HttpAsyncRequestProducer producer = requestProducer;
+        if (wireFormat.encodeRequests()) {
+            try {
+                producer = encode(requestProducer, request, endpoint);
+            } catch (IOException | RuntimeException e) {
+                // 请求体无法解析时原样发送，由服务端报告错误
+                wireFormat.onRequestSkipped(endpoint);
+            }
+        }
+        return delegate.execute(producer, responseConsumer, context, callback);
+    }
+
+    private HttpAsyncRequestProducer encode(HttpAsyncRequestProducer producer, HttpRequest request, String endpoint)
+            throws IOException {
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return producer;
+        }
+        HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+        if (entity == null) {
+            return producer;
+        }
+        boolean multiDocument = WireFormat.multiDocument(endpoint);
+        ContentType contentType = ContentType.get(entity);
+        if (entity.getContentEncoding() != null || contentType == null
+                || XContentType.fromMediaType(contentType.getMimeType()) != XContentType.JSON
+                || (multiDocument && wireFormat.type() != XContentType.SMILE)) {
+            wireFormat.onRequestSkipped(endpoint);
+            return producer;
+        }
+        long start = System.nanoTime();
+        byte[] json = EntityUtils.toByteArray(entity);
+        byte[] encoded = transcode(json, wireFormat.type(), multiDocument);
+        wireFormat.onRequestEncoded(endpoint, json.length, encoded.length, System.nanoTime() - start);
+
+        // 直接替换原请求的请求体，原因同 CompressingHttpAsyncClient：取消与按请求的 RequestConfig 都作用在原请求上
+        ((HttpEntityEnclosingRequest) request).setEntity(
+                new ByteArrayEntity(encoded, ContentType.create(wireFormat.type().mediaTypeWithoutParameters())));
+        request.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+        request.removeHeaders(HttpHeaders.CONTENT_TYPE);
+        try {
+            producer.close();
+        } catch (IOException e) {
+            // 原生产者尚未开始发送，关闭失败不影响新请求
+        }
+        return HttpAsyncMethods.create(producer.getTarget(), request);
+    }
+
+    /**
+     * 把 JSON 转成 target 格式。multiDocument 时每行一个文档，转码后以 target 的分隔符结尾（_bulk、_msearch 的格式）。
+     */
+    static byte[] transcode(byte[] json, XContentType target, boolean multiDocument) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length);
+        if (!multiDocument) {
+            copy(json, 0, json.length, target, out);
+            return out.toByteArray();
+        }
+        int from = 0;
+        while (from < json.length) {
+            int to = from;
+            while (to < json.length && json[to] != '\n') {
+                to++;
+            }
+            if (to > from) {
+                copy(json, from, to - from, target, out);
+                out.write(target.xContent().streamSeparator());
+            }
+            from = to + 1;
+        }
+        return out.toByteArray();
+    }
+
+    private static void copy(byte[] json, int offset, int length, XContentType target, ByteArrayOutputStream out)
+            throws IOException {
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, json, offset, length);
+             XContentBuilder builder = XContentBuilder.builder(target.xContent())) {
+            parser.nextToken();
+            builder.copyCurrentStructure(parser);
+            BytesReference.bytes(builder).writeTo(out);
+        }
+    }
+}
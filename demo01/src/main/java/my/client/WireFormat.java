@@ -0,0 +1,206 @@
+package my.client;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.elasticsearch.common.xcontent.XContent;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 二进制传输格式（SMILE / CBOR）：通过 Accept 头让服务端用二进制格式返回响应，并把 JSON 请求体转成二进制格式发送。
+ * 数字多的文档（如 salary）和大量命中结果用二进制格式解析更快，字节数也更少。
+ * <p>
+ * RestHighLevelClient 按响应的 Content-Type 解析，无需改动调用方；直接使用低级客户端的代码应当用 {@link #xContent(HttpEntity)}
+ * 而不是固定的 {@code XContentType.JSON} 来解析响应。不适合二进制格式的接口通过 {@link Builder#addJsonEndpoint} 保持 JSON，
+ * 默认包括返回文本表格的 _cat 和嗅探器（只能解析 JSON）使用的 _nodes。_bulk / _msearch 的请求体只支持 JSON 与 SMILE，使用 CBOR 时保持 JSON。
+ * 文档本身可以直接用 {@link #type()} 构造（{@code IndexRequest.source(wireFormat.type(), ...)}），省掉一次转码。
+ * <pre>
+ * ManagedClient managed = ClientFactory.builder(hosts)
+ *     .setWireFormat(WireFormat.builder(XContentType.SMILE).addJsonEndpoint("_analyze").build())
+ *     .build();
+ * </pre>
+ */
+public class WireFormat {
+
+    private final XContentType type;
+    private final List<String> jsonEndpoints;
+    private final boolean encodeRequests;
+    private final ConcurrentMap<String, EndpointStats> endpoints = new ConcurrentHashMap<>();
+
+    private WireFormat(Builder builder) {
+        this.type = builder.type;
+        this.jsonEndpoints = new ArrayList<>(builder.jsonEndpoints);
+        this.encodeRequests = builder.encodeRequests;
+    }
+
+    public static Builder builder(XContentType type) {
+        return new Builder(type);
+    }
+
+    public static class Builder {
+        private final XContentType type;
+        private final List<String> jsonEndpoints = new ArrayList<>();
+        private boolean encodeRequests = true;
+
+        private Builder(XContentType type) {
+            if (type != XContentType.SMILE && type != XContentType.CBOR) {
+                throw new IllegalArgumentException("wire format must be SMILE or CBOR but was [" + type + "]");
+            }
+            this.type = type;
+            jsonEndpoints.add("_cat");
+            jsonEndpoints.add("_nodes");
+        }
+
+        /**
+         * 该接口的请求与响应保持 JSON。按 endpoint 中以下划线开头的路径段前缀匹配，
+         * 例如 "_cat" 匹配所有 _cat 接口，"_cluster/state" 匹配集群状态。
+         */
+        public Builder addJsonEndpoint(String endpoint) {
+            jsonEndpoints.add(endpoint);
+            return this;
+        }
+
+        /**
+         * 是否把 JSON 请求体转成二进制格式，默认 true。
+         * 转码要在客户端多解析一次 JSON，请求体很小或客户端 CPU 紧张时可以只协商响应格式。
+         */
+        public Builder setEncodeRequests(boolean encodeRequests) {
+            this.encodeRequests = encodeRequests;
+            return this;
+        }
+
+        public WireFormat build() {
+            return new WireFormat(this);
+        }
+    }
+
+    /**
+     * 按响应的 Content-Type 选择解析器，没有或无法识别时按 JSON 解析。
+     */
+    public static XContent xContent(HttpEntity entity) {
+        Header contentType = entity == null ? null : entity.getContentType();
+        XContentType type = contentType == null ? null : XContentType.fromMediaType(contentType.getValue());
+        return (type == null ? XContentType.JSON : type).xContent();
+    }
+
+    public XContentType type() {
+        return type;
+    }
+
+    boolean encodeRequests() {
+        return encodeRequests;
+    }
+
+    /**
+     * endpoint 形如 "POST _search"（见 InstrumentedHttpAsyncClient），是否使用二进制格式。
+     */
+    boolean binary(String endpoint) {
+        String path = endpoint.substring(endpoint.indexOf(' ') + 1);
+        for (String json : jsonEndpoints) {
+            if (path.startsWith(json)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 该 endpoint 的请求体是否为按行分隔的多个文档（_bulk、_msearch）。
+     */
+    static boolean multiDocument(String endpoint) {
+        String path = endpoint.substring(endpoint.indexOf(' ') + 1);
+        return path.endsWith("_bulk") || path.endsWith("_msearch") || path.endsWith("_msearch/template");
+    }
+
+    private EndpointStats stats(String endpoint) {
+        return endpoints.computeIfAbsent(endpoint, k -> new EndpointStats());
+    }
+
+    void onRequestEncoded(String endpoint, long jsonBytes, long wireBytes, long nanos) {
+        EndpointStats s = stats(endpoint);
+        s.requestsEncoded.increment();
+        s.requestJsonBytes.add(jsonBytes);
+        s.requestWireBytes.add(wireBytes);
+        s.encodeNanos.add(nanos);
+    }
+
+    void onRequestSkipped(String endpoint) {
+        stats(endpoint).requestsSkipped.increment();
+    }
+
+    /**
+     * 按 endpoint 拉取转码统计。
+     *
+     * @param reset 拉取后是否清零
+     */
+    public Map<String, Stats> snapshot(boolean reset) {
+        Map<String, Stats> result = new TreeMap<>();
+        for (Map.Entry<String, EndpointStats> entry : endpoints.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().snapshot(reset));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Override
+    public String toString() {
+        return "WireFormat[" + type + ", json=" + jsonEndpoints + "]";
+    }
+
+    private static class EndpointStats {
+        final LongAdder requestsEncoded = new LongAdder();
+        final LongAdder requestsSkipped = new LongAdder();
+        final LongAdder requestJsonBytes = new LongAdder();
+        final LongAdder requestWireBytes = new LongAdder();
+        final LongAdder encodeNanos = new LongAdder();
+
+        Stats snapshot(boolean reset) {
+            return new Stats(get(requestsEncoded, reset), get(requestsSkipped, reset),
+                    get(requestJsonBytes, reset), get(requestWireBytes, reset), get(encodeNanos, reset));
+        }
+
+        private static long get(LongAdder adder, boolean reset) {
+            return reset ? adder.sumThenReset() : adder.sum();
+        }
+    }
+
+    /**
+     * 单个 endpoint 的请求体转码统计，耗时为转码本身的时间（纳秒）。
+     */
+    public static final class Stats {
+        public final long requestsEncoded;
+        /** 请求体不是 JSON 或该接口保持 JSON，未转码的请求数 */
+        public final long requestsSkipped;
+        public final long requestJsonBytes;
+        public final long requestWireBytes;
+        public final long encodeNanos;
+
+        Stats(long requestsEncoded, long requestsSkipped, long requestJsonBytes, long requestWireBytes, long encodeNanos) {
+            this.requestsEncoded = requestsEncoded;
+            this.requestsSkipped = requestsSkipped;
+            this.requestJsonBytes = requestJsonBytes;
+            this.requestWireBytes = requestWireBytes;
+            this.encodeNanos = encodeNanos;
+        }
+
+        /**
+         * JSON 字节数 / 发送字节数，没有转码过的请求时为 1。
+         */
+        public double requestRatio() {
+            return requestWireBytes == 0 ? 1 : (double) requestJsonBytes / requestWireBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requests=%d(skipped %d), %dB -> %dB (%.1fx, %.2fms)",
+                    requestsEncoded, requestsSkipped, requestJsonBytes, requestWireBytes, requestRatio(), encodeNanos / 1e6);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package my.doc;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * 为 getter / setter / 构造器生成函数式接口实现，只在创建 codec 时做一次反射。
+ * 目标是公开类的公开方法时用 LambdaMetafactory 生成直接调用的类，JIT 可以内联；
+ * 其他情况（非公开类、字段、其他类加载器的类）退化为 MethodHandle 调用。
+ */
+final class Accessors {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private Accessors() {
+    }
+
+    static Supplier<Object> constructor(Constructor<?> constructor) {
+        MethodHandle handle = unreflect(constructor);
+        if (generatable(constructor)) {
+            Supplier<Object> generated = generate(Supplier.class, "get", MethodType.methodType(Object.class), handle,
+                    MethodType.methodType(constructor.getDeclaringClass()));
+            if (generated != null) {
+                return generated;
+            }
+        }
+        MethodHandle h = handle.asType(MethodType.methodType(Object.class));
+        return () -> {
+            try {
+                return h.invokeExact();
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        };
+    }
+
+    static Function<Object, Object> getter(Member member) {
+        MethodHandle handle = getterHandle(member);
+        Class<?> owner = member.getDeclaringClass();
+        Class<?> type = handle.type().returnType();
+        if (member instanceof Method && generatable(member)) {
+            Function<Object, Object> generated = generate(Function.class, "apply",
+                    MethodType.methodType(Object.class, Object.class), handle, MethodType.methodType(wrap(type), owner));
+            if (generated != null) {
+                return generated;
+            }
+        }
+        MethodHandle h = handle.asType(MethodType.methodType(Object.class, Object.class));
+        return bean -> {
+            try {
+                return h.invokeExact(bean);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        };
+    }
+
+    static ToIntFunction<Object> intGetter(Member member) {
+        MethodHandle handle = getterHandle(member);
+        if (member instanceof Method && generatable(member)) {
+            ToIntFunction<Object> generated = generate(ToIntFunction.class, "applyAsInt",
+                    MethodType.methodType(int.class, Object.class), handle, MethodType.methodType(int.class, member.getDeclaringClass()));
+            if (generated != null) {
+                return generated;
+            }
+        }
+        MethodHandle h = handle.asType(MethodType.methodType(int.class, Object.class));
+        return bean -> {
+            try {
+                return (int) h.invokeExact(bean);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        };
+    }
+
+    static ToLongFunction<Object> longGetter(Member member) {
+        MethodHandle handle = getterHandle(member);
+        if (member instanceof Method && generatable(member)) {
+            ToLongFunction<Object> generated = generate(ToLongFunction.class, "applyAsLong",
+                    MethodType.methodType(long.class, Object.class), handle, MethodType.methodType(long.class, member.getDeclaringClass()));
+            if (generated != null) {
+                return generated;
+            }
+        }
+        MethodHandle h = handle.asType(MethodType.methodType(long.class, Object.class));
+        return bean -> {
+            try {
+                return (long) h.invokeExact(bean);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        };
+    }
+
+    static ToDoubleFunction<Object> doubleGetter(Member member) {
+        MethodHandle handle = getterHandle(member);
+        if (member instanceof Method && generatable(member)) {
+            ToDoubleFunction<Object> generated = generate(ToDoubleFunction.class, "applyAsDouble",
+                    MethodType.methodType(double.class, Object.class), handle, MethodType.methodType(double.class, member.getDeclaringClass()));
+            if (generated != null) {
+                return generated;
+            }
+        }
+        MethodHandle h = handle.asType(MethodType.methodType(double.class, Object.class));
+        return bean -> {
+            try {
+                return (double) h.invokeExact(bean);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        };
+    }
+
+    static Predicate<Object> booleanGetter(Member member) {
+        MethodHandle handle = getterHandle(member);
+        if (member instanceof Method && generatable(member)) {
+            Predicate<Object> generated = generate(Predicate.class, "test",
+                    MethodType.methodType(boolean.class, Object.class), handle, MethodType.methodType(boolean.class, member.getDeclaringClass()));
+            if (generated != null) {
+                return generated;
+            }
+        }
+        MethodHandle h = handle.asType(MethodType.methodType(boolean.class, Object.class));
+        return bean -> {
+            try {
+                return (boolean) h.invokeExact(bean);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        };
+    }
+
+    static BiConsumer<Object, Object> setter(Member member) {
+        MethodHandle handle = setterHandle(member);
+        Class<?> owner = member.getDeclaringClass();
+        Class<?> type = handle.type().parameterType(1);
+        if (member instanceof Method && generatable(member)) {
+            BiConsumer<Object, Object> generated = generate(BiConsumer.class, "accept",
+                    MethodType.methodType(void.class, Object.class, Object.class), handle,
+                    MethodType.methodType(void.class, owner, wrap(type)));
+            if (generated != null) {
+                return generated;
+            }
+        }
+        MethodHandle h = handle.asType(MethodType.methodType(void.class, Object.class, Object.class));
+        return (bean, value) -> {
+            try {
+                h.invokeExact(bean, value);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        };
+    }
+
+    static ObjIntConsumer<Object> intSetter(Member member) {
+        MethodHandle handle = setterHandle(member);
+        if (member instanceof Method && generatable(member)) {
+            ObjIntConsumer<Object> generated = generate(ObjIntConsumer.class, "accept",
+                    MethodType.methodType(void.class, Object.class, int.class), handle,
+                    MethodType.methodType(void.class, member.getDeclaringClass(), int.class));
+            if (generated != null) {
+                return generated;
+            }
+        }
+        MethodHandle h = handle.asType(MethodType.methodType(void.class, Object.class, int.class));
+        return (bean, value) -> {
+            try {
+                h.invokeExact(bean, value);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        };
+    }
+
+    static ObjLongConsumer<Object> longSetter(Member member) {
+        MethodHandle handle = setterHandle(member);
+        if (member instanceof Method && generatable(member)) {
+            ObjLongConsumer<Object> generated = generate(ObjLongConsumer.class, "accept",
+                    MethodType.methodType(void.class, Object.class, long.class), handle,
+                    MethodType.methodType(void.class, member.getDeclaringClass(), long.class));
+            if (generated != null) {
+                return generated;
+            }
+        }
+        MethodHandle h = handle.asType(MethodType.methodType(void.class, Object.class, long.class));
+        return (bean, value) -> {
+            try {
+                h.invokeExact(bean, value);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        };
+    }
+
+    static ObjDoubleConsumer<Object> doubleSetter(Member member) {
+        MethodHandle handle = setterHandle(member);
+        if (member instanceof Method && generatable(member)) {
+            ObjDoubleConsumer<Object> generated = generate(ObjDoubleConsumer.class, "accept",
+                    MethodType.methodType(void.class, Object.class, double.class), handle,
+                    MethodType.methodType(void.class, member.getDeclaringClass(), double.class));
+            if (generated != null) {
+                return generated;
+            }
+        }
+        MethodHandle h = handle.asType(MethodType.methodType(void.class, Object.class, double.class));
+        return (bean, value) -> {
+            try {
+                h.invokeExact(bean, value);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        };
+    }
+
+    static MethodHandle unreflect(Constructor<?> constructor) {
+        try {
+            constructor.setAccessible(true);
+            return LOOKUP.unreflectConstructor(constructor);
+        } catch (IllegalAccessException | RuntimeException e) {
+            throw new IllegalArgumentException("cannot access constructor " + constructor, e);
+        }
+    }
+
+    private static MethodHandle getterHandle(Member member) {
+        try {
+            if (member instanceof Field) {
+                ((Field) member).setAccessible(true);
+                return LOOKUP.unreflectGetter((Field) member);
+            }
+            ((Method) member).setAccessible(true);
+            return LOOKUP.unreflect((Method) member);
+        } catch (IllegalAccessException | RuntimeException e) {
+            throw new IllegalArgumentException("cannot access " + member, e);
+        }
+    }
+
+    private static MethodHandle setterHandle(Member member) {
+        try {
+            if (member instanceof Field) {
+                ((Field) member).setAccessible(true);
+                return LOOKUP.unreflectSetter((Field) member);
+            }
+            // 链式 setter 的返回值在生成的 lambda / asType 中被丢弃
+            ((Method) member).setAccessible(true);
+            return LOOKUP.unreflect((Method) member);
+        } catch (IllegalAccessException | RuntimeException e) {
+            throw new IllegalArgumentException("cannot access " + member, e);
+        }
+    }
+
+    // 生成的类定义在本包、由本类的类加载器解析，目标必须对它公开可见
+    private static boolean generatable(Member member) {
+        if (!Modifier.isPublic(member.getModifiers())) {
+            return false;
+        }
+        for (Class<?> c = member.getDeclaringClass(); c != null; c = c.getEnclosingClass()) {
+            if (!Modifier.isPublic(c.getModifiers())) {
+                return false;
+            }
+        }
+        try {
+            return Class.forName(member.getDeclaringClass().getName(), false, Accessors.class.getClassLoader())
+                    == member.getDeclaringClass();
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <F> F generate(Class<? super F> functionalInterface, String methodName, MethodType samType,
+                                  MethodHandle implementation, MethodType instantiatedType) {
+        try {
+            return (F) LambdaMetafactory.metafactory(LOOKUP, methodName, MethodType.methodType(functionalInterface),
+                    samType, implementation, instantiatedType).getTarget().invoke();
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    static Class<?> wrap(Class<?> type) {
+        return MethodType.methodType(type).wrap().returnType();
+    }
+
+    static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new IllegalStateException(t);
+    }
+}
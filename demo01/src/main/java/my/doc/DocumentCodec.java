@@ -0,0 +1,1031 @@
+package my.doc;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * POJO 与 XContent 字节流之间直接编解码，不经过 {@code Map<String, Object>}。
+ * 每个类只在第一次使用时反射一次，生成的访问器随 codec 缓存（见 {@link Accessors}），int/long/double/boolean 属性读写不装箱。
+ * <p>
+ * 支持 JavaBean（无参构造器 + getter/setter）、公开字段和 record（JDK 16+）。属性类型可以是 String、基本类型及其包装类、枚举、
+ * Instant / LocalDate / LocalDateTime（ISO 字符串）、基本类型数组、List / Set、{@code Map<String, ?>}、Object（任意 JSON 值）
+ * 以及嵌套对象。null 不写出，读取时忽略未知字段。
+ * <pre>
+ * DocumentCodec&lt;Article&gt; codec = DocumentCodec.of(Article.class);
+ * client.index(new IndexRequest(index).id("1").source(codec.encode(article), XContentType.JSON), RequestOptions.DEFAULT);
+ * List&lt;Article&gt; articles = RawSource.readAll(searchResponse.getHits(), codec);
+ * </pre>
+ */
+public final class DocumentCodec<T> implements SourceReader<T> {
+
+    private static final ClassValue<DocumentCodec<?>> CODECS = new ClassValue<DocumentCodec<?>>() {
+        @Override
+        protected DocumentCodec<?> computeValue(Class<?> type) {
+            return new DocumentCodec<>(type);
+        }
+    };
+
+    // 编码缓冲按线程复用，超过该大小的不保留，避免一次大文档长期占用内存
+    private static final int MAX_RETAINED_BUFFER = 1 << 20;
+    private static final ThreadLocal<ReusableBuffer> BUFFER = ThreadLocal.withInitial(ReusableBuffer::new);
+
+    private final Class<T> type;
+    private final Property[] properties;
+    private final Map<String, Property> byName = new HashMap<>();
+    private final Supplier<Object> constructor;
+    private final MethodHandle recordConstructor;
+
+    @SuppressWarnings("unchecked")
+    public static <T> DocumentCodec<T> of(Class<T> type) {
+        return (DocumentCodec<T>) CODECS.get(type);
+    }
+
+    private DocumentCodec(Class<T> type) {
+        this.type = type;
+        if (isRecord(type)) {
+            this.properties = recordProperties(type);
+            Class<?>[] types = new Class<?>[properties.length];
+            for (int i = 0; i < properties.length; i++) {
+                types[i] = properties[i].type;
+            }
+            try {
+                this.recordConstructor = Accessors.unreflect(type.getDeclaredConstructor(types))
+                        .asSpreader(Object[].class, types.length)
+                        .asType(MethodType.methodType(Object.class, Object[].class));
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException("no canonical constructor for record " + type.getName(), e);
+            }
+            this.constructor = null;
+        } else {
+            if (type.isInterface() || Modifier.isAbstract(type.getModifiers()) || type.getName().startsWith("java.")) {
+                throw new IllegalArgumentException("cannot map " + type.getName() + " as a document");
+            }
+            Constructor<?> noArgs;
+            try {
+                noArgs = type.getDeclaredConstructor();
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(type.getName() + " needs a no-arg constructor", e);
+            }
+            this.properties = beanProperties(type);
+            this.constructor = Accessors.constructor(noArgs);
+            this.recordConstructor = null;
+        }
+        for (Property property : properties) {
+            byName.put(property.name, property);
+        }
+    }
+
+    /**
+     * 编码为 JSON。返回的字节只复制一次（从线程内复用的缓冲到刚好大小的数组），可直接用于
+     * {@code IndexRequest.source(bytes, XContentType.JSON)}。
+     */
+    public BytesReference encode(T document) throws IOException {
+        return encode(document, XContentType.JSON);
+    }
+
+    public BytesReference encode(T document, XContentType xContentType) throws IOException {
+        ReusableBuffer buffer = BUFFER.get();
+        buffer.reset();
+        try (XContentBuilder builder = new XContentBuilder(xContentType.xContent(), buffer)) {
+            writeTo(document, builder);
+        }
+        BytesReference bytes = new BytesArray(buffer.toByteArray());
+        buffer.trim();
+        return bytes;
+    }
+
+    /**
+     * 作为一个对象写入 builder，可用于嵌入更大的请求体（例如 UpdateRequest.doc(XContentBuilder)）。
+     */
+    public void writeTo(T document, XContentBuilder builder) throws IOException {
+        builder.startObject();
+        for (Property property : properties) {
+            property.write(document, builder);
+        }
+        builder.endObject();
+    }
+
+    /**
+     * 从 _source 解码，自动识别 JSON / SMILE / CBOR。
+     */
+    public T decode(BytesReference source) throws IOException {
+        return RawSource.read(source, this);
+    }
+
+    @Override
+    public T read(XContentParser parser) throws IOException {
+        if (parser.currentToken() != XContentParser.Token.START_OBJECT) {
+            throw new IOException("expected START_OBJECT for " + type.getName() + " but got [" + parser.currentToken() + "]");
+        }
+        if (recordConstructor != null) {
+            return readRecord(parser);
+        }
+        Object bean = constructor.get();
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token != XContentParser.Token.FIELD_NAME) {
+                throw new IOException("unexpected token [" + token + "] in " + type.getName());
+            }
+            Property property = byName.get(parser.currentName());
+            parser.nextToken();
+            if (property == null || !property.readable()) {
+                parser.skipChildren();
+            } else {
+                property.read(parser, bean);
+            }
+        }
+        return type.cast(bean);
+    }
+
+    private T readRecord(XContentParser parser) throws IOException {
+        Object[] args = new Object[properties.length];
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token != XContentParser.Token.FIELD_NAME) {
+                throw new IOException("unexpected token [" + token + "] in " + type.getName());
+            }
+            Property property = byName.get(parser.currentName());
+            parser.nextToken();
+            if (property == null) {
+                parser.skipChildren();
+            } else {
+                args[property.index] = property.readValue(parser);
+            }
+        }
+        for (Property property : properties) {
+            if (args[property.index] == null && property.type.isPrimitive()) {
+                args[property.index] = defaultValue(property.type);
+            }
+        }
+        try {
+            return type.cast(recordConstructor.invokeExact(args));
+        } catch (Throwable t) {
+            throw Accessors.rethrow(t);
+        }
+    }
+
+    private static Object defaultValue(Class<?> primitive) {
+        if (primitive == boolean.class) {
+            return Boolean.FALSE;
+        } else if (primitive == char.class) {
+            return '\0';
+        } else if (primitive == int.class) {
+            return 0;
+        } else if (primitive == long.class) {
+            return 0L;
+        } else if (primitive == double.class) {
+            return 0D;
+        } else if (primitive == float.class) {
+            return 0F;
+        } else if (primitive == short.class) {
+            return (short) 0;
+        }
+        return (byte) 0;
+    }
+
+    // ---- 反射：只在创建 codec 时执行 ----
+
+    private static boolean isRecord(Class<?> type) {
+        try {
+            return (Boolean) Class.class.getMethod("isRecord").invoke(type);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    private static Property[] recordProperties(Class<?> type) {
+        try {
+            Object[] components = (Object[]) Class.class.getMethod("getRecordComponents").invoke(type);
+            Property[] properties = new Property[components.length];
+            for (int i = 0; i < components.length; i++) {
+                Object component = components[i];
+                Class<?> componentClass = component.getClass();
+                String name = (String) componentClass.getMethod("getName").invoke(component);
+                Method accessor = (Method) componentClass.getMethod("getAccessor").invoke(component);
+                properties[i] = property(name, accessor.getReturnType(), accessor.getGenericReturnType(), accessor, null);
+                properties[i].index = i;
+            }
+            return properties;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("cannot read record components of " + type.getName(), e);
+        }
+    }
+
+    private static Property[] beanProperties(Class<?> type) {
+        Map<String, Method> getters = new HashMap<>();
+        Map<String, List<Method>> setters = new HashMap<>();
+        for (Method method : type.getMethods()) {
+            if (Modifier.isStatic(method.getModifiers()) || method.getDeclaringClass() == Object.class || method.isBridge()) {
+                continue;
+            }
+            String name = method.getName();
+            if (method.getParameterCount() == 0 && method.getReturnType() != void.class) {
+                if (name.startsWith("get") && name.length() > 3) {
+                    getters.put(decapitalize(name.substring(3)), method);
+                } else if (name.startsWith("is") && name.length() > 2 && method.getReturnType() == boolean.class) {
+                    getters.put(decapitalize(name.substring(2)), method);
+                }
+            } else if (method.getParameterCount() == 1 && name.startsWith("set") && name.length() > 3) {
+                setters.computeIfAbsent(decapitalize(name.substring(3)), k -> new ArrayList<>()).add(method);
+            }
+        }
+        Map<String, Field> fields = new HashMap<>();
+        for (Field field : type.getFields()) {
+            int modifiers = field.getModifiers();
+            if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                fields.put(field.getName(), field);
+            }
+        }
+        // 按字段声明顺序（父类在前）输出，没有对应字段的 getter 按名称排在后面
+        List<String> names = new ArrayList<>();
+        List<Class<?>> hierarchy = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            hierarchy.add(0, c);
+        }
+        for (Class<?> c : hierarchy) {
+            for (Field field : c.getDeclaredFields()) {
+                String name = field.getName();
+                if ((getters.containsKey(name) || fields.containsKey(name)) && !names.contains(name)) {
+                    names.add(name);
+                }
+            }
+        }
+        for (String name : new TreeMap<>(getters).keySet()) {
+            if (!names.contains(name)) {
+                names.add(name);
+            }
+        }
+        List<Property> properties = new ArrayList<>(names.size());
+        for (String name : names) {
+            Method getter = getters.get(name);
+            Field field = fields.get(name);
+            Class<?> raw = getter != null ? getter.getReturnType() : field.getType();
+            Type generic = getter != null ? getter.getGenericReturnType() : field.getGenericType();
+            Member setter = null;
+            for (Method candidate : setters.getOrDefault(name, new ArrayList<>())) {
+                if (candidate.getParameterTypes()[0] == raw) {
+                    setter = candidate;
+                }
+            }
+            if (setter == null && field != null && field.getType() == raw && !Modifier.isFinal(field.getModifiers())) {
+                setter = field;
+            }
+            properties.add(property(name, raw, generic, getter != null ? getter : field, setter));
+        }
+        return properties.toArray(new Property[0]);
+    }
+
+    private static String decapitalize(String name) {
+        if (name.length() > 1 && Character.isUpperCase(name.charAt(1)) && Character.isUpperCase(name.charAt(0))) {
+            return name;
+        }
+        return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static Property property(String name, Class<?> raw, Type generic, Member getter, Member setter) {
+        if (raw == int.class) {
+            return new IntProperty(name, getter, setter);
+        } else if (raw == long.class) {
+            return new LongProperty(name, getter, setter);
+        } else if (raw == double.class) {
+            return new DoubleProperty(name, getter, setter);
+        } else if (raw == boolean.class) {
+            return new BooleanProperty(name, getter, setter);
+        }
+        return new ObjectProperty(name, raw, getter, setter, ValueType.of(raw, generic));
+    }
+
+    // ---- 属性 ----
+
+    private abstract static class Property {
+        final String name;
+        final Class<?> type;
+        // record 构造参数的位置
+        int index;
+
+        Property(String name, Class<?> type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        abstract void write(Object bean, XContentBuilder builder) throws IOException;
+
+        abstract boolean readable();
+
+        /**
+         * parser 指向值的第一个 token。
+         */
+        abstract void read(XContentParser parser, Object bean) throws IOException;
+
+        abstract Object readValue(XContentParser parser) throws IOException;
+    }
+
+    private static final class IntProperty extends Property {
+        private final ToIntFunction<Object> getter;
+        private final ObjIntConsumer<Object> setter;
+
+        IntProperty(String name, Member getter, Member setter) {
+            super(name, int.class);
+            this.getter = Accessors.intGetter(getter);
+            this.setter = setter == null ? null : Accessors.intSetter(setter);
+        }
+
+        @Override
+        void write(Object bean, XContentBuilder builder) throws IOException {
+            builder.field(name, getter.applyAsInt(bean));
+        }
+
+        @Override
+        boolean readable() {
+            return setter != null;
+        }
+
+        @Override
+        void read(XContentParser parser, Object bean) throws IOException {
+            if (parser.currentToken() != XContentParser.Token.VALUE_NULL) {
+                setter.accept(bean, parser.intValue());
+            }
+        }
+
+        @Override
+        Object readValue(XContentParser parser) throws IOException {
+            return parser.currentToken() == XContentParser.Token.VALUE_NULL ? null : parser.intValue();
+        }
+    }
+
+    private static final class LongProperty extends Property {
+        private final ToLongFunction<Object> getter;
+        private final ObjLongConsumer<Object> setter;
+
+        LongProperty(String name, Member getter, Member setter) {
+            super(name, long.class);
+            this.getter = Accessors.longGetter(getter);
+            this.setter = setter == null ? null : Accessors.longSetter(setter);
+        }
+
+        @Override
+        void write(Object bean, XContentBuilder builder) throws IOException {
+            builder.field(name, getter.applyAsLong(bean));
+        }
+
+        @Override
+        boolean readable() {
+            return setter != null;
+        }
+
+        @Override
+        void read(XContentParser parser, Object bean) throws IOException {
+            if (parser.currentToken() != XContentParser.Token.VALUE_NULL) {
+                setter.accept(bean, parser.longValue());
+            }
+        }
+
+        @Override
+        Object readValue(XContentParser parser) throws IOException {
+            return parser.currentToken() == XContentParser.Token.VALUE_NULL ? null : parser.longValue();
+        }
+    }
+
+    private static final class DoubleProperty extends Property {
+        private final ToDoubleFunction<Object> getter;
+        private final ObjDoubleConsumer<Object> setter;
+
+        DoubleProperty(String name, Member getter, Member setter) {
+            super(name, double.class);
+            this.getter = Accessors.doubleGetter(getter);
+            this.setter = setter == null ? null : Accessors.doubleSetter(setter);
+        }
+
+        @Override
+        void write(Object bean, XContentBuilder builder) throws IOException {
+            builder.field(name, getter.applyAsDouble(bean));
+        }
+
+        @Override
+        boolean readable() {
+            return setter != null;
+        }
+
+        @Override
+        void read(XContentParser parser, Object bean) throws IOException {
+            if (parser.currentToken() != XContentParser.Token.VALUE_NULL) {
+                setter.accept(bean, parser.doubleValue());
+            }
+        }
+
+        @Override
+        Object readValue(XContentParser parser) throws IOException {
+            return parser.currentToken() == XContentParser.Token.VALUE_NULL ? null : parser.doubleValue();
+        }
+    }
+
+    private static final class BooleanProperty extends Property {
+        private final Predicate<Object> getter;
+        private final BiConsumer<Object, Object> setter;
+
+        BooleanProperty(String name, Member getter, Member setter) {
+            super(name, boolean.class);
+            this.getter = Accessors.booleanGetter(getter);
+            // Boolean.valueOf 返回缓存实例，不产生分配
+            this.setter = setter == null ? null : Accessors.setter(setter);
+        }
+
+        @Override
+        void write(Object bean, XContentBuilder builder) throws IOException {
+            builder.field(name, getter.test(bean));
+        }
+
+        @Override
+        boolean readable() {
+            return setter != null;
+        }
+
+        @Override
+        void read(XContentParser parser, Object bean) throws IOException {
+            if (parser.currentToken() != XContentParser.Token.VALUE_NULL) {
+                setter.accept(bean, parser.booleanValue());
+            }
+        }
+
+        @Override
+        Object readValue(XContentParser parser) throws IOException {
+            return parser.currentToken() == XContentParser.Token.VALUE_NULL ? null : parser.booleanValue();
+        }
+    }
+
+    private static final class ObjectProperty extends Property {
+        private final Function<Object, Object> getter;
+        private final BiConsumer<Object, Object> setter;
+        private final ValueType valueType;
+
+        ObjectProperty(String name, Class<?> type, Member getter, Member setter, ValueType valueType) {
+            super(name, type);
+            this.getter = Accessors.getter(getter);
+            this.setter = setter == null ? null : Accessors.setter(setter);
+            this.valueType = valueType;
+        }
+
+        @Override
+        void write(Object bean, XContentBuilder builder) throws IOException {
+            Object value = getter.apply(bean);
+            if (value != null) {
+                builder.field(name);
+                valueType.write(builder, value);
+            }
+        }
+
+        @Override
+        boolean readable() {
+            return setter != null;
+        }
+
+        @Override
+        void read(XContentParser parser, Object bean) throws IOException {
+            setter.accept(bean, readValue(parser));
+        }
+
+        @Override
+        Object readValue(XContentParser parser) throws IOException {
+            if (parser.currentToken() == XContentParser.Token.VALUE_NULL) {
+                return type.isPrimitive() ? defaultValue(type) : null;
+            }
+            return valueType.read(parser);
+        }
+    }
+
+    // ---- 值类型 ----
+
+    private abstract static class ValueType {
+
+        abstract void write(XContentBuilder builder, Object value) throws IOException;
+
+        /**
+         * parser 指向非 null 值的第一个 token。
+         */
+        abstract Object read(XContentParser parser) throws IOException;
+
+        static ValueType of(Class<?> raw, Type generic) {
+            if (raw == String.class) {
+                return STRING;
+            } else if (raw == Integer.class || raw == int.class) {
+                return INTEGER;
+            } else if (raw == Long.class || raw == long.class) {
+                return LONG;
+            } else if (raw == Double.class || raw == double.class) {
+                return DOUBLE;
+            } else if (raw == Float.class || raw == float.class) {
+                return FLOAT;
+            } else if (raw == Short.class || raw == short.class) {
+                return SHORT;
+            } else if (raw == Byte.class || raw == byte.class) {
+                return BYTE;
+            } else if (raw == Boolean.class || raw == boolean.class) {
+                return BOOLEAN;
+            } else if (raw == Character.class || raw == char.class) {
+                return CHAR;
+            } else if (raw == Instant.class) {
+                return INSTANT;
+            } else if (raw == LocalDate.class) {
+                return LOCAL_DATE;
+            } else if (raw == LocalDateTime.class) {
+                return LOCAL_DATE_TIME;
+            } else if (raw == Object.class) {
+                return DYNAMIC;
+            } else if (raw.isEnum()) {
+                return new EnumType(raw);
+            } else if (raw == int[].class) {
+                return INT_ARRAY;
+            } else if (raw == long[].class) {
+                return LONG_ARRAY;
+            } else if (raw == double[].class) {
+                return DOUBLE_ARRAY;
+            } else if (raw == float[].class) {
+                return FLOAT_ARRAY;
+            } else if (raw == String[].class) {
+                return STRING_ARRAY;
+            } else if (raw == List.class || raw == Collection.class || raw == Set.class) {
+                Type element = typeArgument(generic, 0);
+                return new CollectionType(of(rawClass(element), element), raw == Set.class);
+            } else if (Map.class.isAssignableFrom(raw) && raw.isAssignableFrom(LinkedHashMap.class)) {
+                return MAP;
+            } else if (!raw.isPrimitive() && !raw.isArray() && !raw.getName().startsWith("java.")) {
+                return new NestedType(raw);
+            }
+            throw new IllegalArgumentException("unsupported property type " + generic.getTypeName());
+        }
+
+        private static Type typeArgument(Type generic, int i) {
+            if (generic instanceof ParameterizedType) {
+                return ((ParameterizedType) generic).getActualTypeArguments()[i];
+            }
+            return Object.class;
+        }
+
+        private static Class<?> rawClass(Type type) {
+            if (type instanceof Class) {
+                return (Class<?>) type;
+            }
+            if (type instanceof ParameterizedType) {
+                return (Class<?>) ((ParameterizedType) type).getRawType();
+            }
+            // 通配符、类型变量
+            return Object.class;
+        }
+    }
+
+    private static final ValueType STRING = new ValueType() {
+        @Override
+        void write(XContentBuilder builder, Object value) throws IOException {
+            builder.value((String) value);
+        }
+
+        @Override
+        Object read(XContentParser parser) throws IOException {
+            return parser.text();
+        }
+    };
+
+    private static final ValueType INTEGER = new ValueType() {
+        @Override
+        void write(XContentBuilder builder, Object value) throws IOException {
+            builder.value(((Number) value).intValue());
+        }
+
+        @Override
+        Object read(XContentParser parser) throws IOException {
+            return parser.intValue();
+        }
+    };
+
+    private static final ValueType LONG = new ValueType() {
+        @Override
+        void write(XContentBuilder builder, Object value) throws IOException {
+            builder.value(((Number) value).longValue());
+        }
+
+        @Override
+        Object read(XContentParser parser) throws IOException {
+            return parser.longValue();
+        }
+    };
+
+    private static final ValueType DOUBLE = new ValueType() {
+        @Override
+        void write(XContentBuilder builder, Object value) throws IOException {
+            builder.value(((Number) value).doubleValue());
+        }
+
+        @Override
+        Object read(XContentParser parser) throws IOException {
+            return parser.doubleValue();
+        }
+    };
+
+    private static final ValueType FLOAT = new ValueType() {
+        @Override
+        void write(XContentBuilder builder, Object value) throws IOException {
+            builder.value(((Number) value).floatValue());
+        }
+
+        @Override
+        Object read(XContentParser parser) throws IOException {
+            return parser.floatValue();
+        }
+    };
+
+    private static final ValueType SHORT = new ValueType() {
+        @Override
+        void write(XContentBuilder builder, Object value) throws IOException {
+            builder.value(((Number) value).shortValue());
+        }
+
+        @Override
+        Object read(XContentParser parser) throws IOException {
+            return parser.shortValue();
+        }
+    };
+
+    private static final ValueType BYTE = new ValueType() {
+        @Override
+        void write(XContentBuilder builder, Object value) throws IOException {
+            builder.value(((Number) value).byteValue());
+        }
+
+        @Override
+        Object read(XContentParser parser) throws IOException {
+            return (byte) parser.intValue();
+        }
+    };
+
+    private static final ValueType BOOLEAN = new ValueType() {
+        @Override
+        void write(XContentBuilder builder, Object value) throws IOException {
+            builder.value((boolean) (Boolean) value);
+        }
+
+        @Override
+        Object read(XContentParser parser) throws IOException {
+            return parser.booleanValue();
+        }
+    };
+
+    private static final ValueType CHAR = new ValueType() {
+        @Override
+        void write(XContentBuilder builder, Object value) throws IOException {
+            builder.value(String.valueOf((char) (Character) value));
+        }
+
+        @Override
+        Object read(XContentParser parser) throws IOException {
+            String text = parser.text();
+            return text.isEmpty() ? '\0' : text.charAt(0);
+        }
+    };
+
+    private static final ValueType INSTANT = new ValueType() {
+        @Override
+        void write(XContentBuilder builder, Object value) throws IOException {
+            builder.value(value.toString());
+        }
+
+        @Override
+        Object read(XContentParser parser) throws IOException {
+            // 兼容 epoch_millis
+            return parser.currentToken() == XContentParser.Token.VALUE_NUMBER
+                    ? Instant.ofEpochMilli(parser.longValue()) : Instant.parse(parser.text());
+        }
+    };
+
+    private static final ValueType LOCAL_DATE = new ValueType() {
+        @Override
+        void write(XContentBuilder builder, Object value) throws IOException {
+            builder.value(value.toString());
+        }
+
+        @Override
+        Object read(XContentParser parser) throws IOException {
+            return LocalDate.parse(parser.text());
+        }
+    };
+
+    private static final ValueType LOCAL_DATE_TIME = new ValueType() {
+        @Override
+        void write(XContentBuilder builder, Object value) throws IOException {
+            builder.value(value.toString());
+        }
+
+        @Override
+        Object read(XContentParser parser) throws IOException {
+            return LocalDateTime.parse(parser.text());
+        }
+    };
+
+    private static final ValueType DYNAMIC = new ValueType() {
+        @Override
+        void write(XContentBuilder builder, Object value) throws IOException {
+            builder.value(value);
+        }
+
+        @Override
+        Object read(XContentParser parser) throws IOException {
+            switch (parser.currentToken()) {
+                case START_OBJECT:
+                    return parser.map();
+                case START_ARRAY:
+                    return parser.list();
+                default:
+                    return parser.objectText();
+            }
+        }
+    };
+
+    private static final ValueType MAP = new ValueType() {
+        @Override
+        @SuppressWarnings("unchecked")
+        void write(XContentBuilder builder, Object value) throws IOException {
+            builder.map((Map<String, ?>) value);
+        }
+
+        @Override
+        Object read(XContentParser parser) throws IOException {
+            return parser.map();
+        }
+    };
+
+    private static final ValueType INT_ARRAY = new ValueType() {
+        @Override
+        void write(XContentBuilder builder, Object value) throws IOException {
+            builder.startArray();
+            for (int v : (int[]) value) {
+                builder.value(v);
+            }
+            builder.endArray();
+        }
+
+        @Override
+        Object read(XContentParser parser) throws IOException {
+            // 与 ES 一致，单个值视为只有一个元素的数组
+            if (parser.currentToken() != XContentParser.Token.START_ARRAY) {
+                return new int[] {parser.intValue()};
+            }
+            int[] values = new int[8];
+            int n = 0;
+            while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                if (n == values.length) {
+                    values = Arrays.copyOf(values, n * 2);
+                }
+                values[n++] = parser.intValue();
+            }
+            return Arrays.copyOf(values, n);
+        }
+    };
+
+    private static final ValueType LONG_ARRAY = new ValueType() {
+        @Override
+        void write(XContentBuilder builder, Object value) throws IOException {
+            builder.startArray();
+            for (long v : (long[]) value) {
+                builder.value(v);
+            }
+            builder.endArray();
+        }
+
+        @Override
+        Object read(XContentParser parser) throws IOException {
+            if (parser.currentToken() != XContentParser.Token.START_ARRAY) {
+                return new long[] {parser.longValue()};
+            }
+            long[] values = new long[8];
+            int n = 0;
+            while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                if (n == values.length) {
+                    values = Arrays.copyOf(values, n * 2);
+                }
+                values[n++] = parser.longValue();
+            }
+            return Arrays.copyOf(values, n);
+        }
+    };
+
+    private static final ValueType DOUBLE_ARRAY = new ValueType() {
+        @Override
+        void write(XContentBuilder builder, Object value) throws IOException {
+            builder.startArray();
+            for (double v : (double[]) value) {
+                builder.value(v);
+            }
+            builder.endArray();
+        }
+
+        @Override
+        Object read(XContentParser parser) throws IOException {
+            if (parser.currentToken() != XContentParser.Token.START_ARRAY) {
+                return new double[] {parser.doubleValue()};
+            }
+            double[] values = new double[8];
+            int n = 0;
+            while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                if (n == values.length) {
+                    values = Arrays.copyOf(values, n * 2);
+                }
+                values[n++] = parser.doubleValue();
+            }
+            return Arrays.copyOf(values, n);
+        }
+    };
+
+    // dense_vector 之类的向量字段
+    private static final ValueType FLOAT_ARRAY = new ValueType() {
+        @Override
+        void write(XContentBuilder builder, Object value) throws IOException {
+            builder.startArray();
+            for (float v : (float[]) value) {
+                builder.value(v);
+            }
+            builder.endArray();
+        }
+
+        @Override
+        Object read(XContentParser parser) throws IOException {
+            if (parser.currentToken() != XContentParser.Token.START_ARRAY) {
+                return new float[] {parser.floatValue()};
+            }
+            float[] values = new float[8];
+            int n = 0;
+            while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                if (n == values.length) {
+                    values = Arrays.copyOf(values, n * 2);
+                }
+                values[n++] = parser.floatValue();
+            }
+            return Arrays.copyOf(values, n);
+        }
+    };
+
+    private static final ValueType STRING_ARRAY = new ValueType() {
+        @Override
+        void write(XContentBuilder builder, Object value) throws IOException {
+            builder.startArray();
+            for (String v : (String[]) value) {
+                builder.value(v);
+            }
+            builder.endArray();
+        }
+
+        @Override
+        Object read(XContentParser parser) throws IOException {
+            if (parser.currentToken() != XContentParser.Token.START_ARRAY) {
+                return new String[] {parser.text()};
+            }
+            List<String> values = new ArrayList<>();
+            XContentParser.Token token;
+            while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+                values.add(token == XContentParser.Token.VALUE_NULL ? null : parser.text());
+            }
+            return values.toArray(new String[0]);
+        }
+    };
+
+
+    private static final class EnumType extends ValueType {
+        private final Map<String, Object> constants = new HashMap<>();
+
+        EnumType(Class<?> type) {
+            for (Object constant : type.getEnumConstants()) {
+                constants.put(((Enum<?>) constant).name(), constant);
+            }
+        }
+
+        @Override
+        void write(XContentBuilder builder, Object value) throws IOException {
+            builder.value(((Enum<?>) value).name());
+        }
+
+        @Override
+        Object read(XContentParser parser) throws IOException {
+            String name = parser.text();
+            Object constant = constants.get(name);
+            if (constant == null) {
+                throw new IOException("unknown enum constant [" + name + "]");
+            }
+            return constant;
+        }
+    }
+
+    private static final class CollectionType extends ValueType {
+        private final ValueType element;
+        private final boolean set;
+
+        CollectionType(ValueType element, boolean set) {
+            this.element = element;
+            this.set = set;
+        }
+
+        @Override
+        void write(XContentBuilder builder, Object value) throws IOException {
+            builder.startArray();
+            for (Object item : (Collection<?>) value) {
+                if (item == null) {
+                    builder.nullValue();
+                } else {
+                    element.write(builder, item);
+                }
+            }
+            builder.endArray();
+        }
+
+        @Override
+        Object read(XContentParser parser) throws IOException {
+            Collection<Object> values = set ? new LinkedHashSet<>() : new ArrayList<>();
+            if (parser.currentToken() != XContentParser.Token.START_ARRAY) {
+                values.add(element.read(parser));
+                return values;
+            }
+            XContentParser.Token token;
+            while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+                values.add(token == XContentParser.Token.VALUE_NULL ? null : element.read(parser));
+            }
+            return values;
+        }
+    }
+
+    // 嵌套对象的 codec 延迟获取，允许类型递归引用自己
+    private static final class NestedType extends ValueType {
+        private final Class<?> type;
+        private volatile DocumentCodec<Object> codec;
+
+        NestedType(Class<?> type) {
+            this.type = type;
+        }
+
+        @SuppressWarnings("unchecked")
+        private DocumentCodec<Object> codec() {
+            DocumentCodec<Object> c = codec;
+            if (c == null) {
+                c = (DocumentCodec<Object>) DocumentCodec.of(type);
+                codec = c;
+            }
+            return c;
+        }
+
+        @Override
+        void write(XContentBuilder builder, Object value) throws IOException {
+            codec().writeTo(value, builder);
+        }
+
+        @Override
+        Object read(XContentParser parser) throws IOException {
+            return codec().read(parser);
+        }
+    }
+
+    private static final class ReusableBuffer extends ByteArrayOutputStream {
+        ReusableBuffer() {
+            super(1024);
+        }
+
+        void trim() {
+            if (buf.length > MAX_RETAINED_BUFFER) {
+                buf = new byte[1024];
+            }
+        }
+    }
+}
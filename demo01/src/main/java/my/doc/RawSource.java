@@ -0,0 +1,126 @@
+package my.doc;
+
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 以字节形式访问 _source，替代 getSourceAsString / getSourceAsMap。
+ * 这不是 HTTP 响应的零拷贝视图：HLRC 解析响应时已把 _source 重新序列化到一块新的缓冲区，
+ * 返回的 BytesReference 引用的是这份副本；之后不会再生成 String 或 HashMap，
+ * 可以用 {@link SourceReader} 流式绑定为对象，也可以原样转发。
+ */
+public final class RawSource {
+
+    private RawSource() {
+    }
+
+    /**
+     * 命中文档的 _source，没有 _source 时返回 null。
+     */
+    public static BytesReference of(SearchHit hit) {
+        return hit.getSourceRef();
+    }
+
+    /**
+     * 文档的 _source，文档不存在或没有 _source 时返回 null。
+     */
+    public static BytesReference of(GetResponse response) {
+        if (!response.isExists() || response.isSourceEmpty()) {
+            return null;
+        }
+        return response.getSourceAsBytesRef();
+    }
+
+    public static BytesReference of(MultiGetItemResponse item) {
+        if (item.isFailed()) {
+            return null;
+        }
+        return of(item.getResponse());
+    }
+
+    /**
+     * 以 ByteBuffer 形式访问，不再复制上述副本（多段时返回多个 buffer）。
+     */
+    public static ByteBuffer[] buffers(BytesReference source) {
+        return BytesReference.toByteBuffers(source);
+    }
+
+    /**
+     * 原样写出 _source，例如转发给下游。
+     */
+    public static void writeTo(BytesReference source, OutputStream out) throws IOException {
+        source.writeTo(out);
+    }
+
+    /**
+     * 用流式解析器把 _source 绑定为对象，source 为 null 时返回 null。
+     */
+    public static <T> T read(BytesReference source, SourceReader<T> reader) throws IOException {
+        if (source == null) {
+            return null;
+        }
+        try (XContentParser parser = XContentHelper.createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, source, xContentType(source))) {
+            if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+                throw new IOException("expected _source to be an object but got [" + parser.currentToken() + "]");
+            }
+            return reader.read(parser);
+        }
+    }
+
+    /**
+     * 按开头的字节识别 JSON / SMILE / CBOR / YAML，规则与 XContentFactory.xContentType 相同（它在 7.x 中已废弃）。
+     * _source 总是对象，无法识别时按 JSON 解析，由解析器报告格式错误。
+     */
+    static XContentType xContentType(BytesReference source) {
+        int length = source.length();
+        if (length >= 3 && source.get(0) == ':' && source.get(1) == ')' && source.get(2) == '\n') {
+            return XContentType.SMILE;
+        }
+        if (length >= 3 && source.get(0) == '-' && source.get(1) == '-' && source.get(2) == '-') {
+            return XContentType.YAML;
+        }
+        // CBOR 的 map（主类型 5），或自描述标签 0xD9D9F7
+        if (length >= 1 && ((source.get(0) & 0xE0) == 0xA0
+                || length >= 3 && source.get(0) == (byte) 0xD9 && source.get(1) == (byte) 0xD9 && source.get(2) == (byte) 0xF7)) {
+            return XContentType.CBOR;
+        }
+        return XContentType.JSON;
+    }
+
+    public static <T> T read(SearchHit hit, SourceReader<T> reader) throws IOException {
+        return read(of(hit), reader);
+    }
+
+    public static <T> T read(GetResponse response, SourceReader<T> reader) throws IOException {
+        return read(of(response), reader);
+    }
+
+    /**
+     * 把一页命中直接绑定为对象列表，没有 _source 的命中会被跳过。
+     */
+    public static <T> List<T> readAll(SearchHits hits, SourceReader<T> reader) throws IOException {
+        List<T> result = new ArrayList<>(hits.getHits().length);
+        for (SearchHit hit : hits.getHits()) {
+            T value = read(hit, reader);
+            if (value != null) {
+                result.add(value);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,15 @@
+package my.doc;
+
+import org.elasticsearch.common.xcontent.XContentParser;
+
+import java.io.IOException;
+
+/**
+ * 从 _source 的解析流中直接读出对象，不经过中间的 Map。
+ * 解析的是 HLRC 已复制出的 _source 字节（见 {@link RawSource}），不是 HTTP 响应本身。
+ * 调用时 parser 已指向 START_OBJECT。
+ */
+@FunctionalInterface
+public interface SourceReader<T> {
+    T read(XContentParser parser) throws IOException;
+}
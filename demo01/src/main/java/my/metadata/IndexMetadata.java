@@ -0,0 +1,203 @@
+package my.metadata;
+
+import org.elasticsearch.common.settings.Settings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 单个索引的字段类型、分析器和设置，创建后不可变，可在线程间直接共享。
+ * 字段按名称排序存放在数组中（对象、nested 的子字段和多字段都展开为 "a.b" 形式），
+ * 类型和分析器名称按下标引用去重后的字符串表，查找为二分查找。
+ */
+public final class IndexMetadata {
+
+    private static final Set<String> TEXT_TYPES = new HashSet<>(Arrays.asList(
+            "text", "search_as_you_type", "match_only_text", "annotated_text"));
+
+    private final String index;
+    private final long mappingVersion;
+    private final long settingsVersion;
+    private final String[] fields;
+    // 每个字段 4 列：类型、分析器、搜索分析器、normalizer，值为 strings 的下标，-1 表示无
+    private final short[] columns;
+    private final String[] strings;
+    private final Settings settings;
+    private final Settings defaultSettings;
+
+    private IndexMetadata(String index, long mappingVersion, long settingsVersion, String[] fields, short[] columns,
+                          String[] strings, Settings settings, Settings defaultSettings) {
+        this.index = index;
+        this.mappingVersion = mappingVersion;
+        this.settingsVersion = settingsVersion;
+        this.fields = fields;
+        this.columns = columns;
+        this.strings = strings;
+        this.settings = settings;
+        this.defaultSettings = defaultSettings;
+    }
+
+    /**
+     * @param mappingSource {@code MappingMetadata.getSourceAsMap()}，可为 null
+     * @param defaultSettings includeDefaults 时的默认设置，可为 null
+     */
+    @SuppressWarnings("unchecked")
+    static IndexMetadata of(String index, long mappingVersion, long settingsVersion, Map<String, Object> mappingSource,
+                            Settings settings, Settings defaultSettings) {
+        Settings explicit = settings == null ? Settings.EMPTY : settings;
+        String defaultAnalyzer = explicit.getByPrefix("index.analysis.analyzer.default.").isEmpty() ? "standard" : "default";
+        String defaultSearchAnalyzer = explicit.getByPrefix("index.analysis.analyzer.default_search.").isEmpty()
+                ? null : "default_search";
+        TreeMap<String, String[]> flattened = new TreeMap<>();
+        if (mappingSource != null && mappingSource.get("properties") instanceof Map) {
+            flatten("", (Map<String, Object>) mappingSource.get("properties"), flattened, defaultAnalyzer, defaultSearchAnalyzer);
+        }
+        String[] fields = flattened.keySet().toArray(new String[0]);
+        short[] columns = new short[fields.length * 4];
+        List<String> strings = new ArrayList<>();
+        int i = 0;
+        for (String[] values : flattened.values()) {
+            for (int c = 0; c < 4; c++) {
+                columns[i * 4 + c] = intern(strings, values[c]);
+            }
+            i++;
+        }
+        return new IndexMetadata(index, mappingVersion, settingsVersion, fields, columns, strings.toArray(new String[0]),
+                explicit, defaultSettings == null ? Settings.EMPTY : defaultSettings);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void flatten(String prefix, Map<String, Object> properties, Map<String, String[]> out,
+                                String defaultAnalyzer, String defaultSearchAnalyzer) {
+        for (Map.Entry<String, Object> entry : properties.entrySet()) {
+            if (!(entry.getValue() instanceof Map)) {
+                continue;
+            }
+            String name = prefix + entry.getKey();
+            Map<String, Object> def = (Map<String, Object>) entry.getValue();
+            String type = (String) def.get("type");
+            if (type == null) {
+                type = def.containsKey("properties") ? "object" : null;
+            }
+            String analyzer = null;
+            String searchAnalyzer = null;
+            if (TEXT_TYPES.contains(type) || "completion".equals(type)) {
+                analyzer = (String) def.get("analyzer");
+                if (analyzer == null) {
+                    analyzer = "completion".equals(type) ? "simple" : defaultAnalyzer;
+                }
+                searchAnalyzer = (String) def.get("search_analyzer");
+                if (searchAnalyzer == null) {
+                    searchAnalyzer = def.get("analyzer") == null && defaultSearchAnalyzer != null ? defaultSearchAnalyzer : analyzer;
+                }
+            }
+            out.put(name, new String[] {type, analyzer, searchAnalyzer, (String) def.get("normalizer")});
+            if (def.get("properties") instanceof Map) {
+                flatten(name + ".", (Map<String, Object>) def.get("properties"), out, defaultAnalyzer, defaultSearchAnalyzer);
+            }
+            if (def.get("fields") instanceof Map) {
+                flatten(name + ".", (Map<String, Object>) def.get("fields"), out, defaultAnalyzer, defaultSearchAnalyzer);
+            }
+        }
+    }
+
+    private static short intern(List<String> strings, String value) {
+        if (value == null) {
+            return -1;
+        }
+        int i = strings.indexOf(value);
+        if (i < 0) {
+            i = strings.size();
+            if (i > Short.MAX_VALUE) {
+                throw new IllegalStateException("too many distinct types/analyzers");
+            }
+            strings.add(value);
+        }
+        return (short) i;
+    }
+
+    public String index() {
+        return index;
+    }
+
+    public long mappingVersion() {
+        return mappingVersion;
+    }
+
+    public long settingsVersion() {
+        return settingsVersion;
+    }
+
+    /**
+     * 所有字段名（已排序）。
+     */
+    public List<String> fields() {
+        return Collections.unmodifiableList(Arrays.asList(fields));
+    }
+
+    public boolean hasField(String field) {
+        return Arrays.binarySearch(fields, field) >= 0;
+    }
+
+    /**
+     * 字段类型，字段不存在时返回 null。
+     */
+    public String type(String field) {
+        return column(field, 0);
+    }
+
+    /**
+     * 索引时使用的分析器，非文本字段返回 null。未显式指定时为索引的 default 分析器或 standard。
+     */
+    public String analyzer(String field) {
+        return column(field, 1);
+    }
+
+    public String searchAnalyzer(String field) {
+        return column(field, 2);
+    }
+
+    /**
+     * keyword 字段的 normalizer。
+     */
+    public String normalizer(String field) {
+        return column(field, 3);
+    }
+
+    private String column(String field, int column) {
+        int i = Arrays.binarySearch(fields, field);
+        if (i < 0) {
+            return null;
+        }
+        short id = columns[i * 4 + column];
+        return id < 0 ? null : strings[id];
+    }
+
+    /**
+     * 设置值，显式设置优先，其次是默认值（需开启 includeDefaults）。
+     */
+    public String setting(String key) {
+        String value = settings.get(key);
+        return value != null ? value : defaultSettings.get(key);
+    }
+
+    public Settings settings() {
+        return settings;
+    }
+
+    public Settings defaultSettings() {
+        return defaultSettings;
+    }
+
+    @Override
+    public String toString() {
+        return index + "[mapping_version=" + mappingVersion + ", settings_version=" + settingsVersion
+                + ", fields=" + fields.length + "]";
+    }
+}
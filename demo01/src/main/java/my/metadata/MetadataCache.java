@@ -0,0 +1,257 @@
+package my.metadata;
+
+import my.client.WireFormat;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.GetMappingsRequest;
+import org.elasticsearch.client.indices.GetMappingsResponse;
+import org.elasticsearch.cluster.metadata.MappingMetadata;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.core.TimeValue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 索引 mapping / settings 的本地缓存：index -> 字段 -> 类型、分析器，见 {@link IndexMetadata}。
+ * <p>
+ * 后台定期从协调节点本地的集群状态（local=true，不经过 master）读取各索引的 mapping_version 和 settings_version，
+ * 只有版本变化的索引才重新拉取 mapping 和 settings。快照整体替换，读取不加锁。
+ * <pre>
+ * MetadataCache metadata = MetadataCache.builder(client, "java-api-demo-idx", "my_pinyin_idx")
+ *     .setRefreshInterval(TimeValue.timeValueSeconds(30))
+ *     .build();
+ * String analyzer = metadata.index("java-api-demo-idx").analyzer("content");
+ * </pre>
+ */
+public class MetadataCache implements Closeable {
+
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final String[] indices;
+    private final boolean includeDefaults;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong checks = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private volatile Map<String, IndexMetadata> snapshot = Collections.emptyMap();
+    private volatile Exception lastFailure;
+
+    private MetadataCache(Builder builder) {
+        this.client = builder.client;
+        this.options = builder.options;
+        this.indices = builder.indices;
+        this.includeDefaults = builder.includeDefaults;
+        if (builder.refreshInterval != null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metadata-cache-refresh");
+                t.setDaemon(true);
+                return t;
+            });
+            long interval = builder.refreshInterval.millis();
+            scheduler.scheduleWithFixedDelay(this::backgroundRefresh, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    public static Builder builder(RestHighLevelClient client, String... indices) {
+        return new Builder(client, indices);
+    }
+
+    public static class Builder {
+        private final RestHighLevelClient client;
+        private final String[] indices;
+        private RequestOptions options = RequestOptions.DEFAULT;
+        private TimeValue refreshInterval = TimeValue.timeValueSeconds(30);
+        private boolean includeDefaults = false;
+
+        private Builder(RestHighLevelClient client, String... indices) {
+            if (indices == null || indices.length == 0) {
+                throw new IllegalArgumentException("indices must not be empty");
+            }
+            this.client = client;
+            this.indices = indices;
+        }
+
+        public Builder setRequestOptions(RequestOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        /**
+         * 检查版本的间隔，null 表示不在后台检查，只在调用 {@link MetadataCache#refresh()} 时刷新。
+         */
+        public Builder setRefreshInterval(TimeValue refreshInterval) {
+            this.refreshInterval = refreshInterval;
+            return this;
+        }
+
+        /**
+         * 是否同时缓存默认设置。默认设置有数百项，但只在版本变化时拉取一次。
+         */
+        public Builder setIncludeDefaults(boolean includeDefaults) {
+            this.includeDefaults = includeDefaults;
+            return this;
+        }
+
+        /**
+         * 创建并同步加载一次。
+         */
+        public MetadataCache build() throws IOException {
+            MetadataCache cache = new MetadataCache(this);
+            try {
+                cache.refresh();
+            } catch (IOException | RuntimeException e) {
+                cache.close();
+                throw e;
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * 具体索引名对应的元数据，未知索引返回 null。
+     */
+    public IndexMetadata index(String index) {
+        return snapshot.get(index);
+    }
+
+    /**
+     * 当前快照，不可修改。
+     */
+    public Map<String, IndexMetadata> indices() {
+        return snapshot;
+    }
+
+    /**
+     * 检查版本并重新加载发生变化的索引，返回是否有变化。
+     */
+    public synchronized boolean refresh() throws IOException {
+        checks.incrementAndGet();
+        Map<String, long[]> versions = fetchVersions();
+        Map<String, IndexMetadata> current = snapshot;
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, long[]> entry : versions.entrySet()) {
+            IndexMetadata metadata = current.get(entry.getKey());
+            if (metadata == null || metadata.mappingVersion() != entry.getValue()[0]
+                    || metadata.settingsVersion() != entry.getValue()[1]) {
+                changed.add(entry.getKey());
+            }
+        }
+        boolean removed = !versions.keySet().containsAll(current.keySet());
+        if (changed.isEmpty() && !removed) {
+            return false;
+        }
+        Map<String, IndexMetadata> next = new HashMap<>(current);
+        next.keySet().retainAll(versions.keySet());
+        if (!changed.isEmpty()) {
+            reloads.incrementAndGet();
+            String[] names = changed.toArray(new String[0]);
+            GetMappingsResponse mappings = client.indices().getMapping(new GetMappingsRequest().indices(names), options);
+            GetSettingsResponse settings = client.indices().getSettings(
+                    new GetSettingsRequest().indices(names).includeDefaults(includeDefaults), options);
+            for (String index : changed) {
+                MappingMetadata mapping = mappings.mappings().get(index);
+                long[] version = versions.get(index);
+                next.put(index, IndexMetadata.of(index, version[0], version[1],
+                        mapping == null ? null : mapping.getSourceAsMap(),
+                        settings.getIndexToSettings().get(index),
+                        includeDefaults ? settings.getIndexToDefaultSettings().get(index) : null));
+            }
+        }
+        snapshot = Collections.unmodifiableMap(next);
+        return true;
+    }
+
+    // index -> [mapping_version, settings_version]
+    @SuppressWarnings("unchecked")
+    private Map<String, long[]> fetchVersions() throws IOException {
+        Request request = new Request("GET", "/_cluster/state/metadata/" + String.join(",", indices));
+        request.addParameter("local", "true");
+        request.addParameter("filter_path", "metadata.indices.*.mapping_version,metadata.indices.*.settings_version");
+        request.setOptions(options);
+        Response response = client.getLowLevelClient().performRequest(request);
+        Map<String, Object> body;
+        try (InputStream in = response.getEntity().getContent()) {
+            body = XContentHelper.convertToMap(WireFormat.xContent(response.getEntity()), in, false);
+        }
+        Map<String, long[]> versions = new HashMap<>();
+        Object metadata = body.get("metadata");
+        if (metadata instanceof Map && ((Map<String, Object>) metadata).get("indices") instanceof Map) {
+            Map<String, Object> byIndex = (Map<String, Object>) ((Map<String, Object>) metadata).get("indices");
+            for (Map.Entry<String, Object> entry : byIndex.entrySet()) {
+                Map<String, Object> index = (Map<String, Object>) entry.getValue();
+                versions.put(entry.getKey(), new long[] {toLong(index.get("mapping_version")), toLong(index.get("settings_version"))});
+            }
+        }
+        return versions;
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : -1;
+    }
+
+    private void backgroundRefresh() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            // 刷新失败时继续使用旧快照
+            failures.incrementAndGet();
+            lastFailure = e;
+        }
+    }
+
+    /**
+     * 版本检查次数。
+     */
+    public long checks() {
+        return checks.get();
+    }
+
+    /**
+     * 因版本变化重新拉取 mapping / settings 的次数。
+     */
+    public long reloads() {
+        return reloads.get();
+    }
+
+    public long failures() {
+        return failures.get();
+    }
+
+    /**
+     * 最近一次后台刷新的异常，没有则为 null。
+     */
+    public Exception lastFailure() {
+        return lastFailure;
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MetadataCache" + Arrays.toString(indices) + snapshot.values();
+    }
+}
@@ -0,0 +1,106 @@
+package my.metadata;
+
+import my.client.WireFormat;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.cluster.routing.Murmur3HashFunction;
+import org.elasticsearch.common.xcontent.XContentHelper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 在客户端计算文档所在的分片，与服务端 OperationRouting 的算法一致：
+ * {@code floorMod(murmur3(routing) + partitionOffset, routing_num_shards) / (routing_num_shards / number_of_shards)}。
+ * REST 响应里不带分片号，需要按分片处理写入结果时用它来补上。
+ */
+public final class ShardRouting {
+
+    static final String FILTER = "metadata.indices.*.routing_num_shards,"
+            + "metadata.indices.*.settings.index.number_of_shards,"
+            + "metadata.indices.*.settings.index.routing_partition_size";
+
+    private final String index;
+    private final int numberOfShards;
+    private final int routingNumShards;
+    private final int routingPartitionSize;
+
+    public ShardRouting(String index, int numberOfShards, int routingNumShards, int routingPartitionSize) {
+        if (numberOfShards < 1 || routingNumShards % numberOfShards != 0 || routingPartitionSize < 1) {
+            throw new IllegalArgumentException("invalid routing for [" + index + "]: number_of_shards=" + numberOfShards
+                    + ", routing_num_shards=" + routingNumShards + ", routing_partition_size=" + routingPartitionSize);
+        }
+        this.index = index;
+        this.numberOfShards = numberOfShards;
+        this.routingNumShards = routingNumShards;
+        this.routingPartitionSize = routingPartitionSize;
+    }
+
+    public String index() {
+        return index;
+    }
+
+    public int numberOfShards() {
+        return numberOfShards;
+    }
+
+    /**
+     * @param routing 自定义 routing，没有则为 null（按 _id 路由）
+     */
+    public int shardId(String id, String routing) {
+        String effectiveRouting = routing == null ? id : routing;
+        int partitionOffset = routingPartitionSize > 1 ? Math.floorMod(Murmur3HashFunction.hash(id), routingPartitionSize) : 0;
+        int hash = Murmur3HashFunction.hash(effectiveRouting) + partitionOffset;
+        return Math.floorMod(hash, routingNumShards) / (routingNumShards / numberOfShards);
+    }
+
+    /**
+     * 读取路由参数的请求（本地集群状态，只取需要的字段）。索引必须是具体索引名，不能是别名。
+     */
+    public static Request request(Collection<String> indices) {
+        Request request = new Request("GET", "/_cluster/state/metadata/" + String.join(",", indices));
+        request.addParameter("local", "true");
+        request.addParameter("filter_path", FILTER);
+        return request;
+    }
+
+    public static Map<String, ShardRouting> parse(Response response) throws IOException {
+        try (InputStream in = response.getEntity().getContent()) {
+            return parse(XContentHelper.convertToMap(WireFormat.xContent(response.getEntity()), in, false));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, ShardRouting> parse(Map<String, Object> body) {
+        Map<String, ShardRouting> result = new HashMap<>();
+        Object metadata = body.get("metadata");
+        if (!(metadata instanceof Map) || !(((Map<String, Object>) metadata).get("indices") instanceof Map)) {
+            return result;
+        }
+        Map<String, Object> indices = (Map<String, Object>) ((Map<String, Object>) metadata).get("indices");
+        for (Map.Entry<String, Object> entry : indices.entrySet()) {
+            Map<String, Object> index = (Map<String, Object>) entry.getValue();
+            Map<String, Object> settings = index.get("settings") instanceof Map
+                    ? (Map<String, Object>) ((Map<String, Object>) index.get("settings")).get("index") : null;
+            if (settings == null || settings.get("number_of_shards") == null) {
+                continue;
+            }
+            int shards = Integer.parseInt(settings.get("number_of_shards").toString());
+            Object partition = settings.get("routing_partition_size");
+            Object routingShards = index.get("routing_num_shards");
+            result.put(entry.getKey(), new ShardRouting(entry.getKey(), shards,
+                    routingShards == null ? shards : Integer.parseInt(routingShards.toString()),
+                    partition == null ? 1 : Integer.parseInt(partition.toString())));
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return index + "[shards=" + numberOfShards + ", routing_num_shards=" + routingNumShards
+                + ", routing_partition_size=" + routingPartitionSize + "]";
+    }
+}
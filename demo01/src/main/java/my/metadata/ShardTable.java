@@ -0,0 +1,166 @@
+package my.metadata;
+
+import my.client.WireFormat;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.common.xcontent.XContentHelper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 各索引每个分片的主分片所在节点的 HTTP 地址，配合 {@link ShardRouting} 在客户端把文档对应到节点。
+ * 来自协调节点本地的集群状态（routing_table）与 _nodes/http，只是某一时刻的快照：
+ * 主分片迁移后按旧表发出的请求仍由服务端转发，只是多一跳，定期重新拉取即可。
+ */
+public final class ShardTable {
+
+    private static final String STATE_FILTER = ShardRouting.FILTER
+            + ",routing_table.indices.*.shards.*.primary"
+            + ",routing_table.indices.*.shards.*.state"
+            + ",routing_table.indices.*.shards.*.node";
+
+    private final Map<String, ShardRouting> routings;
+    // index -> 每个分片的主分片地址，未分配时为 null
+    private final Map<String, HttpHost[]> primaries;
+
+    ShardTable(Map<String, ShardRouting> routings, Map<String, HttpHost[]> primaries) {
+        this.routings = routings;
+        this.primaries = primaries;
+    }
+
+    /**
+     * 读取路由参数与分片分配的请求（本地集群状态）。索引必须是具体索引名，不能是别名。
+     */
+    public static Request stateRequest(Collection<String> indices) {
+        Request request = new Request("GET", "/_cluster/state/metadata,routing_table/" + String.join(",", indices));
+        request.addParameter("local", "true");
+        request.addParameter("filter_path", STATE_FILTER);
+        return request;
+    }
+
+    /**
+     * 读取节点 ID 与 HTTP 地址的请求。
+     */
+    public static Request nodesRequest() {
+        Request request = new Request("GET", "/_nodes/http");
+        request.addParameter("filter_path", "nodes.*.http.publish_address");
+        return request;
+    }
+
+    public static ShardTable parse(Response state, Response nodes) throws IOException {
+        return parse(toMap(state), toMap(nodes));
+    }
+
+    private static Map<String, Object> toMap(Response response) throws IOException {
+        try (InputStream in = response.getEntity().getContent()) {
+            return XContentHelper.convertToMap(WireFormat.xContent(response.getEntity()), in, false);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static ShardTable parse(Map<String, Object> state, Map<String, Object> nodes) {
+        Map<String, HttpHost> hosts = new HashMap<>();
+        for (Map.Entry<String, Object> node : child(nodes, "nodes").entrySet()) {
+            Object address = child((Map<String, Object>) node.getValue(), "http").get("publish_address");
+            if (address != null) {
+                hosts.put(node.getKey(), publishAddress(address.toString()));
+            }
+        }
+        Map<String, ShardRouting> routings = ShardRouting.parse(state);
+        Map<String, HttpHost[]> primaries = new HashMap<>();
+        Map<String, Object> indices = child(child(state, "routing_table"), "indices");
+        for (ShardRouting routing : routings.values()) {
+            HttpHost[] shardHosts = new HttpHost[routing.numberOfShards()];
+            Map<String, Object> shards = child(child(indices, routing.index()), "shards");
+            for (Map.Entry<String, Object> shard : shards.entrySet()) {
+                int shardId = Integer.parseInt(shard.getKey());
+                if (shardId >= shardHosts.length || !(shard.getValue() instanceof List)) {
+                    continue;
+                }
+                for (Object copy : (List<Object>) shard.getValue()) {
+                    Map<String, Object> c = (Map<String, Object>) copy;
+                    // 迁移中的主分片仍在源节点上接收写入
+                    if (Boolean.TRUE.equals(c.get("primary"))
+                            && ("STARTED".equals(c.get("state")) || "RELOCATING".equals(c.get("state")))) {
+                        shardHosts[shardId] = hosts.get(String.valueOf(c.get("node")));
+                    }
+                }
+            }
+            primaries.put(routing.index(), shardHosts);
+        }
+        return new ShardTable(Collections.unmodifiableMap(routings), Collections.unmodifiableMap(primaries));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> child(Map<String, Object> map, String key) {
+        Object value = map == null ? null : map.get(key);
+        return value instanceof Map ? (Map<String, Object>) value : Collections.emptyMap();
+    }
+
+    /**
+     * 解析 publish_address：{@code ip:port}、{@code hostname/ip:port} 或 {@code [ipv6]:port}。
+     * 有主机名时 HttpHost 的 hostName 为主机名，address 为 IP。
+     */
+    static HttpHost publishAddress(String address) {
+        String hostname = null;
+        int slash = address.indexOf('/');
+        if (slash >= 0) {
+            hostname = address.substring(0, slash);
+            address = address.substring(slash + 1);
+        }
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("invalid publish_address [" + address + "]");
+        }
+        String ip = address.substring(0, colon);
+        if (ip.startsWith("[") && ip.endsWith("]")) {
+            ip = ip.substring(1, ip.length() - 1);
+        }
+        int port = Integer.parseInt(address.substring(colon + 1));
+        try {
+            // ip 是字面量，不会触发 DNS 查询
+            return new HttpHost(InetAddress.getByName(ip), hostname == null ? ip : hostname, port, "http");
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("invalid publish_address [" + address + "]", e);
+        }
+    }
+
+    /**
+     * 具体索引名对应的路由参数，未知索引返回 null。
+     */
+    public ShardRouting routing(String index) {
+        return routings.get(index);
+    }
+
+    /**
+     * 主分片所在节点的 HTTP 发布地址，未知索引或分片未分配时为 null。
+     */
+    public HttpHost primary(String index, int shard) {
+        HttpHost[] hosts = primaries.get(index);
+        return hosts == null ? null : hosts[shard];
+    }
+
+    public Collection<String> indices() {
+        return routings.keySet();
+    }
+
+    @Override
+    public String toString() {
+        Map<String, String> byIndex = new TreeMap<>();
+        for (Map.Entry<String, HttpHost[]> entry : primaries.entrySet()) {
+            byIndex.put(entry.getKey(), Arrays.toString(entry.getValue()));
+        }
+        return "ShardTable" + byIndex;
+    }
+}
@@ -0,0 +1,472 @@
+package my.reindex;
+
+import my.async.AsyncClient;
+import my.client.WireFormat;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.RethrottleRequest;
+import org.elasticsearch.client.tasks.CancelTasksRequest;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.index.reindex.AbstractBulkByScrollRequest;
+import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.index.reindex.ReindexRequest;
+import org.elasticsearch.index.reindex.UpdateByQueryRequest;
+import org.elasticsearch.tasks.TaskId;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 以后台任务方式运行 update-by-query / delete-by-query / reindex，替代同步等待 BulkByScrollResponse。
+ * 未指定 slices 时使用 {@code slices=auto}（按源索引的分片数切片，各分片并行）；提交后定时查询任务 API，
+ * 把整体与每个切片的 created/updated/deleted 等计数推送给监听器；运行中可以调整限速或取消。
+ * <pre>
+ * ByQueryRunner runner = new ByQueryRunner(client, TimeValue.timeValueSeconds(1));
+ * ByQueryRunner.Job job = runner.submit(updateByQueryRequest.setRequestsPerSecond(500), progress -&gt; System.out.println(progress));
+ * job.rethrottle(2000);        // 业务低峰期提速
+ * ByQueryRunner.Progress result = job.completion().get();
+ * </pre>
+ */
+public class ByQueryRunner implements Closeable {
+
+    private static final int MAX_POLL_FAILURES = 10;
+
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final long pollIntervalMillis;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService callbackExecutor;
+    // 尚未结束的任务，关闭时统一失败
+    private final Set<Job> jobs = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    public ByQueryRunner(RestHighLevelClient client, TimeValue pollInterval) {
+        this(client, RequestOptions.DEFAULT, pollInterval);
+    }
+
+    public ByQueryRunner(RestHighLevelClient client, RequestOptions options, TimeValue pollInterval) {
+        if (pollInterval.millis() < 1) {
+            throw new IllegalArgumentException("pollInterval must be >= 1ms");
+        }
+        this.client = client;
+        this.options = options;
+        this.pollIntervalMillis = pollInterval.millis();
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "by-query-runner-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.callbackExecutor = AsyncClient.newCallbackExecutor();
+    }
+
+    public Job submit(UpdateByQueryRequest request, Consumer<Progress> listener) throws IOException {
+        ensureOpen();
+        autoSlice(request);
+        return start(client.submitUpdateByQueryTask(request, options).getTask(), Kind.UPDATE, listener);
+    }
+
+    public Job submit(DeleteByQueryRequest request, Consumer<Progress> listener) throws IOException {
+        ensureOpen();
+        autoSlice(request);
+        return start(client.submitDeleteByQueryTask(request, options).getTask(), Kind.DELETE, listener);
+    }
+
+    public Job submit(ReindexRequest request, Consumer<Progress> listener) throws IOException {
+        ensureOpen();
+        autoSlice(request);
+        return start(client.submitReindexTask(request, options).getTask(), Kind.REINDEX, listener);
+    }
+
+    // 决定使用哪个 rethrottle 接口
+    private enum Kind {
+        UPDATE, DELETE, REINDEX
+    }
+
+    // 默认的 slices=1 只用到一个分片的并行度
+    private static void autoSlice(AbstractBulkByScrollRequest<?> request) {
+        if (request.getSlices() == 1) {
+            request.setSlices(AbstractBulkByScrollRequest.AUTO_SLICES);
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("by-query runner already closed");
+        }
+    }
+
+    private Job start(String taskId, Kind kind, Consumer<Progress> listener) {
+        Job job = new Job(taskId, kind, listener);
+        jobs.add(job);
+        job.completion.whenComplete((r, e) -> jobs.remove(job));
+        // 先登记再检查，与 close() 并发时两边至少有一边能看到这个任务
+        if (closed) {
+            job.abort(new IllegalStateException("by-query runner closed while submitting task [" + taskId + "]"));
+            return job;
+        }
+        job.schedule(0);
+        return job;
+    }
+
+    // 关闭后执行器会拒绝任务，此时直接在当前线程处理
+    private void complete(Runnable completion) {
+        try {
+            callbackExecutor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            completion.run();
+        }
+    }
+
+    /**
+     * 停止轮询，尚未结束的 {@link Job#completion()} 以 {@link IllegalStateException} 结束。
+     * 不影响服务端仍在运行的任务，需要时先调用 {@link Job#cancel()}。
+     */
+    @Override
+    public void close() {
+        closed = true;
+        IllegalStateException failure = new IllegalStateException("by-query runner closed");
+        for (Job job : jobs) {
+            job.abort(failure);
+        }
+        timer.shutdownNow();
+        callbackExecutor.shutdown();
+    }
+
+    /**
+     * 一个正在运行的任务。
+     */
+    public class Job {
+        private final String taskId;
+        private final Kind kind;
+        private final Consumer<Progress> listener;
+        private final CompletableFuture<Progress> completion = new CompletableFuture<>();
+        private volatile Progress progress;
+        private volatile Cancellable polling;
+        private int pollFailures = 0;
+
+        Job(String taskId, Kind kind, Consumer<Progress> listener) {
+            this.taskId = taskId;
+            this.kind = kind;
+            this.listener = listener;
+        }
+
+        /**
+         * 任务 ID，形如 "nodeId:123"。
+         */
+        public String taskId() {
+            return taskId;
+        }
+
+        /**
+         * 最近一次查询到的进度，还没查询过时为 null。
+         */
+        public Progress progress() {
+            return progress;
+        }
+
+        /**
+         * 任务结束时（包括被取消）以最终进度完成；任务本身出错、持续无法查询或 runner 被关闭时异常结束。
+         */
+        public CompletableFuture<Progress> completion() {
+            return completion;
+        }
+
+        /**
+         * 调整限速，对所有切片生效。
+         *
+         * @param requestsPerSecond 每秒处理的文档数，{@link Float#POSITIVE_INFINITY} 表示不限速
+         */
+        public void rethrottle(float requestsPerSecond) throws IOException {
+            RethrottleRequest request = Float.isInfinite(requestsPerSecond)
+                    ? new RethrottleRequest(new TaskId(taskId))
+                    : new RethrottleRequest(new TaskId(taskId), requestsPerSecond);
+            switch (kind) {
+                case UPDATE:
+                    client.updateByQueryRethrottle(request, options);
+                    break;
+                case DELETE:
+                    client.deleteByQueryRethrottle(request, options);
+                    break;
+                default:
+                    client.reindexRethrottle(request, options);
+            }
+        }
+
+        /**
+         * 取消任务（连同所有切片）。已经写入的修改不会回滚，completion 会以取消时的进度完成。
+         */
+        public void cancel() throws IOException {
+            client.tasks().cancel(new CancelTasksRequest.Builder()
+                    .withTaskId(new org.elasticsearch.client.tasks.TaskId(taskId))
+                    .build(), options);
+        }
+
+        // 结束 completion 并中止正在进行的查询
+        void abort(Exception e) {
+            completion.completeExceptionally(e);
+            Cancellable cancellable = polling;
+            if (cancellable != null) {
+                cancellable.cancel();
+            }
+        }
+
+        private void schedule(long delayMillis) {
+            if (completion.isDone()) {
+                return;
+            }
+            try {
+                timer.schedule(this::poll, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                // 已关闭
+            }
+        }
+
+        private void poll() {
+            Request request = new Request("GET", "/_tasks/" + taskId);
+            request.setOptions(options);
+            polling = client.getLowLevelClient().performRequestAsync(request, new ResponseListener() {
+                @Override
+                public void onSuccess(Response response) {
+                    complete(() -> {
+                        Progress next;
+                        try (InputStream in = response.getEntity().getContent()) {
+                            next = Progress.parse(XContentHelper.convertToMap(WireFormat.xContent(response.getEntity()), in, false));
+                        } catch (IOException | RuntimeException e) {
+                            onPollFailure(e);
+                            return;
+                        }
+                        pollFailures = 0;
+                        onProgress(next);
+                    });
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    complete(() -> onPollFailure(e));
+                }
+            });
+            if (completion.isDone()) {
+                polling.cancel();
+            }
+        }
+
+        private void onProgress(Progress next) {
+            Progress previous = progress;
+            progress = next;
+            if (listener != null && (previous == null || !previous.sameCounters(next))) {
+                try {
+                    listener.accept(next);
+                } catch (RuntimeException e) {
+                    // 监听器的异常不影响轮询
+                }
+            }
+            if (!next.completed) {
+                schedule(pollIntervalMillis);
+            } else if (next.error != null) {
+                completion.completeExceptionally(new IllegalStateException("task [" + taskId + "] failed: " + next.error));
+            } else {
+                completion.complete(next);
+            }
+        }
+
+        private void onPollFailure(Exception e) {
+            // 任务不存在（404）不会自行恢复
+            boolean missing = e instanceof ResponseException
+                    && ((ResponseException) e).getResponse().getStatusLine().getStatusCode() == 404;
+            if (missing || ++pollFailures >= MAX_POLL_FAILURES) {
+                completion.completeExceptionally(e);
+            } else {
+                schedule(pollIntervalMillis);
+            }
+        }
+    }
+
+    /**
+     * 一次查询得到的任务进度。切片任务的计数是各切片之和。
+     */
+    public static final class Progress {
+        public final boolean completed;
+        public final boolean cancelled;
+        public final Counters counters;
+        /** 当前限速（每秒文档数），不限速时为 -1 */
+        public final float requestsPerSecond;
+        public final long runningTimeMillis;
+        /** 按 slice_id 排列的各切片计数，未切片时为空 */
+        public final List<Counters> slices;
+        /** 任务结束后的失败条目（bulk 或搜索失败的原因） */
+        public final List<String> failures;
+        /** 任务本身失败时的原因 */
+        public final String error;
+
+        Progress(boolean completed, boolean cancelled, Counters counters, float requestsPerSecond, long runningTimeMillis,
+                 List<Counters> slices, List<String> failures, String error) {
+            this.completed = completed;
+            this.cancelled = cancelled;
+            this.counters = counters;
+            this.requestsPerSecond = requestsPerSecond;
+            this.runningTimeMillis = runningTimeMillis;
+            this.slices = Collections.unmodifiableList(slices);
+            this.failures = Collections.unmodifiableList(failures);
+            this.error = error;
+        }
+
+        /**
+         * 已处理的比例，total 未知时为 0。
+         */
+        public double fraction() {
+            long done = counters.created + counters.updated + counters.deleted + counters.noops + counters.versionConflicts;
+            return counters.total <= 0 ? 0 : Math.min(1.0, (double) done / counters.total);
+        }
+
+        /**
+         * 从任务开始到现在平均每秒处理的文档数。
+         */
+        public double docsPerSecond() {
+            long done = counters.created + counters.updated + counters.deleted + counters.noops + counters.versionConflicts;
+            return runningTimeMillis <= 0 ? 0 : done * 1000.0 / runningTimeMillis;
+        }
+
+        boolean sameCounters(Progress other) {
+            return completed == other.completed && counters.equals(other.counters) && slices.equals(other.slices)
+                    && requestsPerSecond == other.requestsPerSecond;
+        }
+
+        /**
+         * 解析 GET _tasks/&lt;id&gt; 的响应。结束后优先使用 response 中的最终计数。
+         */
+        @SuppressWarnings("unchecked")
+        static Progress parse(Map<String, Object> body) {
+            boolean completed = Boolean.TRUE.equals(body.get("completed"));
+            Map<String, Object> task = map(body.get("task"));
+            Map<String, Object> status = map(task.get("status"));
+            Map<String, Object> result = map(body.get("response"));
+            Map<String, Object> source = completed && !result.isEmpty() ? result : status;
+            List<Counters> slices = new ArrayList<>();
+            if (source.get("slices") instanceof List) {
+                int i = 0;
+                for (Object slice : (List<Object>) source.get("slices")) {
+                    Map<String, Object> s = map(slice);
+                    // 尚未开始或出错的切片为 null / 异常对象，计数按 0
+                    slices.add(Counters.parse(s, s.containsKey("slice_id") ? toInt(s.get("slice_id")) : i));
+                    i++;
+                }
+            }
+            List<String> failures = new ArrayList<>();
+            if (result.get("failures") instanceof List) {
+                for (Object failure : (List<Object>) result.get("failures")) {
+                    Map<String, Object> f = map(failure);
+                    Map<String, Object> cause = map(f.get("cause"));
+                    Object reason = cause.isEmpty() ? f.get("reason") : cause.get("reason");
+                    failures.add(f.get("id") != null ? f.get("id") + ": " + reason : String.valueOf(reason));
+                }
+            }
+            Map<String, Object> error = map(body.get("error"));
+            Object rps = source.get("requests_per_second");
+            float requestsPerSecond = rps instanceof Number ? ((Number) rps).floatValue() : -1;
+            return new Progress(completed, Boolean.TRUE.equals(task.get("cancelled")) || status.containsKey("canceled"),
+                    Counters.parse(source, -1), Float.isInfinite(requestsPerSecond) ? -1 : requestsPerSecond,
+                    toLong(task.get("running_time_in_nanos")) / 1_000_000, slices, failures,
+                    error.isEmpty() ? null : error.get("type") + ": " + error.get("reason"));
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(completed ? "completed " : "running ")
+                    .append(String.format("%.1f%%", fraction() * 100)).append(' ').append(counters)
+                    .append(", rps=").append(requestsPerSecond)
+                    .append(String.format(", %.0f docs/s", docsPerSecond()));
+            for (Counters slice : slices) {
+                sb.append("\n  slice ").append(slice.sliceId).append(": ").append(slice);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * BulkByScroll 任务的计数。
+     */
+    public static final class Counters {
+        public final int sliceId;
+        public final long total;
+        public final long created;
+        public final long updated;
+        public final long deleted;
+        public final long batches;
+        public final long versionConflicts;
+        public final long noops;
+
+        Counters(int sliceId, long total, long created, long updated, long deleted, long batches,
+                 long versionConflicts, long noops) {
+            this.sliceId = sliceId;
+            this.total = total;
+            this.created = created;
+            this.updated = updated;
+            this.deleted = deleted;
+            this.batches = batches;
+            this.versionConflicts = versionConflicts;
+            this.noops = noops;
+        }
+
+        static Counters parse(Map<String, Object> m, int sliceId) {
+            return new Counters(sliceId, toLong(m.get("total")), toLong(m.get("created")), toLong(m.get("updated")),
+                    toLong(m.get("deleted")), toLong(m.get("batches")), toLong(m.get("version_conflicts")),
+                    toLong(m.get("noops")));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Counters)) {
+                return false;
+            }
+            Counters c = (Counters) o;
+            return sliceId == c.sliceId && total == c.total && created == c.created && updated == c.updated
+                    && deleted == c.deleted && batches == c.batches && versionConflicts == c.versionConflicts
+                    && noops == c.noops;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(total) * 31 + Long.hashCode(created + updated + deleted + batches);
+        }
+
+        @Override
+        public String toString() {
+            return "total=" + total + ", created=" + created + ", updated=" + updated + ", deleted=" + deleted
+                    + ", batches=" + batches + ", version_conflicts=" + versionConflicts + ", noops=" + noops;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> map(Object value) {
+        return value instanceof Map ? (Map<String, Object>) value : Collections.emptyMap();
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    private static int toInt(Object value) {
+        return value instanceof Number ? ((Number) value).intValue() : -1;
+    }
+}
@@ -0,0 +1,682 @@
+package my.reindex;
+
+import my.bulk.BulkIngester;
+import my.bulk.BulkLoadSession;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.GetAliasesResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.core.CountRequest;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.cluster.metadata.AliasMetadata;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.index.reindex.ReindexRequest;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * 不停机修改 mapping（例如更换 content 的分词器）：新建带版本号的目标索引，切片 reindex 别名指向的源索引，
+ * 期间的写入同时写到新旧两个索引（双写），核对文档数后在一个请求中把别名从源索引切到目标索引。
+ * <ol>
+ *     <li>{@link #start()}：通过 {@link BulkLoadSession} 创建目标索引并切换为导入设置，另外调大 index.gc_deletes，
+ *     让迁移期间删除的版本号一直保留；refresh 源索引后提交 reindex 任务（dest.version_type=external，
+ *     conflicts=proceed，默认 slices=auto）</li>
+ *     <li>迁移期间应用的写入改用本类的 index / update / delete / bulk：先写源索引，再以源索引返回的版本号作为外部版本号写目标索引。
+ *     reindex 与双写谁先到达都一样，目标索引只保留版本号大的写入</li>
+ *     <li>{@link #finish()}：等待 reindex 结束；强制合并、恢复目标索引的设置并等待变绿，这期间双写改为同步；
+ *     然后短暂阻塞写入，补写失败的双写，refresh 两个索引并核对文档数，一致时原子地切换别名</li>
+ * </ol>
+ * 切换后本类的写入直接发给别名。核对不一致时不切换，双写继续，可以再次调用 {@link #finish()}，或者 {@link #abort()} 删除目标索引。
+ * 不经过本类的写入不会同步到目标索引，迁移期间所有写入方都要改用本类。源索引默认保留，用于回退。
+ * <pre>
+ * MappingMigration migration = MappingMigration.builder(client, "java-api-demo",
+ *             new CreateIndexRequest("java-api-demo-v2").mapping(...))
+ *     .setProgressListener(progress -&gt; System.out.println(progress))
+ *     .build();
+ * migration.start();
+ * // 应用的写入改用 migration.index(...) / migration.update(...) / migration.delete(...)
+ * MappingMigration.Result result = migration.finish();
+ * </pre>
+ */
+public class MappingMigration implements Closeable {
+
+    static final String GC_DELETES = "index.gc_deletes";
+
+    private enum Phase {
+        NEW, COPYING, FINISHING, DONE, ABORTED
+    }
+
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final String alias;
+    private final CreateIndexRequest target;
+    private final int slices;
+    private final float requestsPerSecond;
+    private final int batchSize;
+    private final TimeValue gcDeletes;
+    private final TimeValue closeTimeout;
+    private final boolean deleteSource;
+    private final Consumer<ByQueryRunner.Progress> listener;
+    private final ByQueryRunner runner;
+    // 写入方持有读锁，切换阶段与别名时持有写锁
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+    // 需要从源索引补写的文档：id -> routing（没有时为空串）
+    private final Map<String, String> resync = new ConcurrentHashMap<>();
+    private final AtomicLong mirrored = new AtomicLong();
+    private final AtomicLong mirrorFailures = new AtomicLong();
+    private final AtomicLong resynced = new AtomicLong();
+
+    private volatile Phase phase = Phase.NEW;
+    private volatile boolean closed;
+    private String source;
+    private AliasMetadata aliasMetadata;
+    private BulkLoadSession session;
+    private ByQueryRunner.Job job;
+    private long startMillis;
+
+    private MappingMigration(Builder builder) {
+        this.client = builder.client;
+        this.options = builder.options;
+        this.alias = builder.alias;
+        this.target = builder.target;
+        this.slices = builder.slices;
+        this.requestsPerSecond = builder.requestsPerSecond;
+        this.batchSize = builder.batchSize;
+        this.gcDeletes = builder.gcDeletes;
+        this.closeTimeout = builder.closeTimeout;
+        this.deleteSource = builder.deleteSource;
+        this.listener = builder.listener;
+        this.runner = new ByQueryRunner(builder.client, builder.options, builder.pollInterval);
+    }
+
+    /**
+     * @param alias  应用读写使用的别名，必须只指向一个索引
+     * @param target 目标索引的完整定义（新的 mapping 与最终设置），索引必须不存在
+     */
+    public static Builder builder(RestHighLevelClient client, String alias, CreateIndexRequest target) {
+        return new Builder(client, alias, target);
+    }
+
+    public static class Builder {
+        private final RestHighLevelClient client;
+        private final String alias;
+        private final CreateIndexRequest target;
+        private RequestOptions options = RequestOptions.DEFAULT;
+        private int slices = 1;
+        private float requestsPerSecond = Float.POSITIVE_INFINITY;
+        private int batchSize = 1000;
+        private TimeValue pollInterval = TimeValue.timeValueSeconds(1);
+        private TimeValue gcDeletes = TimeValue.timeValueHours(24);
+        private TimeValue closeTimeout = TimeValue.timeValueMinutes(30);
+        private boolean deleteSource = false;
+        private Consumer<ByQueryRunner.Progress> listener;
+
+        private Builder(RestHighLevelClient client, String alias, CreateIndexRequest target) {
+            if (alias.equals(target.index())) {
+                throw new IllegalArgumentException("target index must not be named after the alias [" + alias + "]");
+            }
+            this.client = client;
+            this.alias = alias;
+            this.target = target;
+        }
+
+        public Builder setRequestOptions(RequestOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        /**
+         * reindex 的切片数，默认 auto（源索引的主分片数）。
+         */
+        public Builder setSlices(int slices) {
+            if (slices < 2) {
+                throw new IllegalArgumentException("slices must be >= 2, the default is auto");
+            }
+            this.slices = slices;
+            return this;
+        }
+
+        /**
+         * reindex 的限速（每秒文档数），默认不限速，运行中可以通过 {@link #job()} 调整。
+         */
+        public Builder setRequestsPerSecond(float requestsPerSecond) {
+            this.requestsPerSecond = requestsPerSecond;
+            return this;
+        }
+
+        /**
+         * reindex 每批从源索引读取的文档数，默认 1000。
+         */
+        public Builder setBatchSize(int batchSize) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("batchSize must be >= 1");
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * 查询 reindex 进度的间隔，默认 1s。
+         */
+        public Builder setPollInterval(TimeValue pollInterval) {
+            this.pollInterval = pollInterval;
+            return this;
+        }
+
+        /**
+         * 迁移期间目标索引保留删除版本号的时间，默认 24h，必须长于整个迁移的耗时，否则 reindex 可能写回已删除的文档。
+         */
+        public Builder setGcDeletes(TimeValue gcDeletes) {
+            this.gcDeletes = gcDeletes;
+            return this;
+        }
+
+        /**
+         * 强制合并与等待目标索引变绿的超时，默认 30 分钟。
+         */
+        public Builder setCloseTimeout(TimeValue closeTimeout) {
+            this.closeTimeout = closeTimeout;
+            return this;
+        }
+
+        /**
+         * 切换别名后是否删除源索引，默认 false。
+         */
+        public Builder setDeleteSource(boolean deleteSource) {
+            this.deleteSource = deleteSource;
+            return this;
+        }
+
+        /**
+         * 接收 reindex 进度（含每秒文档数），在回调线程上调用。
+         */
+        public Builder setProgressListener(Consumer<ByQueryRunner.Progress> listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public MappingMigration build() {
+            return new MappingMigration(this);
+        }
+    }
+
+    /**
+     * 创建目标索引、开始双写并提交 reindex 任务。
+     *
+     * @return reindex 任务，可用于查看进度、调整限速
+     */
+    public synchronized ByQueryRunner.Job start() throws IOException {
+        ensureOpen();
+        if (phase != Phase.NEW) {
+            throw new IllegalStateException("migration of [" + alias + "] is already " + phase);
+        }
+        GetAliasesResponse aliases = client.indices().getAlias(new GetAliasesRequest(alias), options);
+        if (aliases.status() == RestStatus.NOT_FOUND || aliases.getAliases().size() != 1) {
+            throw new IllegalArgumentException("[" + alias + "] must be an alias of exactly one index but points to "
+                    + aliases.getAliases().keySet());
+        }
+        Map.Entry<String, Set<AliasMetadata>> entry = aliases.getAliases().entrySet().iterator().next();
+        source = entry.getKey();
+        aliasMetadata = entry.getValue().iterator().next();
+        if (client.indices().exists(new GetIndexRequest(target.index()), options)) {
+            throw new IllegalStateException("target index [" + target.index() + "] already exists");
+        }
+        startMillis = System.currentTimeMillis();
+        session = BulkLoadSession.builder(client, target.index(), BulkIngester.builder(client, new MirrorListener()))
+                .setRequestOptions(options)
+                .setCreateIndexRequest(target)
+                .setLoadSetting(GC_DELETES, gcDeletes.getStringRep())
+                .setCloseTimeout(closeTimeout)
+                .open();
+        lock.writeLock().lock();
+        try {
+            phase = Phase.COPYING;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // 此后的写入都会双写；此前已确认的写入要 refresh 后才能被 reindex 读到
+        client.indices().refresh(new RefreshRequest(source), options);
+        ReindexRequest reindex = new ReindexRequest()
+                .setSourceIndices(source)
+                .setDestIndex(target.index())
+                .setDestVersionType(VersionType.EXTERNAL)
+                .setAbortOnVersionConflict(false)
+                .setSourceBatchSize(batchSize)
+                .setRequestsPerSecond(requestsPerSecond)
+                .setSlices(slices);
+        job = runner.submit(reindex, listener);
+        return job;
+    }
+
+    /**
+     * 等待 reindex 结束，核对文档数并切换别名。
+     *
+     * @throws IllegalStateException reindex 失败或被取消、目标索引没有变绿、文档数不一致；此时别名不变，双写继续
+     */
+    public synchronized Result finish() throws IOException, InterruptedException {
+        ensureOpen();
+        if (phase != Phase.COPYING && phase != Phase.FINISHING) {
+            throw new IllegalStateException("migration of [" + alias + "] is " + phase);
+        }
+        ByQueryRunner.Progress copy;
+        try {
+            copy = job.completion().get();
+        } catch (ExecutionException e) {
+            // 等待期间被 close()：reindex 任务仍在服务端运行，别名不变
+            if (closed) {
+                throw new IllegalStateException("migration of [" + alias + "] was closed while waiting for reindex", e.getCause());
+            }
+            throw new IOException("reindex [" + source + "] -> [" + target.index() + "] failed", e.getCause());
+        }
+        if (copy.cancelled) {
+            throw new IllegalStateException("reindex [" + source + "] -> [" + target.index() + "] was cancelled");
+        }
+        if (!copy.failures.isEmpty()) {
+            throw new IllegalStateException("reindex [" + source + "] -> [" + target.index() + "] failed for ["
+                    + copy.failures.size() + "] documents, first: " + copy.failures.get(0));
+        }
+        if (phase == Phase.COPYING) {
+            lock.writeLock().lock();
+            try {
+                phase = Phase.FINISHING;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        // 写入仍在继续（同步双写），合并与复制副本可能很慢，不阻塞写入
+        session.close();
+        long sourceCount;
+        long targetCount;
+        lock.writeLock().lock();
+        try {
+            resync();
+            client.indices().refresh(new RefreshRequest(source, target.index()), options);
+            sourceCount = client.count(new CountRequest(source), options).getCount();
+            targetCount = client.count(new CountRequest(target.index()), options).getCount();
+            if (sourceCount != targetCount) {
+                throw new IllegalStateException("document count mismatch: [" + source + "] has [" + sourceCount
+                        + "] but [" + target.index() + "] has [" + targetCount + "]");
+            }
+            client.indices().updateAliases(new IndicesAliasesRequest()
+                    .addAliasAction(IndicesAliasesRequest.AliasActions.remove().index(source).alias(alias))
+                    .addAliasAction(addAlias(target.index(), aliasMetadata)), options);
+            phase = Phase.DONE;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (deleteSource) {
+            client.indices().delete(new DeleteIndexRequest(source), options);
+        }
+        return new Result(source, target.index(), copy, sourceCount, mirrored.get(), resynced.get(),
+                System.currentTimeMillis() - startMillis);
+    }
+
+    /**
+     * 等价于 {@link #start()} 后 {@link #finish()}。
+     */
+    public Result run() throws IOException, InterruptedException {
+        start();
+        return finish();
+    }
+
+    /**
+     * 放弃迁移：取消 reindex，停止双写并删除目标索引。别名仍指向源索引。
+     */
+    public synchronized void abort() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (phase == Phase.DONE) {
+                throw new IllegalStateException("alias [" + alias + "] has already been swapped to [" + target.index() + "]");
+            }
+            if (phase == Phase.NEW || phase == Phase.ABORTED) {
+                phase = Phase.ABORTED;
+                return;
+            }
+            phase = Phase.ABORTED;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (job != null && !job.completion().isDone()) {
+            job.cancel();
+        }
+        session.discard();
+        client.indices().delete(new DeleteIndexRequest(target.index()), options);
+    }
+
+    public IndexResponse index(IndexRequest request, RequestOptions options) throws IOException {
+        lock.readLock().lock();
+        try {
+            IndexResponse response = client.index(request, options);
+            if (mirroring(response)) {
+                mirror(new IndexRequest(target.index())
+                        .id(response.getId())
+                        .routing(routing(request))
+                        .source(request.source(), request.getContentType())
+                        .versionType(VersionType.EXTERNAL)
+                        .version(response.getVersion()));
+            }
+            return response;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 部分更新与脚本更新无法直接重放，更新后从源索引实时读取整个文档再写目标索引。
+     */
+    public UpdateResponse update(UpdateRequest request, RequestOptions options) throws IOException {
+        lock.readLock().lock();
+        try {
+            UpdateResponse response = client.update(request, options);
+            if (mirroring(response)) {
+                if (response.getResult() == DocWriteResponse.Result.DELETED) {
+                    mirror(mirrorDelete(response.getId(), routing(request), response.getVersion()));
+                } else if (response.getResult() != DocWriteResponse.Result.NOOP) {
+                    mirrorCurrent(response.getId(), routing(request));
+                }
+            }
+            return response;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public DeleteResponse delete(DeleteRequest request, RequestOptions options) throws IOException {
+        lock.readLock().lock();
+        try {
+            DeleteResponse response = client.delete(request, options);
+            if (mirroring(response) && response.getResult() == DocWriteResponse.Result.DELETED) {
+                mirror(mirrorDelete(response.getId(), routing(request), response.getVersion()));
+            }
+            return response;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public BulkResponse bulk(BulkRequest request, RequestOptions options) throws IOException {
+        lock.readLock().lock();
+        try {
+            BulkResponse response = client.bulk(request, options);
+            BulkItemResponse[] items = response.getItems();
+            for (int i = 0; i < items.length; i++) {
+                if (items[i].isFailed() || !mirroring(items[i].getResponse())) {
+                    continue;
+                }
+                DocWriteRequest<?> item = request.requests().get(i);
+                DocWriteResponse itemResponse = items[i].getResponse();
+                if (itemResponse.getResult() == DocWriteResponse.Result.DELETED) {
+                    mirror(mirrorDelete(itemResponse.getId(), routing(item), itemResponse.getVersion()));
+                } else if (itemResponse.getResult() == DocWriteResponse.Result.NOOP
+                        || itemResponse.getResult() == DocWriteResponse.Result.NOT_FOUND) {
+                    continue;
+                } else if (item instanceof IndexRequest) {
+                    IndexRequest index = (IndexRequest) item;
+                    mirror(new IndexRequest(target.index())
+                            .id(itemResponse.getId())
+                            .routing(routing(index))
+                            .source(index.source(), index.getContentType())
+                            .versionType(VersionType.EXTERNAL)
+                            .version(itemResponse.getVersion()));
+                } else {
+                    mirrorCurrent(itemResponse.getId(), routing(item));
+                }
+            }
+            return response;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 别名上的 index_routing 同样作用于经由别名、没有指定 routing 的写入
+    private String routing(DocWriteRequest<?> request) {
+        return routing(request, alias, aliasMetadata);
+    }
+
+    static String routing(DocWriteRequest<?> request, String alias, AliasMetadata aliasMetadata) {
+        if (request.routing() != null || !alias.equals(request.index())) {
+            return request.routing();
+        }
+        return aliasMetadata.indexRouting();
+    }
+
+    // 目标索引上的别名保留源索引上的全部属性
+    static IndicesAliasesRequest.AliasActions addAlias(String index, AliasMetadata aliasMetadata) {
+        IndicesAliasesRequest.AliasActions add = IndicesAliasesRequest.AliasActions.add()
+                .index(index)
+                .alias(aliasMetadata.alias())
+                .indexRouting(aliasMetadata.indexRouting())
+                .searchRouting(aliasMetadata.searchRouting())
+                .writeIndex(aliasMetadata.writeIndex())
+                .isHidden(aliasMetadata.isHidden());
+        if (aliasMetadata.filter() != null) {
+            add.filter(aliasMetadata.filter().string());
+        }
+        return add;
+    }
+
+    // 持有读锁时调用：迁移中且写到了源索引
+    private boolean mirroring(DocWriteResponse response) {
+        Phase current = phase;
+        return (current == Phase.COPYING || current == Phase.FINISHING) && source.equals(response.getIndex());
+    }
+
+    private DeleteRequest mirrorDelete(String id, String routing, long version) {
+        return new DeleteRequest(target.index(), id)
+                .routing(routing)
+                .versionType(VersionType.EXTERNAL)
+                .version(version);
+    }
+
+    private void mirrorCurrent(String id, String routing) {
+        try {
+            GetResponse current = client.get(new GetRequest(source, id).routing(routing), options);
+            if (current.isExists()) {
+                mirror(new IndexRequest(target.index())
+                        .id(id)
+                        .routing(routing)
+                        .source(current.getSourceAsMap())
+                        .versionType(VersionType.EXTERNAL)
+                        .version(current.getVersion()));
+            }
+            // 已被并发删除时，由删除的那次写入负责双写
+        } catch (IOException | RuntimeException e) {
+            onMirrorFailure(id, routing);
+        }
+    }
+
+    // reindex 期间交给写入器异步批量写；收尾阶段写入器已关闭，同步写
+    private void mirror(DocWriteRequest<?> request) {
+        mirrored.incrementAndGet();
+        if (phase == Phase.COPYING) {
+            try {
+                session.add(request);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                onMirrorFailure(request.id(), request.routing());
+            }
+            return;
+        }
+        try {
+            if (request instanceof IndexRequest) {
+                client.index((IndexRequest) request, options);
+            } else {
+                client.delete((DeleteRequest) request, options);
+            }
+        } catch (ElasticsearchStatusException e) {
+            // 目标索引中已有更新的版本
+            if (e.status() != RestStatus.CONFLICT) {
+                onMirrorFailure(request.id(), request.routing());
+            }
+        } catch (IOException | RuntimeException e) {
+            onMirrorFailure(request.id(), request.routing());
+        }
+    }
+
+    private void onMirrorFailure(String id, String routing) {
+        mirrorFailures.incrementAndGet();
+        resync.put(id, routing == null ? "" : routing);
+    }
+
+    // 写入已阻塞，按源索引的当前状态覆盖目标索引
+    private void resync() throws IOException {
+        for (Map.Entry<String, String> entry : new ArrayList<>(resync.entrySet())) {
+            String id = entry.getKey();
+            String routing = entry.getValue().isEmpty() ? null : entry.getValue();
+            GetResponse current = client.get(new GetRequest(source, id).routing(routing), options);
+            try {
+                if (current.isExists()) {
+                    client.index(new IndexRequest(target.index())
+                            .id(id)
+                            .routing(routing)
+                            .source(current.getSourceAsMap())
+                            .versionType(VersionType.EXTERNAL)
+                            .version(current.getVersion()), options);
+                } else {
+                    client.delete(new DeleteRequest(target.index(), id).routing(routing), options);
+                }
+            } catch (ElasticsearchStatusException e) {
+                if (e.status() != RestStatus.CONFLICT) {
+                    throw e;
+                }
+            }
+            resync.remove(id, entry.getValue());
+            resynced.incrementAndGet();
+        }
+    }
+
+    /**
+     * 别名当前指向的源索引，{@link #start()} 之前为 null。
+     */
+    public String sourceIndex() {
+        return source;
+    }
+
+    /**
+     * reindex 任务，{@link #start()} 之前为 null。
+     */
+    public ByQueryRunner.Job job() {
+        return job;
+    }
+
+    /**
+     * 写到目标索引的双写次数。
+     */
+    public long mirrored() {
+        return mirrored.get();
+    }
+
+    /**
+     * 失败、等待在切换前补写的双写次数。
+     */
+    public long mirrorFailures() {
+        return mirrorFailures.get();
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("migration of [" + alias + "] is closed");
+        }
+    }
+
+    /**
+     * 停止轮询 reindex 进度，不影响服务端任务，也不结束迁移。
+     * 之后 {@link #start()}、{@link #finish()} 抛出 {@link IllegalStateException}，正在 finish() 中等待的调用同样以此结束；
+     * 仍可 {@link #abort()} 放弃迁移。
+     */
+    @Override
+    public void close() {
+        closed = true;
+        runner.close();
+    }
+
+    /**
+     * 双写的批量写入失败时记下文档，版本冲突（目标索引已有更新的版本）不算失败。
+     */
+    private final class MirrorListener implements BulkProcessor.Listener {
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            for (BulkItemResponse item : response) {
+                if (item.isFailed() && item.status() != RestStatus.CONFLICT) {
+                    DocWriteRequest<?> failed = request.requests().get(item.getItemId());
+                    onMirrorFailure(failed.id(), failed.routing());
+                }
+            }
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            for (DocWriteRequest<?> failed : request.requests()) {
+                onMirrorFailure(failed.id(), failed.routing());
+            }
+        }
+    }
+
+    /**
+     * 一次完成的迁移。
+     */
+    public static final class Result {
+        public final String source;
+        public final String target;
+        /** reindex 任务的最终进度 */
+        public final ByQueryRunner.Progress reindex;
+        /** 切换时两个索引的文档数 */
+        public final long documents;
+        public final long mirrored;
+        /** 切换前从源索引补写的文档数 */
+        public final long resynced;
+        public final long tookMillis;
+
+        Result(String source, String target, ByQueryRunner.Progress reindex, long documents, long mirrored,
+               long resynced, long tookMillis) {
+            this.source = source;
+            this.target = target;
+            this.reindex = reindex;
+            this.documents = documents;
+            this.mirrored = mirrored;
+            this.resynced = resynced;
+            this.tookMillis = tookMillis;
+        }
+
+        @Override
+        public String toString() {
+            return source + " -> " + target + ": documents=" + documents + ", mirrored=" + mirrored
+                    + ", resynced=" + resynced + ", took=" + tookMillis + "ms"
+                    + String.format(", reindex %.0f docs/s", reindex.docsPerSecond());
+        }
+    }
+}
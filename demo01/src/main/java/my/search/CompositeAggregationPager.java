@@ -0,0 +1,636 @@
+package my.search;
+
+import my.client.WireFormat;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.TermsValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
+import org.elasticsearch.search.aggregations.support.ValuesSourceAggregationBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 用 composite 聚合 + after_key 分页取出一个 terms 类聚合的全部桶，替代一次性返回、会被截断的 terms 聚合。
+ * 每页按 key 有序、统计精确；响应用流式解析器直接解码为列（key 列、doc_count 的 long[]、每个指标的 long[]/double[]），
+ * 不创建 ParsedComposite 与每个桶的 Aggregations 对象。处理当前页时已经在请求下一页，内存中最多两页。
+ * <pre>
+ * CompositeAggregationPager.builder(client, "java-api-demo-idx")
+ *     .setQuery(QueryBuilders.matchQuery("content", "中国国台办"))
+ *     .setTerms(AggregationBuilders.terms("byAuthor").field("author")
+ *             .subAggregation(AggregationBuilders.avg("average_salary").field("salary")))
+ *     .setPageSize(1000)
+ *     .build()
+ *     .stream(page -&gt; {
+ *         double[] avg = page.doubles("average_salary");
+ *         for (int i = 0; i &lt; page.size(); i++) { ... page.key(i, "byAuthor"), page.docCount(i), avg[i] ... }
+ *     });
+ * </pre>
+ * 子聚合只能是单层的指标聚合：单值指标（avg、sum、min、max、value_count、cardinality 等）的列名为聚合名，
+ * 多值指标按 {@code 聚合名.字段} 展开，例如 stats 的 {@code salary_stats.max}。
+ */
+public class CompositeAggregationPager {
+
+    /**
+     * 按页接收桶。页对象只在回调期间有效，需要保留的数据应在回调内复制。
+     */
+    @FunctionalInterface
+    public interface PageConsumer {
+        void onPage(Page page) throws Exception;
+    }
+
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final String endpoint;
+    private final String name;
+    private final QueryBuilder query;
+    private final List<CompositeValuesSourceBuilder<?>> sources;
+    private final List<AggregationBuilder> metrics;
+    private final List<String> keyNames;
+    private final int pageSize;
+
+    private CompositeAggregationPager(Builder builder) {
+        if (builder.sources.isEmpty()) {
+            throw new IllegalArgumentException("at least one composite source is required");
+        }
+        this.client = builder.client;
+        this.options = builder.options;
+        this.endpoint = "/" + String.join(",", builder.indices) + "/_search";
+        this.name = builder.name;
+        this.query = builder.query;
+        this.sources = new ArrayList<>(builder.sources);
+        this.metrics = new ArrayList<>(builder.metrics);
+        this.pageSize = builder.pageSize;
+        List<String> names = new ArrayList<>(sources.size());
+        for (CompositeValuesSourceBuilder<?> source : sources) {
+            names.add(source.name());
+        }
+        this.keyNames = Collections.unmodifiableList(names);
+    }
+
+    public static Builder builder(RestHighLevelClient client, String... indices) {
+        return new Builder(client, indices);
+    }
+
+    /**
+     * 依次取出所有页并回调，返回桶的总数。
+     */
+    public long stream(PageConsumer consumer) throws IOException {
+        long buckets = 0;
+        CompletableFuture<Page> next = fetch(null);
+        while (true) {
+            Page page = await(next);
+            // 下一页只依赖 after_key，先发出去再处理当前页
+            boolean last = page.size() < pageSize || page.afterKey == null;
+            next = last ? null : fetch(page.afterKey);
+            if (page.size() > 0) {
+                try {
+                    consumer.onPage(page);
+                } catch (IOException | RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException("page consumer failed", e);
+                }
+            }
+            buckets += page.size();
+            if (last) {
+                return buckets;
+            }
+        }
+    }
+
+    private static Page await(CompletableFuture<Page> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while paging composite aggregation", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private CompletableFuture<Page> fetch(Map<String, Object> afterKey) {
+        CompletableFuture<Page> future = new CompletableFuture<>();
+        Request request = request(afterKey);
+        request.setOptions(options);
+        client.getLowLevelClient().performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                try (InputStream in = response.getEntity().getContent();
+                     XContentParser parser = WireFormat.xContent(response.getEntity()).createParser(NamedXContentRegistry.EMPTY,
+                             DeprecationHandler.THROW_UNSUPPORTED_OPERATION, in)) {
+                    future.complete(parse(parser, name, keyNames, pageSize));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    Request request(Map<String, Object> afterKey) {
+        CompositeAggregationBuilder composite = new CompositeAggregationBuilder(name, sources).size(pageSize);
+        if (afterKey != null) {
+            composite.aggregateAfter(afterKey);
+        }
+        for (AggregationBuilder metric : metrics) {
+            composite.subAggregation(metric);
+        }
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(query)
+                .size(0)
+                .trackTotalHits(false)
+                .aggregation(composite);
+        Request request = new Request("POST", endpoint);
+        // 只返回桶与分片失败信息，省掉 hits 等无关内容
+        request.addParameter("filter_path", "_shards.failed,_shards.failures,timed_out,aggregations");
+        request.setJsonEntity(Strings.toString(source));
+        return request;
+    }
+
+    /**
+     * 解析一页响应。分片失败或超时会让统计不完整，直接报错。
+     */
+    static Page parse(XContentParser parser, String name, List<String> keyNames, int expectedSize) throws IOException {
+        Page page = new Page(keyNames, expectedSize);
+        expect(parser.nextToken(), XContentParser.Token.START_OBJECT, parser);
+        while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("_shards".equals(field)) {
+                Map<String, Object> shards = parser.map();
+                Object failed = shards.get("failed");
+                if (failed instanceof Number && ((Number) failed).intValue() > 0) {
+                    throw new IllegalStateException("[" + failed + "] shards failed, composite page is incomplete: "
+                            + shards.get("failures"));
+                }
+            } else if ("timed_out".equals(field)) {
+                if (parser.booleanValue()) {
+                    throw new IllegalStateException("search timed out, composite page is incomplete");
+                }
+            } else if ("aggregations".equals(field)) {
+                parseAggregations(parser, name, page);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        page.finish();
+        return page;
+    }
+
+    private static void parseAggregations(XContentParser parser, String name, Page page) throws IOException {
+        expect(parser.currentToken(), XContentParser.Token.START_OBJECT, parser);
+        while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if (!name.equals(field)) {
+                parser.skipChildren();
+                continue;
+            }
+            while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+                String key = parser.currentName();
+                parser.nextToken();
+                if ("after_key".equals(key)) {
+                    page.afterKey = parser.map();
+                } else if ("buckets".equals(key)) {
+                    expect(parser.currentToken(), XContentParser.Token.START_ARRAY, parser);
+                    while (parser.nextToken() == XContentParser.Token.START_OBJECT) {
+                        parseBucket(parser, page);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private static void parseBucket(XContentParser parser, Page page) throws IOException {
+        int row = page.size++;
+        while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+            String field = parser.currentName();
+            XContentParser.Token token = parser.nextToken();
+            if ("key".equals(field)) {
+                while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+                    Column column = page.keys.get(parser.currentName());
+                    parser.nextToken();
+                    if (column == null) {
+                        parser.skipChildren();
+                    } else {
+                        column.set(row, parser);
+                    }
+                }
+            } else if ("doc_count".equals(field)) {
+                page.docCounts.set(row, parser);
+            } else if (token == XContentParser.Token.START_OBJECT) {
+                parseMetric(parser, page, row, field);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    // 把指标对象中的数值展开为列，value 对应聚合名本身
+    private static void parseMetric(XContentParser parser, Page page, int row, String path) throws IOException {
+        while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+            String field = parser.currentName();
+            XContentParser.Token token = parser.nextToken();
+            String column = "value".equals(field) ? path : path + "." + field;
+            if (token == XContentParser.Token.START_OBJECT) {
+                parseMetric(parser, page, row, column);
+            } else if (token == XContentParser.Token.VALUE_NUMBER || token == XContentParser.Token.VALUE_NULL) {
+                page.metrics.computeIfAbsent(column, k -> new Column()).set(row, parser);
+            } else {
+                // value_as_string 等格式化结果
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static void expect(XContentParser.Token actual, XContentParser.Token expected, XContentParser parser) throws IOException {
+        if (actual != expected) {
+            throw new IOException("expected [" + expected + "] but found [" + actual + "] at " + parser.getTokenLocation());
+        }
+    }
+
+    /**
+     * 一页桶，按列存放。数组长度等于 {@link #size()}，不要修改。
+     */
+    public static final class Page {
+        private final List<String> keyNames;
+        private final Map<String, Column> keys = new LinkedHashMap<>();
+        private final Column docCounts = new Column();
+        private final Map<String, Column> metrics = new LinkedHashMap<>();
+        private Map<String, Object> afterKey;
+        private int size;
+
+        Page(List<String> keyNames, int capacity) {
+            this.keyNames = keyNames;
+            for (String keyName : keyNames) {
+                keys.put(keyName, new Column());
+            }
+            docCounts.ensureCapacity(capacity);
+        }
+
+        private void finish() {
+            for (Column column : keys.values()) {
+                column.trim(size);
+            }
+            docCounts.trim(size);
+            for (Column column : metrics.values()) {
+                column.trim(size);
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * composite 各个 source 的名字，即 key 的组成部分。
+         */
+        public List<String> keyNames() {
+            return keyNames;
+        }
+
+        /**
+         * 第 bucket 个桶在 source 上的 key，可能是 String、Long、Double、Boolean；missing_bucket 的桶为 null。
+         */
+        public Object key(int bucket, String source) {
+            return column(keys, source).get(bucket);
+        }
+
+        /**
+         * 数值型 key（如 histogram、date_histogram、数值字段的 terms）的 long 列。
+         */
+        public long[] longKeys(String source) {
+            return column(keys, source).longs(source);
+        }
+
+        public long docCount(int bucket) {
+            return docCounts.longs[bucket];
+        }
+
+        public long[] docCounts() {
+            return docCounts.longs == null ? new long[0] : docCounts.longs;
+        }
+
+        /**
+         * 本页出现过的指标列名。
+         */
+        public Set<String> columns() {
+            return Collections.unmodifiableSet(metrics.keySet());
+        }
+
+        /**
+         * 整数指标列（value_count、cardinality 等）。
+         *
+         * @throws IllegalStateException 该列含小数或空值
+         */
+        public long[] longs(String column) {
+            return column(metrics, column).longs(column);
+        }
+
+        /**
+         * 指标列的 double 形式，空值（如没有文档的 avg）为 NaN；整数列会复制一份转换。
+         */
+        public double[] doubles(String column) {
+            return column(metrics, column).doubles();
+        }
+
+        /**
+         * 本页最后一个桶的 key，用于从这里继续分页。
+         */
+        public Map<String, Object> afterKey() {
+            return afterKey == null ? null : Collections.unmodifiableMap(afterKey);
+        }
+
+        private Column column(Map<String, Column> columns, String name) {
+            Column column = columns.get(name);
+            if (column == null) {
+                if (size == 0) {
+                    return new Column();
+                }
+                throw new IllegalArgumentException("no column [" + name + "], available: " + columns.keySet());
+            }
+            return column;
+        }
+    }
+
+    /**
+     * 一列值，按遇到的数据从 long 升级为 double（空值为 NaN），遇到字符串等再升级为对象。
+     */
+    static final class Column {
+        long[] longs;
+        double[] doubles;
+        Object[] objects;
+        private int capacity;
+
+        void ensureCapacity(int n) {
+            if (n <= capacity) {
+                return;
+            }
+            int newCapacity = Math.max(n, capacity * 2);
+            if (objects != null) {
+                objects = Arrays.copyOf(objects, newCapacity);
+            } else if (doubles != null) {
+                doubles = Arrays.copyOf(doubles, newCapacity);
+                Arrays.fill(doubles, capacity, newCapacity, Double.NaN);
+            } else {
+                longs = Arrays.copyOf(longs == null ? new long[0] : longs, newCapacity);
+            }
+            capacity = newCapacity;
+        }
+
+        void set(int row, XContentParser parser) throws IOException {
+            ensureCapacity(row + 1);
+            switch (parser.currentToken()) {
+                case VALUE_NUMBER:
+                    XContentParser.NumberType type = parser.numberType();
+                    if (objects == null && doubles == null
+                            && (type == XContentParser.NumberType.INT || type == XContentParser.NumberType.LONG)) {
+                        longs[row] = parser.longValue();
+                    } else if (objects == null && type != XContentParser.NumberType.BIG_INTEGER
+                            && type != XContentParser.NumberType.BIG_DECIMAL) {
+                        toDoubles()[row] = parser.doubleValue();
+                    } else {
+                        toObjects()[row] = parser.numberValue();
+                    }
+                    break;
+                case VALUE_NULL:
+                    if (objects != null) {
+                        objects[row] = null;
+                    } else {
+                        toDoubles()[row] = Double.NaN;
+                    }
+                    break;
+                case VALUE_BOOLEAN:
+                    toObjects()[row] = parser.booleanValue();
+                    break;
+                default:
+                    toObjects()[row] = parser.text();
+                    break;
+            }
+        }
+
+        // 之前的行已写入的 long 值一起转换；尚未写入的行为 NaN
+        private double[] toDoubles() {
+            if (doubles == null) {
+                doubles = new double[capacity];
+                Arrays.fill(doubles, Double.NaN);
+                if (longs != null) {
+                    for (int i = 0; i < longs.length; i++) {
+                        doubles[i] = longs[i];
+                    }
+                    longs = null;
+                }
+            }
+            return doubles;
+        }
+
+        private Object[] toObjects() {
+            if (objects == null) {
+                objects = new Object[capacity];
+                for (int i = 0; i < capacity; i++) {
+                    objects[i] = get(i);
+                }
+                longs = null;
+                doubles = null;
+            }
+            return objects;
+        }
+
+        Object get(int row) {
+            if (objects != null) {
+                return objects[row];
+            }
+            if (doubles != null) {
+                return Double.isNaN(doubles[row]) ? null : doubles[row];
+            }
+            return longs == null ? null : longs[row];
+        }
+
+        void trim(int size) {
+            if (capacity == size) {
+                return;
+            }
+            if (objects != null) {
+                objects = Arrays.copyOf(objects, size);
+            } else if (doubles != null) {
+                doubles = Arrays.copyOf(doubles, size);
+            } else {
+                longs = Arrays.copyOf(longs == null ? new long[0] : longs, size);
+            }
+            capacity = size;
+        }
+
+        long[] longs(String name) {
+            if (objects != null || doubles != null) {
+                throw new IllegalStateException("column [" + name + "] is not an integer column");
+            }
+            return longs == null ? new long[0] : longs;
+        }
+
+        double[] doubles() {
+            if (doubles != null) {
+                return doubles;
+            }
+            if (objects != null) {
+                double[] result = new double[objects.length];
+                for (int i = 0; i < objects.length; i++) {
+                    result[i] = objects[i] instanceof Number ? ((Number) objects[i]).doubleValue() : Double.NaN;
+                }
+                return result;
+            }
+            long[] values = longs == null ? new long[0] : longs;
+            double[] result = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = values[i];
+            }
+            return result;
+        }
+    }
+
+    public static class Builder {
+        private final RestHighLevelClient client;
+        private final String[] indices;
+        private RequestOptions options = RequestOptions.DEFAULT;
+        private String name = "composite";
+        private QueryBuilder query = QueryBuilders.matchAllQuery();
+        private final List<CompositeValuesSourceBuilder<?>> sources = new ArrayList<>();
+        private final List<AggregationBuilder> metrics = new ArrayList<>();
+        private int pageSize = 1000;
+
+        private Builder(RestHighLevelClient client, String... indices) {
+            if (indices.length == 0) {
+                throw new IllegalArgumentException("at least one index is required");
+            }
+            this.client = client;
+            this.indices = indices;
+        }
+
+        public Builder setRequestOptions(RequestOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        public Builder setQuery(QueryBuilder query) {
+            this.query = query;
+            return this;
+        }
+
+        /**
+         * composite 聚合的名字，默认 "composite"。
+         */
+        public Builder setName(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * 把一个 terms 聚合改写为 composite：field/script 作为唯一的 source（名字沿用聚合名），子聚合作为指标。
+         * 桶按 key 排序，terms 的 order/size 不再适用；include/exclude、missing 与 min_doc_count 无法等价改写，会被拒绝。
+         */
+        public Builder setTerms(TermsAggregationBuilder terms) {
+            if (terms.includeExclude() != null || terms.missing() != null || terms.minDocCount() != 1) {
+                throw new IllegalArgumentException("terms aggregation [" + terms.getName()
+                        + "] uses include/exclude, missing or min_doc_count, which composite paging cannot reproduce");
+            }
+            TermsValuesSourceBuilder source = new TermsValuesSourceBuilder(terms.getName());
+            if (terms.field() != null) {
+                source.field(terms.field());
+            } else if (terms.script() != null) {
+                source.script(terms.script());
+            } else {
+                throw new IllegalArgumentException("terms aggregation [" + terms.getName() + "] has neither field nor script");
+            }
+            if (terms.userValueTypeHint() != null) {
+                source.userValuetypeHint(terms.userValueTypeHint());
+            }
+            this.name = terms.getName();
+            this.sources.clear();
+            this.sources.add(source);
+            this.metrics.clear();
+            for (AggregationBuilder metric : terms.getSubAggregations()) {
+                addMetric(metric);
+            }
+            return this;
+        }
+
+        /**
+         * 增加一个 source（terms、histogram、date_histogram、geotile_grid），多个 source 的 key 组合分桶。
+         */
+        public Builder addSource(CompositeValuesSourceBuilder<?> source) {
+            this.sources.add(source);
+            return this;
+        }
+
+        /**
+         * 按字段取值分桶的快捷方式。
+         */
+        public Builder addTerms(String name, String field) {
+            return addSource(new TermsValuesSourceBuilder(name).field(field));
+        }
+
+        /**
+         * 增加一个指标子聚合，只接受没有子聚合的叶子聚合。
+         */
+        public Builder addMetric(AggregationBuilder metric) {
+            if (!(metric instanceof ValuesSourceAggregationBuilder.LeafOnly) || !metric.getSubAggregations().isEmpty()) {
+                throw new IllegalArgumentException("sub-aggregation [" + metric.getName() + "] must be a metric aggregation, got ["
+                        + metric.getType() + "]");
+            }
+            this.metrics.add(metric);
+            return this;
+        }
+
+        /**
+         * 每页的桶数，composite 单页上限受 search.max_buckets（默认 65536）限制。
+         */
+        public Builder setPageSize(int pageSize) {
+            if (pageSize < 1) {
+                throw new IllegalArgumentException("pageSize must be >= 1");
+            }
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        public CompositeAggregationPager build() {
+            return new CompositeAggregationPager(this);
+        }
+    }
+}
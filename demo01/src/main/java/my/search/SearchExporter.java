@@ -0,0 +1,308 @@
+package my.search;
+
+import org.elasticsearch.action.search.ClosePointInTimeRequest;
+import org.elasticsearch.action.search.OpenPointInTimeRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.NamedWriteableAwareStreamInput;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchModule;
+import org.elasticsearch.search.builder.PointInTimeBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 基于 point-in-time + search_after 的流式导出，替代 from/size 深分页。
+ * 每一页的开销恒定；消费者处理完一页后才会拉取下一页，因此内存中每个切片最多只有一页数据（天然背压）。
+ * 设置 slices &gt; 1 时各切片并行导出。导出结束（包括失败）时关闭各切片最新的 PIT id。
+ * <pre>
+ * SearchExporter.builder(client, "java-api-demo-idx")
+ *     .setQuery(QueryBuilders.matchAllQuery())
+ *     .setPageSize(1000)
+ *     .setSlices(3)
+ *     .build()
+ *     .export((slice, hits) -&gt; { ... });
+ * </pre>
+ */
+public class SearchExporter {
+
+    /**
+     * 按页接收导出结果。同一切片的页按顺序回调；不同切片可能并发回调。
+     */
+    @FunctionalInterface
+    public interface PageConsumer {
+        void onPage(int sliceId, SearchHit[] hits) throws Exception;
+    }
+
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final String[] indices;
+    private final SearchSourceBuilder template;
+    private final int pageSize;
+    private final int slices;
+    private final TimeValue keepAlive;
+
+    private static final NamedWriteableRegistry WRITEABLES =
+            new NamedWriteableRegistry(new SearchModule(Settings.EMPTY, false, Collections.emptyList()).getNamedWriteables());
+
+    private SearchExporter(Builder builder) {
+        this.client = builder.client;
+        this.options = builder.options;
+        this.indices = builder.indices;
+        this.pageSize = builder.pageSize;
+        this.slices = builder.slices;
+        this.keepAlive = builder.keepAlive;
+        SearchSourceBuilder source = copy(builder.source);
+        if (builder.query != null) {
+            source.query(builder.query);
+        }
+        if (source.query() == null) {
+            source.query(QueryBuilders.matchAllQuery());
+        }
+        if (source.sorts() == null || source.sorts().isEmpty()) {
+            // _shard_doc 是 PIT 下最廉价且唯一的排序（tiebreaker）
+            source.sort(SortBuilders.fieldSort("_shard_doc").order(SortOrder.ASC));
+        }
+        this.template = source.from(0).size(pageSize).trackTotalHits(false);
+    }
+
+    // 深拷贝调用方的 SearchSourceBuilder：shallowCopy 与原对象共用排序列表，追加 _shard_doc 会改到调用方
+    private static SearchSourceBuilder copy(SearchSourceBuilder source) {
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            source.writeTo(out);
+            try (StreamInput in = new NamedWriteableAwareStreamInput(out.bytes().streamInput(), WRITEABLES)) {
+                return new SearchSourceBuilder(in);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static Builder builder(RestHighLevelClient client, String... indices) {
+        return new Builder(client, indices);
+    }
+
+    /**
+     * 导出全部匹配的文档，返回每个切片导出的文档数。
+     */
+    public long[] export(PageConsumer consumer) throws IOException {
+        String pitId = client.openPointInTime(new OpenPointInTimeRequest(indices).keepAlive(keepAlive), options)
+                .getPointInTimeId();
+        // 每个切片最新的 PIT id：搜索响应可能返回新的 id，结束时要关闭的是这些 id
+        AtomicReferenceArray<String> pitIds = new AtomicReferenceArray<>(slices);
+        for (int i = 0; i < slices; i++) {
+            pitIds.set(i, pitId);
+        }
+        Throwable failure = null;
+        try {
+            if (slices == 1) {
+                try {
+                    return new long[] {exportSlice(pitIds, null, consumer, new AtomicBoolean())};
+                } catch (IOException | RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException("failed to export", e);
+                }
+            }
+            return exportSlices(pitIds, consumer);
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            closePointInTimes(pitIds, failure);
+        }
+    }
+
+    // 逐个关闭，某个 id 关闭失败不影响其余的；导出本身失败时关闭失败只作为 suppressed 附加
+    private void closePointInTimes(AtomicReferenceArray<String> pitIds, Throwable failure) throws IOException {
+        Set<String> distinct = new LinkedHashSet<>();
+        for (int i = 0; i < pitIds.length(); i++) {
+            distinct.add(pitIds.get(i));
+        }
+        IOException closeFailure = null;
+        for (String id : distinct) {
+            try {
+                client.closePointInTime(new ClosePointInTimeRequest(id), options);
+            } catch (IOException | RuntimeException e) {
+                if (failure != null) {
+                    failure.addSuppressed(e);
+                } else if (closeFailure == null) {
+                    closeFailure = new IOException("failed to close point in time [" + id + "]", e);
+                } else {
+                    closeFailure.addSuppressed(e);
+                }
+            }
+        }
+        if (closeFailure != null) {
+            throw closeFailure;
+        }
+    }
+
+    private long[] exportSlices(AtomicReferenceArray<String> pitIds, PageConsumer consumer) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(slices, r -> {
+            Thread t = new Thread(r, "search-exporter");
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicBoolean aborted = new AtomicBoolean();
+        try {
+            List<Future<Long>> futures = new ArrayList<>(slices);
+            for (int i = 0; i < slices; i++) {
+                SliceBuilder slice = new SliceBuilder(i, slices);
+                futures.add(executor.submit(() -> exportSlice(pitIds, slice, consumer, aborted)));
+            }
+            long[] counts = new long[slices];
+            for (int i = 0; i < slices; i++) {
+                try {
+                    counts[i] = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    aborted.set(true);
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IOException("failed to export slice [" + i + "]", cause);
+                } catch (InterruptedException e) {
+                    aborted.set(true);
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while exporting", e);
+                }
+            }
+            return counts;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private long exportSlice(AtomicReferenceArray<String> pitIds, SliceBuilder slice, PageConsumer consumer,
+                             AtomicBoolean aborted) throws Exception {
+        int sliceId = slice == null ? 0 : slice.getId();
+        String currentPit = pitIds.get(sliceId);
+        Object[] searchAfter = null;
+        long count = 0;
+        while (!aborted.get()) {
+            SearchSourceBuilder source = template.shallowCopy()
+                    .pointInTimeBuilder(new PointInTimeBuilder(currentPit).setKeepAlive(keepAlive));
+            if (slice != null) {
+                source.slice(slice);
+            }
+            if (searchAfter != null) {
+                source.searchAfter(searchAfter);
+            }
+            // 使用 PIT 时请求中不能再指定索引
+            SearchResponse response = client.search(new SearchRequest().source(source), options);
+            if (response.pointInTimeId() != null) {
+                currentPit = response.pointInTimeId();
+                pitIds.set(sliceId, currentPit);
+            }
+            SearchHit[] hits = response.getHits().getHits();
+            if (hits.length == 0) {
+                break;
+            }
+            consumer.onPage(sliceId, hits);
+            count += hits.length;
+            if (hits.length < pageSize) {
+                break;
+            }
+            searchAfter = hits[hits.length - 1].getSortValues();
+        }
+        return count;
+    }
+
+    public static class Builder {
+        private final RestHighLevelClient client;
+        private final String[] indices;
+        private RequestOptions options = RequestOptions.DEFAULT;
+        private SearchSourceBuilder source = new SearchSourceBuilder();
+        private QueryBuilder query;
+        private int pageSize = 1000;
+        private int slices = 1;
+        private TimeValue keepAlive = TimeValue.timeValueMinutes(1);
+
+        private Builder(RestHighLevelClient client, String... indices) {
+            this.client = client;
+            this.indices = indices;
+        }
+
+        public Builder setRequestOptions(RequestOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        /**
+         * 查询条件，优先于 {@link #setSource} 中的查询。
+         */
+        public Builder setQuery(QueryBuilder query) {
+            this.query = query;
+            return this;
+        }
+
+        /**
+         * 自定义查询、排序、_source 过滤等。build 时复制一份，不修改传入的对象；from 按 0 处理，每页条数由 {@link #setPageSize} 决定。
+         * 自定义排序时最后一个排序字段必须唯一（例如 _shard_doc），否则 search_after 可能漏数据。
+         */
+        public Builder setSource(SearchSourceBuilder source) {
+            this.source = source;
+            return this;
+        }
+
+        public Builder setPageSize(int pageSize) {
+            if (pageSize < 1) {
+                throw new IllegalArgumentException("pageSize must be >= 1");
+            }
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        /**
+         * 并行切片数，一般取主分片数。
+         */
+        public Builder setSlices(int slices) {
+            if (slices < 1) {
+                throw new IllegalArgumentException("slices must be >= 1");
+            }
+            this.slices = slices;
+            return this;
+        }
+
+        /**
+         * PIT 的存活时间，需覆盖处理一页数据的耗时。
+         */
+        public Builder setKeepAlive(TimeValue keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        public SearchExporter build() {
+            return new SearchExporter(this);
+        }
+    }
+}
@@ -1,5 +1,30 @@
 package my;
 
+import my.analysis.AnalyzeBatcher;
+import my.analysis.AnalyzedText;
+import my.async.AsyncClient;
+import my.async.GetBatcher;
+import my.async.LimitedClient;
+import my.async.RefreshBarrier;
+import my.bulk.BulkIngester;
+import my.bulk.BulkLoadSession;
+import my.bulk.UpdateCoalescer;
+import my.cache.BloomExistsClient;
+import my.cache.LruCache;
+import my.client.ClientFactory;
+import my.client.ClientMetrics;
+import my.client.GzipCompression;
+import my.client.ManagedClient;
+import my.client.RequestHedger;
+import my.client.ShardAwareBulkClient;
+import my.doc.DocumentCodec;
+import my.doc.RawSource;
+import my.metadata.IndexMetadata;
+import my.metadata.MetadataCache;
+import my.reindex.ByQueryRunner;
+import my.reindex.MappingMigration;
+import my.search.CompositeAggregationPager;
+import my.search.SearchExporter;
 import org.apache.http.HttpHost;
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.ActionListener;
@@ -9,6 +34,7 @@ import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
 import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
 import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
@@ -67,9 +93,20 @@ import org.w3c.dom.ls.LSOutput;
 
 import javax.naming.directory.SearchResult;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class RestClientTest {
     private RestHighLevelClient client = null;
@@ -425,6 +462,39 @@ public class RestClientTest {
         Thread.sleep(3000);
     }
 
+    @Test
+    public void testAsyncClient() throws Exception {
+        try (AsyncClient asyncClient = new AsyncClient(client, 8)) { // 每个节点最多 8 个在途请求
+            List<CompletableFuture<GetResponse>> futures = new ArrayList<>();
+            for (int i = 1; i <= 7; i++) {
+                futures.add(asyncClient.execute(new GetRequest("java-api-demo-idx", String.valueOf(i)),
+                        client::getAsync, TimeValue.timeValueSeconds(5)));
+            }
+            // 不再需要 Thread.sleep，等待全部结果即可
+            for (GetResponse response : AsyncClient.allOf(futures).get()) {
+                System.out.println("id -> " + response.getId() + ", isExists -> " + response.isExists());
+            }
+        }
+    }
+
+    @Test
+    public void testGetBatcher() throws Exception {
+        try (GetBatcher batcher = new GetBatcher(client, TimeValue.timeValueMillis(2), 100)) {
+            ExecutorService callers = Executors.newFixedThreadPool(8);
+            List<Future<GetResponse>> results = new ArrayList<>();
+            for (int i = 1; i <= 7; i++) {
+                String id = String.valueOf(i);
+                results.add(callers.submit(() -> batcher.get(new GetRequest("java-api-demo-idx", id)).get()));
+            }
+            for (Future<GetResponse> result : results) {
+                GetResponse response = result.get();
+                System.out.println("id -> " + response.getId() + ", isExists -> " + response.isExists());
+            }
+            callers.shutdown();
+            System.out.println("batches -> " + batcher.batches() + ", batchedGets -> " + batcher.batchedGets());
+        }
+    }
+
     @Test
     public void testExists() throws Exception {
         GetRequest request = new GetRequest("java-api-demo-idx", "9");
@@ -697,6 +767,33 @@ public class RestClientTest {
         //http://192.168.0.51:9200/java-api-demo-idx/_doc/3/_termvectors?pretty&fields=content
     }
 
+    @Test
+    public void testBulkIngester() throws Exception {
+        BulkIngester ingester = BulkIngester.builder(client, new BulkProcessor.Listener() {
+                    @Override
+                    public void beforeBulk(long executionId, BulkRequest request) {
+                    }
+                    @Override
+                    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                        System.out.println("executionId -> " + executionId + ", actions -> " + request.numberOfActions()
+                                + ", hasFailures -> " + response.hasFailures() + ", took -> " + response.getTook());
+                    }
+                    @Override
+                    public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                        System.err.println("err -> " + failure.getMessage());
+                    }
+                })
+                .setBatchActions(200, 50, 5000)
+                .setConcurrentRequests(3) // 三个节点，各一个在途请求
+                .build();
+        for (int i = 100; i < 1100; i++) {
+            ingester.add(new IndexRequest("java-api-demo-idx").id(String.valueOf(i))
+                    .source(XContentType.JSON, "author", "王五", "salary", 56000.0, "title", "批量" + i, "content", "中华人民共和国台湾事务办公室"));
+        }
+        System.out.println("isDrained -> " + ingester.awaitClose(1, TimeUnit.MINUTES));
+        System.out.println("batchActions -> " + ingester.currentBatchActions()); // 随耗时自动调整
+    }
+
     @Test
     public void testSearch() throws Exception {
         SearchSourceBuilder sourceBuilder = new SearchSourceBuilder();
@@ -745,6 +842,23 @@ public class RestClientTest {
         }
     }
 
+    @Test
+    public void testSearchExport() throws Exception {
+        AtomicLong exported = new AtomicLong();
+        long[] counts = SearchExporter.builder(client, "java-api-demo-idx")
+                .setQuery(QueryBuilders.matchAllQuery())
+                .setPageSize(2)
+                .setSlices(3) // 与主分片数一致
+                .build()
+                .export((sliceId, hits) -> {
+                    for (SearchHit hit : hits) {
+                        System.out.println("slice = " + sliceId + ", id = " + hit.getId() + ", sort = " + Arrays.toString(hit.getSortValues()));
+                    }
+                    exported.addAndGet(hits.length);
+                });
+        System.out.println("exported -> " + exported.get() + ", perSlice -> " + Arrays.toString(counts));
+    }
+
     @Test
     public void testSearch3() throws Exception {
         TermsAggregationBuilder aggregation = AggregationBuilders.terms("byAuthor")
@@ -841,4 +955,361 @@ public class RestClientTest {
         mapping.put("properties", properties);
         return mapping;
     }
+
+    @Test
+    public void testClientMetrics() throws IOException {
+        ClientMetrics metrics = new ClientMetrics(true);
+        try (ManagedClient managed = ClientFactory.builder(
+                new HttpHost("192.168.0.51", 9200, "http"),
+                new HttpHost("192.168.0.52", 9200, "http"),
+                new HttpHost("192.168.0.53", 9200, "http"))
+                .setMetrics(metrics)
+                .build()) {
+            RestHighLevelClient managedClient = managed.client();
+            for (int i = 0; i < 10; i++) {
+                managedClient.get(new GetRequest("java-api-demo-idx", "1"), managed.requestOptions());
+                managedClient.search(new SearchRequest("java-api-demo-idx"), managed.requestOptions());
+            }
+            ClientMetrics.Snapshot snapshot = metrics.snapshot(false);
+            snapshot.endpoints.forEach((endpoint, stats) -> System.out.println(endpoint + " -> " + stats));
+            snapshot.nodes.forEach((node, stats) -> System.out.println(node + " -> " + Arrays.toString(stats)));
+            System.out.println("attempts -> " + snapshot.attempts + ", ioFailures -> " + snapshot.ioFailures
+                    + ", poolWait p99 -> " + snapshot.poolWaitP99Micros + "us");
+        }
+    }
+
+    @Test
+    public void testGzipCompression() throws IOException {
+        GzipCompression compression = GzipCompression.builder().setMinRequestBytes(1024).build();
+        try (ManagedClient managed = ClientFactory.builder(
+                new HttpHost("192.168.0.51", 9200, "http"),
+                new HttpHost("192.168.0.52", 9200, "http"),
+                new HttpHost("192.168.0.53", 9200, "http"))
+                .setCompression(compression)
+                .build()) {
+            BulkRequest request = new BulkRequest();
+            for (int i = 0; i < 1000; i++) {
+                request.add(new IndexRequest("java-api-demo-idx").id("gzip-" + i)
+                        .source(XContentType.JSON, "author", "王五", "salary", 56000.0, "title", "中华人民共和国台湾事务办公室", "content", "中华人民共和国台湾事务办公室"));
+            }
+            BulkResponse bulkResponse = managed.client().bulk(request, RequestOptions.DEFAULT);
+            System.out.println("hasFailures -> " + bulkResponse.hasFailures() + ", took -> " + bulkResponse.getTook());
+            SearchResponse searchResponse = managed.client().search(new SearchRequest("java-api-demo-idx"), RequestOptions.DEFAULT);
+            System.out.println("hits -> " + searchResponse.getHits().getHits().length);
+            compression.snapshot(false).forEach((endpoint, stats) -> System.out.println(endpoint + " -> " + stats));
+        }
+    }
+
+    @Test
+    public void testAnalyzeBatcher() throws Exception {
+        try (AnalyzeBatcher batcher = new AnalyzeBatcher(client, new LruCache<>(10000), TimeValue.timeValueMillis(2), 64)) {
+            ExecutorService callers = Executors.newFixedThreadPool(8);
+            List<Future<List<AnalyzedText>>> results = new ArrayList<>();
+            String[] queries = {"中国国台办", "中华人民共和国人民大会堂", "中国国台办", "飞流直下三千尺，疑是银河落九天", "中国国台办"};
+            for (String query : queries) {
+                results.add(callers.submit(() -> batcher.analyze(AnalyzeRequest.withGlobalAnalyzer("ik_smart", query)).get()));
+            }
+            for (Future<List<AnalyzedText>> result : results) {
+                System.out.println("terms -> " + result.get().get(0).terms());
+            }
+            callers.shutdown();
+            System.out.println("hitRate -> " + batcher.hitRate() + ", batches -> " + batcher.batches()
+                    + ", batchedTexts -> " + batcher.batchedTexts());
+        }
+    }
+
+    @Test
+    public void testMetadataCache() throws IOException {
+        try (MetadataCache metadata = MetadataCache.builder(client, "java-api-demo-idx", "my_pinyin_idx")
+                .setIncludeDefaults(true)
+                .setRefreshInterval(TimeValue.timeValueSeconds(30))
+                .build()) {
+            IndexMetadata index = metadata.index("java-api-demo-idx");
+            for (String field : index.fields()) {
+                System.out.println(field + " -> type: " + index.type(field) + ", analyzer: " + index.analyzer(field)
+                        + ", search_analyzer: " + index.searchAnalyzer(field));
+            }
+            System.out.println("number_of_shards -> " + index.setting("index.number_of_shards"));
+            System.out.println("refresh_interval -> " + index.setting("index.refresh_interval"));
+            System.out.println("changed -> " + metadata.refresh() + ", reloads -> " + metadata.reloads());
+        }
+    }
+
+    public static class Article {
+        private String author;
+        private double salary;
+        private String title;
+        private String content;
+
+        public String getAuthor() {
+            return author;
+        }
+
+        public void setAuthor(String author) {
+            this.author = author;
+        }
+
+        public double getSalary() {
+            return salary;
+        }
+
+        public void setSalary(double salary) {
+            this.salary = salary;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public void setContent(String content) {
+            this.content = content;
+        }
+    }
+
+    @Test
+    public void testDocumentCodec() throws IOException {
+        DocumentCodec<Article> codec = DocumentCodec.of(Article.class);
+        Article article = new Article();
+        article.setAuthor("王五");
+        article.setSalary(56000.0);
+        article.setTitle("中华人民共和国台湾事务办公室");
+        article.setContent("中华人民共和国台湾事务办公室");
+        IndexResponse indexResponse = client.index(new IndexRequest("java-api-demo-idx").id("codec-1")
+                .source(codec.encode(article), XContentType.JSON)
+                .setRefreshPolicy(WriteRequest.RefreshPolicy.WAIT_UNTIL), RequestOptions.DEFAULT);
+        System.out.println("result -> " + indexResponse.getResult());
+        GetResponse getResponse = client.get(new GetRequest("java-api-demo-idx", "codec-1"), RequestOptions.DEFAULT);
+        Article copy = RawSource.read(getResponse, codec);
+        System.out.println("author -> " + copy.getAuthor() + ", salary -> " + copy.getSalary());
+        SearchResponse searchResponse = client.search(new SearchRequest("java-api-demo-idx"), RequestOptions.DEFAULT);
+        for (Article hit : RawSource.readAll(searchResponse.getHits(), codec)) {
+            System.out.println(hit.getAuthor() + " -> " + hit.getTitle());
+        }
+    }
+
+    @Test
+    public void testUpdateCoalescer() throws Exception {
+        try (UpdateCoalescer coalescer = UpdateCoalescer.builder(client)
+                .setWindow(TimeValue.timeValueMillis(200))
+                .build()) {
+            List<CompletableFuture<UpdateResponse>> results = new ArrayList<>();
+            for (int i = 1; i <= 100; i++) {
+                Map<String, Object> jsonMap = new HashMap<>();
+                jsonMap.put("author", "lisi");
+                jsonMap.put("title", "李四的独白 " + i);
+                results.add(coalescer.update(new UpdateRequest("java-api-demo-idx", "2")
+                        .upsert(jsonMap)
+                        .doc(jsonMap)));
+            }
+            for (CompletableFuture<UpdateResponse> result : results) {
+                UpdateResponse updateResponse = result.get();
+                System.out.println("result -> " + updateResponse.getResult() + ", version -> " + updateResponse.getVersion());
+            }
+            coalescer.flush().get();
+            System.out.println("submitted -> " + coalescer.submitted() + ", sent -> " + coalescer.sent()
+                    + ", batches -> " + coalescer.batches());
+        }
+    }
+
+    @Test
+    public void testRefreshBarrier() throws Exception {
+        try (RefreshBarrier barrier = RefreshBarrier.builder(client).build()) {
+            List<CompletableFuture<IndexResponse>> results = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                // 不再每个请求各自 WAIT_UNTIL，由屏障统一确认可见
+                results.add(barrier.index(new IndexRequest("java-api-demo-idx").id("barrier-" + i)
+                        .source(XContentType.JSON, "author", "王五", "title", "屏障 " + i)));
+            }
+            AsyncClient.allOf(results).get();
+            SearchResponse searchResponse = client.search(new SearchRequest("java-api-demo-idx")
+                    .source(new SearchSourceBuilder().query(QueryBuilders.prefixQuery("_id", "barrier-")).size(0)
+                            .trackTotalHits(true)), RequestOptions.DEFAULT);
+            System.out.println("visible -> " + searchResponse.getHits().getTotalHits().value);
+            System.out.println("polls -> " + barrier.polls() + ", refreshes -> " + barrier.refreshes());
+        }
+    }
+
+    @Test
+    public void testByQueryRunner() throws Exception {
+        try (ByQueryRunner runner = new ByQueryRunner(client, TimeValue.timeValueMillis(500))) {
+            UpdateByQueryRequest request = new UpdateByQueryRequest("java-api-demo-idx");
+            request.setQuery(QueryBuilders.matchAllQuery());
+            request.setScript(new Script(ScriptType.INLINE, "painless", "ctx._source.salary = (ctx._source.salary ?: 0) + 1",
+                    Collections.emptyMap()));
+            request.setConflicts("proceed");
+            request.setRequestsPerSecond(50);
+            ByQueryRunner.Job job = runner.submit(request, progress -> System.out.println(progress));
+            System.out.println("task -> " + job.taskId());
+            job.rethrottle(Float.POSITIVE_INFINITY);
+            ByQueryRunner.Progress result = job.completion().get();
+            System.out.println("updated -> " + result.counters.updated + ", failures -> " + result.failures);
+        }
+    }
+
+    @Test
+    public void testCompositeAggregationPager() throws IOException {
+        // testSearch3 的 byAuthor 聚合，改为按页取出全部作者
+        TermsAggregationBuilder aggregation = AggregationBuilders.terms("byAuthor")
+                .field("author");
+        aggregation.subAggregation(AggregationBuilders.count("countDoc")
+                .field("_none_"));
+        aggregation.subAggregation(AggregationBuilders.avg("average_salary")
+                .field("salary"));
+        long buckets = CompositeAggregationPager.builder(client, "java-api-demo-idx")
+                .setQuery(QueryBuilders.matchQuery("content", "中国国台办"))
+                .setTerms(aggregation)
+                .setPageSize(2)
+                .build()
+                .stream(page -> {
+                    long[] countDoc = page.longs("countDoc");
+                    double[] averageSalary = page.doubles("average_salary");
+                    for (int i = 0; i < page.size(); i++) {
+                        System.out.println(page.key(i, "byAuthor") + " -> docCount " + page.docCount(i)
+                                + ", countDoc " + countDoc[i] + ", avgSalary " + averageSalary[i]);
+                    }
+                });
+        System.out.println("buckets -> " + buckets);
+    }
+
+    @Test
+    public void testRequestHedger() throws Exception {
+        try (ManagedClient managed = ClientFactory.builder(
+                new HttpHost("192.168.0.51", 9200, "http"),
+                new HttpHost("192.168.0.52", 9200, "http"),
+                new HttpHost("192.168.0.53", 9200, "http"))
+                .build();
+             RequestHedger hedger = RequestHedger.builder(managed).build()) {
+            SearchRequest request = new SearchRequest("java-api-demo-idx")
+                    .source(new SearchSourceBuilder().query(QueryBuilders.matchQuery("content", "中国国台办")).size(10));
+            for (int i = 0; i < 200; i++) {
+                hedger.search(request).get();
+                hedger.get(new GetRequest("java-api-demo-idx", "1")).get();
+            }
+            System.out.println("search delay -> " + hedger.delay("search") + ", get delay -> " + hedger.delay("get"));
+            System.out.println("requests -> " + hedger.requests() + ", hedges -> " + hedger.hedges()
+                    + ", hedgeWins -> " + hedger.hedgeWins() + ", budgetExhausted -> " + hedger.budgetExhausted());
+        }
+    }
+
+    @Test
+    public void testLimitedClient() throws Exception {
+        try (LimitedClient limited = LimitedClient.builder(client).build()) {
+            List<CompletableFuture<IndexResponse>> futures = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                futures.add(limited.index(new IndexRequest("java-api-demo-idx").id("limited-" + i)
+                        .source(XContentType.JSON, "author", "王五", "salary", 56000.0, "title", "限流")));
+            }
+            int rejected = 0;
+            for (CompletableFuture<IndexResponse> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RejectedExecutionException) {
+                        rejected++;
+                    }
+                }
+            }
+            System.out.println("rejected -> " + rejected);
+            limited.limiters().forEach((operation, limiter) -> System.out.println(operation + " -> " + limiter
+                    + ", noLoadRtt -> " + limiter.noLoadRttMillis() + "ms"));
+        }
+    }
+
+    @Test
+    public void testShardAwareBulk() throws Exception {
+        try (ManagedClient managed = ClientFactory.builder(
+                new HttpHost("192.168.0.51", 9200, "http"),
+                new HttpHost("192.168.0.52", 9200, "http"),
+                new HttpHost("192.168.0.53", 9200, "http"))
+                .build();
+             ShardAwareBulkClient bulkClient = ShardAwareBulkClient.builder(managed, "java-api-demo-idx").build()) {
+            System.out.println("table -> " + bulkClient.table());
+            BulkRequest request = new BulkRequest();
+            request.add(new IndexRequest("java-api-demo-idx").id("3")
+                    .source(XContentType.JSON, "author", "王五", "salary", 56000.0, "title", "中华人民共和国台湾事务办公室", "content", "中华人民共和国台湾事务办公室"));
+            request.add(new IndexRequest("java-api-demo-idx").id("4")
+                    .source(XContentType.JSON, "author", " 赵六", "salary", 23000.0, "title", "中华人民共和国人民大会堂", "content", "中华人民共和国人民大会堂"));
+            request.add(new UpdateRequest("java-api-demo-idx", "3").doc(XContentType.JSON, "salary", 57000.0));
+            request.add(new DeleteRequest("java-api-demo-idx", "4"));
+            BulkResponse response = bulkClient.bulk(request).get();
+            for (BulkItemResponse item : response) {
+                System.out.println(item.getOpType() + " " + item.getId() + " -> " + (item.isFailed() ? item.getFailureMessage() : item.status()));
+            }
+            System.out.println("routed -> " + bulkClient.routedItems() + ", unrouted -> " + bulkClient.unroutedItems()
+                    + ", subBulks -> " + bulkClient.subBulks());
+        }
+    }
+
+    @Test
+    public void testBulkLoadSession() throws Exception {
+        BulkIngester.Builder ingester = BulkIngester.builder(client, new BulkProcessor.Listener() {
+                    @Override
+                    public void beforeBulk(long executionId, BulkRequest request) {
+                    }
+                    @Override
+                    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                        System.out.println("executionId -> " + executionId + ", hasFailures -> " + response.hasFailures());
+                    }
+                    @Override
+                    public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                        System.err.println("err -> " + failure.getMessage());
+                    }
+                })
+                .setConcurrentRequests(3);
+        // 上一次导入中途退出时先恢复原设置
+        System.out.println("recovered -> " + BulkLoadSession.recover(client, "java-api-demo-idx", RequestOptions.DEFAULT));
+        try (BulkLoadSession session = BulkLoadSession.builder(client, "java-api-demo-idx", ingester)
+                .setLoadSetting("index.translog.durability", "async")
+                .open()) {
+            System.out.println("originalSettings -> " + session.originalSettings());
+            for (int i = 2000; i < 12000; i++) {
+                session.add(new IndexRequest("java-api-demo-idx").id(String.valueOf(i))
+                        .source(XContentType.JSON, "author", "王五", "salary", 56000.0, "title", "导入" + i, "content", "中华人民共和国台湾事务办公室"));
+            }
+        }
+    }
+
+    @Test
+    public void testBloomExists() throws Exception {
+        try (BloomExistsClient exists = BloomExistsClient.builder(client, "java-api-demo-idx")
+                .setSlices(3)
+                .build()) {
+            System.out.println("filter -> " + exists + ", memoryBytes -> " + exists.memoryBytes());
+            for (int i = 0; i < 1000; i++) {
+                GetRequest request = new GetRequest("java-api-demo-idx", "dedup-" + i);
+                request.fetchSourceContext(new FetchSourceContext(false));
+                request.storedFields("_none_");
+                exists.exists(request, RequestOptions.DEFAULT);
+            }
+            System.out.println("localMisses -> " + exists.localMisses() + ", remoteChecks -> " + exists.remoteChecks()
+                    + ", falsePositives -> " + exists.falsePositives());
+        }
+    }
+
+    @Test
+    public void testMappingMigration() throws Exception {
+        // 别名 java-api-demo 指向当前索引，新索引的 content 改用同义词分词器
+        CreateIndexRequest target = new CreateIndexRequest("java-api-demo-v2")
+                .settings(createSettings())
+                .mapping(createMapping("my_ik_syno_max_word"));
+        try (MappingMigration migration = MappingMigration.builder(client, "java-api-demo", target)
+                .setProgressListener(progress -> System.out.println("reindex -> " + progress))
+                .build()) {
+            migration.start();
+            // 迁移期间的写入改用 migration，同时写新旧两个索引
+            migration.index(new IndexRequest("java-api-demo").id("migrating")
+                    .source(XContentType.JSON, "author", "王五"), RequestOptions.DEFAULT);
+            MappingMigration.Result result = migration.finish();
+            System.out.println("result -> " + result);
+            // java-api-demo-v1 -> java-api-demo-v2: documents=..., mirrored=1, resynced=0, took=...ms, reindex ... docs/s
+        }
+    }
 }
@@ -0,0 +1,83 @@
+package my.analysis;
+
+import org.elasticsearch.client.indices.AnalyzeRequest;
+import org.elasticsearch.client.indices.AnalyzeResponse;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AnalyzeBatcherTest {
+
+    @Test
+    public void definitionIgnoresText() throws IOException {
+        AnalyzeBatcher.Definition a = AnalyzeBatcher.Definition.of(AnalyzeRequest.withGlobalAnalyzer("ik_smart", "中国国台办"));
+        AnalyzeBatcher.Definition b = AnalyzeBatcher.Definition.of(AnalyzeRequest.withGlobalAnalyzer("ik_smart", "人民大会堂"));
+        AnalyzeBatcher.Definition c = AnalyzeBatcher.Definition.of(AnalyzeRequest.withGlobalAnalyzer("ik_max_word", "中国国台办"));
+        assertEquals(a.key, b.key);
+        assertNotEquals(a.key, c.key);
+        assertFalse(a.normalizer);
+        assertTrue(a.body(Arrays.asList("x", "y")).contains("\"text\":[\"x\",\"y\"]"));
+    }
+
+    @Test
+    public void detectsNormalizer() throws IOException {
+        assertTrue(AnalyzeBatcher.Definition.of(
+                AnalyzeRequest.buildCustomNormalizer().addTokenFilter("lowercase").build("<B>Bob</B>")).normalizer);
+        assertTrue(AnalyzeBatcher.Definition.of(AnalyzeRequest.withNormalizer("idx", "my_normalizer", "Bob")).normalizer);
+        assertFalse(AnalyzeBatcher.Definition.of(
+                AnalyzeRequest.buildCustomAnalyzer("standard").addTokenFilter("lowercase").build("Bob")).normalizer);
+    }
+
+    @Test
+    public void splitsByCumulativeOffsets() throws IOException {
+        // "中华人民共和国人民大会堂" 与 "飞流直下三千尺" 一起分析，第二段偏移从 12 + 1 开始
+        List<AnalyzeResponse.AnalyzeToken> tokens = tokens(
+                token("中华人民共和国", 0, 7, 0, "CN_WORD"),
+                token("人民大会堂", 7, 12, 1, "CN_WORD"),
+                token("飞流直下三千尺", 13, 20, 102, "CN_WORD"));
+        List<AnalyzedText> results = AnalyzeBatcher.split(Arrays.asList("中华人民共和国人民大会堂", "飞流直下三千尺", ""), tokens, false);
+        assertEquals(3, results.size());
+        assertEquals(Arrays.asList("中华人民共和国", "人民大会堂"), results.get(0).terms());
+        assertEquals(1, results.get(0).position(1));
+        AnalyzedText second = results.get(1);
+        assertEquals(1, second.size());
+        assertEquals("飞流直下三千尺", second.term(0));
+        assertEquals(0, second.startOffset(0));
+        assertEquals(7, second.endOffset(0));
+        assertEquals(0, second.position(0));
+        assertEquals("CN_WORD", second.type(0));
+        assertEquals(0, results.get(2).size());
+    }
+
+    @Test
+    public void rejectsTokensOutsideTheirText() throws IOException {
+        List<AnalyzeResponse.AnalyzeToken> tokens = tokens(token("ab", 0, 2, 0, "word"), token("cd", 2, 5, 1, "word"));
+        assertNull(AnalyzeBatcher.split(Arrays.asList("ab", "cd"), tokens, false));
+        assertNull(AnalyzeBatcher.split(Arrays.asList("ab", "cd", "ef"), tokens, true));
+    }
+
+    private static String token(String term, int start, int end, int position, String type) {
+        return "{\"token\":\"" + term + "\",\"start_offset\":" + start + ",\"end_offset\":" + end
+                + ",\"type\":\"" + type + "\",\"position\":" + position + "}";
+    }
+
+    private static List<AnalyzeResponse.AnalyzeToken> tokens(String... tokens) throws IOException {
+        String json = "{\"tokens\":[" + String.join(",", tokens) + "]}";
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, json)) {
+            return AnalyzeResponse.fromXContent(parser).getTokens();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package my.async;
+
+import my.stub.StubCluster;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncClientTest {
+
+    @Test
+    public void closeFailsQueuedAndInFlightFutures() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            cluster.store().put("idx", "1", Collections.singletonMap("title", "async"));
+            AsyncClient asyncClient = new AsyncClient(client, RequestOptions.DEFAULT, 1);
+            assertTrue(asyncClient.get(new GetRequest("idx", "1")).get(5, TimeUnit.SECONDS).isExists());
+
+            cluster.node(0).hang();
+            try {
+                CompletableFuture<GetResponse> inFlight = asyncClient.get(new GetRequest("idx", "1"));
+                CompletableFuture<GetResponse> queued = asyncClient.get(new GetRequest("idx", "1"));
+                assertEquals(1, asyncClient.inFlightRequests());
+                assertEquals(1, asyncClient.pendingRequests());
+
+                asyncClient.close();
+                assertClosed(inFlight);
+                assertClosed(queued);
+                assertEquals(0, asyncClient.pendingRequests());
+                assertClosed(asyncClient.get(new GetRequest("idx", "1")));
+            } finally {
+                cluster.node(0).resume();
+            }
+        }
+    }
+
+    @Test
+    public void permitsScaleWithNodeCount() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().setNodes(2).build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()[0]));
+             AsyncClient asyncClient = new AsyncClient(client, RequestOptions.DEFAULT, 1)) {
+            cluster.store().put("idx", "1", Collections.singletonMap("title", "async"));
+            assertTrue(asyncClient.get(new GetRequest("idx", "1")).get(5, TimeUnit.SECONDS).isExists());
+            assertEquals(1, asyncClient.maxInFlight());
+
+            cluster.node(0).hang();
+            cluster.node(1).hang();
+            try {
+                for (int i = 0; i < 3; i++) {
+                    asyncClient.get(new GetRequest("idx", "1"));
+                }
+                assertEquals(1, asyncClient.inFlightRequests());
+                assertEquals(2, asyncClient.pendingRequests());
+
+                // 与 sniffer 一样更新节点列表，下一次提交时按两个节点放行
+                client.getLowLevelClient().setNodes(Arrays.asList(new Node(cluster.hosts()[0]), new Node(cluster.hosts()[1])));
+                assertEquals(2, asyncClient.maxInFlight());
+                asyncClient.get(new GetRequest("idx", "1"));
+                assertEquals(2, asyncClient.inFlightRequests());
+                assertEquals(2, asyncClient.pendingRequests());
+            } finally {
+                asyncClient.close();
+                cluster.node(0).resume();
+                cluster.node(1).resume();
+            }
+        }
+    }
+
+    private static void assertClosed(CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package my.async;
+
+import org.elasticsearch.core.TimeValue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrencyLimiterTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void vegasGrowsWhileLatencyStaysAtNoLoad() {
+        ConcurrencyLimiter.VegasLimit limit = new ConcurrencyLimiter.VegasLimit(20, 1, 200, 0.9);
+        limit.onSample(10 * MILLIS, 20, false); // 记下空载延迟
+        for (int i = 0; i < 10; i++) {
+            limit.onSample(10 * MILLIS, limit.limit(), false);
+        }
+        assertTrue(String.valueOf(limit.limit()), limit.limit() > 40);
+        // 并发远没用满时不加大
+        int before = limit.limit();
+        limit.onSample(10 * MILLIS, 1, false);
+        assertEquals(before, limit.limit());
+    }
+
+    @Test
+    public void vegasShrinksWhenRequestsQueue() {
+        ConcurrencyLimiter.VegasLimit limit = new ConcurrencyLimiter.VegasLimit(50, 1, 200, 0.9);
+        limit.onSample(10 * MILLIS, 50, false);
+        // 延迟翻倍：估计有一半请求在排队
+        for (int i = 0; i < 10; i++) {
+            limit.onSample(20 * MILLIS, limit.limit(), false);
+        }
+        assertTrue(String.valueOf(limit.limit()), limit.limit() < 40);
+        // 拒绝时乘性减，不低于 minLimit
+        int before = limit.limit();
+        limit.onSample(0, 0, true);
+        assertTrue(limit.limit() < before && limit.limit() >= (int) (before * 0.9));
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(0, 0, true);
+        }
+        assertEquals(1, limit.limit());
+    }
+
+    @Test
+    public void queuesThenRejects() throws Exception {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            ConcurrencyLimiter limiter = ConcurrencyLimiter.builder()
+                    .setInitialLimit(2).setMinLimit(2).setMaxLimit(2)
+                    .setMaxQueue(1)
+                    .setMaxWait(TimeValue.timeValueMillis(50))
+                    .build("test", timer);
+            AtomicInteger started = new AtomicInteger();
+            List<RejectedExecutionException> rejections = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                limiter.submit(started::incrementAndGet, rejections::add);
+            }
+            assertEquals(2, started.get());
+            assertEquals(1, limiter.queued());
+            // 队列已满，立即拒绝
+            assertEquals(1, rejections.size());
+            assertTrue(rejections.get(0).getMessage().contains("queue is full"));
+
+            limiter.release(MILLIS, ConcurrencyLimiter.Outcome.SUCCESS);
+            assertEquals(3, started.get());
+            assertEquals(0, limiter.queued());
+            assertEquals(2, limiter.inFlight());
+
+            // 排队超时
+            limiter.submit(started::incrementAndGet, rejections::add);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (limiter.queued() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, rejections.size());
+            assertTrue(rejections.get(1).getMessage().contains("queued longer than"));
+            assertEquals(2, limiter.rejected());
+            assertEquals(3, started.get());
+
+            limiter.release(MILLIS, ConcurrencyLimiter.Outcome.DROPPED);
+            assertEquals(1, limiter.dropped());
+            assertEquals(1, limiter.inFlight());
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+}
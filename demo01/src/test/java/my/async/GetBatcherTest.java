@@ -0,0 +1,83 @@
+package my.async;
+
+import my.stub.StubCluster;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.core.TimeValue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GetBatcherTest {
+
+    @Test
+    public void mergesGetsWithinWindow() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()));
+             GetBatcher batcher = new GetBatcher(client, TimeValue.timeValueMillis(200), 100)) {
+            for (int i = 0; i < 4; i++) {
+                cluster.store().put("idx", String.valueOf(i), Collections.singletonMap("n", i));
+            }
+            List<CompletableFuture<GetResponse>> futures = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                futures.add(batcher.get(new GetRequest("idx", String.valueOf(i))));
+            }
+            for (int i = 0; i < 4; i++) {
+                GetResponse response = futures.get(i).get(5, TimeUnit.SECONDS);
+                assertEquals(String.valueOf(i), response.getId());
+                assertEquals(i, response.getSource().get("n"));
+            }
+            assertFalse(futures.get(4).get(5, TimeUnit.SECONDS).isExists());
+            assertEquals(1, batcher.batches());
+            assertEquals(5, batcher.batchedGets());
+
+            // 攒够 maxBatchSize 条时不等窗口
+            try (GetBatcher small = new GetBatcher(client, TimeValue.timeValueSeconds(30), 2)) {
+                CompletableFuture<GetResponse> first = small.get(new GetRequest("idx", "0"));
+                CompletableFuture<GetResponse> second = small.get(new GetRequest("idx", "1"));
+                assertTrue(first.get(5, TimeUnit.SECONDS).isExists());
+                assertTrue(second.get(5, TimeUnit.SECONDS).isExists());
+                assertEquals(1, small.batches());
+            }
+        }
+    }
+
+    @Test
+    public void closeSendsPendingAndFailsLaterGets() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            cluster.store().put("idx", "1", Collections.singletonMap("title", "batched"));
+            GetBatcher batcher = new GetBatcher(client, TimeValue.timeValueSeconds(30), 100);
+            CompletableFuture<GetResponse> first = batcher.get(new GetRequest("idx", "1"));
+            CompletableFuture<GetResponse> second = batcher.get(new GetRequest("idx", "1"));
+            batcher.close();
+            // 窗口未到，close 时发出
+            assertEquals("batched", first.get(5, TimeUnit.SECONDS).getSource().get("title"));
+            assertEquals("batched", second.get(5, TimeUnit.SECONDS).getSource().get("title"));
+
+            assertClosed(batcher.get(new GetRequest("idx", "1")));
+            assertClosed(batcher.get(new GetRequest("idx", "1").preference("_local")));
+        }
+    }
+
+    private static void assertClosed(CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
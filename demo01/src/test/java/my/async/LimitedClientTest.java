@@ -0,0 +1,94 @@
+package my.async;
+
+import my.stub.StubCluster;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LimitedClientTest {
+
+    @Test
+    public void classifiesOutcomes() {
+        assertEquals(ConcurrencyLimiter.Outcome.DROPPED, LimitedClient.failureOutcome(
+                new ElasticsearchStatusException("rejected", RestStatus.TOO_MANY_REQUESTS)));
+        assertEquals(ConcurrencyLimiter.Outcome.DROPPED, LimitedClient.failureOutcome(
+                new ElasticsearchStatusException("timeout", RestStatus.INTERNAL_SERVER_ERROR, new SocketTimeoutException())));
+        assertEquals(ConcurrencyLimiter.Outcome.IGNORED, LimitedClient.failureOutcome(
+                new ElasticsearchStatusException("missing", RestStatus.NOT_FOUND)));
+        assertEquals(ConcurrencyLimiter.Outcome.SUCCESS, LimitedClient.responseOutcome("ok"));
+    }
+
+    @Test
+    public void rejectionsShrinkLimit() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()));
+             LimitedClient limited = LimitedClient.builder(client).build()) {
+            cluster.store().put("idx", "1", Collections.singletonMap("title", "limited"));
+            limited.search(new SearchRequest("idx")).get(5, TimeUnit.SECONDS);
+            ConcurrencyLimiter search = limited.limiter(LimitedClient.Operation.SEARCH);
+            assertEquals(20, search.limit());
+
+            cluster.faults().setRejectionRate(1);
+            for (int i = 0; i < 20; i++) {
+                try {
+                    limited.search(new SearchRequest("idx")).get(5, TimeUnit.SECONDS);
+                    fail();
+                } catch (ExecutionException e) {
+                    assertEquals(RestStatus.TOO_MANY_REQUESTS, ((ElasticsearchStatusException) e.getCause()).status());
+                }
+            }
+            assertEquals(20, search.dropped());
+            assertTrue(search.toString(), search.limit() < 5);
+            // 其他类别不受影响
+            assertEquals(20, limited.limiter(LimitedClient.Operation.GET).limit());
+        }
+    }
+
+    @Test
+    public void closeFailsInFlightAndQueuedRequests() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            LimitedClient limited = LimitedClient.builder(client)
+                    .setLimiter(LimitedClient.Operation.SEARCH, ConcurrencyLimiter.builder().setInitialLimit(1))
+                    .build();
+            limited.search(new SearchRequest("idx")).get(5, TimeUnit.SECONDS);
+            cluster.node(0).hang();
+            try {
+                CompletableFuture<SearchResponse> inFlight = limited.search(new SearchRequest("idx"));
+                CompletableFuture<SearchResponse> queued = limited.search(new SearchRequest("idx"));
+                assertEquals(1, limited.limiter(LimitedClient.Operation.SEARCH).queued());
+
+                limited.close();
+                assertFailed(inFlight, IllegalStateException.class);
+                assertFailed(queued, RejectedExecutionException.class);
+                assertFailed(limited.search(new SearchRequest("idx")), RejectedExecutionException.class);
+            } finally {
+                cluster.node(0).resume();
+            }
+        }
+    }
+
+    private static void assertFailed(CompletableFuture<?> future, Class<? extends Exception> type) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), type.isInstance(e.getCause()));
+        }
+    }
+}
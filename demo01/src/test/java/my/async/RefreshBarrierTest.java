@@ -0,0 +1,117 @@
+package my.async;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RefreshBarrierTest {
+
+    @Test
+    public void waitsForCheckpointThenRefreshOnEveryCopy() {
+        RefreshBarrier.ShardState state = new RefreshBarrier.ShardState();
+        RefreshBarrier.Waiter first = waiter(state, 10, 0);
+        RefreshBarrier.Waiter second = waiter(state, 12, 0);
+
+        // 副本还没处理到 seq_no 10，不能开始计数
+        assertTrue(state.onStats(copies(9, 5, 10, 7)).isEmpty());
+        // 两个副本都处理到了 11：记下 refresh 次数
+        assertTrue(state.onStats(copies(11, 5, 11, 7)).isEmpty());
+        // 只有主分片 refresh 过，副本上还搜不到
+        assertTrue(state.onStats(copies(12, 6, 12, 7)).isEmpty());
+        // 各 refresh 一次还不够：这次 refresh 可能在记录前就已开始
+        assertTrue(state.onStats(copies(12, 6, 12, 8)).isEmpty());
+        List<RefreshBarrier.Waiter> done = state.onStats(copies(12, 7, 12, 9));
+        assertEquals(Arrays.asList(first), done);
+        assertEquals(Arrays.asList(second), state.waiters);
+
+        // 这次 stats 同时作为 seq_no 12 的起点
+        assertTrue(state.onStats(copies(12, 8, 12, 10)).isEmpty());
+        assertEquals(Arrays.asList(second), state.onStats(copies(12, 9, 12, 11)));
+        assertTrue(state.waiters.isEmpty());
+    }
+
+    @Test
+    public void restartsWhenCopiesChange() {
+        RefreshBarrier.ShardState state = new RefreshBarrier.ShardState();
+        waiter(state, 3, 0);
+        state.onStats(copies(3, 1, 3, 1));
+        Map<String, long[]> moved = new HashMap<>();
+        moved.put("node-1[p]", new long[] {3, 2});
+        moved.put("node-3[r]", new long[] {3, 9});
+        assertTrue(state.onStats(moved).isEmpty());
+        Map<String, long[]> refreshed = new HashMap<>();
+        refreshed.put("node-1[p]", new long[] {3, 4});
+        refreshed.put("node-3[r]", new long[] {3, 11});
+        assertEquals(1, state.onStats(refreshed).size());
+    }
+
+    @Test
+    public void sharedRefreshCompletesEarlierWrites() {
+        RefreshBarrier.ShardState state = new RefreshBarrier.ShardState();
+        RefreshBarrier.Waiter before = waiter(state, 1, 100);
+        RefreshBarrier.Waiter after = waiter(state, 2, 300);
+        assertEquals(Arrays.asList(before), RefreshBarrier.ShardState.before(state.waiters, 200));
+        assertEquals(Arrays.asList(after), state.waiters);
+    }
+
+    @Test
+    public void parsesShardLevelStats() {
+        Map<String, Object> primary = copy("node-1", true, "STARTED", 41, 17L);
+        Map<String, Object> replica = copy("node-2", false, "STARTED", 40, null);
+        Map<String, Object> initializing = copy("node-3", false, "INITIALIZING", -1, 0L);
+        Map<String, Object> shards = new HashMap<>();
+        shards.put("0", Arrays.asList(primary, replica, initializing));
+        Map<String, Object> index = new HashMap<>();
+        index.put("shards", shards);
+        Map<String, Object> body = new HashMap<>();
+        body.put("indices", Collections.singletonMap("java-api-demo-idx", index));
+
+        Map<String, long[]> copies = RefreshBarrier.parseStats(body).get("java-api-demo-idx").get(0);
+        assertEquals(2, copies.size());
+        assertArrayEquals(new long[] {41, 17}, copies.get("node-1[p]"));
+        // 没有 external_total 时退回 total
+        assertArrayEquals(new long[] {40, 30}, copies.get("node-2[r]"));
+        assertFalse(copies.containsKey("node-3[r]"));
+    }
+
+    private static RefreshBarrier.Waiter waiter(RefreshBarrier.ShardState state, long seqNo, long ackNanos) {
+        RefreshBarrier.Waiter waiter = new RefreshBarrier.Waiter("1", null, seqNo, ackNanos, new CompletableFuture<>());
+        state.waiters.add(waiter);
+        return waiter;
+    }
+
+    private static Map<String, long[]> copies(long primaryCheckpoint, long primaryRefreshes,
+                                              long replicaCheckpoint, long replicaRefreshes) {
+        Map<String, long[]> copies = new HashMap<>();
+        copies.put("node-1[p]", new long[] {primaryCheckpoint, primaryRefreshes});
+        copies.put("node-2[r]", new long[] {replicaCheckpoint, replicaRefreshes});
+        return copies;
+    }
+
+    private static Map<String, Object> copy(String node, boolean primary, String state, long checkpoint, Long external) {
+        Map<String, Object> routing = new HashMap<>();
+        routing.put("node", node);
+        routing.put("primary", primary);
+        routing.put("state", state);
+        Map<String, Object> refresh = new HashMap<>();
+        refresh.put("total", 30);
+        if (external != null) {
+            refresh.put("external_total", external);
+        }
+        Map<String, Object> copy = new HashMap<>();
+        copy.put("routing", routing);
+        copy.put("refresh", refresh);
+        copy.put("seq_no", Collections.singletonMap("local_checkpoint", checkpoint));
+        return copy;
+    }
+}
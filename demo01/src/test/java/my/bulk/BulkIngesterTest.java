@@ -0,0 +1,241 @@
+package my.bulk;
+
+import my.stub.StubCluster;
+import org.apache.http.HttpRequestInterceptor;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BulkIngesterTest {
+
+    private static final String INDEX = "java-api-demo-idx";
+
+    @Test
+    public void awaitCloseIsBoundedWhenNoSlotFrees() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            Map<Integer, Throwable> failures = new ConcurrentHashMap<>();
+            BulkIngester ingester = BulkIngester.builder(client, new BulkProcessor.Listener() {
+                @Override
+                public void beforeBulk(long executionId, BulkRequest request) {
+                }
+
+                @Override
+                public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                }
+
+                @Override
+                public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                    failures.put(request.numberOfActions(), failure);
+                }
+            }).setBatchActions(2, 2, 2).setConcurrentRequests(1).build();
+            cluster.node(0).hang();
+            try {
+                // 前两条立即发送并挂住，占满唯一的许可；第三条留在未满的批次里
+                for (int i = 0; i < 3; i++) {
+                    ingester.add(new IndexRequest(INDEX).id(String.valueOf(i)).source(XContentType.JSON, "n", i));
+                }
+                long start = System.nanoTime();
+                assertFalse(ingester.awaitClose(200, TimeUnit.MILLISECONDS));
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+                assertTrue(String.valueOf(failures.get(1)), failures.get(1) instanceof TimeoutException);
+                assertEquals(1, failures.size());
+            } finally {
+                cluster.node(0).resume();
+            }
+        }
+    }
+
+    @Test
+    public void retriesRejectedItemsWithBackoff() throws Exception {
+        List<Long> bulkTimes = new CopyOnWriteArrayList<>();
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts())
+                     .setHttpClientConfigCallback(builder -> builder.addInterceptorFirst((HttpRequestInterceptor) (request, context) -> {
+                         if (request.getRequestLine().getUri().contains("_bulk")) {
+                             bulkTimes.add(System.nanoTime());
+                         }
+                     })))) {
+            Recorder recorder = new Recorder();
+            BulkIngester ingester = BulkIngester.builder(client, recorder)
+                    .setBackoffPolicy(BackoffPolicy.constantBackoff(TimeValue.timeValueMillis(100), 20))
+                    .setBatchActions(20, 2, 20)
+                    .setConcurrentRequests(1)
+                    .setFlushInterval(null)
+                    .build();
+            cluster.faults().setItemRejectionRate(0.5);
+            for (int i = 0; i < 20; i++) {
+                ingester.add(new IndexRequest(INDEX).id(String.valueOf(i)).source(XContentType.JSON, "n", i));
+            }
+            assertTrue(ingester.awaitClose(30, TimeUnit.SECONDS));
+
+            assertTrue(cluster.faults().itemRejections() > 0);
+            assertEquals(20, cluster.store().count(INDEX));
+            // 重试后全部成功，listener 只收到一次完整结果
+            assertEquals(1, recorder.responses.size());
+            assertFalse(recorder.responses.get(0).hasFailures());
+            assertEquals(20, recorder.responses.get(0).getItems().length);
+            // 每次重试之间至少间隔一个退避时长
+            assertTrue(bulkTimes.size() > 1);
+            for (int i = 1; i < bulkTimes.size(); i++) {
+                assertTrue(bulkTimes.get(i) - bulkTimes.get(i - 1) >= TimeUnit.MILLISECONDS.toNanos(90));
+            }
+            // 被拒绝时批次减半（20 -> 10），之后每次快速的重试再加一
+            assertTrue(ingester.currentBatchActions() < 20);
+        }
+    }
+
+    @Test
+    public void otherFailuresAreNotRetried() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            cluster.store().put(INDEX, "1", Collections.singletonMap("n", 0));
+            client.info(RequestOptions.DEFAULT);
+            Recorder recorder = new Recorder();
+            BulkIngester ingester = BulkIngester.builder(client, recorder)
+                    .setBackoffPolicy(BackoffPolicy.constantBackoff(TimeValue.timeValueMillis(10), 20))
+                    .setBatchActions(2, 1, 2)
+                    .setConcurrentRequests(1)
+                    .setFlushInterval(null)
+                    .build();
+            long before = cluster.requests();
+            // 条目级 404 不重试
+            ingester.add(new UpdateRequest(INDEX, "missing").doc(XContentType.JSON, "n", 1));
+            ingester.add(new IndexRequest(INDEX).id("2").source(XContentType.JSON, "n", 2));
+            awaitIdle(ingester);
+            // 整个请求失败（500）也不重试
+            cluster.faults().setErrorRate(1, 500);
+            ingester.add(new IndexRequest(INDEX).id("a").source(XContentType.JSON, "n", 3));
+            ingester.add(new IndexRequest(INDEX).id("b").source(XContentType.JSON, "n", 4));
+            assertTrue(ingester.awaitClose(30, TimeUnit.SECONDS));
+
+            assertEquals(2, cluster.requests() - before);
+            assertEquals(1, recorder.responses.size());
+            BulkItemResponse[] items = recorder.responses.get(0).getItems();
+            assertEquals(RestStatus.NOT_FOUND, items[0].getFailure().getStatus());
+            assertFalse(items[1].isFailed());
+            assertEquals(1, recorder.failures.size());
+            assertNull(cluster.store().source(INDEX, "a"));
+        }
+    }
+
+    @Test
+    public void batchSizeFollowsLatency() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            client.info(RequestOptions.DEFAULT);
+            BulkIngester ingester = BulkIngester.builder(client, new Recorder())
+                    .setBatchActions(10, 2, 1000)
+                    .setTargetLatency(TimeValue.timeValueMillis(200))
+                    .setConcurrentRequests(1)
+                    .setFlushInterval(null)
+                    .build();
+            // 每批恰好攒满当前的批次大小，等它完成后再按调整后的大小攒下一批
+            int id = 0;
+            for (int batch = 0; batch < 5; batch++) {
+                int size = ingester.currentBatchActions();
+                for (int i = 0; i < size; i++) {
+                    ingester.add(new IndexRequest(INDEX).id(String.valueOf(id++)).source(XContentType.JSON, "n", i));
+                }
+                awaitIdle(ingester);
+            }
+            // 快的批次加性增长：10 -> 11 -> 12 -> 13 -> 14 -> 15
+            assertEquals(15, ingester.currentBatchActions());
+
+            cluster.faults().setLatency(TimeValue.timeValueMillis(400));
+            for (int batch = 0; batch < 3; batch++) {
+                int size = ingester.currentBatchActions();
+                for (int i = 0; i < size; i++) {
+                    ingester.add(new IndexRequest(INDEX).id(String.valueOf(id++)).source(XContentType.JSON, "n", i));
+                }
+                awaitIdle(ingester);
+            }
+            // 慢的批次减半：15 -> 7 -> 3 -> 2（不低于下限）
+            assertEquals(2, ingester.currentBatchActions());
+            assertTrue(ingester.awaitClose(30, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void batchesAreCutByBytes() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            Recorder recorder = new Recorder();
+            BulkIngester ingester = BulkIngester.builder(client, recorder)
+                    .setBatchActions(1000, 1000, 1000)
+                    .setMaxBytes(1024)
+                    .setFlushInterval(null)
+                    .build();
+            char[] padding = new char[200];
+            Arrays.fill(padding, 'x');
+            for (int i = 0; i < 20; i++) {
+                ingester.add(new IndexRequest(INDEX).id(String.valueOf(i)).source(XContentType.JSON, "text", new String(padding)));
+            }
+            assertTrue(ingester.awaitClose(30, TimeUnit.SECONDS));
+
+            assertEquals(20, cluster.store().count(INDEX));
+            assertTrue(recorder.requests.size() > 1);
+            int total = 0;
+            for (BulkRequest request : recorder.requests) {
+                total += request.numberOfActions();
+                // 累计超过 maxBytes 的那一条触发发送，批次不会比 maxBytes 多出一条以上
+                assertTrue(request.estimatedSizeInBytes() < 1024 + 300);
+            }
+            assertEquals(20, total);
+        }
+    }
+
+    private static void awaitIdle(BulkIngester ingester) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (ingester.inFlightRequests() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, ingester.inFlightRequests());
+    }
+
+    private static class Recorder implements BulkProcessor.Listener {
+        final List<BulkRequest> requests = new CopyOnWriteArrayList<>();
+        final List<BulkResponse> responses = new CopyOnWriteArrayList<>();
+        final List<Throwable> failures = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+            requests.add(request);
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            responses.add(response);
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            failures.add(failure);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package my.bulk;
+
+import my.stub.StubCluster;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.config.RequestConfig;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetMappingsRequest;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.core.TimeValue;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BulkLoadSessionTest {
+
+    private static final String INDEX = "java-api-demo-idx";
+
+    @Test
+    public void switchesSettingsWhileLoadingAndRestoresOnClose() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            CreateIndexRequest create = new CreateIndexRequest(INDEX)
+                    .settings(Settings.builder().put("index.number_of_replicas", 2).put("index.refresh_interval", "5s"))
+                    .mapping(Collections.singletonMap("_meta", Collections.singletonMap("owner", "demo")));
+            try (BulkLoadSession session = BulkLoadSession.builder(client, INDEX, BulkIngester.builder(client, listener()))
+                    .setCreateIndexRequest(create)
+                    .setShutdownHook(false)
+                    .open()) {
+                assertFalse(session.recovered());
+                assertEquals("2", session.originalSettings().get("index.number_of_replicas"));
+                assertEquals("0", cluster.store().setting(INDEX, "index.number_of_replicas"));
+                assertEquals("-1", cluster.store().setting(INDEX, "index.refresh_interval"));
+                assertTrue(meta(client).containsKey(BulkLoadSession.META_KEY));
+                for (int i = 0; i < 100; i++) {
+                    session.add(new IndexRequest(INDEX).id(String.valueOf(i))
+                            .source(XContentType.JSON, "author", "王五", "salary", 56000.0 + i));
+                }
+            }
+            assertEquals(100, cluster.store().count(INDEX));
+            assertEquals("2", cluster.store().setting(INDEX, "index.number_of_replicas"));
+            assertEquals("5s", cluster.store().setting(INDEX, "index.refresh_interval"));
+            assertEquals(1, cluster.store().forceMerges(INDEX));
+            assertEquals(Collections.singletonMap("owner", "demo"), meta(client));
+        }
+    }
+
+    @Test
+    public void recoversOriginalSettingsAfterCrash() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            client.indices().create(new CreateIndexRequest(INDEX), RequestOptions.DEFAULT);
+            // 模拟加载进程崩溃：不关闭会话
+            BulkLoadSession crashed = BulkLoadSession.builder(client, INDEX, BulkIngester.builder(client, listener()))
+                    .setShutdownHook(false)
+                    .open();
+            assertNull(crashed.originalSettings().get("index.refresh_interval"));
+            assertEquals("-1", cluster.store().setting(INDEX, "index.refresh_interval"));
+
+            // 重新打开时原设置取自标记，而不是当前的导入设置
+            BulkLoadSession resumed = BulkLoadSession.builder(client, INDEX, BulkIngester.builder(client, listener()))
+                    .setMaxNumSegments(0)
+                    .setShutdownHook(false)
+                    .open();
+            assertTrue(resumed.recovered());
+            assertEquals("1", resumed.originalSettings().get("index.number_of_replicas"));
+            resumed.close();
+            assertEquals("1", cluster.store().setting(INDEX, "index.number_of_replicas"));
+            assertNull(cluster.store().setting(INDEX, "index.refresh_interval"));
+            assertEquals(0, cluster.store().forceMerges(INDEX));
+            assertFalse(BulkLoadSession.recover(client, INDEX, RequestOptions.DEFAULT));
+
+            BulkLoadSession.builder(client, INDEX, BulkIngester.builder(client, listener()))
+                    .setShutdownHook(false)
+                    .open();
+            assertTrue(BulkLoadSession.recover(client, INDEX, RequestOptions.DEFAULT));
+            assertEquals("1", cluster.store().setting(INDEX, "index.number_of_replicas"));
+            assertTrue(meta(client).isEmpty());
+        }
+    }
+
+    @Test
+    public void recoveryRecordsSettingsMissingFromMarker() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            client.indices().create(new CreateIndexRequest(INDEX)
+                    .settings(Settings.builder().put("index.gc_deletes", "5m")), RequestOptions.DEFAULT);
+            BulkLoadSession.builder(client, INDEX, BulkIngester.builder(client, listener()))
+                    .setShutdownHook(false)
+                    .open();
+
+            // 崩溃后重新打开时多了一个导入设置，它的原值取当前值
+            BulkLoadSession resumed = BulkLoadSession.builder(client, INDEX, BulkIngester.builder(client, listener()))
+                    .setLoadSetting("index.gc_deletes", "1h")
+                    .setMaxNumSegments(0)
+                    .setShutdownHook(false)
+                    .open();
+            assertTrue(resumed.recovered());
+            assertEquals("5m", resumed.originalSettings().get("index.gc_deletes"));
+            assertEquals("1h", cluster.store().setting(INDEX, "index.gc_deletes"));
+            assertEquals("5m", castMap(meta(client).get(BulkLoadSession.META_KEY)).get("index.gc_deletes"));
+            resumed.close();
+            assertEquals("5m", cluster.store().setting(INDEX, "index.gc_deletes"));
+            assertEquals("1", cluster.store().setting(INDEX, "index.number_of_replicas"));
+        }
+    }
+
+    @Test
+    public void restoresSettingsWhenForceMergeFails() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts())
+                     .setHttpClientConfigCallback(builder -> builder.addInterceptorFirst((HttpRequestInterceptor) (request, context) -> {
+                         if (request.getRequestLine().getUri().contains("_forcemerge")) {
+                             throw new IOException("force merge refused");
+                         }
+                     })))) {
+            BulkLoadSession session = BulkLoadSession.builder(client, INDEX, BulkIngester.builder(client, listener()))
+                    .setCreateIndexRequest(new CreateIndexRequest(INDEX))
+                    .setShutdownHook(false)
+                    .open();
+            session.add(new IndexRequest(INDEX).id("1").source(XContentType.JSON, "author", "王五"));
+            try {
+                session.close();
+                fail("expected force merge failure");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("force merge refused"));
+            }
+            assertEquals(1, cluster.store().count(INDEX));
+            assertEquals("1", cluster.store().setting(INDEX, "index.number_of_replicas"));
+            assertNull(cluster.store().setting(INDEX, "index.refresh_interval"));
+            assertTrue(meta(client).isEmpty());
+        }
+    }
+
+    @Test
+    public void skipsForceMergeWhenWritesDoNotDrain() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().setNodes(2).build();
+             RestHighLevelClient admin = new RestHighLevelClient(RestClient.builder(cluster.hosts()[1]));
+             RestHighLevelClient writer = new RestHighLevelClient(RestClient.builder(cluster.hosts()[0])
+                     .setRequestConfigCallback(config -> config.setSocketTimeout(60_000)))) {
+            BulkLoadSession session = BulkLoadSession.builder(admin, INDEX, BulkIngester.builder(writer, ignoringListener())
+                            .setBatchActions(1, 1, 1).setConcurrentRequests(1))
+                    .setCreateIndexRequest(new CreateIndexRequest(INDEX))
+                    .setCloseTimeout(TimeValue.timeValueMillis(200))
+                    .setShutdownHook(false)
+                    .open();
+            cluster.node(0).hang();
+            try {
+                session.add(new IndexRequest(INDEX).id("1").source(XContentType.JSON, "author", "王五"));
+                long start = System.nanoTime();
+                try {
+                    session.close();
+                    fail("expected drain timeout");
+                } catch (IllegalStateException e) {
+                    assertTrue(e.getMessage(), e.getMessage().contains("did not finish"));
+                }
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+                assertEquals(0, cluster.store().forceMerges(INDEX));
+                assertNull(cluster.store().setting(INDEX, "index.refresh_interval"));
+                assertTrue(meta(admin).isEmpty());
+            } finally {
+                cluster.node(0).resume();
+            }
+        }
+    }
+
+    @Test
+    public void longRequestsKeepConnectTimeouts() {
+        TimeValue closeTimeout = TimeValue.timeValueMinutes(1);
+        RequestConfig config = BulkLoadSession.longRequestConfig(RequestConfig.custom()
+                .setConnectTimeout(500).setConnectionRequestTimeout(200).setSocketTimeout(1000).build(), closeTimeout);
+        assertEquals(500, config.getConnectTimeout());
+        assertEquals(200, config.getConnectionRequestTimeout());
+        assertEquals(120_000, config.getSocketTimeout());
+        config = BulkLoadSession.longRequestConfig(null, closeTimeout);
+        assertEquals(RestClientBuilder.DEFAULT_CONNECT_TIMEOUT_MILLIS, config.getConnectTimeout());
+        assertEquals(120_000, config.getSocketTimeout());
+    }
+
+    private static Map<String, Object> meta(RestHighLevelClient client) throws IOException {
+        Object meta = client.indices().getMapping(new GetMappingsRequest().indices(INDEX), RequestOptions.DEFAULT)
+                .mappings().get(INDEX).getSourceAsMap().get("_meta");
+        return meta == null ? Collections.emptyMap() : castMap(meta);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> castMap(Object value) {
+        return (Map<String, Object>) value;
+    }
+
+    // 挂起的写入在 resume 时以连接断开结束
+    private static BulkProcessor.Listener ignoringListener() {
+        return new BulkProcessor.Listener() {
+            @Override
+            public void beforeBulk(long executionId, BulkRequest request) {
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            }
+        };
+    }
+
+    private static BulkProcessor.Listener listener() {
+        return new BulkProcessor.Listener() {
+            @Override
+            public void beforeBulk(long executionId, BulkRequest request) {
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                assertFalse(response.buildFailureMessage(), response.hasFailures());
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                throw new AssertionError(failure);
+            }
+        };
+    }
+}
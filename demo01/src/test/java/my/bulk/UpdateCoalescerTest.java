@@ -0,0 +1,181 @@
+package my.bulk;
+
+import my.stub.StubCluster;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.script.Script;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UpdateCoalescerTest {
+
+    @Test
+    public void mergesPartialDocsInOrder() {
+        Map<String, Object> address = new HashMap<>();
+        address.put("city", "北京");
+        address.put("zip", "100000");
+        UpdateCoalescer.Pending pending = pending(new UpdateRequest("idx", "1")
+                .doc("author", "李四", "count", 1, "address", address));
+        UpdateRequest second = new UpdateRequest("idx", "1")
+                .doc("count", 2, "address", Collections.singletonMap("zip", "100001"))
+                .setRefreshPolicy(WriteRequest.RefreshPolicy.WAIT_UNTIL);
+        assertTrue(pending.canMerge(second));
+        pending.merge(second, new CompletableFuture<>());
+
+        UpdateRequest merged = pending.toRequest(3);
+        Map<String, Object> doc = merged.doc().sourceAsMap();
+        assertEquals("李四", doc.get("author"));
+        assertEquals(2, doc.get("count"));
+        assertEquals("北京", ((Map<?, ?>) doc.get("address")).get("city"));
+        assertEquals("100001", ((Map<?, ?>) doc.get("address")).get("zip"));
+        assertEquals(WriteRequest.RefreshPolicy.NONE, merged.getRefreshPolicy());
+        assertEquals(WriteRequest.RefreshPolicy.WAIT_UNTIL, pending.refreshPolicy);
+        assertEquals(3, merged.retryOnConflict());
+        assertEquals(2, pending.callers.size());
+    }
+
+    @Test
+    public void singleUpdateIsCopied() {
+        UpdateRequest request = new UpdateRequest("idx", "1").doc("count", 1).retryOnConflict(1)
+                .setRefreshPolicy(WriteRequest.RefreshPolicy.WAIT_UNTIL);
+        UpdateCoalescer.Pending pending = pending(request);
+        UpdateRequest sent = pending.toRequest(3);
+        assertNotSame(request, sent);
+        assertEquals(1, sent.doc().sourceAsMap().get("count"));
+        assertEquals(3, sent.retryOnConflict());
+        assertEquals(WriteRequest.RefreshPolicy.NONE, sent.getRefreshPolicy());
+        // 调用方的请求不变
+        assertEquals(1, request.retryOnConflict());
+        assertEquals(WriteRequest.RefreshPolicy.WAIT_UNTIL, request.getRefreshPolicy());
+    }
+
+    @Test
+    public void immediateIsStrongestRefreshPolicy() {
+        assertEquals(WriteRequest.RefreshPolicy.IMMEDIATE, UpdateCoalescer.stronger(
+                WriteRequest.RefreshPolicy.IMMEDIATE, WriteRequest.RefreshPolicy.WAIT_UNTIL));
+        assertEquals(WriteRequest.RefreshPolicy.IMMEDIATE, UpdateCoalescer.stronger(
+                WriteRequest.RefreshPolicy.WAIT_UNTIL, WriteRequest.RefreshPolicy.IMMEDIATE));
+        assertEquals(WriteRequest.RefreshPolicy.WAIT_UNTIL, UpdateCoalescer.stronger(
+                WriteRequest.RefreshPolicy.NONE, WriteRequest.RefreshPolicy.WAIT_UNTIL));
+    }
+
+    @Test
+    public void sendsBatchWithRefreshPolicyOnBulk() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            cluster.store().put("idx", "1", Collections.singletonMap("count", 0));
+            cluster.store().put("idx", "2", Collections.singletonMap("count", 0));
+            UpdateRequest waiting = new UpdateRequest("idx", "1").doc("count", 1)
+                    .setRefreshPolicy(WriteRequest.RefreshPolicy.WAIT_UNTIL);
+            try (UpdateCoalescer coalescer = UpdateCoalescer.builder(client)
+                    .setWindow(TimeValue.timeValueSeconds(60))
+                    .build()) {
+                CompletableFuture<UpdateResponse> first = coalescer.update(waiting);
+                CompletableFuture<UpdateResponse> merged = coalescer.update(new UpdateRequest("idx", "1").doc("author", "李四"));
+                CompletableFuture<UpdateResponse> other = coalescer.update(new UpdateRequest("idx", "2").doc("count", 2));
+                coalescer.flush().get(5, TimeUnit.SECONDS);
+                assertSame(first.get(), merged.get());
+                assertEquals(DocWriteResponse.Result.UPDATED, first.get().getResult());
+                assertEquals(DocWriteResponse.Result.UPDATED, other.get().getResult());
+                assertEquals(1, coalescer.batches());
+            }
+            assertEquals(1, cluster.store().source("idx", "1").get("count"));
+            assertEquals("李四", cluster.store().source("idx", "1").get("author"));
+            assertEquals(2, cluster.store().source("idx", "2").get("count"));
+            assertEquals(WriteRequest.RefreshPolicy.WAIT_UNTIL, waiting.getRefreshPolicy());
+            assertEquals(0, waiting.retryOnConflict());
+        }
+    }
+
+    @Test
+    public void upsertReceivesLaterPartials() {
+        UpdateCoalescer.Pending pending = pending(new UpdateRequest("idx", "2")
+                .upsert("author", "lisi", "count", 0)
+                .doc("author", "lisi"));
+        // 后一次也是 upsert：文档不存在时由第一次的 upsert 创建，后一次的 upsert 不会生效
+        UpdateRequest second = new UpdateRequest("idx", "2").upsert("count", 100).doc("count", 1);
+        assertTrue(pending.canMerge(second));
+        pending.merge(second, new CompletableFuture<>());
+
+        UpdateRequest merged = pending.toRequest(0);
+        assertEquals(1, merged.upsertRequest().sourceAsMap().get("count"));
+        assertEquals("lisi", merged.upsertRequest().sourceAsMap().get("author"));
+        assertEquals(1, merged.doc().sourceAsMap().get("count"));
+    }
+
+    @Test
+    public void refusesNonEquivalentMerges() {
+        UpdateCoalescer.Pending plain = pending(new UpdateRequest("idx", "1").doc("count", 1));
+        // 前一次在文档不存在时会失败，后一次会创建文档，合并后结果不同
+        assertFalse(plain.canMerge(new UpdateRequest("idx", "1").doc("count", 2).docAsUpsert(true)));
+        assertFalse(plain.canMerge(new UpdateRequest("idx", "1").script(new Script("ctx._source.count++"))));
+        assertFalse(plain.canMerge(new UpdateRequest("idx", "1").doc("count", 2).setIfSeqNo(3).setIfPrimaryTerm(1)));
+        assertTrue(plain.canMerge(new UpdateRequest("idx", "1").doc("count", 2)));
+
+        UpdateCoalescer.Pending upsert = pending(new UpdateRequest("idx", "1").doc("count", 1).docAsUpsert(true));
+        assertTrue(upsert.canMerge(new UpdateRequest("idx", "1").doc("count", 2).docAsUpsert(true)));
+    }
+
+    @Test
+    public void awaitCloseFailsInFlightUpdatesOnTimeout() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            cluster.store().put("idx", "1", Collections.singletonMap("count", 0));
+            UpdateCoalescer coalescer = UpdateCoalescer.builder(client)
+                    .setWindow(TimeValue.timeValueSeconds(60))
+                    .setTimeout(TimeValue.timeValueSeconds(30))
+                    .build();
+            // 先完成版本校验，之后挂住的只有 bulk 请求
+            coalescer.update(new UpdateRequest("idx", "1").doc("count", 1));
+            coalescer.flush().get(5, TimeUnit.SECONDS);
+            cluster.node(0).hang();
+            try {
+                CompletableFuture<UpdateResponse> inFlight = coalescer.update(new UpdateRequest("idx", "1").doc("count", 2));
+                coalescer.flush();
+                // 同一文档的后续更新排在在途的更新之后
+                CompletableFuture<UpdateResponse> queued = coalescer.update(
+                        new UpdateRequest("idx", "1").script(new Script("ctx._source.count += 1")));
+                assertEquals(2, coalescer.pending());
+
+                long start = System.nanoTime();
+                assertFalse(coalescer.awaitClose(200, TimeUnit.MILLISECONDS));
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+                assertClosed(inFlight);
+                assertClosed(queued);
+            } finally {
+                cluster.node(0).resume();
+            }
+        }
+    }
+
+    private static void assertClosed(CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private static UpdateCoalescer.Pending pending(UpdateRequest request) {
+        return new UpdateCoalescer.Pending("key", request, new CompletableFuture<UpdateResponse>());
+    }
+}
@@ -0,0 +1,148 @@
+package my.cache;
+
+import my.stub.StubCluster;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BloomExistsClientTest {
+
+    private static final String INDEX = "java-api-demo-idx";
+
+    @Test
+    public void countingFilterHasNoFalseNegativesAndSupportsRemoval() {
+        CountingBloomFilter filter = CountingBloomFilter.create(10_000, 0.01);
+        assertEquals(7, filter.numHashes());
+        for (int i = 0; i < 10_000; i++) {
+            filter.add("doc-" + i);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain("doc-" + i));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.mightContain("other-" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("falsePositives=" + falsePositives, falsePositives < 2000);
+
+        for (int i = 0; i < 5000; i++) {
+            filter.remove("doc-" + i);
+        }
+        assertEquals(5000, filter.size());
+        for (int i = 5000; i < 10_000; i++) {
+            assertTrue(filter.mightContain("doc-" + i));
+        }
+        int stillPresent = 0;
+        for (int i = 0; i < 5000; i++) {
+            if (filter.mightContain("doc-" + i)) {
+                stillPresent++;
+            }
+        }
+        assertTrue("stillPresent=" + stillPresent, stillPresent < 100);
+    }
+
+    @Test
+    public void answersDefiniteMissesLocally() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            BulkRequest bulk = new BulkRequest().setRefreshPolicy("true");
+            for (int i = 0; i < 500; i++) {
+                bulk.add(new IndexRequest(INDEX).id(String.valueOf(i)).source(XContentType.JSON, "author", "王五"));
+            }
+            client.bulk(bulk, RequestOptions.DEFAULT);
+            try (BloomExistsClient exists = BloomExistsClient.builder(client, INDEX)
+                    .setSlices(3)
+                    .setPageSize(100)
+                    .build()) {
+                assertEquals(500, exists.size());
+                for (int i = 0; i < 500; i++) {
+                    assertTrue(exists.exists(new GetRequest(INDEX, String.valueOf(i)), RequestOptions.DEFAULT));
+                }
+                long requests = cluster.requests();
+                for (int i = 500; i < 1500; i++) {
+                    assertFalse(exists.exists(new GetRequest(INDEX, String.valueOf(i)), RequestOptions.DEFAULT));
+                }
+                assertEquals(500 + exists.falsePositives(), exists.remoteChecks());
+                assertEquals(1000, exists.localMisses() + exists.falsePositives());
+                assertTrue(exists.localMisses() > 900);
+                assertEquals(requests + exists.falsePositives(), cluster.requests());
+
+                // 通过本类的写入会更新过滤器
+                exists.index(new IndexRequest(INDEX).id("new").source(XContentType.JSON, "author", "赵六"), RequestOptions.DEFAULT);
+                assertTrue(exists.exists(new GetRequest(INDEX, "new"), RequestOptions.DEFAULT));
+                exists.delete(new DeleteRequest(INDEX, "new"), RequestOptions.DEFAULT);
+                assertFalse(exists.mightExist("new"));
+                assertEquals(500, exists.size());
+            }
+        }
+    }
+
+    @Test
+    public void reseedsWhenOverCapacity() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            client.index(new IndexRequest(INDEX).id("seed").source(XContentType.JSON, "n", 0), RequestOptions.DEFAULT);
+            try (BloomExistsClient exists = BloomExistsClient.builder(client, INDEX)
+                    .setExpectedDocuments(10)
+                    .build()) {
+                assertEquals(1, exists.reseeds());
+                for (int i = 0; i < 20; i++) {
+                    exists.index(new IndexRequest(INDEX).id(String.valueOf(i)).source(XContentType.JSON, "n", i),
+                            RequestOptions.DEFAULT);
+                }
+                long deadline = System.currentTimeMillis() + 10_000;
+                while (exists.reseeds() < 2 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                assertTrue(exists.reseeds() >= 2);
+                for (int i = 0; i < 20; i++) {
+                    assertTrue(exists.mightExist(String.valueOf(i)));
+                }
+                assertTrue(exists.mightExist("seed"));
+            }
+        }
+    }
+
+    @Test
+    public void deletingUnrecordedFalsePositiveKeepsOtherIds() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            BulkRequest bulk = new BulkRequest().setRefreshPolicy("true");
+            for (int i = 0; i < 100; i++) {
+                bulk.add(new IndexRequest(INDEX).id(String.valueOf(i)).source(XContentType.JSON, "n", i));
+            }
+            client.bulk(bulk, RequestOptions.DEFAULT);
+            try (BloomExistsClient exists = BloomExistsClient.builder(client, INDEX)
+                    .setExpectedDocuments(100)
+                    .setFalsePositiveProbability(0.1)
+                    .build()) {
+                // 找若干个误判为存在的 id，绕过本类写入后再经由本类删除
+                int deleted = 0;
+                for (int i = 100; deleted < 5; i++) {
+                    String id = "other-" + i;
+                    if (exists.mightExist(id)) {
+                        client.index(new IndexRequest(INDEX).id(id).source(XContentType.JSON, "n", i), RequestOptions.DEFAULT);
+                        exists.delete(new DeleteRequest(INDEX, id), RequestOptions.DEFAULT);
+                        deleted++;
+                    }
+                }
+                for (int i = 0; i < 100; i++) {
+                    assertTrue(String.valueOf(i), exists.mightExist(String.valueOf(i)));
+                }
+                assertEquals(100, exists.size());
+            }
+        }
+    }
+}
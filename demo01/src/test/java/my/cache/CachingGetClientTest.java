@@ -0,0 +1,117 @@
+package my.cache;
+
+import my.stub.StubCluster;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class CachingGetClientTest {
+
+    private static final String INDEX = "java-api-demo-idx";
+
+    @Test
+    public void writesInvalidateCachedReads() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            CachingGetClient cache = new CachingGetClient(client, 100);
+            cache.index(index("1", "王五"), RequestOptions.DEFAULT);
+            assertEquals("王五", author(cache, new GetRequest(INDEX, "1")));
+            assertEquals("王五", author(cache, new GetRequest(INDEX, "1")));
+            assertEquals(1, cache.hits());
+
+            cache.index(index("1", "赵六"), RequestOptions.DEFAULT);
+            assertEquals("赵六", author(cache, new GetRequest(INDEX, "1")));
+            assertEquals(1, cache.hits());
+        }
+    }
+
+    @Test
+    public void bulkInvalidatesWithItemRouting() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            CachingGetClient cache = new CachingGetClient(client, 100);
+            cache.index(index("1", "王五").routing("r1"), RequestOptions.DEFAULT);
+            assertEquals("王五", author(cache, new GetRequest(INDEX, "1").routing("r1")));
+
+            BulkRequest bulk = new BulkRequest().add(index("1", "赵六").routing("r1"));
+            BulkResponse response = client.bulk(bulk, RequestOptions.DEFAULT);
+            cache.onWrite(bulk, response);
+            assertEquals("赵六", author(cache, new GetRequest(INDEX, "1").routing("r1")));
+            assertEquals(0, cache.hits());
+        }
+    }
+
+    @Test
+    public void writeDuringStoreIsNotMaskedByStaleRead() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            AtomicInteger watermarkReads = new AtomicInteger();
+            CachingGetClient[] cache = new CachingGetClient[1];
+            TinyLfuCache<String, long[]> watermarks = new TinyLfuCache<>(100);
+            // 读请求返回后、放入缓存前（第二次读水位时）插入一次写入
+            Cache<String, long[]> racing = new Cache<String, long[]>() {
+                @Override
+                public long[] get(String key) {
+                    long[] watermark = watermarks.get(key);
+                    if (watermarkReads.incrementAndGet() == 2) {
+                        try {
+                            cache[0].index(index("1", "赵六"), RequestOptions.DEFAULT);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                    return watermark;
+                }
+
+                @Override
+                public void put(String key, long[] value) {
+                    watermarks.put(key, value);
+                }
+
+                @Override
+                public void invalidate(String key) {
+                    watermarks.invalidate(key);
+                }
+
+                @Override
+                public void invalidateAll() {
+                    watermarks.invalidateAll();
+                }
+
+                @Override
+                public long size() {
+                    return watermarks.size();
+                }
+
+                @Override
+                public long evictions() {
+                    return watermarks.evictions();
+                }
+            };
+            client.index(index("1", "王五"), RequestOptions.DEFAULT);
+            cache[0] = new CachingGetClient(client, new TinyLfuCache<>(100), racing);
+            assertEquals("王五", author(cache[0], new GetRequest(INDEX, "1")));
+            assertEquals("赵六", author(cache[0], new GetRequest(INDEX, "1")));
+        }
+    }
+
+    private static IndexRequest index(String id, String author) {
+        return new IndexRequest(INDEX).id(id).source(XContentType.JSON, "author", author);
+    }
+
+    private static Object author(CachingGetClient cache, GetRequest request) throws IOException {
+        return cache.get(request, RequestOptions.DEFAULT).getSource().get("author");
+    }
+}
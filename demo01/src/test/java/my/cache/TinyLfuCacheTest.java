@@ -0,0 +1,59 @@
+package my.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TinyLfuCacheTest {
+
+    @Test
+    public void testBounded() {
+        TinyLfuCache<Integer, String> cache = new TinyLfuCache<>(100);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, "v" + i);
+        }
+        assertTrue(cache.size() <= 100);
+        assertTrue(cache.evictions() > 0);
+    }
+
+    @Test
+    public void testHotKeysSurviveScan() {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<>(200);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 100; i++) {
+                String key = "hot-" + i;
+                if (cache.get(key) == null) {
+                    cache.put(key, key);
+                }
+            }
+        }
+        // 一次性扫描大量冷数据
+        for (int i = 0; i < 1000; i++) {
+            cache.put("cold-" + i, "cold");
+        }
+        int hotHits = 0;
+        for (int i = 0; i < 100; i++) {
+            if (cache.get("hot-" + i) != null) {
+                hotHits++;
+            }
+        }
+        assertTrue("hot hits -> " + hotHits, hotHits >= 90);
+    }
+
+    @Test
+    public void testInvalidate() {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<>(10);
+        cache.put("1", "a");
+        assertNotNull(cache.get("1"));
+        cache.invalidate("1");
+        assertNull(cache.get("1"));
+        cache.put("2", "b");
+        cache.put("2", "c");
+        assertEquals("c", cache.get("2"));
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+}
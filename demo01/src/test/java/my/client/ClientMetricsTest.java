@@ -0,0 +1,121 @@
+package my.client;
+
+import my.stub.StubCluster;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ClientMetricsTest {
+
+    @Test
+    public void endpointKeepsOnlyApiSegments() {
+        assertEquals("PUT _doc", InstrumentedHttpAsyncClient.endpoint(
+                new BasicHttpRequest("PUT", "/java-api-demo-idx/_doc/1?refresh=wait_for")));
+        assertEquals("POST _search", InstrumentedHttpAsyncClient.endpoint(
+                new BasicHttpRequest("POST", "/idx-a,idx-b/_search?typed_keys=true")));
+        assertEquals("GET _cluster/health/_nodes", InstrumentedHttpAsyncClient.endpoint(
+                new BasicHttpRequest("GET", "/_cluster/health/_nodes")));
+        assertEquals("GET _cluster/state/_nodes", InstrumentedHttpAsyncClient.endpoint(
+                new BasicHttpRequest("GET", "/_cluster/state/_nodes")));
+        assertEquals("GET _cluster/health", InstrumentedHttpAsyncClient.endpoint(
+                new BasicHttpRequest("GET", "/_cluster/health/java-api-demo-idx")));
+        assertEquals("GET _tasks", InstrumentedHttpAsyncClient.endpoint(
+                new BasicHttpRequest("GET", "/_tasks/oTUltX4IQMOUUVeiohTt8A:124")));
+        assertEquals("GET _cat/indices", InstrumentedHttpAsyncClient.endpoint(
+                new BasicHttpRequest("GET", "/_cat/indices?v")));
+        assertEquals("GET /", InstrumentedHttpAsyncClient.endpoint(new BasicHttpRequest("GET", "/")));
+    }
+
+    @Test
+    public void parseTookFromResponseHead() {
+        assertEquals(17, InstrumentedHttpAsyncClient.parseTook(
+                new StringEntity("{\"took\":17,\"timed_out\":false}", ContentType.APPLICATION_JSON)));
+        assertEquals(3, InstrumentedHttpAsyncClient.parseTook(
+                new StringEntity("{\"took\" : 3}", ContentType.APPLICATION_JSON)));
+        assertEquals(-1, InstrumentedHttpAsyncClient.parseTook(
+                new StringEntity("{\"_index\":\"idx\",\"found\":true}", ContentType.APPLICATION_JSON)));
+    }
+
+    @Test
+    public void parseTookFromTruncatedGzipHead() throws IOException {
+        StringBuilder json = new StringBuilder("{\"took\":42,\"hits\":[");
+        for (int i = 0; i < 2000; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"_id\":\"").append(i).append("\"}");
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(json.append("]}").toString().getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] wire = compressed.toByteArray();
+        assertEquals(42, InstrumentedHttpAsyncClient.parseTook(wire, 256,
+                new BasicHeader(HttpHeaders.CONTENT_TYPE, "application/json"),
+                new BasicHeader(HttpHeaders.CONTENT_ENCODING, "gzip")));
+    }
+
+    @Test
+    public void recordsTookWithoutConsumingResponse() throws IOException {
+        try (StubCluster cluster = StubCluster.builder().build();
+             ManagedClient managed = ClientFactory.builder(cluster.hosts()).setMetrics(new ClientMetrics()).build()) {
+            BulkRequest bulk = new BulkRequest().setRefreshPolicy("true");
+            for (int i = 0; i < 20; i++) {
+                bulk.add(new IndexRequest("idx").id(String.valueOf(i)).source(XContentType.JSON, "salary", 56000.0 + i));
+            }
+            // 指标在 HTTP 客户端上采集，任意 RequestOptions 都会被统计
+            managed.client().bulk(bulk, RequestOptions.DEFAULT);
+            SearchResponse search = managed.client().search(new SearchRequest("idx"),
+                    RequestOptions.DEFAULT.toBuilder().addHeader("X-Opaque-Id", "metrics-test").build());
+            assertEquals(20, search.getHits().getTotalHits().value);
+
+            ClientMetrics.Snapshot snapshot = managed.metrics().snapshot(false);
+            for (String endpoint : new String[] {"POST _bulk", "POST _search"}) {
+                ClientMetrics.EndpointSnapshot stats = snapshot.endpoints.get(endpoint);
+                assertEquals(1, stats.count);
+                assertTrue(endpoint, stats.meanTookMillis >= 0);
+                assertTrue(endpoint, stats.responseBytes > 0);
+            }
+        }
+    }
+
+    @Test
+    public void snapshotAggregatesAndResets() {
+        ClientMetrics metrics = new ClientMetrics();
+        HttpHost node = new HttpHost("localhost", 9200);
+        metrics.onResponse("POST _search", node, 200, TimeUnit.MILLISECONDS.toNanos(10), 4, 100, 1000);
+        metrics.onResponse("POST _search", node, 503, TimeUnit.MILLISECONDS.toNanos(30), -1, 100, 200);
+        metrics.onNodeFailure(node);
+
+        ClientMetrics.Snapshot snapshot = metrics.snapshot(true);
+        ClientMetrics.EndpointSnapshot search = snapshot.endpoints.get("POST _search");
+        assertEquals(2, search.count);
+        assertEquals(1, search.errors);
+        assertEquals(4.0, search.meanTookMillis, 0.001);
+        assertEquals(6.0, search.meanOverheadMillis, 0.001);
+        assertEquals(200, search.requestBytes);
+        assertEquals(1200, search.responseBytes);
+        assertEquals(30, search.maxMicros / 1000);
+        assertEquals(2, snapshot.nodes.get("localhost:9200")[0]);
+        assertEquals(1, snapshot.nodes.get("localhost:9200")[1]);
+        assertEquals(1, snapshot.nodes.get("localhost:9200")[2]);
+
+        assertEquals(0, metrics.snapshot(false).endpoints.get("POST _search").count);
+    }
+}
@@ -0,0 +1,90 @@
+package my.client;
+
+import my.stub.StubCluster;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NStringEntity;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.core.TimeValue;
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompressingHttpAsyncClientTest {
+
+    @Test
+    public void cancelAbortsCompressedRequest() throws Exception {
+        GzipCompression compression = GzipCompression.builder().setMinRequestBytes(0).build();
+        try (StubCluster cluster = StubCluster.builder().build();
+             ManagedClient client = ClientFactory.builder(cluster.hosts())
+                     .setCompression(compression)
+                     .setSocketTimeout(TimeValue.timeValueSeconds(30))
+                     .build()) {
+            client.client().info(RequestOptions.DEFAULT);
+            cluster.node(0).hang();
+            try {
+                CompletableFuture<Exception> failure = new CompletableFuture<>();
+                Cancellable cancellable = client.lowLevelClient().performRequestAsync(search(), listener(failure));
+                awaitOutstanding(client, 1);
+                cancellable.cancel();
+                assertTrue(failure.get(5, TimeUnit.SECONDS) instanceof CancellationException);
+                awaitOutstanding(client, 0);
+
+                // 按请求设置的超时仍然生效
+                Request request = search();
+                request.setOptions(RequestOptions.DEFAULT.toBuilder().setRequestConfig(RequestConfig.custom()
+                        .setSocketTimeout(200).build()));
+                CompletableFuture<Exception> timeout = new CompletableFuture<>();
+                client.lowLevelClient().performRequestAsync(request, listener(timeout));
+                assertTrue(String.valueOf(timeout.get(5, TimeUnit.SECONDS)),
+                        timeout.get() instanceof SocketTimeoutException);
+            } finally {
+                cluster.node(0).resume();
+            }
+            // 被取消的请求可能还没发完请求体
+            assertTrue(compression.snapshot(false).get("POST _search").requestsCompressed >= 1);
+        }
+    }
+
+    private static Request search() {
+        Request request = new Request("POST", "/idx/_search");
+        request.setEntity(new NStringEntity("{\"query\":{\"match_all\":{}}}", ContentType.APPLICATION_JSON));
+        return request;
+    }
+
+    private static ResponseListener listener(CompletableFuture<Exception> failure) {
+        return new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                failure.complete(null);
+            }
+
+            @Override
+            public void onFailure(Exception exception) {
+                failure.complete(exception);
+            }
+        };
+    }
+
+    private static void awaitOutstanding(ManagedClient client, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (outstanding(client) != expected && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, outstanding(client));
+    }
+
+    private static int outstanding(ManagedClient client) {
+        return client.selector().snapshot().values().stream().mapToInt(stats -> (int) stats[0]).sum();
+    }
+}
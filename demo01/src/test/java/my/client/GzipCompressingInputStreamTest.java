@@ -0,0 +1,58 @@
+package my.client;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GzipCompressingInputStreamTest {
+
+    @Test
+    public void roundTripsThroughGzipInputStream() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("{\"index\":{\"_index\":\"java-api-demo-idx\",\"_id\":\"").append(i).append("\"}}\n");
+            sb.append("{\"author\":\"王五\",\"title\":\"中华人民共和国台湾事务办公室\",\"content\":\"中华人民共和国台湾事务办公室\"}\n");
+        }
+        byte[] raw = sb.toString().getBytes(StandardCharsets.UTF_8);
+        long[] stats = new long[3];
+        byte[] compressed;
+        try (InputStream in = new GzipCompressingInputStream(new ByteArrayInputStream(raw), Deflater.BEST_SPEED,
+                (rawBytes, compressedBytes, nanos) -> {
+                    stats[0] = rawBytes;
+                    stats[1] = compressedBytes;
+                    stats[2] = nanos;
+                })) {
+            compressed = readAll(in, 100);
+        }
+        assertEquals(raw.length, stats[0]);
+        assertEquals(compressed.length, stats[1]);
+        assertTrue(compressed.length * 5 < raw.length);
+        assertArrayEquals(raw, readAll(new GZIPInputStream(new ByteArrayInputStream(compressed)), 8192));
+    }
+
+    @Test
+    public void emptySource() throws IOException {
+        byte[] compressed = readAll(new GzipCompressingInputStream(new ByteArrayInputStream(new byte[0]), 6, null), 1);
+        assertEquals(0, readAll(new GZIPInputStream(new ByteArrayInputStream(compressed)), 16).length);
+    }
+
+    private static byte[] readAll(InputStream in, int bufferSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[bufferSize];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
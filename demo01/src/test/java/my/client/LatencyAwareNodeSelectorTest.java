@@ -0,0 +1,322 @@
+package my.client;
+
+import my.stub.StubCluster;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.core.TimeValue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyAwareNodeSelectorTest {
+    private final HttpHost fast = new HttpHost("192.168.0.51", 9200, "http");
+    private final HttpHost slow = new HttpHost("192.168.0.52", 9200, "http");
+    private final HttpHost busy = new HttpHost("192.168.0.53", 9200, "http");
+    private final Map<LatencyAwareNodeSelector, AtomicInteger> rotations = new IdentityHashMap<>();
+
+    @Test
+    public void testEwmaPrefersFastNode() {
+        LatencyAwareNodeSelector selector = new LatencyAwareNodeSelector(LatencyAwareNodeSelector.Strategy.EWMA, 5000);
+        respond(selector, fast, 5);
+        respond(selector, slow, 200);
+        respond(selector, busy, 5);
+        selector.onRequest(busy); // 有一个在途请求
+        // 其余节点按得分排在后面，供 RestClient 换节点重试
+        assertEquals(Arrays.asList(fast, busy, slow), hosts(select(selector)));
+    }
+
+    @Test
+    public void testFailurePenalty() {
+        LatencyAwareNodeSelector selector = new LatencyAwareNodeSelector(LatencyAwareNodeSelector.Strategy.EWMA, 5000);
+        respond(selector, fast, 5);
+        respond(selector, slow, 50);
+        respond(selector, busy, 50);
+        selector.onRequest(fast);
+        selector.onNoResponse(fast);
+        selector.onFailure(fast);
+        Set<HttpHost> first = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            List<Node> nodes = select(selector);
+            assertEquals(3, nodes.size());
+            assertEquals(fast, nodes.get(2).getHost());
+            first.add(nodes.get(0).getHost());
+        }
+        // slow、busy 得分相同，轮流排在最前
+        assertEquals(new HashSet<>(Arrays.asList(slow, busy)), first);
+        assertEquals(0, selector.snapshot().get(fast)[0], 0);
+    }
+
+    @Test
+    public void testLeastOutstanding() {
+        LatencyAwareNodeSelector selector = new LatencyAwareNodeSelector(LatencyAwareNodeSelector.Strategy.LEAST_OUTSTANDING, 5000);
+        selector.onRequest(fast);
+        selector.onRequest(fast);
+        selector.onRequest(slow);
+        assertEquals(Arrays.asList(busy, slow, fast), hosts(select(selector)));
+    }
+
+    @Test
+    public void testRoundRobinKeepsAll() {
+        LatencyAwareNodeSelector selector = new LatencyAwareNodeSelector(LatencyAwareNodeSelector.Strategy.ROUND_ROBIN, 5000);
+        respond(selector, slow, 200);
+        Set<HttpHost> first = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            List<Node> nodes = select(selector);
+            assertEquals(3, nodes.size());
+            first.add(nodes.get(0).getHost());
+        }
+        assertEquals(3, first.size());
+    }
+
+    @Test
+    public void testColdNodeScoresAsAverage() {
+        LatencyAwareNodeSelector selector = new LatencyAwareNodeSelector(LatencyAwareNodeSelector.Strategy.EWMA, 5000);
+        // 都没有响应时间时按在途数排列
+        selector.onRequest(fast);
+        selector.onRequest(fast);
+        selector.onRequest(slow);
+        assertEquals(Arrays.asList(busy, slow, fast), hosts(select(selector)));
+
+        selector.onResponse(fast, TimeUnit.MILLISECONDS.toNanos(10));
+        selector.onResponse(fast, TimeUnit.MILLISECONDS.toNanos(10));
+        selector.onResponse(slow, TimeUnit.MILLISECONDS.toNanos(200));
+        // busy 没有响应时间，按平均值 105ms 计算，而不是 0 把所有请求都吸过去
+        assertEquals(Arrays.asList(fast, busy, slow), hosts(select(selector)));
+        selector.onRequest(busy);
+        assertEquals(Arrays.asList(fast, slow, busy), hosts(select(selector)));
+    }
+
+    @Test
+    public void testPinPutsExcludedNodesLast() {
+        LatencyAwareNodeSelector selector = new LatencyAwareNodeSelector(LatencyAwareNodeSelector.Strategy.ROUND_ROBIN, 5000);
+        Set<HttpHost> selected = new HashSet<>();
+        for (int i = 0; i < 6; i++) {
+            LatencyAwareNodeSelector.Pin pin = new LatencyAwareNodeSelector.Pin(Collections.singleton(fast));
+            selector.pin(pin);
+            List<Node> nodes;
+            try {
+                nodes = select(selector);
+            } finally {
+                selector.unpin();
+            }
+            assertEquals(3, nodes.size());
+            assertEquals(pin.selected, nodes.get(0).getHost());
+            assertEquals(fast, nodes.get(2).getHost());
+            selected.add(pin.selected);
+        }
+        assertEquals(new HashSet<>(Arrays.asList(slow, busy)), selected);
+        // 所有节点都被排除时仍要选出一个
+        LatencyAwareNodeSelector.Pin pin = new LatencyAwareNodeSelector.Pin(
+                new HashSet<>(Arrays.asList(fast, slow, busy)));
+        selector.pin(pin);
+        try {
+            List<Node> nodes = select(selector);
+            assertEquals(pin.selected, nodes.get(0).getHost());
+        } finally {
+            selector.unpin();
+        }
+        // unpin 之后恢复原来的行为
+        assertEquals(3, select(selector).size());
+    }
+
+    @Test
+    public void testPreferredPinKeepsOnlyThatNode() {
+        LatencyAwareNodeSelector selector = new LatencyAwareNodeSelector(LatencyAwareNodeSelector.Strategy.EWMA, 5000);
+        respond(selector, slow, 200);
+        LatencyAwareNodeSelector.Pin pin = new LatencyAwareNodeSelector.Pin(Collections.emptySet(), slow);
+        selector.pin(pin);
+        try {
+            assertEquals(Collections.singletonList(slow), hosts(select(selector)));
+            assertEquals(slow, pin.selected);
+        } finally {
+            selector.unpin();
+        }
+    }
+
+    @Test
+    public void testCancelledRequestCountsAsSlow() {
+        LatencyAwareNodeSelector selector = new LatencyAwareNodeSelector(LatencyAwareNodeSelector.Strategy.EWMA, 5000);
+        respond(selector, fast, 5);
+        selector.onRequest(fast);
+        selector.onCancelled(fast, TimeUnit.MILLISECONDS.toNanos(200));
+        double[] stats = selector.snapshot().get(fast);
+        assertEquals(0, stats[0], 0);
+        assertEquals(5 + 0.3 * 195, stats[1], 0.001);
+    }
+
+    @Test
+    public void testSelectNeverRemovesAllNodesUnderConcurrentUpdates() throws Exception {
+        for (LatencyAwareNodeSelector.Strategy strategy : Arrays.asList(LatencyAwareNodeSelector.Strategy.EWMA,
+                LatencyAwareNodeSelector.Strategy.LEAST_OUTSTANDING)) {
+            LatencyAwareNodeSelector selector = new LatencyAwareNodeSelector(strategy, 5000);
+            HttpHost[] hosts = {fast, slow, busy};
+            AtomicBoolean stop = new AtomicBoolean();
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                Thread writer = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (!stop.get()) {
+                        HttpHost host = hosts[random.nextInt(hosts.length)];
+                        selector.onRequest(host);
+                        selector.onResponse(host, random.nextLong(1, 1_000_000));
+                    }
+                });
+                writer.start();
+                writers.add(writer);
+            }
+            try {
+                for (int i = 0; i < 20_000; i++) {
+                    assertFalse(select(selector).isEmpty());
+                    selector.pin(new LatencyAwareNodeSelector.Pin(Collections.singleton(fast)));
+                    try {
+                        assertEquals(3, select(selector).size());
+                    } finally {
+                        selector.unpin();
+                    }
+                }
+            } finally {
+                stop.set(true);
+                for (Thread writer : writers) {
+                    writer.join();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testEachExchangeReleasesOutstandingOnce() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             ManagedClient client = ClientFactory.builder(cluster.hosts()).build()) {
+            client.client().info(RequestOptions.DEFAULT);
+            HttpHost host = cluster.hosts()[0];
+            ResponseListener ignore = new ResponseListener() {
+                @Override
+                public void onSuccess(Response response) {
+                }
+
+                @Override
+                public void onFailure(Exception exception) {
+                }
+            };
+            cluster.node(0).hang();
+            try {
+                // 被 Cancellable 中止的请求既没有响应也不经过失败监听器
+                Cancellable cancellable = client.lowLevelClient().performRequestAsync(new Request("GET", "/idx/_doc/1"), ignore);
+                awaitOutstanding(client, host, 1);
+                cancellable.cancel();
+                awaitOutstanding(client, host, 0);
+                client.lowLevelClient().performRequestAsync(new Request("GET", "/idx/_doc/1"), ignore);
+                awaitOutstanding(client, host, 1);
+            } finally {
+                // 挂起的连接被断开，请求失败
+                cluster.node(0).resume();
+            }
+            awaitOutstanding(client, host, 0);
+
+            // 503 既经过响应拦截器又经过失败监听器，只能减一次：第一个请求结束时第二个仍在途
+            cluster.faults().setLatency(TimeValue.timeValueMillis(500)).setErrorRate(1, 503);
+            CountDownLatch first = new CountDownLatch(1);
+            client.lowLevelClient().performRequestAsync(new Request("GET", "/idx/_doc/1"), new ResponseListener() {
+                @Override
+                public void onSuccess(Response response) {
+                    first.countDown();
+                }
+
+                @Override
+                public void onFailure(Exception exception) {
+                    first.countDown();
+                }
+            });
+            Thread.sleep(250);
+            client.lowLevelClient().performRequestAsync(new Request("GET", "/idx/_doc/1"), ignore);
+            assertTrue(first.await(5, TimeUnit.SECONDS));
+            assertEquals(1, outstanding(client, host));
+            awaitOutstanding(client, host, 0);
+        }
+    }
+
+    @Test
+    public void testFailsOverWhenBestNodeRefusesConnections() throws Exception {
+        for (boolean pinned : new boolean[] {false, true}) {
+            try (StubCluster cluster = StubCluster.builder().setNodes(3).build();
+                 ManagedClient client = ClientFactory.builder(cluster.hosts())
+                         .setConnectTimeout(TimeValue.timeValueMillis(200)).build()) {
+                HttpHost[] hosts = cluster.hosts();
+                respond(client.selector(), hosts[0], 1);
+                respond(client.selector(), hosts[1], 500);
+                respond(client.selector(), hosts[2], 500);
+                cluster.node(0).stop();
+                LatencyAwareNodeSelector.Pin pin = new LatencyAwareNodeSelector.Pin(Collections.singleton(hosts[1]));
+                if (pinned) {
+                    client.selector().pin(pin);
+                }
+                try {
+                    Response response = client.lowLevelClient().performRequest(new Request("GET", "/"));
+                    assertEquals(200, response.getStatusLine().getStatusCode());
+                    assertNotEquals(hosts[0], response.getHost());
+                } finally {
+                    client.selector().unpin();
+                }
+                if (pinned) {
+                    assertEquals(hosts[0], pin.selected);
+                }
+            }
+        }
+    }
+
+    private static void awaitOutstanding(ManagedClient client, HttpHost host, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (outstanding(client, host) != expected && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, outstanding(client, host));
+    }
+
+    private static int outstanding(ManagedClient client, HttpHost host) {
+        double[] stats = client.selector().snapshot().get(host);
+        return stats == null ? 0 : (int) stats[0];
+    }
+
+    private void respond(LatencyAwareNodeSelector selector, HttpHost host, long millis) {
+        selector.onRequest(host);
+        selector.onResponse(host, TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    // 与 RestClient 一样在 select 之后轮转列表，返回的是实际尝试节点的顺序
+    private List<Node> select(LatencyAwareNodeSelector selector) {
+        List<Node> nodes = new ArrayList<>(Arrays.asList(new Node(fast), new Node(slow), new Node(busy)));
+        selector.select(nodes);
+        Collections.rotate(nodes, rotations.computeIfAbsent(selector, s -> new AtomicInteger()).getAndIncrement());
+        return nodes;
+    }
+
+    private static List<HttpHost> hosts(List<Node> nodes) {
+        List<HttpHost> hosts = new ArrayList<>();
+        for (Node node : nodes) {
+            hosts.add(node.getHost());
+        }
+        return hosts;
+    }
+}
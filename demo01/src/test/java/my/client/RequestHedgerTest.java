@@ -0,0 +1,183 @@
+package my.client;
+
+import my.stub.StubCluster;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RequestHedgerTest {
+
+    @Test
+    public void budgetCapsHedges() {
+        RequestHedger.Budget budget = new RequestHedger.Budget(0.05, 2);
+        assertTrue(budget.tryAcquire());
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+        for (int i = 0; i < 19; i++) {
+            budget.deposit();
+        }
+        assertFalse(budget.tryAcquire());
+        budget.deposit();
+        assertTrue(budget.tryAcquire());
+        // 最多积累 burst 个
+        for (int i = 0; i < 1000; i++) {
+            budget.deposit();
+        }
+        assertTrue(budget.tryAcquire());
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+    }
+
+    @Test
+    public void delayFollowsPercentile() {
+        RequestHedger.Delay delay = new RequestHedger.Delay(100_000);
+        for (int i = 1; i <= 50; i++) {
+            delay.record(i * 1000);
+        }
+        delay.refresh(95, 100, 5000);
+        assertEquals(100_000, delay.micros()); // 样本不足
+        for (int i = 51; i <= 100; i++) {
+            delay.record(i * 1000);
+        }
+        delay.refresh(95, 100, 5000);
+        assertEquals(95_000, delay.micros(), 1000);
+        for (int i = 0; i < 100; i++) {
+            delay.record(10);
+        }
+        delay.refresh(95, 100, 5000);
+        assertEquals(5000, delay.micros()); // 下限
+    }
+
+    @Test
+    public void clientErrorsAreNotRetried() {
+        assertFalse(RequestHedger.retryable(new ElasticsearchStatusException("missing", RestStatus.NOT_FOUND)));
+        assertTrue(RequestHedger.retryable(new ElasticsearchStatusException("busy", RestStatus.TOO_MANY_REQUESTS)));
+        assertTrue(RequestHedger.retryable(new ElasticsearchStatusException("boom", RestStatus.SERVICE_UNAVAILABLE)));
+        assertTrue(RequestHedger.retryable(new IOException("connection reset")));
+    }
+
+    @Test
+    public void hedgeWinsAgainstHungNode() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().setNodes(2).build();
+             ManagedClient client = ClientFactory.builder(cluster.hosts())
+                     .setStrategy(LatencyAwareNodeSelector.Strategy.ROUND_ROBIN)
+                     .setSocketTimeout(TimeValue.timeValueSeconds(30))
+                     .build();
+             RequestHedger hedger = RequestHedger.builder(client)
+                     .setInitialDelay(TimeValue.timeValueMillis(50))
+                     .setBudgetRatio(1)
+                     .build()) {
+            cluster.store().put("idx", "1", Collections.singletonMap("title", "hedged"));
+            // 先完成版本校验，之后选择节点都发生在调用线程上
+            client.client().info(RequestOptions.DEFAULT);
+            cluster.node(0).hang();
+            try {
+                for (int i = 0; i < 6; i++) {
+                    long start = System.nanoTime();
+                    GetResponse response = hedger.get(new GetRequest("idx", "1")).get(5, TimeUnit.SECONDS);
+                    assertEquals("hedged", response.getSource().get("title"));
+                    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+                }
+                assertEquals(6, hedger.requests());
+                // 轮询下一半的请求先发到挂住的节点
+                assertEquals(3, hedger.hedges());
+                assertEquals(3, hedger.hedgeWins());
+            } finally {
+                cluster.node(0).resume();
+            }
+        }
+    }
+
+    @Test
+    public void failedRequestIsRetriedOnAnotherNode() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().setNodes(2).build();
+             ManagedClient client = ClientFactory.builder(cluster.hosts())
+                     .setStrategy(LatencyAwareNodeSelector.Strategy.ROUND_ROBIN)
+                     .build();
+             RequestHedger hedger = RequestHedger.builder(client)
+                     .setInitialDelay(TimeValue.timeValueSeconds(10))
+                     .build()) {
+            cluster.store().put("idx", "1", Collections.singletonMap("title", "retried"));
+            client.client().info(RequestOptions.DEFAULT);
+            cluster.faults().setErrorRate(1, 503);
+            try {
+                hedger.get(new GetRequest("idx", "1")).get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                // 两个节点都返回 503，两次失败都要保留
+                assertTrue(e.getCause() instanceof ElasticsearchStatusException);
+                assertTrue(Arrays.stream(e.getCause().getSuppressed()).anyMatch(s -> s instanceof ElasticsearchStatusException));
+            }
+            assertEquals(1, hedger.hedges());
+            cluster.faults().reset();
+
+            try {
+                // 替身不支持聚合，返回 400，换节点也一样
+                hedger.search(new SearchRequest("idx").source(new SearchSourceBuilder()
+                        .aggregation(AggregationBuilders.terms("byTitle").field("title")))).get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertEquals(RestStatus.BAD_REQUEST, ((ElasticsearchStatusException) e.getCause()).status());
+            }
+            assertEquals(1, hedger.hedges());
+        }
+    }
+
+    @Test
+    public void closeFailsOutstandingRequests() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             ManagedClient client = ClientFactory.builder(cluster.hosts())
+                     .setSocketTimeout(TimeValue.timeValueSeconds(30))
+                     .build()) {
+            client.client().info(RequestOptions.DEFAULT);
+            RequestHedger hedger = RequestHedger.builder(client).build();
+            cluster.node(0).hang();
+            try {
+                CompletableFuture<GetResponse> future = hedger.get(new GetRequest("idx", "1"));
+                hedger.close();
+                assertClosed(future);
+                assertClosed(hedger.get(new GetRequest("idx", "1")));
+                // 底层请求也被取消
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (outstanding(client) != 0 && System.nanoTime() < deadline) {
+                    Thread.sleep(5);
+                }
+                assertEquals(0, outstanding(client));
+            } finally {
+                cluster.node(0).resume();
+            }
+        }
+    }
+
+    private static void assertClosed(CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private static int outstanding(ManagedClient client) {
+        return client.selector().snapshot().values().stream().mapToInt(stats -> (int) stats[0]).sum();
+    }
+}
@@ -0,0 +1,151 @@
+package my.client;
+
+import my.stub.StubCluster;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.core.TimeValue;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShardAwareBulkClientTest {
+
+    private static final String INDEX = "java-api-demo-idx";
+
+    @Test
+    public void matchesPublishAddressToClientNode() throws Exception {
+        HttpHost byIp = new HttpHost("10.0.0.2", 9200, "https");
+        HttpHost byName = new HttpHost("es-1", 9200, "https");
+        HttpHost published = new HttpHost(InetAddress.getByName("10.0.0.1"), "es-1", 9200, "http");
+        assertEquals(byName, ShardAwareBulkClient.clientHost(published, Arrays.asList(byIp, byName)));
+        published = new HttpHost(InetAddress.getByName("10.0.0.2"), "10.0.0.2", 9200, "http");
+        assertEquals(byIp, ShardAwareBulkClient.clientHost(published, Arrays.asList(byName, byIp)));
+        published = new HttpHost(InetAddress.getByName("10.0.0.2"), "10.0.0.2", 9300, "http");
+        assertNull(ShardAwareBulkClient.clientHost(published, Arrays.asList(byName, byIp)));
+    }
+
+    @Test
+    public void sendsEachItemToItsPrimaryNode() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().setNodes(3).build();
+             ManagedClient managed = ClientFactory.builder(cluster.hosts()).build()) {
+            managed.client().indices().create(new CreateIndexRequest(INDEX)
+                    .settings(Settings.builder().put("index.number_of_shards", 3)), RequestOptions.DEFAULT);
+            try (ShardAwareBulkClient bulkClient = ShardAwareBulkClient.builder(managed, INDEX)
+                    .setRefreshInterval(null).build()) {
+                // 与 testBulk 一样混合 index / update / delete
+                BulkRequest request = new BulkRequest();
+                for (int i = 0; i < 60; i++) {
+                    request.add(new IndexRequest(INDEX).id(String.valueOf(i))
+                            .source(XContentType.JSON, "author", "王五", "salary", 56000.0 + i));
+                }
+                request.add(new UpdateRequest(INDEX, "3").doc(XContentType.JSON, "salary", 1.0));
+                request.add(new DeleteRequest(INDEX, "4"));
+                request.add(new IndexRequest(INDEX).source(XContentType.JSON, "author", "自动 ID"));
+                BulkResponse response = bulkClient.bulk(request).get();
+
+                assertFalse(response.buildFailureMessage(), response.hasFailures());
+                assertEquals(request.numberOfActions(), response.getItems().length);
+                for (int i = 0; i < 62; i++) {
+                    BulkItemResponse item = response.getItems()[i];
+                    assertEquals(i, item.getItemId());
+                    assertEquals(request.requests().get(i).id(), item.getId());
+                }
+                assertEquals(62, bulkClient.routedItems());
+                assertEquals(1, bulkClient.unroutedItems());
+                assertEquals(4, bulkClient.subBulks());
+                for (StubCluster.Node node : cluster.nodes()) {
+                    assertEquals(node.toString(), 0, node.forwardedBulkItems());
+                }
+                assertEquals(1.0, cluster.store().source(INDEX, "3").get("salary"));
+                assertNull(cluster.store().source(INDEX, "4"));
+
+                // 同样的请求交给任意节点协调时，大约三分之二的条目要再转发一次
+                managed.client().bulk(request, RequestOptions.DEFAULT);
+                long forwarded = cluster.nodes().stream().mapToLong(StubCluster.Node::forwardedBulkItems).sum();
+                assertTrue(String.valueOf(forwarded), forwarded > 20);
+            }
+        }
+    }
+
+    @Test
+    public void failsOverWhenPrimaryNodeIsDown() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().setNodes(3).build();
+             ManagedClient managed = ClientFactory.builder(cluster.hosts())
+                     .setConnectTimeout(TimeValue.timeValueMillis(200)).build()) {
+            managed.client().indices().create(new CreateIndexRequest(INDEX)
+                    .settings(Settings.builder().put("index.number_of_shards", 3)), RequestOptions.DEFAULT);
+            try (ShardAwareBulkClient bulkClient = ShardAwareBulkClient.builder(managed, INDEX)
+                    .setRefreshInterval(null).build()) {
+                cluster.node(1).stop();
+                BulkRequest request = new BulkRequest();
+                for (int i = 0; i < 30; i++) {
+                    request.add(new IndexRequest(INDEX).id(String.valueOf(i)).source(XContentType.JSON, "n", i));
+                }
+                BulkResponse response = bulkClient.bulk(request).get();
+                assertFalse(response.buildFailureMessage(), response.hasFailures());
+                assertEquals(30, cluster.store().count(INDEX));
+                assertEquals(1, bulkClient.failovers());
+            }
+        }
+    }
+
+    @Test
+    public void closeFailsOutstandingBulks() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             ManagedClient managed = ClientFactory.builder(cluster.hosts())
+                     .setSocketTimeout(TimeValue.timeValueSeconds(30)).build()) {
+            managed.client().indices().create(new CreateIndexRequest(INDEX), RequestOptions.DEFAULT);
+            ShardAwareBulkClient bulkClient = ShardAwareBulkClient.builder(managed, INDEX)
+                    .setRefreshInterval(null).build();
+            cluster.node(0).hang();
+            try {
+                BulkRequest request = new BulkRequest()
+                        .add(new IndexRequest(INDEX).id("1").source(XContentType.JSON, "n", 1));
+                CompletableFuture<BulkResponse> future = bulkClient.bulk(request);
+                bulkClient.close();
+                assertClosed(future);
+                assertClosed(bulkClient.bulk(request));
+                // 子 bulk 也被取消
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (outstanding(managed) != 0 && System.nanoTime() < deadline) {
+                    Thread.sleep(5);
+                }
+                assertEquals(0, outstanding(managed));
+            } finally {
+                cluster.node(0).resume();
+            }
+        }
+    }
+
+    private static void assertClosed(CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private static int outstanding(ManagedClient client) {
+        return client.selector().snapshot().values().stream().mapToInt(stats -> (int) stats[0]).sum();
+    }
+}
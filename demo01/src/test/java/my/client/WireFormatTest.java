@@ -0,0 +1,160 @@
+package my.client;
+
+import my.stub.StubCluster;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WireFormatTest {
+
+    @Test
+    public void transcodesDocumentsAndBulkLines() throws IOException {
+        String json = "{\"author\":\"王五\",\"salary\":56000.0,\"tags\":[\"a\",\"b\"],\"meta\":{\"views\":12}}";
+        byte[] smile = TranscodingHttpAsyncClient.transcode(json.getBytes(StandardCharsets.UTF_8), XContentType.SMILE, false);
+        assertEquals(XContentType.SMILE, XContentType.fromMediaType("application/smile"));
+        assertEquals(map(XContentType.JSON, json.getBytes(StandardCharsets.UTF_8)), map(XContentType.SMILE, smile));
+
+        String bulk = "{\"index\":{\"_index\":\"idx\",\"_id\":\"1\"}}\n{\"salary\":1.5}\n\n{\"delete\":{\"_index\":\"idx\",\"_id\":\"2\"}}\n";
+        byte[] encoded = TranscodingHttpAsyncClient.transcode(bulk.getBytes(StandardCharsets.UTF_8), XContentType.SMILE, true);
+        int separators = 0;
+        for (byte b : encoded) {
+            if (b == XContentType.SMILE.xContent().streamSeparator()) {
+                separators++;
+            }
+        }
+        assertEquals(3, separators);
+        assertEquals((byte) 0xFF, encoded[encoded.length - 1]);
+    }
+
+    @Test
+    public void fallsBackToJsonPerEndpoint() {
+        WireFormat wireFormat = WireFormat.builder(XContentType.CBOR).addJsonEndpoint("_analyze").build();
+        assertTrue(wireFormat.binary("POST _search"));
+        assertTrue(wireFormat.binary("GET /"));
+        assertFalse(wireFormat.binary("GET _cat/indices"));
+        assertFalse(wireFormat.binary("GET _nodes/http"));
+        assertFalse(wireFormat.binary("POST _analyze"));
+        assertTrue(WireFormat.multiDocument("POST _bulk"));
+        assertFalse(WireFormat.multiDocument("POST _search"));
+        try {
+            WireFormat.builder(XContentType.JSON);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // 只支持二进制格式
+        }
+    }
+
+    @Test
+    public void parsesTookFromBinaryResponse() throws IOException {
+        byte[] smile = TranscodingHttpAsyncClient.transcode("{\"took\":17,\"timed_out\":false}".getBytes(StandardCharsets.UTF_8),
+                XContentType.SMILE, false);
+        assertEquals(17, InstrumentedHttpAsyncClient.parseTook(
+                new ByteArrayEntity(smile, ContentType.create("application/smile"))));
+    }
+
+    @Test
+    public void roundTripsThroughStubCluster() throws IOException {
+        WireFormat wireFormat = WireFormat.builder(XContentType.SMILE).build();
+        try (StubCluster cluster = StubCluster.builder().build();
+             ManagedClient managed = ClientFactory.builder(cluster.hosts())
+                     .setWireFormat(wireFormat)
+                     .setCompression(GzipCompression.builder().setMinRequestBytes(0).build())
+                     .build()) {
+            BulkRequest bulk = new BulkRequest().setRefreshPolicy("true");
+            for (int i = 0; i < 10; i++) {
+                bulk.add(new IndexRequest("idx").id(String.valueOf(i))
+                        .source(XContentType.JSON, "author", "王五", "salary", 56000.0 + i));
+            }
+            BulkResponse bulkResponse = managed.client().bulk(bulk, RequestOptions.DEFAULT);
+            assertFalse(bulkResponse.buildFailureMessage(), bulkResponse.hasFailures());
+
+            SearchResponse search = managed.client().search(new SearchRequest("idx").source(new SearchSourceBuilder()
+                    .query(QueryBuilders.rangeQuery("salary").gte(56005.0))), RequestOptions.DEFAULT);
+            assertEquals(5, search.getHits().getTotalHits().value);
+
+            // 文档直接用二进制格式构造，不需要转码
+            managed.client().index(new IndexRequest("idx").id("smile")
+                    .source(wireFormat.type(), "author", "赵六", "salary", 23000.0), RequestOptions.DEFAULT);
+            GetResponse get = managed.client().get(new GetRequest("idx", "smile"), RequestOptions.DEFAULT);
+            assertEquals(23000.0, get.getSource().get("salary"));
+
+            // 低级客户端的响应也是 SMILE
+            Response response = managed.lowLevelClient().performRequest(new Request("GET", "/idx/_doc/1"));
+            assertEquals("application/smile", response.getEntity().getContentType().getValue());
+            assertEquals(Boolean.TRUE, XContentHelper.convertToMap(WireFormat.xContent(response.getEntity()),
+                    response.getEntity().getContent(), false).get("found"));
+
+            Map<String, WireFormat.Stats> stats = wireFormat.snapshot(false);
+            assertEquals(1, stats.get("POST _bulk").requestsEncoded);
+            assertEquals(1, stats.get("POST _search").requestsEncoded);
+            assertEquals(1, stats.get("PUT _doc").requestsSkipped);
+            assertTrue(stats.get("POST _bulk").requestRatio() > 1);
+        }
+    }
+
+    @Test
+    public void cancelAbortsTranscodedRequest() throws Exception {
+        WireFormat wireFormat = WireFormat.builder(XContentType.SMILE).build();
+        try (StubCluster cluster = StubCluster.builder().build();
+             ManagedClient managed = ClientFactory.builder(cluster.hosts())
+                     .setWireFormat(wireFormat)
+                     .setSocketTimeout(TimeValue.timeValueSeconds(30))
+                     .build()) {
+            managed.client().info(RequestOptions.DEFAULT);
+            cluster.node(0).hang();
+            try {
+                Request request = new Request("POST", "/idx/_search");
+                request.setJsonEntity("{\"query\":{\"match_all\":{}}}");
+                CompletableFuture<Exception> failure = new CompletableFuture<>();
+                Cancellable cancellable = managed.lowLevelClient().performRequestAsync(request, new ResponseListener() {
+                    @Override
+                    public void onSuccess(Response response) {
+                        failure.complete(null);
+                    }
+
+                    @Override
+                    public void onFailure(Exception exception) {
+                        failure.complete(exception);
+                    }
+                });
+                cancellable.cancel();
+                assertTrue(failure.get(5, TimeUnit.SECONDS) instanceof CancellationException);
+            } finally {
+                cluster.node(0).resume();
+            }
+        }
+    }
+
+    private static Map<String, Object> map(XContentType type, byte[] bytes) {
+        return XContentHelper.convertToMap(type.xContent(), bytes, 0, bytes.length, true);
+    }
+}
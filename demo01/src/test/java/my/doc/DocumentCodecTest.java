@@ -0,0 +1,257 @@
+package my.doc;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DocumentCodecTest {
+
+    public enum Level {
+        JUNIOR, SENIOR
+    }
+
+    public static class Address {
+        public String city;
+        public int zip;
+    }
+
+    public static class Employee {
+        private String author;
+        private int age;
+        private long version;
+        private double salary;
+        private boolean active;
+        private Level level;
+        private List<String> tags;
+        private Address address;
+        private float[] vector;
+        private Instant created;
+        private LocalDate birthday;
+        private Map<String, Object> extra;
+        public Employee manager;
+
+        public String getAuthor() {
+            return author;
+        }
+
+        public void setAuthor(String author) {
+            this.author = author;
+        }
+
+        public int getAge() {
+            return age;
+        }
+
+        public void setAge(int age) {
+            this.age = age;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public void setVersion(long version) {
+            this.version = version;
+        }
+
+        public double getSalary() {
+            return salary;
+        }
+
+        public void setSalary(double salary) {
+            this.salary = salary;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public void setActive(boolean active) {
+            this.active = active;
+        }
+
+        public Level getLevel() {
+            return level;
+        }
+
+        public void setLevel(Level level) {
+            this.level = level;
+        }
+
+        public List<String> getTags() {
+            return tags;
+        }
+
+        public void setTags(List<String> tags) {
+            this.tags = tags;
+        }
+
+        public Address getAddress() {
+            return address;
+        }
+
+        public void setAddress(Address address) {
+            this.address = address;
+        }
+
+        public float[] getVector() {
+            return vector;
+        }
+
+        public void setVector(float[] vector) {
+            this.vector = vector;
+        }
+
+        public Instant getCreated() {
+            return created;
+        }
+
+        public void setCreated(Instant created) {
+            this.created = created;
+        }
+
+        public LocalDate getBirthday() {
+            return birthday;
+        }
+
+        public void setBirthday(LocalDate birthday) {
+            this.birthday = birthday;
+        }
+
+        public Map<String, Object> getExtra() {
+            return extra;
+        }
+
+        public void setExtra(Map<String, Object> extra) {
+            this.extra = extra;
+        }
+    }
+
+    // 非 public 的类走 MethodHandle 回退路径
+    static class Hidden {
+        private String name;
+        private int count;
+
+        String getName() {
+            return name;
+        }
+
+        public String getTitle() {
+            return name;
+        }
+
+        public void setTitle(String title) {
+            this.name = title;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Employee employee = new Employee();
+        employee.setAuthor("王五");
+        employee.setAge(35);
+        employee.setVersion(1L << 40);
+        employee.setSalary(56000.5);
+        employee.setActive(true);
+        employee.setLevel(Level.SENIOR);
+        employee.setTags(Arrays.asList("a", "b"));
+        Address address = new Address();
+        address.city = "北京";
+        address.zip = 100000;
+        employee.setAddress(address);
+        employee.setVector(new float[] {0.5f, -1.25f});
+        employee.setCreated(Instant.parse("2021-11-20T08:00:00Z"));
+        employee.setBirthday(LocalDate.of(1986, 5, 4));
+        employee.manager = new Employee();
+        employee.manager.setAuthor("张三");
+
+        DocumentCodec<Employee> codec = DocumentCodec.of(Employee.class);
+        assertSame(codec, DocumentCodec.of(Employee.class));
+        for (XContentType type : new XContentType[] {XContentType.JSON, XContentType.SMILE, XContentType.CBOR}) {
+            Employee copy = codec.decode(codec.encode(employee, type));
+            assertEquals("王五", copy.getAuthor());
+            assertEquals(35, copy.getAge());
+            assertEquals(1L << 40, copy.getVersion());
+            assertEquals(56000.5, copy.getSalary(), 0);
+            assertTrue(copy.isActive());
+            assertSame(Level.SENIOR, copy.getLevel());
+            assertEquals(Arrays.asList("a", "b"), copy.getTags());
+            assertEquals("北京", copy.getAddress().city);
+            assertEquals(100000, copy.getAddress().zip);
+            assertArrayEquals(new float[] {0.5f, -1.25f}, copy.getVector(), 0);
+            assertEquals(Instant.parse("2021-11-20T08:00:00Z"), copy.getCreated());
+            assertEquals(LocalDate.of(1986, 5, 4), copy.getBirthday());
+            assertEquals("张三", copy.manager.getAuthor());
+            assertNull(copy.manager.manager);
+            assertNull(copy.getExtra());
+        }
+    }
+
+    @Test
+    public void testFieldOrderAndNulls() throws Exception {
+        Employee employee = new Employee();
+        employee.setAuthor("赵六");
+        String json = codec().encode(employee).utf8ToString();
+        assertEquals("{\"author\":\"赵六\",\"age\":0,\"version\":0,\"salary\":0.0,\"active\":false}", json);
+    }
+
+    @Test
+    public void testLenientRead() throws Exception {
+        String json = "{\"author\":\"李四\",\"unknown\":{\"a\":[1,{\"b\":2}]},\"tags\":\"single\",\"vector\":3,"
+                + "\"created\":1637395200000,\"age\":null,\"extra\":{\"k\":\"v\"},\"salary\":\"23000\"}";
+        Employee employee = codec().decode(new BytesArray(json.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("李四", employee.getAuthor());
+        assertEquals(Arrays.asList("single"), employee.getTags());
+        assertArrayEquals(new float[] {3f}, employee.getVector(), 0);
+        assertEquals(Instant.ofEpochMilli(1637395200000L), employee.getCreated());
+        assertEquals(0, employee.getAge());
+        assertEquals("v", employee.getExtra().get("k"));
+        assertEquals(23000.0, employee.getSalary(), 0);
+        assertFalse(employee.isActive());
+    }
+
+    @Test
+    public void testNonPublicClass() throws Exception {
+        Hidden hidden = new Hidden();
+        hidden.setTitle("中华人民共和国");
+        hidden.setCount(3);
+        DocumentCodec<Hidden> codec = DocumentCodec.of(Hidden.class);
+        BytesReference bytes = codec.encode(hidden);
+        assertEquals("{\"count\":3,\"title\":\"中华人民共和国\"}", bytes.utf8ToString());
+        Hidden copy = codec.decode(bytes);
+        assertEquals("中华人民共和国", copy.getTitle());
+        assertEquals(3, copy.getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedType() {
+        DocumentCodec.of(Thread.class);
+    }
+
+    private static DocumentCodec<Employee> codec() {
+        return DocumentCodec.of(Employee.class);
+    }
+}
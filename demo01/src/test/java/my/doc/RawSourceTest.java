@@ -0,0 +1,89 @@
+package my.doc;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHit;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RawSourceTest {
+
+    private static final SourceReader<String[]> AUTHOR_AND_SALARY = parser -> {
+        String author = null;
+        String salary = null;
+        String field = null;
+        for (XContentParser.Token token = parser.nextToken(); token != XContentParser.Token.END_OBJECT; token = parser.nextToken()) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                field = parser.currentName();
+            } else if ("author".equals(field)) {
+                author = parser.text();
+            } else if ("salary".equals(field)) {
+                salary = String.valueOf(parser.doubleValue());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return new String[] {author, salary};
+    };
+
+    @Test
+    public void testReadJson() throws Exception {
+        SearchHit hit = new SearchHit(3);
+        hit.sourceRef(new BytesArray("{\"author\":\"王五\",\"salary\":56000.0,\"tags\":[\"a\",{\"b\":1}]}"));
+        String[] values = RawSource.read(hit, AUTHOR_AND_SALARY);
+        assertEquals("王五", values[0]);
+        assertEquals("56000.0", values[1]);
+    }
+
+    @Test
+    public void testReadSmile() throws Exception {
+        XContentBuilder builder = XContentFactory.smileBuilder()
+                .startObject().field("author", "赵六").field("salary", 23000.0).endObject();
+        String[] values = RawSource.read(BytesReference.bytes(builder), AUTHOR_AND_SALARY);
+        assertEquals("赵六", values[0]);
+        assertEquals("23000.0", values[1]);
+    }
+
+    @Test
+    public void testReadCbor() throws Exception {
+        XContentBuilder builder = XContentFactory.cborBuilder()
+                .startObject().field("author", "孙七").field("salary", 31000.0).endObject();
+        BytesReference source = BytesReference.bytes(builder);
+        assertEquals(XContentType.CBOR, RawSource.xContentType(source));
+        String[] values = RawSource.read(source, AUTHOR_AND_SALARY);
+        assertEquals("孙七", values[0]);
+        assertEquals("31000.0", values[1]);
+    }
+
+    @Test
+    public void testDetectsFormat() throws Exception {
+        assertEquals(XContentType.JSON, RawSource.xContentType(new BytesArray(" {\"a\":1}")));
+        assertEquals(XContentType.SMILE, RawSource.xContentType(BytesReference.bytes(
+                XContentFactory.smileBuilder().startObject().endObject())));
+        assertEquals(XContentType.YAML, RawSource.xContentType(new BytesArray("---\na: 1\n")));
+    }
+
+    @Test
+    public void testForwardUntouched() throws Exception {
+        String json = "{\"title\":\"中概股\"}";
+        SearchHit hit = new SearchHit(2);
+        hit.sourceRef(new BytesArray(json));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RawSource.writeTo(RawSource.of(hit), out);
+        assertEquals(json, new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testMissingSource() throws Exception {
+        assertNull(RawSource.read(new SearchHit(1), AUTHOR_AND_SALARY));
+    }
+}
@@ -0,0 +1,58 @@
+package my.metadata;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class IndexMetadataTest {
+
+    private static final String MAPPING = "{\"properties\":{"
+            + "\"title\":{\"type\":\"text\",\"fields\":{\"raw\":{\"type\":\"keyword\",\"normalizer\":\"lowercase\"}}},"
+            + "\"content\":{\"type\":\"text\",\"analyzer\":\"my_ik_syno_max_word\",\"search_analyzer\":\"ik_smart\"},"
+            + "\"salary\":{\"type\":\"double\"},"
+            + "\"author\":{\"properties\":{\"name\":{\"type\":\"text\"}}}}}";
+
+    @Test
+    public void flattensMapping() {
+        Map<String, Object> source = XContentHelper.convertToMap(XContentType.JSON.xContent(), MAPPING, true);
+        IndexMetadata metadata = IndexMetadata.of("java-api-demo-idx", 3, 2, source, Settings.EMPTY, null);
+        assertEquals(Arrays.asList("author", "author.name", "content", "salary", "title", "title.raw"), metadata.fields());
+        assertEquals("text", metadata.type("title"));
+        assertEquals("standard", metadata.analyzer("title"));
+        assertEquals("standard", metadata.searchAnalyzer("title"));
+        assertEquals("keyword", metadata.type("title.raw"));
+        assertEquals("lowercase", metadata.normalizer("title.raw"));
+        assertNull(metadata.analyzer("title.raw"));
+        assertEquals("my_ik_syno_max_word", metadata.analyzer("content"));
+        assertEquals("ik_smart", metadata.searchAnalyzer("content"));
+        assertEquals("double", metadata.type("salary"));
+        assertEquals("object", metadata.type("author"));
+        assertEquals("text", metadata.type("author.name"));
+        assertNull(metadata.type("missing"));
+        assertFalse(metadata.hasField("missing"));
+    }
+
+    @Test
+    public void usesIndexDefaultAnalyzerAndSettings() {
+        Map<String, Object> source = XContentHelper.convertToMap(XContentType.JSON.xContent(), MAPPING, true);
+        Settings settings = Settings.builder()
+                .put("index.number_of_shards", "3")
+                .put("index.analysis.analyzer.default.type", "ik_max_word")
+                .build();
+        Settings defaults = Settings.builder().put("index.refresh_interval", "1s").build();
+        IndexMetadata metadata = IndexMetadata.of("idx", 1, 1, source, settings, defaults);
+        assertEquals("default", metadata.analyzer("title"));
+        assertEquals("my_ik_syno_max_word", metadata.analyzer("content"));
+        assertEquals("3", metadata.setting("index.number_of_shards"));
+        assertEquals("1s", metadata.setting("index.refresh_interval"));
+        assertNull(metadata.setting("index.unknown"));
+    }
+}
@@ -0,0 +1,50 @@
+package my.metadata;
+
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.metadata.IndexMetadata;
+import org.elasticsearch.cluster.routing.OperationRouting;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class ShardRoutingTest {
+
+    @Test
+    public void matchesServerRouting() {
+        for (int[] shape : new int[][] {{3, 3, 1}, {3, 768, 1}, {5, 640, 1}, {6, 6, 3}, {1, 1024, 1}}) {
+            Settings.Builder settings = Settings.builder()
+                    .put(IndexMetadata.SETTING_VERSION_CREATED, Version.CURRENT)
+                    .put(IndexMetadata.SETTING_NUMBER_OF_SHARDS, shape[0])
+                    .put(IndexMetadata.SETTING_NUMBER_OF_REPLICAS, 1);
+            if (shape[2] > 1) {
+                settings.put(IndexMetadata.INDEX_ROUTING_PARTITION_SIZE_SETTING.getKey(), shape[2]);
+            }
+            IndexMetadata metadata = IndexMetadata.builder("idx").settings(settings).setRoutingNumShards(shape[1]).build();
+            ShardRouting routing = new ShardRouting("idx", shape[0], shape[1], shape[2]);
+            for (int i = 0; i < 500; i++) {
+                String id = "doc-" + i;
+                String custom = shape[2] > 1 || i % 3 == 0 ? "user-" + (i % 7) : null;
+                assertEquals(Arrays.toString(shape) + " " + id, OperationRouting.generateShardId(metadata, id, custom),
+                        routing.shardId(id, custom));
+            }
+        }
+    }
+
+    @Test
+    public void parsesClusterState() {
+        Map<String, Object> index = new HashMap<>();
+        index.put("routing_num_shards", 768);
+        index.put("settings", Collections.singletonMap("index", Collections.singletonMap("number_of_shards", "3")));
+        Map<String, Object> body = Collections.singletonMap("metadata",
+                Collections.singletonMap("indices", Collections.singletonMap("java-api-demo-idx", index)));
+        ShardRouting routing = ShardRouting.parse(body).get("java-api-demo-idx");
+        assertEquals(3, routing.numberOfShards());
+        assertEquals(new ShardRouting("x", 3, 768, 1).shardId("1", null), routing.shardId("1", null));
+    }
+}
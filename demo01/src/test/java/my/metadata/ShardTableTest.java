@@ -0,0 +1,63 @@
+package my.metadata;
+
+import org.apache.http.HttpHost;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ShardTableTest {
+
+    @Test
+    public void parsesPublishAddress() {
+        HttpHost host = ShardTable.publishAddress("192.168.0.51:9200");
+        assertEquals("192.168.0.51", host.getHostName());
+        assertEquals(9200, host.getPort());
+        host = ShardTable.publishAddress("es-1/192.168.0.51:9201");
+        assertEquals("es-1", host.getHostName());
+        assertEquals("192.168.0.51", host.getAddress().getHostAddress());
+        assertEquals(9201, host.getPort());
+        host = ShardTable.publishAddress("[::1]:9200");
+        assertEquals("::1", host.getHostName());
+        assertEquals(9200, host.getPort());
+    }
+
+    @Test
+    public void resolvesStartedPrimaries() {
+        Map<String, Object> index = new HashMap<>();
+        index.put("routing_num_shards", 768);
+        index.put("settings", Collections.singletonMap("index", Collections.singletonMap("number_of_shards", "3")));
+        Map<String, Object> shards = new HashMap<>();
+        shards.put("0", Arrays.asList(copy("RELOCATING", true, "n1"), copy("STARTED", false, "n2")));
+        shards.put("1", Arrays.asList(copy("STARTED", false, "n1"), copy("STARTED", true, "n2")));
+        shards.put("2", Collections.singletonList(copy("UNASSIGNED", true, null)));
+        Map<String, Object> state = new HashMap<>();
+        state.put("metadata", Collections.singletonMap("indices", Collections.singletonMap("idx", index)));
+        state.put("routing_table", Collections.singletonMap("indices",
+                Collections.singletonMap("idx", Collections.singletonMap("shards", shards))));
+        Map<String, Object> nodes = new HashMap<>();
+        nodes.put("n1", Collections.singletonMap("http", Collections.singletonMap("publish_address", "10.0.0.1:9200")));
+        nodes.put("n2", Collections.singletonMap("http", Collections.singletonMap("publish_address", "10.0.0.2:9200")));
+
+        ShardTable table = ShardTable.parse(state, Collections.singletonMap("nodes", nodes));
+        assertEquals(3, table.routing("idx").numberOfShards());
+        assertEquals("10.0.0.1", table.primary("idx", 0).getHostName());
+        assertEquals("10.0.0.2", table.primary("idx", 1).getHostName());
+        assertNull(table.primary("idx", 2));
+        assertNull(table.routing("other"));
+        assertNull(table.primary("other", 0));
+    }
+
+    private static Map<String, Object> copy(String state, boolean primary, String node) {
+        Map<String, Object> copy = new HashMap<>();
+        copy.put("state", state);
+        copy.put("primary", primary);
+        copy.put("node", node);
+        return copy;
+    }
+}
@@ -0,0 +1,127 @@
+package my.reindex;
+
+import my.stub.StubCluster;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.reindex.UpdateByQueryRequest;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ByQueryRunnerTest {
+
+    @Test
+    public void parsesRunningSlicedTask() {
+        ByQueryRunner.Progress progress = ByQueryRunner.Progress.parse(json("{\"completed\":false,\"task\":{"
+                + "\"node\":\"n1\",\"id\":42,\"cancelled\":false,\"running_time_in_nanos\":2500000000,"
+                + "\"status\":{\"total\":300,\"updated\":120,\"created\":0,\"deleted\":0,\"batches\":3,"
+                + "\"version_conflicts\":1,\"noops\":0,\"requests_per_second\":500.0,"
+                + "\"slices\":[{\"slice_id\":0,\"total\":100,\"updated\":60,\"batches\":1},"
+                + "{\"slice_id\":1,\"total\":100,\"updated\":60,\"batches\":2},null]}}}"));
+
+        assertFalse(progress.completed);
+        assertFalse(progress.cancelled);
+        assertEquals(300, progress.counters.total);
+        assertEquals(120, progress.counters.updated);
+        assertEquals(500.0f, progress.requestsPerSecond, 0);
+        assertEquals(2500, progress.runningTimeMillis);
+        assertEquals(3, progress.slices.size());
+        assertEquals(1, progress.slices.get(1).sliceId);
+        assertEquals(60, progress.slices.get(1).updated);
+        // 还没开始的切片
+        assertEquals(2, progress.slices.get(2).sliceId);
+        assertEquals(0, progress.slices.get(2).total);
+        assertEquals(121.0 / 300, progress.fraction(), 1e-9);
+        assertEquals(48.4, progress.docsPerSecond(), 1e-9);
+        assertNull(progress.error);
+    }
+
+    @Test
+    public void prefersFinalResponseWhenCompleted() {
+        ByQueryRunner.Progress progress = ByQueryRunner.Progress.parse(json("{\"completed\":true,\"task\":{"
+                + "\"status\":{\"total\":10,\"deleted\":4,\"requests_per_second\":-1.0}},"
+                + "\"response\":{\"total\":10,\"deleted\":9,\"requests_per_second\":-1.0,"
+                + "\"failures\":[{\"index\":\"idx\",\"id\":\"7\",\"cause\":{\"type\":\"x\",\"reason\":\"boom\"}}]}}"));
+
+        assertTrue(progress.completed);
+        assertEquals(9, progress.counters.deleted);
+        assertEquals(-1, progress.requestsPerSecond, 0);
+        assertEquals(1, progress.failures.size());
+        assertEquals("7: boom", progress.failures.get(0));
+        assertEquals(0.9, progress.fraction(), 1e-9);
+    }
+
+    @Test
+    public void reportsTaskErrorAndCancellation() {
+        ByQueryRunner.Progress progress = ByQueryRunner.Progress.parse(json("{\"completed\":true,\"task\":{"
+                + "\"cancelled\":true,\"status\":{\"total\":10,\"canceled\":\"by user request\"}},"
+                + "\"error\":{\"type\":\"search_phase_execution_exception\",\"reason\":\"all shards failed\"}}"));
+
+        assertTrue(progress.cancelled);
+        assertEquals("search_phase_execution_exception: all shards failed", progress.error);
+        assertTrue(progress.slices.isEmpty());
+    }
+
+    @Test
+    public void detectsCounterChanges() {
+        String running = "{\"completed\":false,\"task\":{\"running_time_in_nanos\":%d,\"status\":{\"total\":10,\"updated\":%d}}}";
+        ByQueryRunner.Progress a = ByQueryRunner.Progress.parse(json(String.format(running, 1, 3)));
+        // 只有运行时间变化，不通知
+        assertTrue(a.sameCounters(ByQueryRunner.Progress.parse(json(String.format(running, 2, 3)))));
+        assertFalse(a.sameCounters(ByQueryRunner.Progress.parse(json(String.format(running, 2, 4)))));
+    }
+
+    @Test
+    public void closeFailsOutstandingJobs() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            cluster.store().put("idx", "1", Collections.singletonMap("n", 1));
+            ByQueryRunner runner = new ByQueryRunner(client, TimeValue.timeValueMillis(10));
+            CountDownLatch polled = new CountDownLatch(1);
+            CountDownLatch closed = new CountDownLatch(1);
+            // 监听器收到进度后、completion 结束前关闭
+            ByQueryRunner.Job job = runner.submit(new UpdateByQueryRequest("idx").setQuery(QueryBuilders.matchAllQuery()),
+                    progress -> {
+                        polled.countDown();
+                        try {
+                            closed.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+            assertTrue(polled.await(5, TimeUnit.SECONDS));
+            runner.close();
+            closed.countDown();
+            try {
+                job.completion().get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IllegalStateException);
+            }
+            try {
+                runner.submit(new UpdateByQueryRequest("idx"), null);
+                fail();
+            } catch (IllegalStateException e) {
+                // 关闭后不再提交任务
+            }
+        }
+    }
+
+    private static Map<String, Object> json(String json) {
+        return XContentHelper.convertToMap(XContentType.JSON.xContent(), json, false);
+    }
+}
@@ -0,0 +1,176 @@
+package my.reindex;
+
+import my.stub.StubCluster;
+import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.cluster.metadata.AliasMetadata;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.core.TimeValue;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappingMigrationTest {
+
+    private static final String ALIAS = "java-api-demo";
+    private static final String V1 = "java-api-demo-v1";
+    private static final String V2 = "java-api-demo-v2";
+
+    @Test
+    public void copiesWithDualWritesAndSwapsAlias() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            createSource(client);
+            CreateIndexRequest target = new CreateIndexRequest(V2)
+                    .settings(Settings.builder().put("index.number_of_replicas", 1))
+                    .mapping(Collections.singletonMap("_meta", Collections.singletonMap("version", 2)));
+            try (MappingMigration migration = MappingMigration.builder(client, ALIAS, target)
+                    .setPollInterval(TimeValue.timeValueMillis(10))
+                    .build()) {
+                migration.start();
+                assertEquals(V1, migration.sourceIndex());
+                assertEquals("0", cluster.store().setting(V2, "index.number_of_replicas"));
+                assertEquals("-1", cluster.store().setting(V2, "index.refresh_interval"));
+                assertEquals("24h", cluster.store().setting(V2, MappingMigration.GC_DELETES));
+
+                // 迁移期间的写入经由别名写源索引，并同步到目标索引
+                migration.update(new UpdateRequest(ALIAS, "1").doc(XContentType.JSON, "author", "赵六"),
+                        RequestOptions.DEFAULT);
+                migration.delete(new DeleteRequest(ALIAS, "2"), RequestOptions.DEFAULT);
+                migration.index(new IndexRequest(ALIAS).id("new").source(XContentType.JSON, "author", "孙七"),
+                        RequestOptions.DEFAULT);
+                migration.bulk(new BulkRequest()
+                        .add(new IndexRequest(ALIAS).id("3").source(XContentType.JSON, "author", "周八"))
+                        .add(new DeleteRequest(ALIAS, "4")), RequestOptions.DEFAULT);
+
+                MappingMigration.Result result = migration.finish();
+                assertEquals(V1, result.source);
+                assertEquals(V2, result.target);
+                assertEquals(199, result.documents);
+                assertEquals(200, result.reindex.counters.created);
+                assertEquals(5, result.mirrored);
+                assertEquals(0, result.resynced);
+                assertEquals(0, migration.mirrorFailures());
+
+                assertEquals(199, cluster.store().count(V2));
+                assertEquals("赵六", cluster.store().source(V2, "1").get("author"));
+                assertEquals("周八", cluster.store().source(V2, "3").get("author"));
+                assertNull(cluster.store().source(V2, "2"));
+                assertNull(cluster.store().source(V2, "4"));
+                assertEquals(cluster.store().version(V1, "1"), cluster.store().version(V2, "1"));
+                assertEquals("1", cluster.store().setting(V2, "index.number_of_replicas"));
+                assertNull(cluster.store().setting(V2, "index.refresh_interval"));
+                assertNull(cluster.store().setting(V2, MappingMigration.GC_DELETES));
+                assertEquals(1, cluster.store().forceMerges(V2));
+
+                // 切换后写入直接经由别名到达目标索引
+                IndexResponse after = migration.index(new IndexRequest(ALIAS).id("after")
+                        .source(XContentType.JSON, "author", "吴九"), RequestOptions.DEFAULT);
+                assertEquals(V2, after.getIndex());
+                assertNull(cluster.store().source(V1, "after"));
+                assertTrue(cluster.store().exists(V1));
+            }
+        }
+    }
+
+    @Test
+    public void keepsAliasWhenCountsDiffer() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            createSource(client);
+            try (MappingMigration migration = MappingMigration.builder(client, ALIAS, new CreateIndexRequest(V2))
+                    .setPollInterval(TimeValue.timeValueMillis(10))
+                    .build()) {
+                migration.start();
+                // 绕过本类的写入不会同步到目标索引
+                cluster.store().put(V1, "direct", Collections.singletonMap("author", "郑十"));
+                try {
+                    migration.finish();
+                    fail("expected count mismatch");
+                } catch (IllegalStateException e) {
+                    assertTrue(e.getMessage(), e.getMessage().contains("count mismatch"));
+                }
+                IndexResponse response = migration.index(new IndexRequest(ALIAS).id("later")
+                        .source(XContentType.JSON, "author", "王五"), RequestOptions.DEFAULT);
+                assertEquals(V1, response.getIndex());
+                assertEquals("王五", cluster.store().source(V2, "later").get("author"));
+
+                migration.abort();
+                assertFalse(cluster.store().exists(V2));
+                assertEquals(V1, client.index(new IndexRequest(ALIAS).id("x").source(XContentType.JSON, "n", 1),
+                        RequestOptions.DEFAULT).getIndex());
+            }
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void finishAfterCloseFailsInsteadOfWaiting() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            createSource(client);
+            MappingMigration migration = MappingMigration.builder(client, ALIAS, new CreateIndexRequest(V2))
+                    .setPollInterval(TimeValue.timeValueMillis(10))
+                    .build();
+            migration.start();
+            migration.close();
+            try {
+                migration.finish();
+                fail("expected closed migration");
+            } catch (IllegalStateException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("closed"));
+            }
+            // 别名不变，仍可放弃迁移
+            assertEquals(V1, migration.sourceIndex());
+            migration.abort();
+            assertFalse(cluster.store().exists(V2));
+        }
+    }
+
+    @Test
+    public void mirrorsWithAliasRoutingAndKeepsAliasProperties() {
+        AliasMetadata metadata = AliasMetadata.builder(ALIAS)
+                .indexRouting("r1")
+                .searchRouting("r1,r2")
+                .writeIndex(true)
+                .isHidden(false)
+                .build();
+        // 经由别名且没有 routing 的写入使用别名的 index_routing
+        assertEquals("r1", MappingMigration.routing(new IndexRequest(ALIAS).id("1"), ALIAS, metadata));
+        assertEquals("own", MappingMigration.routing(new DeleteRequest(ALIAS, "1").routing("own"), ALIAS, metadata));
+        assertNull(MappingMigration.routing(new DeleteRequest(V1, "1"), ALIAS, metadata));
+
+        IndicesAliasesRequest.AliasActions add = MappingMigration.addAlias(V2, metadata);
+        assertEquals(V2, add.indices()[0]);
+        assertEquals(ALIAS, add.aliases()[0]);
+        assertEquals("r1", add.indexRouting());
+        assertEquals("r1,r2", add.searchRouting());
+        assertEquals(Boolean.TRUE, add.writeIndex());
+        assertEquals(Boolean.FALSE, add.isHidden());
+    }
+
+    private static void createSource(RestHighLevelClient client) throws Exception {
+        client.indices().create(new CreateIndexRequest(V1).alias(new Alias(ALIAS)), RequestOptions.DEFAULT);
+        BulkRequest bulk = new BulkRequest().setRefreshPolicy("true");
+        for (int i = 0; i < 200; i++) {
+            bulk.add(new IndexRequest(ALIAS).id(String.valueOf(i))
+                    .source(XContentType.JSON, "author", "王五", "salary", 56000.0 + i));
+        }
+        client.bulk(bulk, RequestOptions.DEFAULT);
+    }
+}
@@ -0,0 +1,127 @@
+package my.search;
+
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompositeAggregationPagerTest {
+
+    @Test
+    public void decodesBucketsIntoColumns() throws IOException {
+        CompositeAggregationPager.Page page = parse("{\"timed_out\":false,\"_shards\":{\"failed\":0},\"aggregations\":{"
+                + "\"byAuthor\":{\"after_key\":{\"byAuthor\":\"王五\"},\"buckets\":["
+                + "{\"key\":{\"byAuthor\":\"小明\"},\"doc_count\":1,\"countDoc\":{\"value\":1},\"average_salary\":{\"value\":31000.0},"
+                + "\"salary_stats\":{\"count\":1,\"min\":31000.0,\"max\":31000.0,\"avg\":31000.0,\"sum\":31000.0}},"
+                + "{\"key\":{\"byAuthor\":\"李四\"},\"doc_count\":3,\"countDoc\":{\"value\":0},\"average_salary\":{\"value\":null},"
+                + "\"salary_stats\":{\"count\":0,\"min\":null,\"max\":null,\"avg\":null,\"sum\":0.0}},"
+                + "{\"key\":{\"byAuthor\":\"王五\"},\"doc_count\":2,\"countDoc\":{\"value\":2},"
+                + "\"average_salary\":{\"value\":56000.0,\"value_as_string\":\"56,000\"},"
+                + "\"salary_stats\":{\"count\":2,\"min\":56000.0,\"max\":56000.0,\"avg\":56000.0,\"sum\":112000.0}}]}}}",
+                Collections.singletonList("byAuthor"));
+
+        assertEquals(3, page.size());
+        assertEquals("李四", page.key(1, "byAuthor"));
+        assertArrayEquals(new long[] {1, 3, 2}, page.docCounts());
+        assertArrayEquals(new long[] {1, 0, 2}, page.longs("countDoc"));
+        double[] avg = page.doubles("average_salary");
+        assertEquals(31000.0, avg[0], 0);
+        assertTrue(Double.isNaN(avg[1]));
+        assertEquals(56000.0, avg[2], 0);
+        assertArrayEquals(new long[] {1, 0, 2}, page.longs("salary_stats.count"));
+        assertEquals(112000.0, page.doubles("salary_stats.sum")[2], 0);
+        assertTrue(Double.isNaN(page.doubles("salary_stats.max")[1]));
+        assertEquals(Collections.singletonMap("byAuthor", "王五"), page.afterKey());
+        // 整数列也能按 double 读
+        assertEquals(2.0, page.doubles("countDoc")[2], 0);
+        try {
+            page.longs("average_salary");
+            fail();
+        } catch (IllegalStateException e) {
+            // double 列不能按 long 读
+        }
+    }
+
+    @Test
+    public void decodesMultiSourceAndMissingKeys() throws IOException {
+        CompositeAggregationPager.Page page = parse("{\"aggregations\":{\"composite\":{\"buckets\":["
+                + "{\"key\":{\"day\":1635724800000,\"author\":null},\"doc_count\":4},"
+                + "{\"key\":{\"day\":1635811200000,\"author\":\"王五\"},\"doc_count\":5}]}}}",
+                Arrays.asList("day", "author"), "composite");
+
+        assertArrayEquals(new long[] {1635724800000L, 1635811200000L}, page.longKeys("day"));
+        assertNull(page.key(0, "author"));
+        assertEquals("王五", page.key(1, "author"));
+        assertNull(page.afterKey());
+        assertTrue(page.columns().isEmpty());
+    }
+
+    @Test
+    public void rejectsIncompleteResults() throws IOException {
+        try {
+            parse("{\"_shards\":{\"failed\":1,\"failures\":[{\"reason\":\"boom\"}]},\"aggregations\":{}}",
+                    Collections.singletonList("byAuthor"));
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("boom"));
+        }
+    }
+
+    @Test
+    public void rewritesTermsAggregation() throws IOException {
+        TermsAggregationBuilder terms = AggregationBuilders.terms("byAuthor").field("author").size(10);
+        terms.subAggregation(AggregationBuilders.avg("average_salary").field("salary"));
+        CompositeAggregationPager pager = CompositeAggregationPager.builder(null, "java-api-demo-idx")
+                .setTerms(terms)
+                .setPageSize(500)
+                .build();
+        Request request = pager.request(Collections.singletonMap("byAuthor", "王五"));
+        assertEquals("/java-api-demo-idx/_search", request.getEndpoint());
+        String body = EntityUtils.toString(request.getEntity());
+        assertTrue(body, body.contains("\"composite\":{\"size\":500,\"sources\":[{\"byAuthor\":{\"terms\":{\"field\":\"author\""));
+        assertTrue(body, body.contains("\"after\":{\"byAuthor\":\"王五\"}"));
+        assertTrue(body, body.contains("\"average_salary\":{\"avg\":{\"field\":\"salary\"}}"));
+        assertTrue(body, body.contains("\"size\":0"));
+
+        try {
+            CompositeAggregationPager.builder(null, "idx").setTerms(AggregationBuilders.terms("t").field("f")
+                    .subAggregation(AggregationBuilders.terms("nested").field("g")));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // 只支持指标子聚合
+        }
+        try {
+            CompositeAggregationPager.builder(null, "idx").setTerms(AggregationBuilders.terms("t").field("f").minDocCount(2));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // min_doc_count 无法改写
+        }
+    }
+
+    private static CompositeAggregationPager.Page parse(String json, List<String> keyNames) throws IOException {
+        return parse(json, keyNames, "byAuthor");
+    }
+
+    private static CompositeAggregationPager.Page parse(String json, List<String> keyNames, String name) throws IOException {
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, json)) {
+            return CompositeAggregationPager.parse(parser, name, keyNames, 2);
+        }
+    }
+}
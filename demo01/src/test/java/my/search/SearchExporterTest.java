@@ -0,0 +1,82 @@
+package my.search;
+
+import my.stub.StubCluster;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SearchExporterTest {
+
+    @Test
+    public void exportsEverySliceAndClosesLatestPointInTimes() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            for (int i = 0; i < 25; i++) {
+                cluster.store().put("idx", String.valueOf(i), Collections.singletonMap("n", i));
+            }
+            SearchSourceBuilder source = new SearchSourceBuilder().from(5).size(2);
+            Map<String, Integer> seen = new ConcurrentHashMap<>();
+            Set<Integer> pageSizes = ConcurrentHashMap.newKeySet();
+            long[] counts = SearchExporter.builder(client, "idx")
+                    .setSource(source)
+                    .setPageSize(4)
+                    .setSlices(3)
+                    .build()
+                    .export((slice, hits) -> {
+                        pageSizes.add(hits.length);
+                        for (SearchHit hit : hits) {
+                            seen.merge(hit.getId(), 1, Integer::sum);
+                        }
+                    });
+
+            assertEquals(3, counts.length);
+            assertEquals(25, counts[0] + counts[1] + counts[2]);
+            // 每个文档恰好导出一次，from 不会跳过文档
+            assertEquals(25, seen.size());
+            assertTrue(seen.values().stream().allMatch(c -> c == 1));
+            assertTrue(pageSizes.stream().allMatch(size -> size <= 4));
+            // 调用方的 SearchSourceBuilder 未被修改
+            assertEquals(5, source.from());
+            assertEquals(2, source.size());
+            assertNull(source.sorts());
+            assertEquals(0, cluster.openPointInTimes());
+        }
+    }
+
+    @Test
+    public void closesPointInTimesWhenConsumerFails() throws Exception {
+        try (StubCluster cluster = StubCluster.builder().build();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+            for (int i = 0; i < 10; i++) {
+                cluster.store().put("idx", String.valueOf(i), Collections.singletonMap("n", i));
+            }
+            SearchExporter exporter = SearchExporter.builder(client, "idx")
+                    .setQuery(QueryBuilders.matchAllQuery())
+                    .setPageSize(2)
+                    .build();
+            try {
+                exporter.export((slice, hits) -> {
+                    throw new IOException("consumer failed");
+                });
+                fail();
+            } catch (IOException e) {
+                assertEquals("consumer failed", e.getMessage());
+            }
+            assertEquals(0, cluster.openPointInTimes());
+        }
+    }
+}
@@ -0,0 +1,489 @@
+package my.stub;
+
+import org.elasticsearch.common.UUIDs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * {@link StubCluster} 的内存文档存储。写入立即可见（相当于每次写入后都 refresh），没有分片与副本，
+ * 同一文档的写入按 _id 串行；_seq_no 在索引内单调递增，_primary_term 恒为 1。
+ * 删除后保留版本号（tombstone，不会过期），供外部版本号（version_type=external）的写入比较。
+ * 别名只指向单个索引时可以用于写入。
+ * 测试代码可以直接通过 {@link #put}/{@link #source} 准备和检查数据，不必经过 HTTP。
+ */
+public class DocumentStore {
+
+    static final long UNASSIGNED_SEQ_NO = -2;
+    // 不使用外部版本号
+    static final long INTERNAL_VERSION = -1;
+
+    private final ConcurrentHashMap<String, IndexData> indices = new ConcurrentHashMap<>();
+    private final Map<String, StubScript> scripts = new ConcurrentHashMap<>();
+
+    /**
+     * 一个文档的某个版本，不可变。
+     */
+    static final class Doc {
+        final String id;
+        final long version;
+        final long seqNo;
+        final Map<String, Object> source;
+
+        Doc(String id, long version, long seqNo, Map<String, Object> source) {
+            this.id = id;
+            this.version = version;
+            this.seqNo = seqNo;
+            this.source = source;
+        }
+    }
+
+    static final class IndexData {
+        final String name;
+        final int numberOfShards;
+        final ConcurrentHashMap<String, Doc> docs = new ConcurrentHashMap<>();
+        final AtomicLong seqNo = new AtomicLong(-1);
+        // 显式设置过的索引设置，键为完整名称（index.refresh_interval），只保存不生效
+        final Map<String, String> settings = new ConcurrentHashMap<>();
+        volatile Map<String, Object> meta = Collections.emptyMap();
+        final AtomicLong forceMerges = new AtomicLong();
+        // 已删除文档的最后版本号
+        final Map<String, Long> tombstones = new ConcurrentHashMap<>();
+        final Set<String> aliases = ConcurrentHashMap.newKeySet();
+
+        IndexData(String name, int numberOfShards) {
+            this.name = name;
+            this.numberOfShards = numberOfShards;
+            settings.put("index.number_of_shards", String.valueOf(numberOfShards));
+            settings.put("index.number_of_replicas", "1");
+        }
+    }
+
+    /**
+     * 写操作的结果，status 与 body 对应 bulk 响应中的一个条目。
+     */
+    static final class WriteResult {
+        final int status;
+        final Map<String, Object> body;
+
+        WriteResult(int status, Map<String, Object> body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    /**
+     * 直接写入一个文档（覆盖已有版本）。
+     */
+    public void put(String index, String id, Map<String, Object> source) {
+        index(index, id, copy(source), false, UNASSIGNED_SEQ_NO);
+    }
+
+    /**
+     * 文档的当前 _source，不存在时为 null。返回值是副本。
+     */
+    public Map<String, Object> source(String index, String id) {
+        IndexData data = indices.get(index);
+        Doc doc = data == null ? null : data.docs.get(id);
+        return doc == null ? null : copy(doc.source);
+    }
+
+    /**
+     * 文档的当前版本号，不存在时为 -1。
+     */
+    public long version(String index, String id) {
+        IndexData data = indices.get(index);
+        Doc doc = data == null ? null : data.docs.get(id);
+        return doc == null ? -1 : doc.version;
+    }
+
+    public int count(String index) {
+        IndexData data = indices.get(index);
+        return data == null ? 0 : data.docs.size();
+    }
+
+    /**
+     * 显式设置的索引设置，如 "index.number_of_replicas"，未设置时为 null。
+     */
+    public String setting(String index, String key) {
+        IndexData data = indices.get(index);
+        return data == null ? null : data.settings.get(key);
+    }
+
+    /**
+     * 该索引收到的 _forcemerge 请求数。
+     */
+    public long forceMerges(String index) {
+        IndexData data = indices.get(index);
+        return data == null ? 0 : data.forceMerges.get();
+    }
+
+    public boolean exists(String index) {
+        return indices.containsKey(index);
+    }
+
+    public void deleteIndex(String index) {
+        indices.remove(index);
+    }
+
+    public void clear() {
+        indices.clear();
+    }
+
+    /**
+     * 注册脚本的 Java 实现，按脚本源码匹配，供 _update 与 _update_by_query 使用。
+     */
+    public void registerScript(String source, StubScript script) {
+        scripts.put(source, script);
+    }
+
+    // ---- 以下由 RestDispatcher 调用 ----
+
+    /**
+     * @return 新建时为 true，已存在时为 false
+     */
+    boolean createIndex(String index, int numberOfShards) {
+        return indices.putIfAbsent(index, new IndexData(index, numberOfShards)) == null;
+    }
+
+    IndexData index(String index) {
+        return indices.get(index);
+    }
+
+    Collection<IndexData> indices() {
+        return indices.values();
+    }
+
+    // 写入时自动建索引
+    private IndexData indexForWrite(String index) {
+        return indices.computeIfAbsent(index, name -> new IndexData(name, 1));
+    }
+
+    /**
+     * 索引名原样返回；只指向一个索引的别名解析为该索引；不存在时原样返回（写入时自动创建）。
+     */
+    String concrete(String name) {
+        if (name == null || indices.containsKey(name)) {
+            return name;
+        }
+        List<IndexData> targets = aliased(name);
+        if (targets.size() > 1) {
+            throw new IllegalArgumentException("no write index is defined for alias [" + name + "]."
+                    + " The write index may be explicitly disabled using is_write_index=false or the alias points to multiple"
+                    + " indices without one being designated as a write index");
+        }
+        return targets.isEmpty() ? name : targets.get(0).name;
+    }
+
+    List<IndexData> aliased(String alias) {
+        List<IndexData> result = new ArrayList<>();
+        for (IndexData data : indices.values()) {
+            if (data.aliases.contains(alias)) {
+                result.add(data);
+            }
+        }
+        result.sort(Comparator.comparing(data -> data.name));
+        return result;
+    }
+
+    /**
+     * 按逗号分隔、可带通配符的索引表达式解析出索引，_all 与 * 为全部。
+     */
+    List<IndexData> resolve(String expression) {
+        List<IndexData> result = new ArrayList<>();
+        if (expression == null || expression.isEmpty() || "_all".equals(expression)) {
+            result.addAll(indices.values());
+        } else {
+            for (String part : expression.split(",")) {
+                if (part.contains("*")) {
+                    Pattern pattern = Pattern.compile(Pattern.quote(part).replace("*", "\\E.*\\Q"));
+                    for (IndexData data : indices.values()) {
+                        if (pattern.matcher(data.name).matches() && !result.contains(data)) {
+                            result.add(data);
+                        }
+                    }
+                } else if (indices.containsKey(part)) {
+                    if (!result.contains(indices.get(part))) {
+                        result.add(indices.get(part));
+                    }
+                } else {
+                    for (IndexData data : aliased(part)) {
+                        if (!result.contains(data)) {
+                            result.add(data);
+                        }
+                    }
+                }
+            }
+        }
+        result.sort(Comparator.comparing(data -> data.name));
+        return result;
+    }
+
+    Doc get(String index, String id) {
+        IndexData data = indices.get(concrete(index));
+        return data == null ? null : data.docs.get(id);
+    }
+
+    WriteResult index(String index, String id, Map<String, Object> source, boolean create, long ifSeqNo) {
+        return index(index, id, source, create, ifSeqNo, INTERNAL_VERSION);
+    }
+
+    /**
+     * @param id              为 null 时自动生成
+     * @param ifSeqNo         乐观并发控制，{@link #UNASSIGNED_SEQ_NO} 表示不检查
+     * @param externalVersion version_type=external 的版本号，必须大于当前版本（含已删除文档的版本）；
+     *                        {@link #INTERNAL_VERSION} 表示使用内部版本号
+     */
+    WriteResult index(String index, String id, Map<String, Object> source, boolean create, long ifSeqNo,
+                      long externalVersion) {
+        String name = concrete(index);
+        IndexData data = indexForWrite(name);
+        String docId = id == null ? UUIDs.base64UUID() : id;
+        WriteResult[] result = new WriteResult[1];
+        data.docs.compute(docId, (key, current) -> {
+            if (create && current != null) {
+                result[0] = conflict(name, docId, "document already exists (current version [" + current.version + "])");
+                return current;
+            }
+            if (ifSeqNo != UNASSIGNED_SEQ_NO && (current == null || current.seqNo != ifSeqNo)) {
+                result[0] = conflict(name, docId, "required seqNo [" + ifSeqNo + "], current document has seqNo ["
+                        + (current == null ? UNASSIGNED_SEQ_NO : current.seqNo) + "]");
+                return current;
+            }
+            long version = current == null ? 1 : current.version + 1;
+            if (externalVersion != INTERNAL_VERSION) {
+                WriteResult stale = staleExternal(data, name, docId, current, externalVersion);
+                if (stale != null) {
+                    result[0] = stale;
+                    return current;
+                }
+                version = externalVersion;
+            }
+            Doc doc = new Doc(docId, version, data.seqNo.incrementAndGet(), source);
+            data.tombstones.remove(docId);
+            result[0] = success(name, doc, current == null ? "created" : "updated", current == null ? 201 : 200);
+            return doc;
+        });
+        return result[0];
+    }
+
+    WriteResult delete(String index, String id, long ifSeqNo) {
+        return delete(index, id, ifSeqNo, INTERNAL_VERSION);
+    }
+
+    WriteResult delete(String index, String id, long ifSeqNo, long externalVersion) {
+        String name = concrete(index);
+        IndexData data = indices.get(name);
+        if (data == null) {
+            return error(404, name, id, "index_not_found_exception", "no such index [" + name + "]");
+        }
+        WriteResult[] result = new WriteResult[1];
+        data.docs.compute(id, (key, current) -> {
+            if (ifSeqNo != UNASSIGNED_SEQ_NO && (current == null || current.seqNo != ifSeqNo)) {
+                result[0] = conflict(name, id, "required seqNo [" + ifSeqNo + "], current document has seqNo ["
+                        + (current == null ? UNASSIGNED_SEQ_NO : current.seqNo) + "]");
+                return current;
+            }
+            long version = current == null ? 1 : current.version + 1;
+            if (externalVersion != INTERNAL_VERSION) {
+                WriteResult stale = staleExternal(data, name, id, current, externalVersion);
+                if (stale != null) {
+                    result[0] = stale;
+                    return current;
+                }
+                version = externalVersion;
+            }
+            Doc tombstone = new Doc(id, version, data.seqNo.incrementAndGet(), null);
+            data.tombstones.put(id, version);
+            result[0] = success(name, tombstone, current == null ? "not_found" : "deleted", current == null ? 404 : 200);
+            return null;
+        });
+        return result[0];
+    }
+
+    // 外部版本号不大于当前版本（或已删除文档的版本）时冲突
+    private static WriteResult staleExternal(IndexData data, String index, String id, Doc current, long externalVersion) {
+        Long previous = current != null ? Long.valueOf(current.version) : data.tombstones.get(id);
+        if (previous != null && previous >= externalVersion) {
+            return conflict(index, id, "current version [" + previous + "] is higher or equal to the one provided ["
+                    + externalVersion + "]");
+        }
+        return null;
+    }
+
+    /**
+     * 把别名加到索引上或从索引上移除。
+     */
+    void alias(String index, String alias, boolean add) {
+        IndexData data = indices.get(index);
+        if (data == null) {
+            throw new IllegalArgumentException("no such index [" + index + "]");
+        }
+        if (add) {
+            data.aliases.add(alias);
+        } else if (!data.aliases.remove(alias)) {
+            throw new IllegalArgumentException("aliases [" + alias + "] missing");
+        }
+    }
+
+    /**
+     * 执行 _update 请求体：doc（部分文档，深度合并）、upsert、doc_as_upsert、script（需先注册）。
+     */
+    @SuppressWarnings("unchecked")
+    WriteResult update(String requestIndex, String id, Map<String, Object> body, long ifSeqNo) {
+        String index = concrete(requestIndex);
+        Map<String, Object> doc = (Map<String, Object>) body.get("doc");
+        Map<String, Object> upsert = (Map<String, Object>) body.get("upsert");
+        boolean docAsUpsert = Boolean.TRUE.equals(body.get("doc_as_upsert"));
+        boolean detectNoop = !Boolean.FALSE.equals(body.get("detect_noop"));
+        StubScript script = null;
+        Map<String, Object> params = null;
+        if (body.get("script") != null) {
+            Object spec = body.get("script");
+            String scriptSource = spec instanceof Map ? (String) ((Map<String, Object>) spec).get("source") : (String) spec;
+            params = spec instanceof Map && ((Map<String, Object>) spec).get("params") instanceof Map
+                    ? (Map<String, Object>) ((Map<String, Object>) spec).get("params") : new LinkedHashMap<>();
+            script = scripts.get(scriptSource);
+            if (script == null) {
+                return error(400, index, id, "illegal_argument_exception", "script [" + scriptSource + "] is not registered in the stub");
+            }
+        } else if (doc == null) {
+            return error(400, index, id, "action_request_validation_exception", "Validation Failed: 1: script or doc is missing;");
+        }
+        IndexData data = indexForWrite(index);
+        StubScript finalScript = script;
+        Map<String, Object> finalParams = params;
+        WriteResult[] result = new WriteResult[1];
+        data.docs.compute(id, (key, current) -> {
+            if (ifSeqNo != UNASSIGNED_SEQ_NO && (current == null || current.seqNo != ifSeqNo)) {
+                result[0] = conflict(index, id, "required seqNo [" + ifSeqNo + "], current document has seqNo ["
+                        + (current == null ? UNASSIGNED_SEQ_NO : current.seqNo) + "]");
+                return current;
+            }
+            if (current == null) {
+                Map<String, Object> created = upsert != null ? copy(upsert) : docAsUpsert ? copy(doc) : null;
+                if (created == null) {
+                    result[0] = error(404, index, id, "document_missing_exception", "[_doc][" + id + "]: document missing");
+                    return null;
+                }
+                Doc next = new Doc(id, 1, data.seqNo.incrementAndGet(), created);
+                result[0] = success(index, next, "created", 201);
+                return next;
+            }
+            Map<String, Object> updated = copy(current.source);
+            String op = "index";
+            if (finalScript != null) {
+                op = execute(finalScript, current, updated, finalParams);
+            } else {
+                merge(updated, doc);
+                if (detectNoop && updated.equals(current.source)) {
+                    op = "none";
+                }
+            }
+            if ("none".equals(op) || "noop".equals(op)) {
+                result[0] = success(index, current, "noop", 200);
+                return current;
+            }
+            if ("delete".equals(op)) {
+                result[0] = success(index, new Doc(id, current.version + 1, data.seqNo.incrementAndGet(), null), "deleted", 200);
+                data.tombstones.put(id, current.version + 1);
+                return null;
+            }
+            Doc next = new Doc(id, current.version + 1, data.seqNo.incrementAndGet(), updated);
+            result[0] = success(index, next, "updated", 200);
+            return next;
+        });
+        return result[0];
+    }
+
+    StubScript script(String source) {
+        return scripts.get(source);
+    }
+
+    /**
+     * 以 ctx（_id、_source、op）执行脚本，返回脚本设置的 op。
+     */
+    static String execute(StubScript script, Doc current, Map<String, Object> source, Map<String, Object> params) {
+        Map<String, Object> ctx = new LinkedHashMap<>();
+        ctx.put("_id", current.id);
+        ctx.put("_version", current.version);
+        ctx.put("_source", source);
+        ctx.put("op", "index");
+        script.execute(ctx, params);
+        return String.valueOf(ctx.get("op"));
+    }
+
+    /**
+     * 把 partial 深度合并到 target。
+     */
+    @SuppressWarnings("unchecked")
+    static void merge(Map<String, Object> target, Map<String, Object> partial) {
+        for (Map.Entry<String, Object> entry : partial.entrySet()) {
+            Object existing = target.get(entry.getKey());
+            if (existing instanceof Map && entry.getValue() instanceof Map) {
+                merge((Map<String, Object>) existing, (Map<String, Object>) entry.getValue());
+            } else {
+                target.put(entry.getKey(), copyValue(entry.getValue()));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> copy(Map<String, Object> source) {
+        return (Map<String, Object>) copyValue(source);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object copyValue(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> copy = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> e : ((Map<String, Object>) value).entrySet()) {
+                copy.put(e.getKey(), copyValue(e.getValue()));
+            }
+            return copy;
+        }
+        if (value instanceof Collection) {
+            List<Object> copy = new ArrayList<>();
+            for (Object v : (Collection<Object>) value) {
+                copy.add(copyValue(v));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    private static WriteResult success(String index, Doc doc, String result, int status) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("_index", index);
+        body.put("_type", "_doc");
+        body.put("_id", doc.id);
+        body.put("_version", doc.version);
+        body.put("result", result);
+        body.put("_shards", RestDispatcher.shards(1));
+        body.put("_seq_no", doc.seqNo);
+        body.put("_primary_term", 1);
+        return new WriteResult(status, body);
+    }
+
+    private static WriteResult conflict(String index, String id, String reason) {
+        return error(409, index, id, "version_conflict_engine_exception", "[" + id + "]: version conflict, " + reason);
+    }
+
+    static WriteResult error(int status, String index, String id, String type, String reason) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("_index", index);
+        body.put("_type", "_doc");
+        body.put("_id", id);
+        body.put("error", RestDispatcher.cause(type, reason, index));
+        return new WriteResult(status, body);
+    }
+}
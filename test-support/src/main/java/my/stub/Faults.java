@@ -0,0 +1,163 @@
+package my.stub;
+
+import org.elasticsearch.core.TimeValue;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link StubCluster} 的故障注入配置，运行中可随时修改，对之后的请求生效。
+ * 随机数使用固定种子，同样的请求序列得到同样的故障序列（并发请求之间的先后仍由调度决定）。
+ * 集群信息请求（GET /）不受影响，以免客户端的产品校验失败。
+ */
+public class Faults {
+
+    private final Random random;
+    private volatile long minLatencyNanos = 0;
+    private volatile long maxLatencyNanos = 0;
+    private volatile double errorRate = 0;
+    private volatile int errorStatus = 503;
+    private volatile double rejectionRate = 0;
+    private volatile double itemRejectionRate = 0;
+
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+    private final AtomicLong itemRejections = new AtomicLong();
+
+    Faults(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * 每个响应延迟 [min, max] 内均匀分布的时间后发出。延迟不占用处理线程。
+     */
+    public Faults setLatency(TimeValue min, TimeValue max) {
+        if (min.nanos() < 0 || max.nanos() < min.nanos()) {
+            throw new IllegalArgumentException("latency must satisfy 0 <= min <= max, got [" + min + ", " + max + "]");
+        }
+        this.minLatencyNanos = min.nanos();
+        this.maxLatencyNanos = max.nanos();
+        return this;
+    }
+
+    public Faults setLatency(TimeValue latency) {
+        return setLatency(latency, latency);
+    }
+
+    /**
+     * 以 rate 的概率直接返回 status 错误，不执行请求。502/503/504 会让客户端换节点重试，500 不会。
+     */
+    public Faults setErrorRate(double rate, int status) {
+        checkRate(rate);
+        if (status < 400 || status > 599) {
+            throw new IllegalArgumentException("status must be a 4xx or 5xx code, got [" + status + "]");
+        }
+        this.errorRate = rate;
+        this.errorStatus = status;
+        return this;
+    }
+
+    /**
+     * 以 rate 的概率整个请求返回 429 es_rejected_execution_exception（写线程池队列满），不执行请求。
+     */
+    public Faults setRejectionRate(double rate) {
+        checkRate(rate);
+        this.rejectionRate = rate;
+        return this;
+    }
+
+    /**
+     * bulk 中每个条目以 rate 的概率单独返回 429，其余条目照常执行。
+     */
+    public Faults setItemRejectionRate(double rate) {
+        checkRate(rate);
+        this.itemRejectionRate = rate;
+        return this;
+    }
+
+    /**
+     * 清除全部故障配置，计数保留。
+     */
+    public Faults reset() {
+        minLatencyNanos = 0;
+        maxLatencyNanos = 0;
+        errorRate = 0;
+        rejectionRate = 0;
+        itemRejectionRate = 0;
+        return this;
+    }
+
+    /**
+     * 已注入的错误响应数。
+     */
+    public long errors() {
+        return errors.get();
+    }
+
+    /**
+     * 已注入的整请求 429 数。
+     */
+    public long rejections() {
+        return rejections.get();
+    }
+
+    /**
+     * 已注入的 bulk 条目 429 数。
+     */
+    public long itemRejections() {
+        return itemRejections.get();
+    }
+
+    long nextLatencyNanos() {
+        long min = minLatencyNanos;
+        long max = maxLatencyNanos;
+        if (max == 0) {
+            return 0;
+        }
+        return min == max ? min : min + (long) (random.nextDouble() * (max - min));
+    }
+
+    /**
+     * @return 要注入的错误状态码，不注入时为 0
+     */
+    int nextFailure() {
+        double reject = rejectionRate;
+        double error = errorRate;
+        if (reject == 0 && error == 0) {
+            return 0;
+        }
+        double r = random.nextDouble();
+        if (r < reject) {
+            rejections.incrementAndGet();
+            return 429;
+        }
+        if (r < reject + error) {
+            errors.incrementAndGet();
+            return errorStatus;
+        }
+        return 0;
+    }
+
+    boolean rejectItem() {
+        double rate = itemRejectionRate;
+        if (rate > 0 && random.nextDouble() < rate) {
+            itemRejections.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private static void checkRate(double rate) {
+        if (!(rate >= 0 && rate <= 1)) {
+            throw new IllegalArgumentException("rate must be within [0, 1], got [" + rate + "]");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "latency=[" + TimeUnit.NANOSECONDS.toMillis(minLatencyNanos) + "ms, " + TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos)
+                + "ms], errorRate=" + errorRate + "(" + errorStatus + "), rejectionRate=" + rejectionRate
+                + ", itemRejectionRate=" + itemRejectionRate;
+    }
+}
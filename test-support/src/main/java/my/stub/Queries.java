@@ -0,0 +1,373 @@
+package my.stub;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 查询 DSL 的一个子集在内存文档上的求值，以及简化的 standard 分词。
+ * 不做相关性打分，所有命中的 _score 都是 1.0；term 按原值精确匹配，match 按分词后有交集匹配。
+ */
+final class Queries {
+
+    private Queries() {
+    }
+
+    /**
+     * 文档是否满足查询，query 为 null 时等同 match_all。
+     *
+     * @throws IllegalArgumentException 不支持的查询类型
+     */
+    @SuppressWarnings("unchecked")
+    static boolean matches(Map<String, Object> query, String id, Map<String, Object> source) {
+        if (query == null || query.isEmpty()) {
+            return true;
+        }
+        if (query.size() != 1) {
+            throw new IllegalArgumentException("query malformed, expected a single query type but found " + query.keySet());
+        }
+        Map.Entry<String, Object> entry = query.entrySet().iterator().next();
+        Map<String, Object> body = entry.getValue() instanceof Map ? (Map<String, Object>) entry.getValue() : Collections.emptyMap();
+        switch (entry.getKey()) {
+            case "match_all":
+                return true;
+            case "match_none":
+                return false;
+            case "ids":
+                return asList(body.get("values")).contains(id);
+            case "bool":
+                return bool(body, id, source);
+            case "constant_score":
+                return matches((Map<String, Object>) body.get("filter"), id, source);
+            case "exists":
+                return !values(id, source, (String) body.get("field")).isEmpty();
+            case "term":
+            case "terms":
+            case "match":
+            case "match_phrase":
+            case "prefix":
+            case "range":
+                return field(entry.getKey(), body, id, source);
+            default:
+                throw new IllegalArgumentException("query [" + entry.getKey() + "] is not supported by the stub");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean bool(Map<String, Object> body, String id, Map<String, Object> source) {
+        for (String clause : new String[] {"must", "filter"}) {
+            for (Object q : asList(body.get(clause))) {
+                if (!matches((Map<String, Object>) q, id, source)) {
+                    return false;
+                }
+            }
+        }
+        for (Object q : asList(body.get("must_not"))) {
+            if (matches((Map<String, Object>) q, id, source)) {
+                return false;
+            }
+        }
+        List<Object> should = asList(body.get("should"));
+        if (should.isEmpty()) {
+            return true;
+        }
+        int minimum = body.get("minimum_should_match") != null
+                ? Integer.parseInt(body.get("minimum_should_match").toString())
+                : body.containsKey("must") || body.containsKey("filter") ? 0 : 1;
+        int matched = 0;
+        for (Object q : should) {
+            if (matches((Map<String, Object>) q, id, source)) {
+                matched++;
+            }
+        }
+        return matched >= minimum;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean field(String type, Map<String, Object> body, String id, Map<String, Object> source) {
+        Map.Entry<String, Object> fieldEntry = null;
+        for (Map.Entry<String, Object> e : body.entrySet()) {
+            if (!"boost".equals(e.getKey()) && !"_name".equals(e.getKey())) {
+                fieldEntry = e;
+            }
+        }
+        if (fieldEntry == null) {
+            throw new IllegalArgumentException("[" + type + "] query does not have a field");
+        }
+        List<Object> actual = values(id, source, fieldEntry.getKey());
+        Object spec = fieldEntry.getValue();
+        Map<String, Object> options = spec instanceof Map ? (Map<String, Object>) spec : Collections.emptyMap();
+        switch (type) {
+            case "term":
+                Object expected = spec instanceof Map ? options.get("value") : spec;
+                return actual.stream().anyMatch(v -> equal(v, expected));
+            case "terms":
+                List<Object> terms = asList(spec);
+                return actual.stream().anyMatch(v -> terms.stream().anyMatch(t -> equal(v, t)));
+            case "prefix":
+                String prefix = String.valueOf(spec instanceof Map ? options.get("value") : spec);
+                return actual.stream().anyMatch(v -> String.valueOf(v).startsWith(prefix));
+            case "range":
+                return actual.stream().anyMatch(v -> inRange(v, options));
+            default:
+                String text = String.valueOf(spec instanceof Map ? options.get("query") : spec);
+                boolean all = "match_phrase".equals(type) || "and".equalsIgnoreCase(String.valueOf(options.get("operator")));
+                Set<String> wanted = terms(text);
+                Set<String> present = new HashSet<>();
+                for (Object v : actual) {
+                    present.addAll(terms(String.valueOf(v)));
+                }
+                return all ? !wanted.isEmpty() && present.containsAll(wanted) : wanted.stream().anyMatch(present::contains);
+        }
+    }
+
+    private static boolean inRange(Object value, Map<String, Object> range) {
+        for (Map.Entry<String, Object> bound : range.entrySet()) {
+            if (bound.getValue() == null) {
+                continue;
+            }
+            int c = compare(value, bound.getValue());
+            switch (bound.getKey()) {
+                case "gt":
+                    if (c <= 0) {
+                        return false;
+                    }
+                    break;
+                case "gte":
+                case "from":
+                    if (c < 0) {
+                        return false;
+                    }
+                    break;
+                case "lt":
+                    if (c >= 0) {
+                        return false;
+                    }
+                    break;
+                case "lte":
+                case "to":
+                    if (c > 0) {
+                        return false;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 取字段的所有值（数组展开），支持点号路径；{@code xxx.keyword} 子字段按 xxx 处理。
+     */
+    @SuppressWarnings("unchecked")
+    static List<Object> values(String id, Map<String, Object> source, String field) {
+        if ("_id".equals(field)) {
+            return Collections.singletonList(id);
+        }
+        if (field.endsWith(".keyword")) {
+            field = field.substring(0, field.length() - ".keyword".length());
+        }
+        List<Object> current = Collections.singletonList(source);
+        for (String part : field.split("\\.")) {
+            List<Object> next = new ArrayList<>();
+            for (Object node : current) {
+                if (node instanceof Map) {
+                    flatten(((Map<String, Object>) node).get(part), next);
+                }
+            }
+            current = next;
+        }
+        return current;
+    }
+
+    private static void flatten(Object value, List<Object> into) {
+        if (value instanceof Collection) {
+            for (Object v : (Collection<?>) value) {
+                flatten(v, into);
+            }
+        } else if (value != null) {
+            into.add(value);
+        }
+    }
+
+    static boolean equal(Object actual, Object expected) {
+        if (actual instanceof Number && expected instanceof Number) {
+            return ((Number) actual).doubleValue() == ((Number) expected).doubleValue();
+        }
+        return String.valueOf(actual).equals(String.valueOf(expected));
+    }
+
+    /**
+     * 数值按 double 比较，其余按字符串比较。
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static int compare(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        if (a instanceof Number && b instanceof String) {
+            try {
+                return Double.compare(((Number) a).doubleValue(), Double.parseDouble((String) b));
+            } catch (NumberFormatException e) {
+                // 按字符串比较
+            }
+        }
+        if (a instanceof Boolean && b instanceof Boolean) {
+            return ((Comparable) a).compareTo(b);
+        }
+        return String.valueOf(a).compareTo(String.valueOf(b));
+    }
+
+    /**
+     * 排序字段，解析 {@code "sort": ["f", {"g": "desc"}, {"h": {"order": "asc"}}]}。
+     */
+    static final class SortField {
+        final String field;
+        final boolean descending;
+
+        SortField(String field, boolean descending) {
+            this.field = field;
+            this.descending = descending;
+        }
+
+        @SuppressWarnings("unchecked")
+        static List<SortField> parse(Object sort) {
+            List<SortField> fields = new ArrayList<>();
+            for (Object item : asList(sort)) {
+                if (item instanceof String) {
+                    fields.add(new SortField((String) item, "_score".equals(item)));
+                    continue;
+                }
+                for (Map.Entry<String, Object> e : ((Map<String, Object>) item).entrySet()) {
+                    Object order = e.getValue() instanceof Map ? ((Map<String, Object>) e.getValue()).get("order") : e.getValue();
+                    boolean descending = order == null ? "_score".equals(e.getKey()) : "desc".equalsIgnoreCase(order.toString());
+                    fields.add(new SortField(e.getKey(), descending));
+                }
+            }
+            return fields;
+        }
+
+        /**
+         * 文档在该字段上的排序值：_doc 与 _shard_doc 为写入顺序，_score 恒为 1.0，多值字段取最小（升序）或最大（降序）。
+         */
+        Object value(DocumentStore.Doc doc) {
+            if ("_doc".equals(field) || "_shard_doc".equals(field)) {
+                return doc.seqNo;
+            }
+            if ("_score".equals(field)) {
+                return 1.0f;
+            }
+            Object best = null;
+            for (Object v : values(doc.id, doc.source, field)) {
+                if (best == null || (descending ? compare(v, best) > 0 : compare(v, best) < 0)) {
+                    best = v;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * 排序值的比较，缺失值总是排在最后。
+         */
+        int compareValues(Object a, Object b) {
+            if (a == null || b == null) {
+                return a == null ? (b == null ? 0 : 1) : -1;
+            }
+            int c = compare(a, b);
+            return descending ? -c : c;
+        }
+    }
+
+    static Comparator<Object[]> sortValuesComparator(List<SortField> fields) {
+        return (a, b) -> {
+            for (int i = 0; i < fields.size(); i++) {
+                int c = fields.get(i).compareValues(a[i], b[i]);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        };
+    }
+
+    /**
+     * 分词结果中的一个词。
+     */
+    static final class Token {
+        final String term;
+        final int start;
+        final int end;
+        final String type;
+
+        Token(String term, int start, int end, String type) {
+            this.term = term;
+            this.start = start;
+            this.end = end;
+            this.type = type;
+        }
+
+        Map<String, Object> toMap(int position) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("token", term);
+            map.put("start_offset", start);
+            map.put("end_offset", end);
+            map.put("type", type);
+            map.put("position", position);
+            return map;
+        }
+    }
+
+    /**
+     * 近似 standard 分词器：连续的字母数字为一个词并转小写，中日韩表意字符逐字成词。
+     */
+    static List<Token> tokenize(String text) {
+        List<Token> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            int cp = text.codePointAt(i);
+            int next = i + Character.charCount(cp);
+            if (Character.isIdeographic(cp)) {
+                tokens.add(new Token(text.substring(i, next), i, next, "<IDEOGRAPHIC>"));
+            } else if (Character.isLetterOrDigit(cp)) {
+                boolean digits = true;
+                int end = i;
+                while (end < text.length()) {
+                    int c = text.codePointAt(end);
+                    if (!Character.isLetterOrDigit(c) || Character.isIdeographic(c)) {
+                        break;
+                    }
+                    digits &= Character.isDigit(c);
+                    end += Character.charCount(c);
+                }
+                tokens.add(new Token(text.substring(i, end).toLowerCase(Locale.ROOT), i, end, digits ? "<NUM>" : "<ALPHANUM>"));
+                next = end;
+            }
+            i = next;
+        }
+        return tokens;
+    }
+
+    private static Set<String> terms(String text) {
+        Set<String> terms = new HashSet<>();
+        for (Token token : tokenize(text)) {
+            terms.add(token.term);
+        }
+        return terms;
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<Object> asList(Object value) {
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        return value instanceof List ? (List<Object>) value : Collections.singletonList(value);
+    }
+}
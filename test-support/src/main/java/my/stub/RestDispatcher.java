@@ -0,0 +1,1015 @@
+package my.stub;
+
+import org.elasticsearch.cluster.routing.Murmur3HashFunction;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 把 REST 请求映射到 {@link DocumentStore} 上的操作，响应体的结构与 7.15 一致，能被 RestHighLevelClient 解析。
+ * 支持的接口：info、index/create/get/exists/delete/update、_source、_mget、_bulk、_search/_count（不支持聚合与 scroll）、
+ * point-in-time 与 slice（PIT 只记录索引，搜索看到的是最新数据；每次搜索返回新的 PIT id，关闭一个 id 只释放它和它之前的 id；
+ * slice 按 _id 的哈希划分）、
+ * _reindex（同步执行，支持 dest.version_type=external 与 op_type=create）、_aliases 与 GET/HEAD _alias、
+ * 外部版本号（version_type=external）、
+ * _analyze、_update_by_query/_delete_by_query（含 wait_for_completion=false 与任务查询）、_refresh、创建/删除索引，
+ * 以及 _cluster/state 中的 metadata 与 routing_table、_nodes/http、_cluster/health（总是 green）、
+ * 索引设置与 mapping _meta 的读写（只保存，不影响行为）、_forcemerge（只计数）。
+ * 分片 s 的主分片在第 s % 节点数 个节点上，routing_num_shards 与 number_of_shards 相同。
+ */
+class RestDispatcher {
+
+    static final String NODE_ID = "stub";
+
+    private final DocumentStore store;
+    private final Faults faults;
+    private final List<StubCluster.Node> nodes;
+    private final Map<String, Map<String, Object>> tasks = new ConcurrentHashMap<>();
+    private final AtomicLong taskIds = new AtomicLong();
+    // PIT id -> 索引表达式；搜索返回的新 id 形如 "旧 id.序号"
+    private final Map<String, String> pits = new ConcurrentHashMap<>();
+    private final AtomicLong pitIds = new AtomicLong();
+
+    RestDispatcher(DocumentStore store, Faults faults, List<StubCluster.Node> nodes) {
+        this.store = store;
+        this.faults = faults;
+        this.nodes = nodes;
+    }
+
+    static final class Response {
+        final int status;
+        final Map<String, Object> body;
+
+        Response(int status, Map<String, Object> body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    /**
+     * @param node 收到请求的节点
+     */
+    Response dispatch(StubCluster.Node node, String method, List<String> path, Map<String, String> params,
+                      byte[] content, XContentType type) {
+        try {
+            Response response = route(node, method, path, params, content, type);
+            if (response != null) {
+                return response;
+            }
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("error", "no handler found for uri [/" + String.join("/", path) + "] and method [" + method + "]");
+            body.put("status", 400);
+            return new Response(400, body);
+        } catch (IllegalArgumentException | ClassCastException e) {
+            return error(400, "illegal_argument_exception", String.valueOf(e.getMessage()), null);
+        } catch (RuntimeException e) {
+            // 请求体无法解析等
+            return error(400, "parse_exception", String.valueOf(e.getMessage()), null);
+        }
+    }
+
+    private Response route(StubCluster.Node node, String method, List<String> path, Map<String, String> params,
+                           byte[] content, XContentType type) {
+        int n = path.size();
+        String first = n > 0 ? path.get(0) : null;
+        String last = n > 0 ? path.get(n - 1) : null;
+        if (n == 0) {
+            return "HEAD".equals(method) ? new Response(200, null) : new Response(200, info());
+        }
+        if (n <= 2 && "_bulk".equals(last)) {
+            return bulk(node, n == 2 ? first : null, params, content, type);
+        }
+        if (n <= 2 && "_mget".equals(last)) {
+            return mget(n == 2 ? first : null, parse(content, type));
+        }
+        if (n <= 2 && ("_search".equals(last) || "_count".equals(last))) {
+            return search(n == 2 ? first : null, params, parse(content, type), "_count".equals(last));
+        }
+        if (n == 2 && "_pit".equals(last) && "POST".equals(method)) {
+            String id = "pit-" + pitIds.incrementAndGet();
+            pits.put(id, first);
+            return new Response(200, Collections.singletonMap("id", id));
+        }
+        if (n == 1 && "_reindex".equals(first) && "POST".equals(method)) {
+            return reindex(params, parse(content, type));
+        }
+        if (n == 1 && "_aliases".equals(first) && "POST".equals(method)) {
+            return updateAliases(parse(content, type));
+        }
+        if (n == 2 && "_alias".equals(first)) {
+            return getAlias(method, last);
+        }
+        if (n == 1 && "_pit".equals(first) && "DELETE".equals(method)) {
+            boolean freed = closePit(String.valueOf(parse(content, type).get("id")));
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("succeeded", true);
+            body.put("num_freed", freed ? 1 : 0);
+            return new Response(200, body);
+        }
+        if (n <= 2 && "_analyze".equals(last)) {
+            return analyze(parse(content, type));
+        }
+        if (n <= 2 && "_refresh".equals(last)) {
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("_shards", shards(1));
+            return new Response(200, body);
+        }
+        if (n == 2 && ("_update_by_query".equals(last) || "_delete_by_query".equals(last))) {
+            return byQuery(first, params, parse(content, type), "_delete_by_query".equals(last));
+        }
+        if (n == 3 && ("_update_by_query".equals(first) || "_delete_by_query".equals(first)) && "_rethrottle".equals(last)) {
+            return nodes();
+        }
+        if ("_cluster".equals(first) && n >= 2 && "state".equals(path.get(1))) {
+            return clusterState(n >= 4 ? path.get(3) : null);
+        }
+        if ("_cluster".equals(first) && n >= 2 && "health".equals(path.get(1))) {
+            return health();
+        }
+        if ("_nodes".equals(first) && "GET".equals(method)) {
+            return nodesInfo();
+        }
+        if ("_tasks".equals(first) && n >= 2) {
+            if (n == 3 && "_cancel".equals(last)) {
+                return nodes();
+            }
+            Map<String, Object> task = tasks.get(path.get(1));
+            return task != null ? new Response(200, task)
+                    : error(404, "resource_not_found_exception", "task [" + path.get(1) + "] isn't running and hasn't stored its results", null);
+        }
+        if (first.startsWith("_")) {
+            return null;
+        }
+        if (n >= 2 && "_settings".equals(path.get(1))) {
+            return settings(method, first, parse(content, type));
+        }
+        if (n == 2 && "_mapping".equals(last)) {
+            return mapping(method, first, parse(content, type));
+        }
+        if (n == 2 && "_forcemerge".equals(last)) {
+            DocumentStore.IndexData data = store.index(first);
+            if (data == null) {
+                return error(404, "index_not_found_exception", "no such index [" + first + "]", first);
+            }
+            data.forceMerges.incrementAndGet();
+            return new Response(200, Collections.singletonMap("_shards", shards(data.numberOfShards)));
+        }
+        if (n == 1) {
+            return indexLevel(method, first, parse(content, type));
+        }
+        String endpoint = path.get(1);
+        if (n == 2 && "_doc".equals(endpoint) && "POST".equals(method)) {
+            return write(store.index(first, null, parse(content, type), false, ifSeqNo(params)));
+        }
+        if (n != 3) {
+            return null;
+        }
+        String id = path.get(2);
+        switch (endpoint) {
+            case "_doc":
+                switch (method) {
+                    case "GET":
+                    case "HEAD":
+                        return get(first, id, "HEAD".equals(method));
+                    case "DELETE":
+                        return write(store.delete(first, id, ifSeqNo(params), externalVersion(params.get("version"), params.get("version_type"))));
+                    default:
+                        return write(store.index(first, id, parse(content, type), "create".equals(params.get("op_type")), ifSeqNo(params),
+                                externalVersion(params.get("version"), params.get("version_type"))));
+                }
+            case "_create":
+                return write(store.index(first, id, parse(content, type), true, DocumentStore.UNASSIGNED_SEQ_NO));
+            case "_update":
+                return write(store.update(first, id, parse(content, type), ifSeqNo(params)));
+            case "_source":
+                DocumentStore.Doc doc = store.get(first, id);
+                return doc == null ? error(404, "resource_not_found_exception", "Document not found [" + first + "]/[_doc]/[" + id + "]", first)
+                        : new Response(200, doc.source);
+            default:
+                return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Response indexLevel(String method, String index, Map<String, Object> body) {
+        switch (method) {
+            case "HEAD":
+                return new Response(store.exists(index) ? 200 : 404, null);
+            case "PUT":
+                if (!store.createIndex(index, numberOfShards(body))) {
+                    return error(400, "resource_already_exists_exception", "index [" + index + "] already exists", index);
+                }
+                DocumentStore.IndexData data = store.index(index);
+                if (body.get("settings") instanceof Map) {
+                    applySettings(data, (Map<String, Object>) body.get("settings"));
+                }
+                if (body.get("mappings") instanceof Map && ((Map<String, Object>) body.get("mappings")).get("_meta") instanceof Map) {
+                    data.meta = (Map<String, Object>) ((Map<String, Object>) body.get("mappings")).get("_meta");
+                }
+                if (body.get("aliases") instanceof Map) {
+                    data.aliases.addAll(((Map<String, Object>) body.get("aliases")).keySet());
+                }
+                Map<String, Object> created = new LinkedHashMap<>();
+                created.put("acknowledged", true);
+                created.put("shards_acknowledged", true);
+                created.put("index", index);
+                return new Response(200, created);
+            case "DELETE":
+                if (!store.exists(index)) {
+                    return error(404, "index_not_found_exception", "no such index [" + index + "]", index);
+                }
+                store.deleteIndex(index);
+                return new Response(200, Collections.singletonMap("acknowledged", true));
+            default:
+                return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Response settings(String method, String index, Map<String, Object> body) {
+        DocumentStore.IndexData data = store.index(index);
+        if (data == null) {
+            return error(404, "index_not_found_exception", "no such index [" + index + "]", index);
+        }
+        if ("PUT".equals(method)) {
+            applySettings(data, body.get("settings") instanceof Map ? (Map<String, Object>) body.get("settings") : body);
+            return new Response(200, Collections.singletonMap("acknowledged", true));
+        }
+        Map<String, Object> nested = new TreeMap<>();
+        for (Map.Entry<String, String> entry : data.settings.entrySet()) {
+            nested.put(entry.getKey().substring("index.".length()), entry.getValue());
+        }
+        return new Response(200, Collections.singletonMap(index,
+                Collections.singletonMap("settings", Collections.singletonMap("index", nested))));
+    }
+
+    // 与服务端相同，值为 null 表示恢复默认值
+    private static void applySettings(DocumentStore.IndexData data, Map<String, Object> settings) {
+        Map<String, Object> flat = new LinkedHashMap<>();
+        flatten("", settings, flat);
+        for (Map.Entry<String, Object> entry : flat.entrySet()) {
+            String key = entry.getKey().startsWith("index.") ? entry.getKey() : "index." + entry.getKey();
+            if (entry.getValue() == null) {
+                data.settings.remove(key);
+            } else {
+                data.settings.put(key, entry.getValue().toString());
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void flatten(String prefix, Map<String, Object> map, Map<String, Object> out) {
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            String key = prefix.isEmpty() ? entry.getKey() : prefix + "." + entry.getKey();
+            if (entry.getValue() instanceof Map) {
+                flatten(key, (Map<String, Object>) entry.getValue(), out);
+            } else {
+                out.put(key, entry.getValue());
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Response mapping(String method, String index, Map<String, Object> body) {
+        DocumentStore.IndexData data = store.index(index);
+        if (data == null) {
+            return error(404, "index_not_found_exception", "no such index [" + index + "]", index);
+        }
+        if ("PUT".equals(method)) {
+            // 与服务端相同，_meta 整体替换
+            if (body.get("_meta") instanceof Map) {
+                data.meta = (Map<String, Object>) body.get("_meta");
+            }
+            return new Response(200, Collections.singletonMap("acknowledged", true));
+        }
+        Map<String, Object> mappings = new LinkedHashMap<>();
+        if (!data.meta.isEmpty()) {
+            mappings.put("_meta", data.meta);
+        }
+        mappings.put("properties", Collections.emptyMap());
+        return new Response(200, Collections.singletonMap(index, Collections.singletonMap("mappings", mappings)));
+    }
+
+    private Response health() {
+        int shards = 0;
+        for (DocumentStore.IndexData data : store.indices()) {
+            shards += data.numberOfShards;
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("cluster_name", "stub-cluster");
+        body.put("status", "green");
+        body.put("timed_out", false);
+        body.put("number_of_nodes", nodes.size());
+        body.put("number_of_data_nodes", nodes.size());
+        body.put("active_primary_shards", shards);
+        body.put("active_shards", shards);
+        body.put("relocating_shards", 0);
+        body.put("initializing_shards", 0);
+        body.put("unassigned_shards", 0);
+        body.put("delayed_unassigned_shards", 0);
+        body.put("number_of_pending_tasks", 0);
+        body.put("number_of_in_flight_fetch", 0);
+        body.put("task_max_waiting_in_queue_millis", 0);
+        body.put("active_shards_percent_as_number", 100.0);
+        return new Response(200, body);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int numberOfShards(Map<String, Object> body) {
+        Map<String, Object> settings = body.get("settings") instanceof Map ? (Map<String, Object>) body.get("settings") : Collections.emptyMap();
+        Object shards = settings.get("index") instanceof Map
+                ? ((Map<String, Object>) settings.get("index")).get("number_of_shards") : settings.get("number_of_shards");
+        if (shards == null) {
+            shards = settings.get("index.number_of_shards");
+        }
+        return shards == null ? 1 : Integer.parseInt(shards.toString());
+    }
+
+    private Response get(String index, String id, boolean head) {
+        DocumentStore.Doc doc = store.get(index, id);
+        if (head) {
+            return new Response(doc == null ? 404 : 200, null);
+        }
+        if (doc == null && !store.exists(index)) {
+            return error(404, "index_not_found_exception", "no such index [" + index + "]", index);
+        }
+        return new Response(doc == null ? 404 : 200, getBody(index, id, doc));
+    }
+
+    private static Map<String, Object> getBody(String index, String id, DocumentStore.Doc doc) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("_index", index);
+        body.put("_type", "_doc");
+        body.put("_id", id);
+        if (doc == null) {
+            body.put("found", false);
+            return body;
+        }
+        body.put("_version", doc.version);
+        body.put("_seq_no", doc.seqNo);
+        body.put("_primary_term", 1);
+        body.put("found", true);
+        body.put("_source", doc.source);
+        return body;
+    }
+
+    private static Response write(DocumentStore.WriteResult result) {
+        if (result.body.containsKey("error")) {
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("error", result.body.get("error"));
+            body.put("status", result.status);
+            return new Response(result.status, body);
+        }
+        return new Response(result.status, result.body);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Response mget(String defaultIndex, Map<String, Object> body) {
+        List<Map<String, Object>> docs = new ArrayList<>();
+        List<Object> requested = new ArrayList<>(Queries.asList(body.get("docs")));
+        for (Object id : Queries.asList(body.get("ids"))) {
+            requested.add(Collections.singletonMap("_id", id));
+        }
+        for (Object item : requested) {
+            Map<String, Object> spec = (Map<String, Object>) item;
+            String index = spec.get("_index") != null ? (String) spec.get("_index") : defaultIndex;
+            String id = String.valueOf(spec.get("_id"));
+            if (index == null) {
+                throw new IllegalArgumentException("Validation Failed: 1: index is missing for doc " + id + ";");
+            }
+            docs.add(getBody(index, id, store.get(index, id)));
+        }
+        return new Response(200, Collections.singletonMap("docs", docs));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Response bulk(StubCluster.Node node, String defaultIndex, Map<String, String> params, byte[] content,
+                          XContentType type) {
+        long start = System.nanoTime();
+        byte separator = type.xContent().streamSeparator();
+        List<Map<String, Object>> items = new ArrayList<>();
+        boolean errors = false;
+        int from = 0;
+        Map<String, Object> action = null;
+        for (int i = 0; i <= content.length; i++) {
+            if (i < content.length && content[i] != separator) {
+                continue;
+            }
+            if (i == from) {
+                from = i + 1;
+                continue;
+            }
+            Map<String, Object> line = XContentHelper.convertToMap(type.xContent(), content, from, i - from, false);
+            from = i + 1;
+            if (action == null) {
+                action = line;
+                String opType = action.keySet().iterator().next();
+                if (!"delete".equals(opType)) {
+                    continue;
+                }
+                line = null;
+            }
+            String opType = action.keySet().iterator().next();
+            Map<String, Object> meta = (Map<String, Object>) action.get(opType);
+            action = null;
+            String index = meta.get("_index") != null ? (String) meta.get("_index") : defaultIndex;
+            String id = meta.get("_id") == null ? null : String.valueOf(meta.get("_id"));
+            long ifSeqNo = meta.get("if_seq_no") == null ? DocumentStore.UNASSIGNED_SEQ_NO : ((Number) meta.get("if_seq_no")).longValue();
+            long version = externalVersion(meta.get("version"), meta.get("version_type"));
+            if (id != null && primary(index, id, (String) meta.get("routing")) != node) {
+                node.forwardedBulkItems.incrementAndGet();
+            }
+            DocumentStore.WriteResult result;
+            if (faults.rejectItem()) {
+                result = DocumentStore.error(429, index, id, "es_rejected_execution_exception",
+                        "rejected execution of stub bulk item (injected)");
+            } else {
+                switch (opType) {
+                    case "index":
+                    case "create":
+                        boolean create = "create".equals(opType) || "create".equals(meta.get("op_type"));
+                        result = store.index(index, id, line, create, ifSeqNo, version);
+                        break;
+                    case "delete":
+                        result = store.delete(index, id, ifSeqNo, version);
+                        break;
+                    case "update":
+                        result = store.update(index, id, line, ifSeqNo);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Malformed action/metadata line, expected one of [create, delete, index, update] but found [" + opType + "]");
+                }
+            }
+            Map<String, Object> item = new LinkedHashMap<>(result.body);
+            item.put("status", result.status);
+            errors |= item.containsKey("error");
+            items.add(Collections.singletonMap(opType, item));
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("took", (System.nanoTime() - start) / 1_000_000);
+        body.put("errors", errors);
+        body.put("items", items);
+        return new Response(200, body);
+    }
+
+    @SuppressWarnings("unchecked")
+    // 释放该 id 以及派生出它的各个旧 id
+    private boolean closePit(String id) {
+        boolean freed = pits.remove(id) != null;
+        for (int i = id.lastIndexOf('.'); i > 0; i = id.lastIndexOf('.', i - 1)) {
+            pits.remove(id.substring(0, i));
+        }
+        return freed;
+    }
+
+    int openPointInTimes() {
+        return pits.size();
+    }
+
+    private Response search(String indexExpression, Map<String, String> params, Map<String, Object> body, boolean count) {
+        if (params.containsKey("scroll")) {
+            throw new IllegalArgumentException("scroll is not supported by the stub");
+        }
+        if (body.containsKey("aggs") || body.containsKey("aggregations")) {
+            throw new IllegalArgumentException("aggregations are not supported by the stub");
+        }
+        long start = System.nanoTime();
+        String pitId = null;
+        if (body.get("pit") != null) {
+            pitId = String.valueOf(((Map<String, Object>) body.get("pit")).get("id"));
+            indexExpression = pits.get(pitId);
+            if (indexExpression == null) {
+                return error(404, "search_context_missing_exception", "No search context found for id [" + pitId + "]", null);
+            }
+        }
+        Map<String, Object> slice = (Map<String, Object>) body.get("slice");
+        int sliceId = slice == null ? 0 : ((Number) slice.get("id")).intValue();
+        int maxSlices = slice == null ? 1 : ((Number) slice.get("max")).intValue();
+        Map<String, Object> query = (Map<String, Object>) body.get("query");
+        List<Queries.SortField> sort = Queries.SortField.parse(body.get("sort"));
+        if (sort.isEmpty()) {
+            sort = Collections.singletonList(new Queries.SortField("_doc", false));
+        }
+        List<Object[]> hits = new ArrayList<>();
+        List<DocumentStore.IndexData> indices = store.resolve(indexExpression);
+        for (DocumentStore.IndexData index : indices) {
+            for (DocumentStore.Doc doc : index.docs.values()) {
+                if (Math.floorMod(Murmur3HashFunction.hash(doc.id), maxSlices) == sliceId
+                        && Queries.matches(query, doc.id, doc.source)) {
+                    Object[] hit = new Object[sort.size() + 2];
+                    for (int i = 0; i < sort.size(); i++) {
+                        hit[i] = sort.get(i).value(doc);
+                    }
+                    hit[sort.size()] = index.name;
+                    hit[sort.size() + 1] = doc;
+                    hits.add(hit);
+                }
+            }
+        }
+        if (count) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("count", hits.size());
+            result.put("_shards", shards(indices.size()));
+            return new Response(200, result);
+        }
+        Comparator<Object[]> order = Queries.sortValuesComparator(sort);
+        hits.sort(order);
+        long total = hits.size();
+        if (body.get("search_after") != null) {
+            Object[] after = Queries.asList(body.get("search_after")).toArray(new Object[sort.size()]);
+            hits.removeIf(hit -> order.compare(hit, after) <= 0);
+        }
+        int from = intParam(body.get("from"), params.get("from"), 0);
+        int size = intParam(body.get("size"), params.get("size"), 10);
+        boolean explicitSort = body.get("sort") != null;
+        boolean withSource = !Boolean.FALSE.equals(body.get("_source"));
+        List<Map<String, Object>> page = new ArrayList<>();
+        for (int i = from; i < Math.min(hits.size(), from + size); i++) {
+            Object[] hit = hits.get(i);
+            DocumentStore.Doc doc = (DocumentStore.Doc) hit[sort.size() + 1];
+            Map<String, Object> h = new LinkedHashMap<>();
+            h.put("_index", hit[sort.size()]);
+            h.put("_type", "_doc");
+            h.put("_id", doc.id);
+            h.put("_score", explicitSort ? null : 1.0f);
+            if (withSource) {
+                h.put("_source", doc.source);
+            }
+            if (explicitSort) {
+                List<Object> values = new ArrayList<>();
+                for (int s = 0; s < sort.size(); s++) {
+                    values.add(hit[s]);
+                }
+                h.put("sort", values);
+            }
+            page.add(h);
+        }
+        Object track = body.get("track_total_hits");
+        long limit = Boolean.TRUE.equals(track) ? Long.MAX_VALUE : track instanceof Number ? ((Number) track).longValue() : 10_000;
+        Map<String, Object> totalHits = new LinkedHashMap<>();
+        totalHits.put("value", Math.min(total, limit));
+        totalHits.put("relation", total > limit ? "gte" : "eq");
+        Map<String, Object> hitsBody = new LinkedHashMap<>();
+        // track_total_hits: false 由客户端序列化为 -1
+        if (!Boolean.FALSE.equals(track) && limit >= 0) {
+            hitsBody.put("total", totalHits);
+        }
+        hitsBody.put("max_score", page.isEmpty() || explicitSort ? null : 1.0f);
+        hitsBody.put("hits", page);
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (pitId != null) {
+            // 与真实集群一样，之后的请求应改用响应中的 pit_id
+            String next = pitId + "." + pitIds.incrementAndGet();
+            pits.put(next, indexExpression);
+            result.put("pit_id", next);
+        }
+        result.put("took", (System.nanoTime() - start) / 1_000_000);
+        result.put("timed_out", false);
+        result.put("_shards", shards(indices.size()));
+        result.put("hits", hitsBody);
+        return new Response(200, result);
+    }
+
+    private static int intParam(Object fromBody, String fromParams, int defaultValue) {
+        if (fromBody instanceof Number) {
+            return ((Number) fromBody).intValue();
+        }
+        return fromParams != null ? Integer.parseInt(fromParams) : defaultValue;
+    }
+
+    private static Response analyze(Map<String, Object> body) {
+        List<Map<String, Object>> tokens = new ArrayList<>();
+        int position = -1;
+        int offset = 0;
+        for (Object text : Queries.asList(body.get("text"))) {
+            String value = String.valueOf(text);
+            for (Queries.Token token : Queries.tokenize(value)) {
+                tokens.add(new Queries.Token(token.term, token.start + offset, token.end + offset, token.type).toMap(++position));
+            }
+            // 与 ES 一致：多个值之间 position 间隔 100，offset 间隔 1
+            position += 100;
+            offset += value.length() + 1;
+        }
+        return new Response(200, Collections.singletonMap("tokens", tokens));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Response byQuery(String indexExpression, Map<String, String> params, Map<String, Object> body, boolean delete) {
+        long start = System.nanoTime();
+        Map<String, Object> query = (Map<String, Object>) body.get("query");
+        boolean proceed = "proceed".equals(params.get("conflicts")) || "proceed".equals(body.get("conflicts"));
+        StubScript script = null;
+        Map<String, Object> scriptParams = new LinkedHashMap<>();
+        if (!delete && body.get("script") != null) {
+            Object spec = body.get("script");
+            String source = spec instanceof Map ? (String) ((Map<String, Object>) spec).get("source") : (String) spec;
+            script = store.script(source);
+            if (script == null) {
+                throw new IllegalArgumentException("script [" + source + "] is not registered in the stub");
+            }
+            if (spec instanceof Map && ((Map<String, Object>) spec).get("params") instanceof Map) {
+                scriptParams = (Map<String, Object>) ((Map<String, Object>) spec).get("params");
+            }
+        }
+        List<DocumentStore.IndexData> indices = store.resolve(indexExpression);
+        String slicesParam = params.getOrDefault("slices", "1");
+        int slices = "auto".equals(slicesParam)
+                ? indices.stream().mapToInt(index -> index.numberOfShards).min().orElse(1)
+                : Integer.parseInt(slicesParam);
+        long[][] counters = new long[Math.max(1, slices)][6];
+        List<Object> failures = new ArrayList<>();
+        outer:
+        for (DocumentStore.IndexData index : indices) {
+            List<DocumentStore.Doc> docs = new ArrayList<>(index.docs.values());
+            docs.sort(Comparator.comparingLong(doc -> doc.seqNo));
+            for (DocumentStore.Doc doc : docs) {
+                if (!Queries.matches(query, doc.id, doc.source)) {
+                    continue;
+                }
+                long[] c = counters[Math.floorMod(doc.id.hashCode(), counters.length)];
+                c[0]++;
+                DocumentStore.WriteResult result;
+                if (delete) {
+                    result = store.delete(index.name, doc.id, doc.seqNo);
+                } else {
+                    Map<String, Object> source = DocumentStore.copy(doc.source);
+                    String op = script == null ? "index" : DocumentStore.execute(script, doc, source, scriptParams);
+                    if ("noop".equals(op) || "none".equals(op)) {
+                        c[3]++;
+                        continue;
+                    }
+                    result = "delete".equals(op) ? store.delete(index.name, doc.id, doc.seqNo)
+                            : store.index(index.name, doc.id, source, false, doc.seqNo);
+                    if ("delete".equals(op) && result.status < 300) {
+                        c[2]++;
+                        continue;
+                    }
+                }
+                if (result.status == 409) {
+                    c[4]++;
+                    if (!proceed) {
+                        Map<String, Object> failure = new LinkedHashMap<>();
+                        failure.put("index", index.name);
+                        failure.put("type", "_doc");
+                        failure.put("id", doc.id);
+                        failure.put("cause", result.body.get("error"));
+                        failure.put("status", 409);
+                        failures.add(failure);
+                        break outer;
+                    }
+                } else if (result.status < 300) {
+                    c[delete ? 2 : 1]++;
+                }
+            }
+        }
+        Map<String, Object> status = byQueryStatus(null, sum(counters));
+        if (counters.length > 1) {
+            List<Object> sliceStatus = new ArrayList<>();
+            for (int i = 0; i < counters.length; i++) {
+                sliceStatus.add(byQueryStatus(i, counters[i]));
+            }
+            status.put("slices", sliceStatus);
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("took", (System.nanoTime() - start) / 1_000_000);
+        response.put("timed_out", false);
+        response.putAll(status);
+        response.put("failures", failures);
+        return completeTask(params, delete ? "indices:data/write/delete/byquery" : "indices:data/write/update/byquery",
+                status, response, start);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Response reindex(Map<String, String> params, Map<String, Object> body) {
+        long start = System.nanoTime();
+        Map<String, Object> source = (Map<String, Object>) body.get("source");
+        Map<String, Object> dest = (Map<String, Object>) body.get("dest");
+        if (source == null || dest == null) {
+            throw new IllegalArgumentException("source and dest are required");
+        }
+        if (source.get("remote") != null || body.get("script") != null) {
+            throw new IllegalArgumentException("remote reindex and scripts are not supported by the stub");
+        }
+        Map<String, Object> query = (Map<String, Object>) source.get("query");
+        String destIndex = (String) dest.get("index");
+        boolean external = "external".equals(dest.get("version_type"));
+        boolean create = "create".equals(dest.get("op_type"));
+        boolean proceed = "proceed".equals(params.get("conflicts")) || "proceed".equals(body.get("conflicts"));
+        List<DocumentStore.IndexData> indices = store.resolve(String.join(",", Queries.asList(source.get("index")).stream()
+                .map(String::valueOf).toArray(String[]::new)));
+        String slicesParam = params.getOrDefault("slices", "1");
+        int slices = "auto".equals(slicesParam)
+                ? indices.stream().mapToInt(index -> index.numberOfShards).min().orElse(1)
+                : Integer.parseInt(slicesParam);
+        long[][] counters = new long[Math.max(1, slices)][6];
+        List<Object> failures = new ArrayList<>();
+        outer:
+        for (DocumentStore.IndexData index : indices) {
+            List<DocumentStore.Doc> docs = new ArrayList<>(index.docs.values());
+            docs.sort(Comparator.comparingLong(doc -> doc.seqNo));
+            for (DocumentStore.Doc doc : docs) {
+                if (!Queries.matches(query, doc.id, doc.source)) {
+                    continue;
+                }
+                long[] c = counters[Math.floorMod(doc.id.hashCode(), counters.length)];
+                c[0]++;
+                DocumentStore.WriteResult result = store.index(destIndex, doc.id, DocumentStore.copy(doc.source), create,
+                        DocumentStore.UNASSIGNED_SEQ_NO, external ? doc.version : DocumentStore.INTERNAL_VERSION);
+                if (result.status == 409) {
+                    c[4]++;
+                    if (!proceed) {
+                        Map<String, Object> failure = new LinkedHashMap<>();
+                        failure.put("index", destIndex);
+                        failure.put("type", "_doc");
+                        failure.put("id", doc.id);
+                        failure.put("cause", result.body.get("error"));
+                        failure.put("status", 409);
+                        failures.add(failure);
+                        break outer;
+                    }
+                } else if (result.status == 201) {
+                    c[5]++;
+                } else if (result.status < 300) {
+                    c[1]++;
+                }
+            }
+        }
+        Map<String, Object> status = byQueryStatus(null, sum(counters));
+        if (counters.length > 1) {
+            List<Object> sliceStatus = new ArrayList<>();
+            for (int i = 0; i < counters.length; i++) {
+                sliceStatus.add(byQueryStatus(i, counters[i]));
+            }
+            status.put("slices", sliceStatus);
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("took", (System.nanoTime() - start) / 1_000_000);
+        response.put("timed_out", false);
+        response.putAll(status);
+        response.put("failures", failures);
+        return completeTask(params, "indices:data/write/reindex", status, response, start);
+    }
+
+    // wait_for_completion=false 时保存为已完成的任务，返回任务 ID
+    private Response completeTask(Map<String, String> params, String action, Map<String, Object> status,
+                                  Map<String, Object> response, long start) {
+        if (!"false".equals(params.get("wait_for_completion"))) {
+            return new Response(200, response);
+        }
+        // 在请求内同步执行完，任务直接进入完成状态
+        long id = taskIds.incrementAndGet();
+        Map<String, Object> task = new LinkedHashMap<>();
+        task.put("node", NODE_ID);
+        task.put("id", id);
+        task.put("type", "transport");
+        task.put("action", action);
+        task.put("status", status);
+        task.put("start_time_in_millis", System.currentTimeMillis());
+        task.put("running_time_in_nanos", System.nanoTime() - start);
+        task.put("cancellable", true);
+        task.put("cancelled", false);
+        Map<String, Object> stored = new LinkedHashMap<>();
+        stored.put("completed", true);
+        stored.put("task", task);
+        stored.put("response", response);
+        tasks.put(NODE_ID + ":" + id, stored);
+        return new Response(200, Collections.singletonMap("task", NODE_ID + ":" + id));
+    }
+
+    // 先校验全部动作再执行，与服务端一样整体生效
+    @SuppressWarnings("unchecked")
+    private Response updateAliases(Map<String, Object> body) {
+        List<Object[]> actions = new ArrayList<>();
+        for (Object item : Queries.asList(body.get("actions"))) {
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) item).entrySet()) {
+                Map<String, Object> spec = (Map<String, Object>) entry.getValue();
+                boolean add = "add".equals(entry.getKey());
+                if (!add && !"remove".equals(entry.getKey())) {
+                    throw new IllegalArgumentException("alias action [" + entry.getKey() + "] is not supported by the stub");
+                }
+                for (Object index : Queries.asList(spec.containsKey("indices") ? spec.get("indices") : spec.get("index"))) {
+                    for (Object alias : Queries.asList(spec.containsKey("aliases") ? spec.get("aliases") : spec.get("alias"))) {
+                        DocumentStore.IndexData data = store.index(String.valueOf(index));
+                        if (data == null) {
+                            return error(404, "index_not_found_exception", "no such index [" + index + "]", String.valueOf(index));
+                        }
+                        if (!add && !data.aliases.contains(String.valueOf(alias))) {
+                            return error(404, "aliases_not_found_exception", "aliases [" + alias + "] missing", null);
+                        }
+                        actions.add(new Object[] {data.name, String.valueOf(alias), add});
+                    }
+                }
+            }
+        }
+        synchronized (store) {
+            for (Object[] action : actions) {
+                store.alias((String) action[0], (String) action[1], (Boolean) action[2]);
+            }
+        }
+        return new Response(200, Collections.singletonMap("acknowledged", true));
+    }
+
+    private Response getAlias(String method, String alias) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        for (DocumentStore.IndexData data : store.aliased(alias)) {
+            body.put(data.name, Collections.singletonMap("aliases", Collections.singletonMap(alias, Collections.emptyMap())));
+        }
+        if (body.isEmpty()) {
+            if ("HEAD".equals(method)) {
+                return new Response(404, null);
+            }
+            Map<String, Object> missing = new LinkedHashMap<>();
+            missing.put("error", "alias [" + alias + "] missing");
+            missing.put("status", 404);
+            return new Response(404, missing);
+        }
+        return new Response(200, "HEAD".equals(method) ? null : body);
+    }
+
+    private static long[] sum(long[][] counters) {
+        long[] total = new long[6];
+        for (long[] c : counters) {
+            for (int i = 0; i < total.length; i++) {
+                total[i] += c[i];
+            }
+        }
+        return total;
+    }
+
+    // counters：total, updated, deleted, noops, version_conflicts, created
+    private static Map<String, Object> byQueryStatus(Integer sliceId, long[] counters) {
+        Map<String, Object> status = new LinkedHashMap<>();
+        if (sliceId != null) {
+            status.put("slice_id", sliceId);
+        }
+        status.put("total", counters[0]);
+        status.put("updated", counters[1]);
+        status.put("created", counters[5]);
+        status.put("deleted", counters[2]);
+        status.put("batches", (counters[0] + 999) / 1000);
+        status.put("version_conflicts", counters[4]);
+        status.put("noops", counters[3]);
+        Map<String, Object> retries = new LinkedHashMap<>();
+        retries.put("bulk", 0);
+        retries.put("search", 0);
+        status.put("retries", retries);
+        status.put("throttled_millis", 0);
+        status.put("requests_per_second", -1.0f);
+        status.put("throttled_until_millis", 0);
+        return status;
+    }
+
+    // 与服务端 OperationRouting 相同的算法，routing_num_shards 取 number_of_shards
+    private StubCluster.Node primary(String index, String id, String routing) {
+        DocumentStore.IndexData data = store.index(index);
+        int shards = data == null ? 1 : data.numberOfShards;
+        return primary(Math.floorMod(Murmur3HashFunction.hash(routing == null ? id : routing), shards));
+    }
+
+    private StubCluster.Node primary(int shard) {
+        return nodes.get(shard % nodes.size());
+    }
+
+    private Response clusterState(String indexExpression) {
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        Map<String, Object> routingTable = new LinkedHashMap<>();
+        List<String> names = indexExpression == null || "_all".equals(indexExpression) || "*".equals(indexExpression)
+                ? null : Arrays.asList(indexExpression.split(","));
+        for (DocumentStore.IndexData data : store.indices()) {
+            if (names != null && !names.contains(data.name)) {
+                continue;
+            }
+            Map<String, Object> settings = new LinkedHashMap<>();
+            settings.put("number_of_shards", String.valueOf(data.numberOfShards));
+            Map<String, Object> index = new LinkedHashMap<>();
+            index.put("routing_num_shards", data.numberOfShards);
+            index.put("settings", Collections.singletonMap("index", settings));
+            metadata.put(data.name, index);
+
+            Map<String, Object> shards = new LinkedHashMap<>();
+            for (int shard = 0; shard < data.numberOfShards; shard++) {
+                Map<String, Object> copy = new LinkedHashMap<>();
+                copy.put("state", "STARTED");
+                copy.put("primary", true);
+                copy.put("node", primary(shard).id());
+                copy.put("shard", shard);
+                copy.put("index", data.name);
+                shards.put(String.valueOf(shard), Collections.singletonList(copy));
+            }
+            routingTable.put(data.name, Collections.singletonMap("shards", shards));
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("cluster_name", "stub-cluster");
+        body.put("metadata", Collections.singletonMap("indices", metadata));
+        body.put("routing_table", Collections.singletonMap("indices", routingTable));
+        return new Response(200, body);
+    }
+
+    private Response nodesInfo() {
+        Map<String, Object> byId = new LinkedHashMap<>();
+        for (StubCluster.Node node : nodes) {
+            String address = node.host().getHostName() + ":" + node.host().getPort();
+            Map<String, Object> http = new LinkedHashMap<>();
+            http.put("bound_address", Collections.singletonList(address));
+            http.put("publish_address", address);
+            Map<String, Object> info = new LinkedHashMap<>();
+            info.put("name", node.id());
+            info.put("host", node.host().getHostName());
+            info.put("ip", node.host().getHostName());
+            info.put("version", "7.15.2");
+            info.put("roles", Arrays.asList("data", "ingest", "master"));
+            info.put("http", http);
+            byId.put(node.id(), info);
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("cluster_name", "stub-cluster");
+        body.put("nodes", byId);
+        return new Response(200, body);
+    }
+
+    private static Response nodes() {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("nodes", Collections.emptyMap());
+        return new Response(200, body);
+    }
+
+    // 只支持 version_type=external
+    private static long externalVersion(Object version, Object versionType) {
+        if (version == null) {
+            return DocumentStore.INTERNAL_VERSION;
+        }
+        if (!"external".equals(versionType)) {
+            throw new IllegalArgumentException("version_type [" + versionType + "] is not supported by the stub");
+        }
+        return Long.parseLong(version.toString());
+    }
+
+    private static long ifSeqNo(Map<String, String> params) {
+        String value = params.get("if_seq_no");
+        return value == null ? DocumentStore.UNASSIGNED_SEQ_NO : Long.parseLong(value);
+    }
+
+    private static Map<String, Object> parse(byte[] content, XContentType type) {
+        if (content.length == 0) {
+            return new LinkedHashMap<>();
+        }
+        return XContentHelper.convertToMap(type.xContent(), content, 0, content.length, true);
+    }
+
+    static Map<String, Object> shards(int total) {
+        Map<String, Object> shards = new LinkedHashMap<>();
+        shards.put("total", total);
+        shards.put("successful", total);
+        shards.put("failed", 0);
+        return shards;
+    }
+
+    static Map<String, Object> cause(String type, String reason, String index) {
+        Map<String, Object> cause = new LinkedHashMap<>();
+        cause.put("type", type);
+        cause.put("reason", reason);
+        if (index != null) {
+            cause.put("index", index);
+        }
+        return cause;
+    }
+
+    static Response error(int status, String type, String reason, String index) {
+        Map<String, Object> error = new LinkedHashMap<>(cause(type, reason, index));
+        error.put("root_cause", Collections.singletonList(cause(type, reason, index)));
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("error", error);
+        body.put("status", status);
+        return new Response(status, body);
+    }
+
+    private static Map<String, Object> info() {
+        Map<String, Object> version = new LinkedHashMap<>();
+        version.put("number", "7.15.2");
+        version.put("build_flavor", "default");
+        version.put("build_type", "tar");
+        version.put("build_hash", "93d5a7f6192e8a1a12e154a2b81bf6fa7309da0c");
+        version.put("build_date", "2021-11-04T14:04:42.515624022Z");
+        version.put("build_snapshot", false);
+        version.put("lucene_version", "8.9.0");
+        version.put("minimum_wire_compatibility_version", "6.8.0");
+        version.put("minimum_index_compatibility_version", "6.0.0-beta1");
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("name", NODE_ID);
+        info.put("cluster_name", "stub-cluster");
+        info.put("cluster_uuid", "stub-cluster-uuid");
+        info.put("version", version);
+        info.put("tagline", "You Know, for Search");
+        return info;
+    }
+}
@@ -0,0 +1,382 @@
+package my.stub;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 进程内的 Elasticsearch 替身：若干个 HTTP 节点共享一个内存 {@link DocumentStore}，
+ * 实现 RestClientTest 用到的接口（见 {@link RestDispatcher}），并可注入延迟、错误、429 与节点故障（见 {@link Faults}、{@link Node}）。
+ * 不依赖外部集群，可以在 CI 与本机上离线运行、复现负载测试。
+ * <p>
+ * 连接由 JDK HttpServer 的单个 selector 线程管理，处理线程只做内存操作，注入的延迟由定时器发送响应，不占用处理线程，
+ * 因此少量线程就能同时挂住数千个连接。
+ * <pre>
+ * try (StubCluster cluster = StubCluster.builder().setNodes(3).build();
+ *      RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(cluster.hosts()))) {
+ *     cluster.faults().setLatency(TimeValue.timeValueMillis(5), TimeValue.timeValueMillis(50)).setRejectionRate(0.01);
+ *     cluster.node(0).stop();
+ *     ...
+ * }
+ * </pre>
+ */
+public class StubCluster implements Closeable {
+
+    static {
+        // 默认未开启 TCP_NODELAY，响应头与响应体分两次写出时会碰上延迟确认。
+        // 这是 JVM 全局设置，JDK 只在第一次创建 HttpServer 时读取：之前已有 HttpServer 启动时不起作用，
+        // 需要在启动参数中加 -Dsun.net.httpserver.nodelay=true；已显式设置时不覆盖
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final DocumentStore store = new DocumentStore();
+    private final Faults faults;
+    private final RestDispatcher dispatcher;
+    private final List<Node> nodes = new ArrayList<>();
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timer;
+    private final int backlog;
+
+    private StubCluster(Builder builder) {
+        this.faults = new Faults(builder.seed);
+        this.dispatcher = new RestDispatcher(store, faults, nodes);
+        this.backlog = builder.backlog;
+        AtomicInteger threadId = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(builder.threads, r -> {
+            Thread t = new Thread(r, "stub-cluster-" + threadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "stub-cluster-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        for (int i = 0; i < builder.nodes; i++) {
+            Node node = new Node(i);
+            node.start();
+            nodes.add(node);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private int nodes = 1;
+        private int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        private int backlog = 4096;
+        private long seed = 42;
+
+        private Builder() {
+        }
+
+        public Builder setNodes(int nodes) {
+            if (nodes < 1) {
+                throw new IllegalArgumentException("nodes must be >= 1");
+            }
+            this.nodes = nodes;
+            return this;
+        }
+
+        /**
+         * 处理请求的线程数，所有节点共用。
+         */
+        public Builder setThreads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("threads must be >= 1");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * 监听队列长度，瞬间建立大量连接时需要调大。
+         */
+        public Builder setBacklog(int backlog) {
+            this.backlog = backlog;
+            return this;
+        }
+
+        /**
+         * 故障注入的随机种子。
+         */
+        public Builder setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public StubCluster build() {
+            return new StubCluster(this);
+        }
+    }
+
+    /**
+     * 所有节点的地址（包括已停止的），用于 RestClient.builder。
+     */
+    public HttpHost[] hosts() {
+        HttpHost[] hosts = new HttpHost[nodes.size()];
+        for (int i = 0; i < hosts.length; i++) {
+            hosts[i] = nodes.get(i).host();
+        }
+        return hosts;
+    }
+
+    public Node node(int index) {
+        return nodes.get(index);
+    }
+
+    public List<Node> nodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    public DocumentStore store() {
+        return store;
+    }
+
+    public Faults faults() {
+        return faults;
+    }
+
+    /**
+     * 尚未关闭的 PIT id 数。
+     */
+    public int openPointInTimes() {
+        return dispatcher.openPointInTimes();
+    }
+
+    /**
+     * 所有节点收到的请求数。
+     */
+    public long requests() {
+        return nodes.stream().mapToLong(Node::requests).sum();
+    }
+
+    @Override
+    public void close() {
+        for (Node node : nodes) {
+            node.stop();
+        }
+        timer.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /**
+     * 一个节点。stop 后连接被拒绝，start 在原端口恢复；hang 模式下接受请求但不响应，直到 resume 时关闭这些连接。
+     */
+    public final class Node {
+        private final int index;
+        private volatile HttpServer server;
+        private volatile int port = 0;
+        private volatile boolean hanging = false;
+        private final Set<HttpExchange> hung = ConcurrentHashMap.newKeySet();
+        private final AtomicLong requests = new AtomicLong();
+        final AtomicLong forwardedBulkItems = new AtomicLong();
+
+        private Node(int index) {
+            this.index = index;
+        }
+
+        public synchronized void start() {
+            if (server != null) {
+                return;
+            }
+            try {
+                HttpServer s = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), backlog);
+                s.setExecutor(executor);
+                s.createContext("/", exchange -> handle(this, exchange));
+                s.start();
+                port = s.getAddress().getPort();
+                server = s;
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to start stub node [" + index + "] on port [" + port + "]", e);
+            }
+        }
+
+        /**
+         * 停止监听并断开所有连接，模拟节点宕机。
+         */
+        public synchronized void stop() {
+            if (server == null) {
+                return;
+            }
+            server.stop(0);
+            server = null;
+            release();
+        }
+
+        /**
+         * 之后的请求一直不响应，模拟节点假死（GC 停顿、网络分区），客户端只能靠超时发现。
+         */
+        public void hang() {
+            hanging = true;
+        }
+
+        /**
+         * 结束 hang 模式，挂起中的请求以断开连接结束。
+         */
+        public void resume() {
+            hanging = false;
+            release();
+        }
+
+        private void release() {
+            for (HttpExchange exchange : hung) {
+                hung.remove(exchange);
+                exchange.close();
+            }
+        }
+
+        public boolean isRunning() {
+            return server != null;
+        }
+
+        /**
+         * 集群状态与 _nodes 中的节点 ID。
+         */
+        public String id() {
+            return "node-" + index;
+        }
+
+        public HttpHost host() {
+            return new HttpHost(InetAddress.getLoopbackAddress().getHostAddress(), port, "http");
+        }
+
+        /**
+         * 该节点收到的请求数。
+         */
+        public long requests() {
+            return requests.get();
+        }
+
+        /**
+         * 该节点收到的 bulk 条目中，主分片不在本节点、真实集群里需要再转发一次的条目数。
+         */
+        public long forwardedBulkItems() {
+            return forwardedBulkItems.get();
+        }
+
+        @Override
+        public String toString() {
+            return "node-" + index + "[" + host() + (isRunning() ? hanging ? ", hanging" : "" : ", stopped") + "]";
+        }
+    }
+
+    private void handle(Node node, HttpExchange exchange) throws IOException {
+        node.requests.incrementAndGet();
+        byte[] content = readBody(exchange);
+        if (node.hanging) {
+            node.hung.add(exchange);
+            return;
+        }
+        String method = exchange.getRequestMethod();
+        List<String> path = new ArrayList<>();
+        for (String segment : exchange.getRequestURI().getRawPath().split("/")) {
+            if (!segment.isEmpty()) {
+                path.add(URLDecoder.decode(segment, "UTF-8"));
+            }
+        }
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                params.put(URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8"),
+                        eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        XContentType requestType = mediaType(exchange.getRequestHeaders().getFirst("Content-Type"), XContentType.JSON);
+        XContentType responseType = mediaType(exchange.getRequestHeaders().getFirst("Accept"), requestType);
+
+        boolean info = path.isEmpty();
+        int failure = info ? 0 : faults.nextFailure();
+        RestDispatcher.Response response = failure == 0
+                ? dispatcher.dispatch(node, method, path, params, content, requestType)
+                : failure == 429
+                ? RestDispatcher.error(429, "es_rejected_execution_exception", "rejected execution of stub request (injected)", null)
+                : RestDispatcher.error(failure, "stub_injected_exception", "injected failure", null);
+        long delay = info ? 0 : faults.nextLatencyNanos();
+        if (delay == 0) {
+            send(exchange, method, response, responseType);
+        } else {
+            timer.schedule(() -> {
+                try {
+                    send(exchange, method, response, responseType);
+                } catch (IOException e) {
+                    exchange.close();
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static XContentType mediaType(String header, XContentType defaultType) {
+        if (header == null) {
+            return defaultType;
+        }
+        XContentType type = XContentType.fromMediaType(header);
+        return type == null ? defaultType : type;
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        try (InputStream body = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = body.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static void send(HttpExchange exchange, String method, RestDispatcher.Response response, XContentType type) throws IOException {
+        exchange.getResponseHeaders().add("X-elastic-product", "Elasticsearch");
+        if (response.body == null || "HEAD".equals(method)) {
+            exchange.sendResponseHeaders(response.status, -1);
+            exchange.close();
+            return;
+        }
+        XContentBuilder builder = XContentBuilder.builder(type.xContent());
+        builder.map(response.body);
+        byte[] body = BytesReference.toBytes(BytesReference.bytes(builder));
+        exchange.getResponseHeaders().add("Content-Type", type.mediaType());
+        exchange.sendResponseHeaders(response.status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package my.stub;
+
+import java.util.Map;
+
+/**
+ * 代替 painless 脚本的 Java 实现，见 {@link DocumentStore#registerScript}。
+ * ctx 与 painless 中的 ctx 相同：修改 {@code ctx._source}，或把 {@code ctx.op} 设为 "noop"/"delete"。
+ */
+@FunctionalInterface
+public interface StubScript {
+
+    void execute(Map<String, Object> ctx, Map<String, Object> params);
+}
@@ -0,0 +1,63 @@
+package my.stub;
+
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QueriesTest {
+
+    private static final Map<String, Object> SOURCE = json("{\"author\":\"王五\",\"salary\":56000.0,"
+            + "\"title\":\"Quick Brown fox\",\"tags\":[\"a\",\"b\"],\"meta\":{\"views\":12}}");
+
+    @Test
+    public void evaluatesQueries() {
+        assertTrue(matches("{\"match_all\":{}}"));
+        assertTrue(matches("{\"term\":{\"author.keyword\":\"王五\"}}"));
+        assertTrue(matches("{\"term\":{\"salary\":{\"value\":56000}}}"));
+        assertTrue(matches("{\"terms\":{\"tags\":[\"x\",\"b\"]}}"));
+        assertTrue(matches("{\"match\":{\"title\":\"brown dog\"}}"));
+        assertFalse(matches("{\"match\":{\"title\":{\"query\":\"brown dog\",\"operator\":\"and\"}}}"));
+        assertTrue(matches("{\"range\":{\"meta.views\":{\"gt\":10,\"lte\":12}}}"));
+        assertFalse(matches("{\"range\":{\"meta.views\":{\"lt\":12}}}"));
+        assertTrue(matches("{\"prefix\":{\"_id\":\"doc-\"}}"));
+        assertTrue(matches("{\"bool\":{\"filter\":[{\"exists\":{\"field\":\"tags\"}}],"
+                + "\"must_not\":[{\"ids\":{\"values\":[\"other\"]}}],"
+                + "\"should\":[{\"term\":{\"tags\":\"z\"}}]}}"));
+        assertFalse(matches("{\"bool\":{\"should\":[{\"term\":{\"tags\":\"z\"}}]}}"));
+        try {
+            matches("{\"fuzzy\":{\"title\":\"quikc\"}}");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("fuzzy"));
+        }
+    }
+
+    @Test
+    public void tokenizesLikeStandardAnalyzer() {
+        List<Queries.Token> tokens = Queries.tokenize("ES 7.15 中文");
+        assertEquals(5, tokens.size());
+        assertEquals("es", tokens.get(0).term);
+        assertEquals("<ALPHANUM>", tokens.get(0).type);
+        assertEquals("7", tokens.get(1).term);
+        assertEquals("<NUM>", tokens.get(1).type);
+        assertEquals("中", tokens.get(3).term);
+        assertEquals(8, tokens.get(3).start);
+        assertEquals("<IDEOGRAPHIC>", tokens.get(4).type);
+    }
+
+    private static boolean matches(String query) {
+        return Queries.matches(json(query), "doc-1", SOURCE);
+    }
+
+    private static Map<String, Object> json(String json) {
+        return XContentHelper.convertToMap(XContentType.JSON.xContent(), json, true);
+    }
+}
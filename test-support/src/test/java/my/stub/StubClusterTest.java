@@ -0,0 +1,386 @@
+package my.stub;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.ClosePointInTimeRequest;
+import org.elasticsearch.action.search.OpenPointInTimeRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.GetAliasesResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.AnalyzeRequest;
+import org.elasticsearch.client.indices.AnalyzeResponse;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.ReindexRequest;
+import org.elasticsearch.index.reindex.UpdateByQueryRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.PointInTimeBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StubClusterTest {
+
+    private static final String INDEX = "java-api-demo-idx";
+
+    private StubCluster cluster;
+    private RestHighLevelClient client;
+
+    @Before
+    public void setUp() {
+        cluster = StubCluster.builder().setNodes(3).build();
+        client = new RestHighLevelClient(RestClient.builder(cluster.hosts()));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        cluster.close();
+    }
+
+    @Test
+    public void documentApis() throws IOException {
+        IndexResponse created = client.index(new IndexRequest(INDEX).id("1")
+                .source(XContentType.JSON, "author", "大黄", "title", "大黄的幸福生活"), RequestOptions.DEFAULT);
+        assertEquals(RestStatus.CREATED, created.status());
+        UpdateResponse updated = client.update(new UpdateRequest(INDEX, "1")
+                .doc(XContentType.JSON, "salary", 38000.0), RequestOptions.DEFAULT);
+        assertEquals(2, updated.getVersion());
+        UpdateResponse noop = client.update(new UpdateRequest(INDEX, "1")
+                .doc(XContentType.JSON, "salary", 38000.0), RequestOptions.DEFAULT);
+        assertEquals("noop", noop.getResult().getLowercase());
+
+        GetResponse get = client.get(new GetRequest(INDEX, "1"), RequestOptions.DEFAULT);
+        assertTrue(get.isExists());
+        assertEquals("大黄", get.getSourceAsMap().get("author"));
+        assertEquals(38000.0, get.getSourceAsMap().get("salary"));
+        assertFalse(client.exists(new GetRequest(INDEX, "2"), RequestOptions.DEFAULT));
+
+        try {
+            client.index(new IndexRequest(INDEX).id("1").create(true).source(XContentType.JSON, "a", 1), RequestOptions.DEFAULT);
+            fail();
+        } catch (ElasticsearchStatusException e) {
+            assertEquals(RestStatus.CONFLICT, e.status());
+        }
+
+        MultiGetResponse mget = client.mget(new MultiGetRequest().add(INDEX, "1").add(INDEX, "2"), RequestOptions.DEFAULT);
+        assertTrue(mget.getResponses()[0].getResponse().isExists());
+        assertFalse(mget.getResponses()[1].getResponse().isExists());
+
+        client.delete(new DeleteRequest(INDEX, "1"), RequestOptions.DEFAULT);
+        assertNull(cluster.store().source(INDEX, "1"));
+    }
+
+    @Test
+    public void bulkSearchAndAnalyze() throws IOException {
+        BulkRequest bulk = new BulkRequest();
+        bulk.add(new IndexRequest(INDEX).id("3").source(XContentType.JSON, "author", "王五", "salary", 56000.0, "title", "中华人民共和国台湾事务办公室"));
+        bulk.add(new IndexRequest(INDEX).id("5").source(XContentType.JSON, "author", "王五", "salary", 56000.0, "title", "中国人民解放军"));
+        bulk.add(new IndexRequest(INDEX).id("6").source(XContentType.JSON, "author", "小明", "salary", 31000.0, "title", "国务院台湾事务办公室"));
+        bulk.add(new IndexRequest(INDEX).id("7").source(XContentType.JSON, "author", "李四", "salary", 38000.0, "title", "中字头股票"));
+        bulk.add(new DeleteRequest(INDEX, "missing"));
+        BulkResponse response = client.bulk(bulk, RequestOptions.DEFAULT);
+        assertFalse(response.hasFailures());
+        assertEquals(RestStatus.NOT_FOUND, response.getItems()[4].status());
+        assertEquals(4, cluster.store().count(INDEX));
+
+        SearchResponse search = client.search(new SearchRequest(INDEX).source(new SearchSourceBuilder()
+                .query(QueryBuilders.boolQuery()
+                        .must(QueryBuilders.matchQuery("title", "台湾"))
+                        .filter(QueryBuilders.rangeQuery("salary").gte(40000)))
+                .sort("_id", SortOrder.DESC)), RequestOptions.DEFAULT);
+        assertEquals(1, search.getHits().getTotalHits().value);
+        assertEquals("3", search.getHits().getHits()[0].getId());
+
+        search = client.search(new SearchRequest(INDEX).source(new SearchSourceBuilder()
+                .query(QueryBuilders.termQuery("author.keyword", "王五")).sort("salary").sort("_id").size(1)), RequestOptions.DEFAULT);
+        assertEquals(2, search.getHits().getTotalHits().value);
+        SearchHit last = search.getHits().getHits()[0];
+        assertEquals("3", last.getId());
+        search = client.search(new SearchRequest(INDEX).source(new SearchSourceBuilder()
+                .query(QueryBuilders.termQuery("author.keyword", "王五")).sort("salary").sort("_id").size(1)
+                .searchAfter(last.getSortValues())), RequestOptions.DEFAULT);
+        assertEquals("5", search.getHits().getHits()[0].getId());
+
+        AnalyzeResponse analyze = client.indices().analyze(AnalyzeRequest.withGlobalAnalyzer("standard", "Hello 世界", "x2"),
+                RequestOptions.DEFAULT);
+        assertEquals(4, analyze.getTokens().size());
+        assertEquals("hello", analyze.getTokens().get(0).getTerm());
+        assertEquals("界", analyze.getTokens().get(2).getTerm());
+        assertEquals(103, analyze.getTokens().get(3).getPosition());
+        assertEquals(9, analyze.getTokens().get(3).getStartOffset());
+    }
+
+    @Test
+    public void updateByQueryWithRegisteredScript() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            cluster.store().put(INDEX, String.valueOf(i), Collections.singletonMap("salary", 1000 * i));
+        }
+        cluster.store().registerScript("ctx._source.salary += params.raise", (ctx, params) -> {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> source = (Map<String, Object>) ctx.get("_source");
+            source.put("salary", ((Number) source.get("salary")).intValue() + ((Number) params.get("raise")).intValue());
+        });
+        UpdateByQueryRequest request = new UpdateByQueryRequest(INDEX);
+        request.setQuery(QueryBuilders.rangeQuery("salary").gte(5000));
+        request.setScript(new Script(ScriptType.INLINE, "painless", "ctx._source.salary += params.raise",
+                Collections.singletonMap("raise", 1)));
+        request.setSlices(2);
+        BulkByScrollResponse response = client.updateByQuery(request, RequestOptions.DEFAULT);
+        assertEquals(5, response.getUpdated());
+        assertEquals(9001, cluster.store().source(INDEX, "9").get("salary"));
+        assertEquals(2, cluster.store().version(INDEX, "9"));
+
+        String task = client.submitUpdateByQueryTask(new UpdateByQueryRequest(INDEX), RequestOptions.DEFAULT).getTask();
+        assertTrue(task.startsWith(RestDispatcher.NODE_ID + ":"));
+    }
+
+    @Test
+    public void injectedRejections() throws IOException {
+        cluster.faults().setItemRejectionRate(0.5);
+        BulkRequest bulk = new BulkRequest();
+        for (int i = 0; i < 200; i++) {
+            bulk.add(new IndexRequest(INDEX).id(String.valueOf(i)).source(XContentType.JSON, "n", i));
+        }
+        BulkResponse response = client.bulk(bulk, RequestOptions.DEFAULT);
+        int rejected = 0;
+        for (BulkItemResponse item : response.getItems()) {
+            if (item.isFailed()) {
+                assertEquals(RestStatus.TOO_MANY_REQUESTS, item.status());
+                rejected++;
+            }
+        }
+        assertEquals(cluster.faults().itemRejections(), rejected);
+        assertEquals(200 - rejected, cluster.store().count(INDEX));
+        assertTrue(rejected > 50 && rejected < 150);
+
+        cluster.faults().reset().setRejectionRate(1);
+        try {
+            client.get(new GetRequest(INDEX, "1"), RequestOptions.DEFAULT);
+            fail();
+        } catch (ElasticsearchStatusException e) {
+            assertEquals(RestStatus.TOO_MANY_REQUESTS, e.status());
+        }
+    }
+
+    @Test
+    public void failsOverStoppedAndHungNodes() throws IOException {
+        cluster.store().put(INDEX, "1", Collections.singletonMap("a", 1));
+        cluster.node(0).stop();
+        for (int i = 0; i < 6; i++) {
+            assertTrue(client.exists(new GetRequest(INDEX, "1"), RequestOptions.DEFAULT));
+        }
+        assertEquals(0, cluster.node(0).requests());
+        cluster.node(0).start();
+        assertTrue(cluster.node(0).isRunning());
+
+        cluster.node(1).hang();
+        try (RestHighLevelClient impatient = new RestHighLevelClient(RestClient.builder(cluster.node(1).host())
+                .setRequestConfigCallback(config -> config.setSocketTimeout(200)))) {
+            impatient.get(new GetRequest(INDEX, "1"), RequestOptions.DEFAULT);
+            fail();
+        } catch (ElasticsearchException e) {
+            assertTrue(e.getCause().getCause() instanceof SocketTimeoutException);
+        } finally {
+            cluster.node(1).resume();
+        }
+    }
+
+    @Test
+    public void latencyDoesNotHoldHandlerThreads() throws Exception {
+        cluster.close();
+        client.close();
+        int concurrency = 1000;
+        cluster = StubCluster.builder().setThreads(2).build();
+        client = new RestHighLevelClient(RestClient.builder(cluster.hosts())
+                .setHttpClientConfigCallback(http -> http.setMaxConnTotal(concurrency).setMaxConnPerRoute(concurrency)));
+        cluster.store().put(INDEX, "1", Collections.singletonMap("a", 1));
+        cluster.faults().setLatency(TimeValue.timeValueMillis(500));
+
+        CountDownLatch done = new CountDownLatch(concurrency);
+        AtomicInteger found = new AtomicInteger();
+        long start = System.nanoTime();
+        for (int i = 0; i < concurrency; i++) {
+            client.getAsync(new GetRequest(INDEX, "1"), RequestOptions.DEFAULT, ActionListener.wrap(r -> {
+                if (r.isExists()) {
+                    found.incrementAndGet();
+                }
+                done.countDown();
+            }, e -> done.countDown()));
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals(concurrency, found.get());
+        // 两个处理线程串行等待的话需要 250 秒
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 15);
+    }
+
+    @Test
+    public void exposesRoutingTableAndNodes() throws IOException {
+        client.indices().create(new CreateIndexRequest(INDEX).settings(Settings.builder().put("index.number_of_shards", 3)),
+                RequestOptions.DEFAULT);
+        Map<String, Object> state = entityAsMap(client.getLowLevelClient().performRequest(
+                new Request("GET", "/_cluster/state/metadata,routing_table/" + INDEX)));
+        Map<String, Object> shards = XContentMapValues.nodeMapValue(
+                XContentMapValues.extractValue("routing_table.indices." + INDEX + ".shards", state), "shards");
+        assertEquals(3, shards.size());
+        Map<String, Object> nodes = XContentMapValues.nodeMapValue(entityAsMap(client.getLowLevelClient().performRequest(
+                new Request("GET", "/_nodes/http"))).get("nodes"), "nodes");
+        assertEquals(3, nodes.size());
+        assertEquals(cluster.node(1).host().toHostString(),
+                XContentMapValues.extractValue(cluster.node(1).id() + ".http.publish_address", nodes));
+
+        // 每个条目按 _id 落到一个分片，只有发给主分片所在节点的条目不需要转发
+        BulkRequest bulk = new BulkRequest();
+        for (int i = 0; i < 30; i++) {
+            bulk.add(new IndexRequest(INDEX).id(String.valueOf(i)).source(XContentType.JSON, "n", i));
+        }
+        client.bulk(bulk, RequestOptions.DEFAULT);
+        long forwarded = cluster.nodes().stream().mapToLong(StubCluster.Node::forwardedBulkItems).sum();
+        assertTrue(forwarded > 0 && forwarded < 30);
+    }
+
+
+    @Test
+    public void slicesSearchUnderPointInTime() throws IOException {
+        BulkRequest bulk = new BulkRequest().setRefreshPolicy("true");
+        for (int i = 0; i < 50; i++) {
+            bulk.add(new IndexRequest(INDEX).id(String.valueOf(i)).source(XContentType.JSON, "n", i));
+        }
+        client.bulk(bulk, RequestOptions.DEFAULT);
+        String pitId = client.openPointInTime(new OpenPointInTimeRequest(INDEX).keepAlive(TimeValue.timeValueMinutes(1)),
+                RequestOptions.DEFAULT).getPointInTimeId();
+        Set<String> ids = new HashSet<>();
+        List<String> latest = new ArrayList<>();
+        for (int slice = 0; slice < 3; slice++) {
+            Object[] after = null;
+            String current = pitId;
+            while (true) {
+                SearchSourceBuilder source = new SearchSourceBuilder().size(7).fetchSource(false)
+                        .pointInTimeBuilder(new PointInTimeBuilder(current))
+                        .slice(new SliceBuilder(slice, 3))
+                        .sort(SortBuilders.fieldSort("_shard_doc"));
+                if (after != null) {
+                    source.searchAfter(after);
+                }
+                SearchResponse response = client.search(new SearchRequest().source(source), RequestOptions.DEFAULT);
+                // 每次搜索返回由请求中的 id 派生的新 id
+                assertTrue(response.pointInTimeId().startsWith(current + "."));
+                current = response.pointInTimeId();
+                SearchHit[] hits = response.getHits().getHits();
+                for (SearchHit hit : hits) {
+                    assertTrue(ids.add(hit.getId()));
+                }
+                if (hits.length < 7) {
+                    break;
+                }
+                after = hits[hits.length - 1].getSortValues();
+            }
+            latest.add(current);
+        }
+        assertEquals(50, ids.size());
+        // 只关闭最初的 id 时派生出的 id 仍然打开
+        assertTrue(client.closePointInTime(new ClosePointInTimeRequest(pitId), RequestOptions.DEFAULT).isSucceeded());
+        assertTrue(cluster.openPointInTimes() > 0);
+        for (String id : latest) {
+            assertTrue(client.closePointInTime(new ClosePointInTimeRequest(id), RequestOptions.DEFAULT).isSucceeded());
+        }
+        assertEquals(0, cluster.openPointInTimes());
+    }
+
+
+    @Test
+    public void reindexesWithExternalVersionsAndSwapsAlias() throws IOException {
+        client.indices().create(new CreateIndexRequest("v1").alias(new Alias(INDEX)),
+                RequestOptions.DEFAULT);
+        // 只指向一个索引的别名可以写入
+        IndexResponse viaAlias = client.index(new IndexRequest(INDEX).id("1").source(XContentType.JSON, "n", 1), RequestOptions.DEFAULT);
+        assertEquals("v1", viaAlias.getIndex());
+        client.index(new IndexRequest(INDEX).id("1").source(XContentType.JSON, "n", 2), RequestOptions.DEFAULT);
+        client.index(new IndexRequest(INDEX).id("2").source(XContentType.JSON, "n", 1), RequestOptions.DEFAULT);
+
+        // 目标索引中已有更新的版本，reindex 不覆盖
+        client.index(new IndexRequest("v2").id("1").source(XContentType.JSON, "n", 3)
+                .versionType(VersionType.EXTERNAL).version(3), RequestOptions.DEFAULT);
+        BulkByScrollResponse reindexed = client.reindex(new ReindexRequest().setSourceIndices(INDEX).setDestIndex("v2")
+                .setDestVersionType(VersionType.EXTERNAL).setAbortOnVersionConflict(false), RequestOptions.DEFAULT);
+        assertEquals(1, reindexed.getCreated());
+        assertEquals(1, reindexed.getVersionConflicts());
+        assertEquals(3, cluster.store().source("v2", "1").get("n"));
+        assertEquals(3, cluster.store().version("v2", "1"));
+
+        // 外部版本号的删除保留版本，旧版本不能再写入
+        client.delete(new DeleteRequest("v2", "2").versionType(VersionType.EXTERNAL).version(5), RequestOptions.DEFAULT);
+        try {
+            client.index(new IndexRequest("v2").id("2").source(XContentType.JSON, "n", 0)
+                    .versionType(VersionType.EXTERNAL).version(4), RequestOptions.DEFAULT);
+            fail();
+        } catch (ElasticsearchStatusException e) {
+            assertEquals(RestStatus.CONFLICT, e.status());
+        }
+
+        client.indices().updateAliases(new IndicesAliasesRequest()
+                .addAliasAction(IndicesAliasesRequest.AliasActions.remove().index("v1").alias(INDEX))
+                .addAliasAction(IndicesAliasesRequest.AliasActions.add().index("v2").alias(INDEX)), RequestOptions.DEFAULT);
+        GetAliasesResponse aliases = client.indices().getAlias(new GetAliasesRequest(INDEX), RequestOptions.DEFAULT);
+        assertEquals(Collections.singleton("v2"), aliases.getAliases().keySet());
+        assertEquals(3, client.get(new GetRequest(INDEX, "1"), RequestOptions.DEFAULT).getSourceAsMap().get("n"));
+        assertEquals(RestStatus.NOT_FOUND, client.indices().getAlias(new GetAliasesRequest("missing"), RequestOptions.DEFAULT).status());
+    }
+
+    private static Map<String, Object> entityAsMap(Response response) throws IOException {
+        return XContentHelper.convertToMap(XContentType.JSON.xContent(), response.getEntity().getContent(), false);
+    }
+}